@@ -1,11 +1,15 @@
 const express = require('express')
 const app = express()
 const bodyParser = require('body-parser')
+// Logging every request slows down load tests
+const logRequests = process.env.LOG_REQUESTS !== 'false'
 
 app.use(bodyParser.text({type: '*/*'}))
 
 app.post('/', function (req, res, body) {
-   console.log("Request received")
+   if (logRequests) {
+      console.log("Request received")
+   }
    res.set('Content-Type', 'text/xml')
    const response = req.body.replace("listMethods/", "listMethodsResponse/")
    res.send(response)
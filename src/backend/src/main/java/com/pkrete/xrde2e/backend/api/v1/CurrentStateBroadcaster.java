@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.api.v1;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.storage.StorageClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class pushes changes of the current state to Server-Sent Events
+ * subscribers. A single thread polls the current state, which is served from
+ * the in-memory current state cache, compares it to the previously seen
+ * state and sends the changed entries to all the subscribers. This way the
+ * number of subscribers doesn't affect the load on the database. The changes
+ * found by a single poll are serialized once and sent to every subscriber as
+ * a single event, so the number of queued events doesn't depend on the
+ * number of monitored security servers.
+ *
+ * The broadcaster thread doesn't write to the subscribers. Each subscriber
+ * has a bounded queue of its own that is drained by a sender thread, and at
+ * most one sender thread drains the queue of a subscriber at a time, so a
+ * slow client doesn't delay the other clients. A subscriber whose queue is
+ * full is dropped, and the client gets the whole state in a new snapshot
+ * when it reconnects.
+ *
+ * A new subscriber first receives a "snapshot" event containing the whole
+ * current state and then a "change" event containing the changed entries
+ * each time the state changes. If the subscriber only wants status
+ * transitions, change events contain only the entries whose status has
+ * changed or whose security server is new.
+ *
+ * @author Petteri Kivimäki
+ */
+@Service
+public class CurrentStateBroadcaster {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CurrentStateBroadcaster.class);
+    private static final String EVENT_SNAPSHOT = "snapshot";
+    private static final String EVENT_CHANGE = "change";
+    private static final String HEARTBEAT = "keep-alive";
+    @Autowired
+    private StorageClient storageClient;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${xrde2e.sse.pollInterval:1000}")
+    private long pollInterval;
+    @Value("${xrde2e.sse.heartbeatInterval:15000}")
+    private long heartbeatInterval;
+    @Value("${xrde2e.sse.timeout:1800000}")
+    private long timeout;
+    @Value("${xrde2e.sse.maxClients:100}")
+    private int maxClients;
+    @Value("${xrde2e.sse.queueSize:100}")
+    private int queueSize;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Latest state by security server, accessed by the executor thread only
+    private final Map<String, E2EEvent> state = new HashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "current-state-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Threads are created on demand, at most one per subscriber
+    private final ExecutorService sender = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "current-state-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts polling the current state when the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        this.executor.scheduleWithFixedDelay(this::poll, this.pollInterval, this.pollInterval, TimeUnit.MILLISECONDS);
+        this.executor.scheduleWithFixedDelay(this::heartbeat, this.heartbeatInterval, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Current state changes are polled every {} ms.", this.pollInterval);
+    }
+
+    /**
+     * Completes all the subscriptions when the application is shut down.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void stop() {
+        this.executor.shutdownNow();
+        this.sender.shutdownNow();
+        for (Subscriber subscriber : this.subscribers) {
+            subscriber.emitter.complete();
+        }
+        this.subscribers.clear();
+    }
+
+    /**
+     * Creates a new subscription. The snapshot of the current state is sent
+     * by the broadcaster thread before the subscriber starts receiving
+     * changes, so no change is lost or sent before the snapshot.
+     *
+     * @param transitionsOnly if true, only status transitions are sent
+     * @return emitter that sends the events to the client
+     */
+    public SseEmitter subscribe(boolean transitionsOnly) {
+        if (this.subscribers.size() >= this.maxClients) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(this.timeout);
+        Subscriber subscriber = new Subscriber(emitter, transitionsOnly, this.queueSize);
+        emitter.onCompletion(() -> this.subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(ex -> this.subscribers.remove(subscriber));
+        this.executor.execute(() -> {
+            try {
+                if (this.subscribers.isEmpty()) {
+                    // State isn't polled without subscribers
+                    this.update();
+                }
+                if (this.send(subscriber, SseEmitter.event().name(EVENT_SNAPSHOT)
+                        .data(this.toJson(new ArrayList<>(this.state.values()))))) {
+                    this.addSubscriber(subscriber);
+                }
+            } catch (Exception ex) {
+                LOGGER.debug("Sending snapshot failed: {}", ex.getMessage());
+                emitter.completeWithError(ex);
+            }
+        });
+        return emitter;
+    }
+
+    private void poll() {
+        if (this.subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            this.broadcast(this.update());
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Adds the given subscriber to the subscribers that receive the changes.
+     *
+     * @param subscriber subscriber
+     */
+    void addSubscriber(Subscriber subscriber) {
+        this.subscribers.add(subscriber);
+        LOGGER.debug("New subscriber, {} subscribers.", this.subscribers.size());
+    }
+
+    /**
+     * Sends the given changes to all the subscribers as a single change
+     * event. Subscribers that only want status transitions receive only the
+     * transitions, and nothing if there are none.
+     *
+     * @param changes changes found by a single poll
+     * @throws IOException if serializing the changes fails
+     */
+    protected void broadcast(List<Change> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<E2EEvent> events = new ArrayList<>(changes.size());
+        List<E2EEvent> transitions = new ArrayList<>();
+        for (Change change : changes) {
+            events.add(change.event);
+            if (change.transition) {
+                transitions.add(change.event);
+            }
+        }
+        String eventsJson = this.toJson(events);
+        String transitionsJson = transitions.isEmpty() ? null : this.toJson(transitions);
+        for (Subscriber subscriber : this.subscribers) {
+            String json = subscriber.transitionsOnly ? transitionsJson : eventsJson;
+            if (json != null) {
+                this.send(subscriber, SseEmitter.event().name(EVENT_CHANGE).data(json));
+            }
+        }
+    }
+
+    /**
+     * Serializes the given events to a JSON array.
+     *
+     * @param events events to be serialized
+     * @return JSON array
+     * @throws IOException if serializing the events fails
+     */
+    protected String toJson(List<E2EEvent> events) throws IOException {
+        return this.objectMapper.writeValueAsString(events);
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : this.subscribers) {
+            this.send(subscriber, SseEmitter.event().comment(HEARTBEAT));
+        }
+    }
+
+    /**
+     * Puts the given event in the queue of the given subscriber and starts
+     * draining the queue if it's not being drained already. If the queue is
+     * full, the subscriber is dropped.
+     *
+     * @param subscriber subscriber
+     * @param event event to be sent
+     * @return true if the event was queued, otherwise false
+     */
+    protected boolean send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (!subscriber.queue.offer(event)) {
+            LOGGER.info("Subscriber is too slow, {} events queued. Removing subscriber.", subscriber.queue.size());
+            this.subscribers.remove(subscriber);
+            subscriber.queue.clear();
+            subscriber.emitter.complete();
+            return false;
+        }
+        if (subscriber.draining.compareAndSet(false, true)) {
+            this.sender.execute(() -> this.drain(subscriber));
+        }
+        return true;
+    }
+
+    private void drain(Subscriber subscriber) {
+        do {
+            SseEmitter.SseEventBuilder event;
+            while ((event = subscriber.queue.poll()) != null) {
+                try {
+                    subscriber.emitter.send(event);
+                } catch (IOException | IllegalStateException ex) {
+                    // Client has disconnected
+                    LOGGER.debug("Removing subscriber: {}", ex.getMessage());
+                    this.subscribers.remove(subscriber);
+                    subscriber.queue.clear();
+                    subscriber.emitter.completeWithError(ex);
+                }
+            }
+            subscriber.draining.set(false);
+            // An event may have been queued after the queue was found empty
+        } while (!subscriber.queue.isEmpty() && subscriber.draining.compareAndSet(false, true));
+    }
+
+    private List<Change> update() {
+        return update(this.state, this.storageClient.getAllCurrent());
+    }
+
+    /**
+     * Updates the given state with the given current state and returns the
+     * entries that have changed. An entry has changed if its request id is
+     * different from the previously seen entry of the same security server.
+     *
+     * @param state previously seen state by security server, updated
+     * @param current current state
+     * @return list of changes
+     */
+    protected static List<Change> update(Map<String, E2EEvent> state, List<E2EEvent> current) {
+        List<Change> changes = new ArrayList<>();
+        for (E2EEvent event : current) {
+            E2EEvent previous = state.put(event.getSecurityServer(), event);
+            if (previous == null || !Objects.equals(previous.getRequestId(), event.getRequestId())) {
+                changes.add(new Change(event, previous == null || previous.isStatus() != event.isStatus()));
+            }
+        }
+        if (state.size() > current.size()) {
+            // Remove security servers that are no longer monitored
+            Set<String> monitored = new HashSet<>();
+            for (E2EEvent event : current) {
+                monitored.add(event.getSecurityServer());
+            }
+            state.keySet().retainAll(monitored);
+        }
+        return changes;
+    }
+
+    /**
+     * Changed entry of the current state.
+     */
+    protected static class Change {
+
+        private final E2EEvent event;
+        private final boolean transition;
+
+        Change(E2EEvent event, boolean transition) {
+            this.event = event;
+            this.transition = transition;
+        }
+
+        E2EEvent getEvent() {
+            return event;
+        }
+
+        boolean isTransition() {
+            return transition;
+        }
+    }
+
+    /**
+     * Subscriber of the changes and the queue of the events not sent to it
+     * yet.
+     */
+    protected static class Subscriber {
+
+        private final SseEmitter emitter;
+        private final boolean transitionsOnly;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, boolean transitionsOnly, int queueSize) {
+            this.emitter = emitter;
+            this.transitionsOnly = transitionsOnly;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        }
+    }
+}
@@ -24,14 +24,37 @@
 package com.pkrete.xrde2e.backend.api.v1;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
+import com.pkrete.xrde2e.common.storage.HistoryQuery;
+import com.pkrete.xrde2e.common.storage.RollupTier;
 import com.pkrete.xrde2e.common.storage.StorageClient;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
 
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
@@ -43,21 +66,331 @@ import static org.springframework.web.bind.annotation.RequestMethod.GET;
 @RestController
 public class E2EEventsController {
 
+    private static final long DEFAULT_RANGE = 24L * 60 * 60 * 1000;
+    private static final long MAX_BUCKETS = 10000;
+    private static final String FORMAT_JSON = "json";
+    private static final String FORMAT_NDJSON = "ndjson";
+    private static final int NEW_LINE = '\n';
+    private static final String HEADER_NEXT_BEFORE = "X-Next-Before";
+    private static final String HEADER_NEXT_AFTER = "X-Next-After";
+    private static final String HEADER_NEXT_SINCE = "X-Next-Since";
+    private static final String HEADER_TOTAL_COUNT = "X-Total-Count";
+    private static final String ETAG_ALGORITHM = "SHA-256";
+    private static final int ETAG_LENGTH = 16;
+
     @Autowired
     private StorageClient storageClient;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private CurrentStateBroadcaster broadcaster;
 
     @RequestMapping("/")
     public String index() {
         return "";
     }
 
+    /**
+     * Returns the current state of all the monitored security servers. The
+     * response has an ETag that changes whenever the state changes, so
+     * clients can poll using If-None-Match and get 304 Not Modified until
+     * something has changed. If since is given, only the security servers
+     * whose state was written after it are returned. The X-Next-Since
+     * header holds the value to be used as since in the next request, i.e.
+     * the write time of the newest entry, so the entries already returned
+     * are not returned again.
+     *
+     * A delta response doesn't tell which security servers have been
+     * removed from the current state. The X-Total-Count header holds the
+     * number of all the security servers, and if it's less than the number
+     * of entries the client holds, the client must fetch the whole state
+     * without since.
+     *
+     * @param since return only the entries written after this, in
+     * milliseconds since the epoch
+     * @return list of events containing the latest state of the security
+     * servers
+     */
     @RequestMapping(method = GET, path = "/api/v1/current", produces = "application/json")
-    public List<E2EEvent> current() {
-        return this.storageClient.getAllCurrent();
+    public ResponseEntity<List<E2EEvent>> current(@RequestParam(value = "since", required = false) Long since) {
+        List<E2EEvent> events = this.storageClient.getAllCurrent();
+        long latest = Math.max(since == null ? 0 : since, getLatest(events));
+        List<E2EEvent> results = since == null ? events : getWrittenAfter(events, since);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(computeETag(events, since))
+                .cacheControl(CacheControl.noCache())
+                .header(HEADER_TOTAL_COUNT, Integer.toString(events.size()));
+        if (latest > 0) {
+            response.header(HEADER_NEXT_SINCE, Long.toString(latest));
+        }
+        return response.body(results);
+    }
+
+    /**
+     * Returns the write time of the newest of the given events.
+     *
+     * @param events current state
+     * @return write time in milliseconds since the epoch, or zero if none of
+     * the events has a write time
+     */
+    protected static long getLatest(List<E2EEvent> events) {
+        long latest = 0;
+        for (E2EEvent event : events) {
+            if (event.getCreatedDate() != null) {
+                latest = Math.max(latest, event.getCreatedDate().getTime());
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the given events that were written after the given time.
+     *
+     * @param events current state
+     * @param since time in milliseconds since the epoch, exclusive
+     * @return events written after the given time
+     */
+    protected static List<E2EEvent> getWrittenAfter(List<E2EEvent> events, long since) {
+        List<E2EEvent> results = new ArrayList<>();
+        for (E2EEvent event : events) {
+            Date created = event.getCreatedDate();
+            if (created != null && created.getTime() > since) {
+                results.add(event);
+            }
+        }
+        return results;
     }
 
+    /**
+     * Opens a Server-Sent Events stream of the current state. The stream
+     * starts with a snapshot event containing the whole current state,
+     * followed by a change event for each new state written to the database.
+     * If transitions is true, change events are sent only when the status of
+     * a security server changes.
+     *
+     * @param transitions if true, only status transitions are sent
+     * @return emitter that sends the events
+     */
+    @RequestMapping(method = GET, path = "/api/v1/current/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter currentStream(@RequestParam(value = "transitions", defaultValue = "false") boolean transitions) {
+        return this.broadcaster.subscribe(transitions);
+    }
+
+    /**
+     * Computes an ETag for the given current state. Every event has a unique
+     * request id, so the ids identify the state. The since parameter is part
+     * of the ETag, because it defines which entries are returned.
+     *
+     * @param events current state
+     * @param since value of the since parameter, may be null
+     * @return quoted ETag
+     */
+    protected static String computeETag(List<E2EEvent> events, Long since) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(ETAG_ALGORITHM);
+            digest.update(String.valueOf(since).getBytes(StandardCharsets.UTF_8));
+            for (E2EEvent event : events) {
+                digest.update((byte) 0);
+                digest.update(String.valueOf(event.getRequestId()).getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] hash = Arrays.copyOf(digest.digest(), ETAG_LENGTH);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is supported by every Java platform
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the events of the given security server from the newest to the
+     * oldest. The events can be filtered by a time range and paged using
+     * keyset pagination. All the timestamps are given as milliseconds since
+     * the epoch. The next older page is fetched using the value of the
+     * X-Next-Before header as before, and the next newer page using the
+     * value of the X-Next-After header as after.
+     *
+     * @param securityServer security server identifier
+     * @param limit how many events is returned, 0 returns all the events
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param before return only events older than this, exclusive
+     * @param after return only events newer than this, exclusive
+     * @return list of events and the keyset positions of the next pages
+     */
     @RequestMapping(method = GET, value = "/api/v1/history/{securityServer:.+}", produces = "application/json")
-    public List<E2EEvent> history(@PathVariable String securityServer, @RequestParam(value = "limit", defaultValue = "0") int limit) {
-        return this.storageClient.getHistorical(securityServer, limit);
+    public ResponseEntity<List<E2EEvent>> history(@PathVariable String securityServer,
+            @RequestParam(value = "limit", defaultValue = "0") int limit,
+            @RequestParam(value = "from", required = false) Long from,
+            @RequestParam(value = "to", required = false) Long to,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "after", required = false) Long after) {
+        HistoryQuery query = buildHistoryQuery(securityServer, limit, from, to, before, after);
+        List<E2EEvent> events = this.storageClient.getHistorical(query);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!events.isEmpty()) {
+            Date oldest = events.get(events.size() - 1).getBegin();
+            Date newest = events.get(0).getBegin();
+            if (oldest != null && newest != null) {
+                response.header(HEADER_NEXT_BEFORE, Long.toString(oldest.getTime()));
+                response.header(HEADER_NEXT_AFTER, Long.toString(newest.getTime()));
+            }
+        }
+        return response.body(events);
+    }
+
+    /**
+     * Streams the events of the given security server straight from the
+     * database cursor to the response, so the whole history is never held
+     * in memory. The events are serialized with the same object mapper as
+     * the other endpoints. The format is either a JSON array (json) or one
+     * JSON object per line (ndjson). The time range and keyset parameters
+     * work like in the history endpoint, except that when only after is
+     * given the events are streamed from the oldest to the newest.
+     *
+     * @param securityServer security server identifier
+     * @param limit how many events is returned, 0 returns all the events
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param before return only events older than this, exclusive
+     * @param after return only events newer than this, exclusive
+     * @param format json or ndjson
+     * @return response body that writes the events
+     */
+    @RequestMapping(method = GET, value = "/api/v1/history/{securityServer:.+}/stream",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> historyStream(@PathVariable String securityServer,
+            @RequestParam(value = "limit", defaultValue = "0") int limit,
+            @RequestParam(value = "from", required = false) Long from,
+            @RequestParam(value = "to", required = false) Long to,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestParam(value = "format", defaultValue = FORMAT_JSON) String format) {
+        HistoryQuery query = buildHistoryQuery(securityServer, limit, from, to, before, after);
+        ObjectWriter writer = this.objectMapper.writerFor(E2EEvent.class);
+        StreamingResponseBody body;
+        MediaType contentType;
+        if (FORMAT_JSON.equalsIgnoreCase(format)) {
+            contentType = MediaType.APPLICATION_JSON;
+            body = out -> {
+                try (SequenceWriter array = writer.writeValuesAsArray(out)) {
+                    this.stream(query, event -> array.write(event));
+                }
+            };
+        } else if (FORMAT_NDJSON.equalsIgnoreCase(format)) {
+            contentType = MediaType.APPLICATION_NDJSON;
+            body = out -> this.stream(query, event -> writeLine(out, writer, event));
+        } else {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format must be " + FORMAT_JSON + " or " + FORMAT_NDJSON);
+        }
+        return ResponseEntity.ok().contentType(contentType).body(body);
+    }
+
+    private static HistoryQuery buildHistoryQuery(String securityServer, int limit, Long from, Long to, Long before, Long after) {
+        if (limit < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must not be negative");
+        }
+        if (from != null && to != null && from >= to) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        return new HistoryQuery.HistoryQueryBuilder()
+                .securityServer(securityServer)
+                .limit(limit)
+                .from(toDate(from))
+                .to(toDate(to))
+                .before(toDate(before))
+                .after(toDate(after))
+                .build();
+    }
+
+    private static Date toDate(Long millis) {
+        return millis == null ? null : new Date(millis);
+    }
+
+    private void stream(HistoryQuery query, EventWriter eventWriter) throws IOException {
+        try {
+            this.storageClient.streamHistorical(query, event -> {
+                try {
+                    eventWriter.write(event);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static void writeLine(OutputStream out, ObjectWriter writer, E2EEvent event) throws IOException {
+        out.write(writer.writeValueAsBytes(event));
+        out.write(NEW_LINE);
+    }
+
+    /**
+     * Writes a single event to the response.
+     */
+    @FunctionalInterface
+    private interface EventWriter {
+
+        void write(E2EEvent event) throws IOException;
+    }
+
+    /**
+     * Returns aggregated statistics of the events of the given security
+     * server. The time range is given as milliseconds since the epoch and it
+     * defaults to the last 24 hours. The bucket size is given in
+     * milliseconds and it defaults to one hour.
+     *
+     * @param securityServer security server identifier
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param bucket size of a single bucket
+     * @return list of aggregates, one for each bucket that contains events
+     */
+    @RequestMapping(method = GET, value = "/api/v1/history/{securityServer:.+}/aggregate", produces = "application/json")
+    public List<E2EEventAggregate> aggregate(@PathVariable String securityServer,
+            @RequestParam(value = "from", required = false) Long from,
+            @RequestParam(value = "to", required = false) Long to,
+            @RequestParam(value = "bucket", defaultValue = "3600000") long bucket) {
+        long end = to == null ? System.currentTimeMillis() : to;
+        long start = from == null ? end - DEFAULT_RANGE : from;
+        if (start >= end) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        if (bucket <= 0 || (end - start) / bucket > MAX_BUCKETS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "bucket must be positive and the range must not contain more than "
+                    + MAX_BUCKETS + " buckets");
+        }
+        return this.storageClient.getHistoricalAggregate(securityServer, new Date(start), new Date(end), bucket);
+    }
+
+    /**
+     * Returns the rollups of the given tier of the given security server.
+     * Unlike the aggregates, the rollups are available after the raw events
+     * have been removed. The time range is given as milliseconds since the
+     * epoch and it defaults to the last 24 hours.
+     *
+     * @param securityServer security server identifier
+     * @param tier rollup tier: minute, hour or day
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @return list of rollups, one for each bucket that contains events
+     */
+    @RequestMapping(method = GET, value = "/api/v1/history/{securityServer:.+}/rollup/{tier}", produces = "application/json")
+    public List<E2EEventAggregate> rollup(@PathVariable String securityServer, @PathVariable String tier,
+            @RequestParam(value = "from", required = false) Long from,
+            @RequestParam(value = "to", required = false) Long to) {
+        RollupTier rollupTier = RollupTier.fromString(tier);
+        if (rollupTier == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "tier must be one of minute, hour or day");
+        }
+        long end = to == null ? System.currentTimeMillis() : to;
+        long start = from == null ? end - DEFAULT_RANGE : from;
+        if (start >= end) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        if ((end - start) / rollupTier.getBucketSize() > MAX_BUCKETS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "the range must not contain more than " + MAX_BUCKETS + " buckets");
+        }
+        return this.storageClient.getRollups(securityServer, rollupTier, new Date(start), new Date(end));
     }
 }
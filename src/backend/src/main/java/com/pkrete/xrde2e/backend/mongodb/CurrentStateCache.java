@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.mongodb;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.util.Constants;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * This class keeps the current state of all the monitored security servers
+ * in memory, so that the current state can be returned without a database
+ * round trip. The cache is kept up to date using a MongoDB change stream on
+ * the current state collection. Change streams are available only on replica
+ * sets and sharded clusters, so if the server doesn't support them, the
+ * cache falls back to reloading the whole collection when the cached state
+ * is older than the given time to live.
+ *
+ * Changes only update the map of the cached entries. The ordered list that
+ * getAll returns is rebuilt on the next call after a change, so a burst of
+ * changes is sorted once instead of once per change.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CurrentStateCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CurrentStateCache.class);
+    // $changeStream is only supported on replica sets
+    private static final int ERROR_NOT_REPLICA_SET = 40573;
+    // Unrecognized pipeline stage name, MongoDB older than 3.6
+    private static final int ERROR_UNRECOGNIZED_STAGE = 40324;
+    private static final String FIELD_ID = "_id";
+    private static final Comparator<E2EEvent> ORDER = Comparator.comparing(E2EEvent::getSecurityServer,
+            Comparator.nullsFirst(Comparator.naturalOrder()));
+    private final MongoCollection<Document> table;
+    private final Function<Document, E2EEvent> converter;
+    private final long ttl;
+    private final long retryInterval;
+    private final Map<Object, E2EEvent> events = new HashMap<>();
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile List<E2EEvent> snapshot;
+    private volatile boolean dirty;
+    private volatile long loaded;
+    private volatile boolean watching;
+    private volatile boolean running;
+    private volatile MongoCursor<ChangeStreamDocument<Document>> cursor;
+    private Thread watcher;
+
+    /**
+     * Constructs and initializes a new CurrentStateCache object.
+     *
+     * @param table current state collection
+     * @param converter function that converts a document to an E2EEvent
+     * @param ttl how long the cached state is used before it's reloaded when
+     * change streams are not available, in milliseconds
+     * @param retryInterval how long to wait before reopening a failed change
+     * stream, in milliseconds
+     */
+    public CurrentStateCache(MongoCollection<Document> table, Function<Document, E2EEvent> converter, long ttl, long retryInterval) {
+        this.table = table;
+        this.converter = converter;
+        this.ttl = ttl;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Starts a daemon thread that watches the current state collection. If
+     * useChangeStream is false, the cache is only refreshed when the cached
+     * state has expired.
+     *
+     * @param useChangeStream if true, the cache is updated from a change
+     * stream
+     */
+    public synchronized void start(boolean useChangeStream) {
+        if (!useChangeStream) {
+            LOGGER.info("Current state cache is refreshed every {} ms.", this.ttl);
+            return;
+        }
+        this.running = true;
+        this.watcher = new Thread(this::watch, "current-state-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * Stops watching the current state collection.
+     */
+    public synchronized void stop() {
+        this.running = false;
+        this.watching = false;
+        MongoCursor<ChangeStreamDocument<Document>> current = this.cursor;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (Exception ex) {
+                LOGGER.debug(ex.getMessage(), ex);
+            }
+        }
+        if (this.watcher != null) {
+            this.watcher.interrupt();
+        }
+    }
+
+    /**
+     * Returns true if the cache is currently updated from a change stream.
+     *
+     * @return true if the change stream is open, otherwise false
+     */
+    public boolean isWatching() {
+        return this.watching;
+    }
+
+    /**
+     * Returns the current state of all the monitored security servers ordered
+     * by security server. If the cache isn't updated from a change stream and
+     * the cached state has expired, it's reloaded first. Only one thread
+     * reloads the state at a time, the other threads get the previous state
+     * meanwhile. If reloading fails, the previous state is returned.
+     *
+     * @return unmodifiable list of E2EEvents
+     */
+    public List<E2EEvent> getAll() {
+        if (this.dirty) {
+            synchronized (this.events) {
+                if (this.dirty) {
+                    this.publish();
+                }
+            }
+        }
+        List<E2EEvent> current = this.snapshot;
+        if (current != null && (this.watching || System.currentTimeMillis() - this.loaded < this.ttl)) {
+            return current;
+        }
+        if (current == null) {
+            this.reloadLock.lock();
+        } else if (!this.reloadLock.tryLock()) {
+            return current;
+        }
+        try {
+            if (this.snapshot == current) {
+                this.reload();
+            }
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        } finally {
+            this.reloadLock.unlock();
+        }
+        return this.snapshot == null ? Collections.emptyList() : this.snapshot;
+    }
+
+    private void watch() {
+        LOGGER.info("Start watching \"{}\" collection for changes.", Constants.TABLE_CURRENT_STATE);
+        while (this.running) {
+            try {
+                // Open the stream before loading, so no change is missed
+                this.cursor = this.table.watch().fullDocument(FullDocument.UPDATE_LOOKUP).iterator();
+                try {
+                    this.reload();
+                    this.watching = true;
+                    while (this.running && this.cursor.hasNext()) {
+                        this.apply(this.cursor.next());
+                    }
+                } finally {
+                    this.watching = false;
+                    this.cursor.close();
+                }
+            } catch (MongoCommandException ex) {
+                if (ex.getErrorCode() == ERROR_NOT_REPLICA_SET || ex.getErrorCode() == ERROR_UNRECOGNIZED_STAGE) {
+                    LOGGER.info("Change streams are not supported by the MongoDB server. Current state cache is refreshed every {} ms.", this.ttl);
+                    this.running = false;
+                    return;
+                }
+                this.waitBeforeRetry(ex);
+            } catch (Exception ex) {
+                this.waitBeforeRetry(ex);
+            }
+        }
+        LOGGER.info("Stop watching \"{}\" collection for changes.", Constants.TABLE_CURRENT_STATE);
+    }
+
+    private void waitBeforeRetry(Exception ex) {
+        if (!this.running) {
+            return;
+        }
+        LOGGER.warn("Change stream failed, retrying in {} ms: {}", this.retryInterval, ex.getMessage());
+        try {
+            Thread.sleep(this.retryInterval);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            this.running = false;
+        }
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        switch (change.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                // The document may have been deleted before it was looked up
+                if (change.getFullDocument() != null) {
+                    this.put(change.getFullDocument());
+                }
+                break;
+            case DELETE:
+                if (!this.remove(toKey(change.getDocumentKey().get(FIELD_ID)))) {
+                    this.reload();
+                }
+                break;
+            default:
+                // Collection dropped or renamed, the stream is closed after
+                // an invalidate event and reopened by the watch loop
+                this.reload();
+                break;
+        }
+    }
+
+    /**
+     * Loads all the documents from the current state collection and replaces
+     * the cached state.
+     */
+    protected void reload() {
+        Map<Object, E2EEvent> results = new HashMap<>();
+        MongoCursor<Document> documents = this.table.find().iterator();
+        try {
+            while (documents.hasNext()) {
+                Document document = documents.next();
+                results.put(document.get(FIELD_ID), this.converter.apply(document));
+            }
+        } finally {
+            documents.close();
+        }
+        synchronized (this.events) {
+            this.events.clear();
+            this.events.putAll(results);
+            this.publish();
+        }
+        this.loaded = System.currentTimeMillis();
+        LOGGER.debug("Loaded {} entries to current state cache.", results.size());
+    }
+
+    /**
+     * Adds the given document to the cache or replaces the cached document
+     * that has the same id.
+     *
+     * @param document current state document
+     */
+    protected void put(Document document) {
+        E2EEvent event = this.converter.apply(document);
+        synchronized (this.events) {
+            this.events.put(document.get(FIELD_ID), event);
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Removes the document with the given id from the cache.
+     *
+     * @param id document id
+     * @return true if the document was found, otherwise false
+     */
+    protected boolean remove(Object id) {
+        synchronized (this.events) {
+            if (this.events.remove(id) == null) {
+                return false;
+            }
+            this.dirty = true;
+            return true;
+        }
+    }
+
+    private void publish() {
+        this.dirty = false;
+        List<E2EEvent> list = new ArrayList<>(this.events.values());
+        list.sort(ORDER);
+        this.snapshot = Collections.unmodifiableList(list);
+    }
+
+    private static Object toKey(BsonValue id) {
+        // Documents read using find have ObjectId ids, change stream keys
+        // are BsonValues
+        if (id != null && id.isObjectId()) {
+            return id.asObjectId().getValue();
+        }
+        return id;
+    }
+}
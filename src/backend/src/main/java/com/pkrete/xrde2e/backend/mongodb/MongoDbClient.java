@@ -24,10 +24,14 @@
 package com.pkrete.xrde2e.backend.mongodb;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
+import com.pkrete.xrde2e.common.storage.HistoricalLayout;
+import com.pkrete.xrde2e.common.storage.HistoryQuery;
+import com.pkrete.xrde2e.common.storage.RollupTier;
 import com.pkrete.xrde2e.common.storage.StorageClient;
 import com.pkrete.xrde2e.common.util.Constants;
 
-import com.mongodb.BasicDBObject;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
@@ -36,32 +40,132 @@ import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * This class implements all the database operations needed by the API layer.
+ * It's used unless another storage is selected by xrde2e.storage.type
+ * property.
  *
  * @author Petteri Kivimäki
  */
 @Service("mongoDbClient")
+@ConditionalOnProperty(name = "xrde2e.storage.type", havingValue = "mongodb", matchIfMissing = true)
 public class MongoDbClient implements StorageClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MongoDbClient.class);
+    private static final int STREAM_BATCH_SIZE = 500;
+    private static final double PERCENTILE_95 = 0.95;
+    private static final String FIELD_ID = "_id";
+    private static final String FIELD_COUNT = "count";
+    private static final String FIELD_SUCCESS_COUNT = "successCount";
+    private static final String FIELD_MIN_DURATION = "minDuration";
+    private static final String FIELD_AVG_DURATION = "avgDuration";
+    private static final String FIELD_MAX_DURATION = "maxDuration";
+    private static final String FIELD_DURATIONS = "durations";
+    private static final String FIELD_DURATION = "duration";
+    private static final String FIELD_DURATION_SUM = "durationSum";
+    private static final String FIELD_BUCKET = "bucket";
     @Autowired
     private MongoClient mongoClient;
+    @Value("${xrde2e.mongodb.createIndexes:true}")
+    private boolean createIndexes;
+    @Value("${xrde2e.mongodb.historicalLayout:documents}")
+    private String historicalLayout;
+    @Value("${xrde2e.cache.current.enabled:true}")
+    private boolean currentCacheEnabled;
+    @Value("${xrde2e.cache.current.changeStream:true}")
+    private boolean currentCacheChangeStream;
+    @Value("${xrde2e.cache.current.ttl:5000}")
+    private long currentCacheTtl;
+    @Value("${xrde2e.cache.current.retryInterval:10000}")
+    private long currentCacheRetryInterval;
+    private volatile CurrentStateCache currentStateCache;
 
     /**
-     * Returns all the current state entries from the database.
+     * Creates the index used by the historical queries when the application
+     * has started. The client creates the same index, so this is needed only
+     * if the backend is started before the client. Creating the index fails
+     * if the database user has only read access, which is why errors are
+     * logged as warnings. In time-series layout the index is created only
+     * if the collection exists, because the client must create it as a
+     * time-series collection.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        if (!this.createIndexes) {
+            LOGGER.info("Index creation is disabled.");
+            return;
+        }
+        try {
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            if (this.isTimeSeries() && !db.listCollectionNames().into(new ArrayList<>()).contains(Constants.TABLE_HISTORICAL_STATE)) {
+                LOGGER.info("Collection \"{}\" doesn't exist yet. Index is created by the client.", Constants.TABLE_HISTORICAL_STATE);
+                return;
+            }
+            MongoCollection<Document> table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
+            String name = table.createIndex(new Document(this.securityServerField(), 1).append(Constants.COLUMN_BEGIN, -1));
+            LOGGER.info("Index \"{}\" is available on \"{}\" collection.", name, Constants.TABLE_HISTORICAL_STATE);
+        } catch (Exception ex) {
+            LOGGER.warn("Creating index on \"{}\" collection failed: {}", Constants.TABLE_HISTORICAL_STATE, ex.getMessage());
+        }
+    }
+
+    /**
+     * Starts the current state cache when the application has started. Until
+     * then, the current state is read from the database.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startCurrentStateCache() {
+        if (!this.currentCacheEnabled) {
+            LOGGER.info("Current state cache is disabled.");
+            return;
+        }
+        MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+        CurrentStateCache cache = new CurrentStateCache(db.getCollection(Constants.TABLE_CURRENT_STATE), this::documentToE2EEvent,
+                this.currentCacheTtl, this.currentCacheRetryInterval);
+        cache.start(this.currentCacheChangeStream);
+        this.currentStateCache = cache;
+    }
+
+    /**
+     * Stops the current state cache when the application is shut down.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void stopCurrentStateCache() {
+        if (this.currentStateCache != null) {
+            this.currentStateCache.stop();
+        }
+    }
+
+    /**
+     * Returns all the current state entries. If the current state cache is
+     * enabled, the entries are returned from memory, otherwise they're read
+     * from the database.
      *
      * @return list of E2EEvents containing the latest state of the monitored
      * security servers
      */
     @Override
     public List<E2EEvent> getAllCurrent() {
+        CurrentStateCache cache = this.currentStateCache;
+        if (cache != null) {
+            return cache.getAll();
+        }
         try {
             List<E2EEvent> results = new ArrayList<>();
             MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
@@ -82,34 +186,29 @@ public class MongoDbClient implements StorageClient {
     }
 
     /**
-     * Returns all the E2EEvents related to the specified security server. If
-     * limit is defined, only the given number of events is returned. The events
-     * are ordered in ascending order by the event begin timestamp.
+     * Returns the E2EEvents matching the given query. If limit is defined,
+     * only the given number of events is returned. The events are ordered in
+     * descending order by the event begin timestamp. The filters and the
+     * keyset position are pushed down to the database query, so pages are
+     * read using the index without skipping over the previous pages.
      *
-     * @param securityServer security server code
-     * @param limit how many events is returned. All the events are returned if
-     * limit is 0.
-     * @return list of E2EEvents related to the given security server
+     * @param query query that defines the security server, time range,
+     * keyset position and limit
+     * @return list of E2EEvents matching the query
      */
     @Override
-    public List<E2EEvent> getHistorical(String securityServer, int limit) {
+    public List<E2EEvent> getHistorical(HistoryQuery query) {
         try {
-            LOGGER.info("Fetch historical data for target \"{}\". Limit is set to {}.", securityServer, limit);
+            LOGGER.info("Fetch historical data for target \"{}\". Limit is set to {}.", query.getSecurityServer(), query.getLimit());
             List<E2EEvent> results = new ArrayList<>();
-            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
-            MongoCollection table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
-            BasicDBObject whereQuery = new BasicDBObject();
-            whereQuery.put(Constants.COLUMN_SECURITY_SERVER, securityServer);
-            MongoCursor<Document> cursor;
-            if (limit == 0) {
-                cursor = table.find(whereQuery).sort(new Document(Constants.COLUMN_BEGIN, -1)).iterator();
-            } else {
-                cursor = table.find(whereQuery).sort(new Document(Constants.COLUMN_BEGIN, -1)).limit(limit).iterator();
-            }
+            MongoCursor<Document> cursor = this.findHistorical(query).iterator();
             try {
                 while (cursor.hasNext()) {
                     results.add(this.documentToE2EEvent(cursor.next()));
                 }
+                if (query.isAscending()) {
+                    Collections.reverse(results);
+                }
                 LOGGER.info("Found {} historical monitoring events.", results.size());
                 return results;
             } finally {
@@ -122,20 +221,325 @@ public class MongoDbClient implements StorageClient {
     }
 
     /**
-     * Converts the given document to an E2EEvent object.
+     * Passes the E2EEvents matching the given query to the given consumer one
+     * by one as they are read from the database cursor, so only a single
+     * batch of documents is held in memory at a time. The events are passed
+     * in descending order by the event begin timestamp, except when only the
+     * after keyset position is defined, in which case they're passed in
+     * ascending order. Exceptions are not caught, because the consumer may
+     * already have written part of the events and the caller must be able to
+     * abort the response.
+     *
+     * @param query query that defines the security server, time range,
+     * keyset position and limit
+     * @param consumer consumer that receives the events
+     * @return number of events passed to the consumer
+     */
+    @Override
+    public long streamHistorical(HistoryQuery query, Consumer<E2EEvent> consumer) {
+        LOGGER.info("Stream historical data for target \"{}\". Limit is set to {}.", query.getSecurityServer(), query.getLimit());
+        long count = 0;
+        MongoCursor<Document> cursor = this.findHistorical(query).batchSize(STREAM_BATCH_SIZE).iterator();
+        try {
+            while (cursor.hasNext()) {
+                consumer.accept(this.documentToE2EEvent(cursor.next()));
+                count++;
+            }
+            LOGGER.info("Streamed {} historical monitoring events.", count);
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private FindIterable<Document> findHistorical(HistoryQuery query) {
+        MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+        MongoCollection<Document> table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
+        FindIterable<Document> result = table.find(this.getHistoricalFilter(query))
+                .sort(new Document(Constants.COLUMN_BEGIN, query.isAscending() ? 1 : -1));
+        if (query.getLimit() > 0) {
+            result = result.limit(query.getLimit());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the filter matching the events of the given query. The time
+     * range and the keyset position are combined into a single range on the
+     * begin timestamp, which is covered by the security server - begin index.
+     *
+     * @param query query that defines the security server, time range and
+     * keyset position
+     * @return filter document
+     */
+    protected Document getHistoricalFilter(HistoryQuery query) {
+        Document filter = new Document(this.securityServerField(), query.getSecurityServer());
+        Document range = new Document();
+        if (query.getLowerBound() != null) {
+            range.append("$gte", query.getLowerBound());
+        }
+        if (query.getUpperBound() != null) {
+            range.append("$lt", query.getUpperBound());
+        }
+        if (!range.isEmpty()) {
+            filter.append(Constants.COLUMN_BEGIN, range);
+        }
+        return filter;
+    }
+
+    /**
+     * Returns aggregated statistics of the E2EEvents related to the specified
+     * security server. The events whose begin timestamp is between the given
+     * dates are grouped into buckets of the given size, and one aggregate is
+     * returned for each bucket that contains events. Buckets are aligned to
+     * the epoch, e.g. one hour buckets start at full hours UTC. The
+     * aggregates are ordered in ascending order by the bucket start time.
+     *
+     * @param securityServer security server code
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param bucketSize size of a single bucket in milliseconds
+     * @return list of E2EEventAggregates related to the given security server
+     */
+    @Override
+    public List<E2EEventAggregate> getHistoricalAggregate(String securityServer, Date from, Date to, long bucketSize) {
+        try {
+            LOGGER.info("Fetch aggregated historical data for target \"{}\". Range {} - {}, bucket size {} ms.", securityServer, from, to, bucketSize);
+            List<E2EEventAggregate> results = new ArrayList<>();
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            MongoCollection<Document> table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
+            MongoCursor<Document> cursor = table.aggregate(this.getAggregatePipeline(securityServer, from, to, bucketSize))
+                    .allowDiskUse(true).iterator();
+            try {
+                while (cursor.hasNext()) {
+                    results.add(this.documentToE2EEventAggregate(cursor.next(), securityServer, bucketSize));
+                }
+                LOGGER.info("Found {} buckets.", results.size());
+                return results;
+            } finally {
+                cursor.close();
+            }
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Returns an aggregation pipeline that groups the events of the given
+     * security server into time buckets. The events are first grouped by
+     * bucket and duration of the successful events, and then by bucket, so
+     * each bucket contains the distinct durations and their counts instead
+     * of the durations of all the events, and the events don't need to be
+     * sorted. The 95th percentile is picked from the distinct durations by
+     * documentToE2EEventAggregate. The pipeline uses only the operators
+     * supported by MongoDB 3.4.
+     *
+     * @param securityServer security server code
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param bucketSize size of a single bucket in milliseconds
+     * @return aggregation pipeline
+     */
+    protected List<Document> getAggregatePipeline(String securityServer, Date from, Date to, long bucketSize) {
+        // Duration of the successful events, null for the failed events
+        Document successDuration = new Document("$cond", Arrays.asList("$" + Constants.COLUMN_STATUS, "$" + Constants.COLUMN_DURATION, null));
+        // Milliseconds since the epoch rounded down to the bucket size
+        Document millis = new Document("$subtract", Arrays.asList("$" + Constants.COLUMN_BEGIN, new Date(0)));
+        Document bucket = new Document("$subtract", Arrays.asList(millis, new Document("$mod", Arrays.asList(millis, bucketSize))));
+        String duration = "$" + FIELD_ID + "." + FIELD_DURATION;
+        Document isSuccess = new Document("$ne", Arrays.asList(duration, null));
+        Document durations = new Document("$filter", new Document("input", "$" + FIELD_DURATIONS)
+                .append("as", "d").append("cond", new Document("$ne", Arrays.asList("$$d." + FIELD_DURATION, null))));
+        Document avgDuration = new Document("$cond", Arrays.asList(new Document("$gt", Arrays.asList("$" + FIELD_SUCCESS_COUNT, 0)),
+                new Document("$divide", Arrays.asList("$" + FIELD_DURATION_SUM, "$" + FIELD_SUCCESS_COUNT)), null));
+        return Arrays.asList(
+                new Document("$match", new Document(this.securityServerField(), securityServer)
+                        .append(Constants.COLUMN_BEGIN, new Document("$gte", from).append("$lt", to))),
+                new Document("$group", new Document(FIELD_ID, new Document(FIELD_BUCKET, bucket).append(FIELD_DURATION, successDuration))
+                        .append(FIELD_COUNT, new Document("$sum", 1))),
+                new Document("$group", new Document(FIELD_ID, "$" + FIELD_ID + "." + FIELD_BUCKET)
+                        .append(FIELD_COUNT, new Document("$sum", "$" + FIELD_COUNT))
+                        .append(FIELD_SUCCESS_COUNT, new Document("$sum", new Document("$cond", Arrays.asList(isSuccess, "$" + FIELD_COUNT, 0))))
+                        .append(FIELD_MIN_DURATION, new Document("$min", duration))
+                        .append(FIELD_MAX_DURATION, new Document("$max", duration))
+                        .append(FIELD_DURATION_SUM, new Document("$sum", new Document("$multiply", Arrays.asList(duration, "$" + FIELD_COUNT))))
+                        .append(FIELD_DURATIONS, new Document("$push", new Document(FIELD_DURATION, duration).append(FIELD_COUNT, "$" + FIELD_COUNT)))),
+                new Document("$project", new Document(FIELD_COUNT, 1)
+                        .append(FIELD_SUCCESS_COUNT, 1)
+                        .append(FIELD_MIN_DURATION, 1)
+                        .append(FIELD_AVG_DURATION, avgDuration)
+                        .append(FIELD_MAX_DURATION, 1)
+                        .append(FIELD_DURATIONS, durations)),
+                new Document("$sort", new Document(FIELD_ID, 1)));
+    }
+
+    /**
+     * Returns the given percentile of the given distinct durations and
+     * their counts using the nearest-rank method.
+     *
+     * @param durations list of documents containing a duration and the
+     * number of events with the duration
+     * @param percentile percentile between 0 and 1
+     * @return duration at the given percentile, or null if the list is
+     * empty
+     */
+    protected static Long getPercentile(List<?> durations, double percentile) {
+        List<long[]> counts = new ArrayList<>();
+        long total = 0;
+        for (Object item : durations) {
+            Document document = (Document) item;
+            long count = ((Number) document.get(FIELD_COUNT)).longValue();
+            counts.add(new long[]{((Number) document.get(FIELD_DURATION)).longValue(), count});
+            total += count;
+        }
+        counts.sort((a, b) -> Long.compare(a[0], b[0]));
+        long rank = (long) Math.ceil(percentile * total);
+        long cumulative = 0;
+        for (long[] count : counts) {
+            cumulative += count[1];
+            if (cumulative >= rank) {
+                return count[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts the given aggregation result document to an
+     * E2EEventAggregate object. The 95th percentile duration is picked from
+     * the distinct durations of the bucket.
+     *
+     * @param document Document object to be converted
+     * @param securityServer security server code
+     * @param bucketSize size of a single bucket in milliseconds
+     * @return E2EEventAggregate object
+     */
+    protected E2EEventAggregate documentToE2EEventAggregate(Document document, String securityServer, long bucketSize) {
+        long bucketStart = ((Number) document.get(FIELD_ID)).longValue();
+        E2EEventAggregate aggregate = new E2EEventAggregate();
+        aggregate.setSecurityServer(securityServer);
+        aggregate.setBegin(new Date(bucketStart));
+        aggregate.setEnd(new Date(bucketStart + bucketSize));
+        aggregate.setCount(((Number) document.get(FIELD_COUNT)).longValue());
+        aggregate.setSuccessCount(((Number) document.get(FIELD_SUCCESS_COUNT)).longValue());
+        aggregate.setMinDuration(toLong(document.get(FIELD_MIN_DURATION)));
+        Object avgDuration = document.get(FIELD_AVG_DURATION);
+        aggregate.setAvgDuration(avgDuration == null ? null : ((Number) avgDuration).doubleValue());
+        Object durations = document.get(FIELD_DURATIONS);
+        aggregate.setP95Duration(durations == null ? null : getPercentile((List<?>) durations, PERCENTILE_95));
+        aggregate.setMaxDuration(toLong(document.get(FIELD_MAX_DURATION)));
+        return aggregate;
+    }
+
+    /**
+     * Returns the rollups of the given tier related to the specified
+     * security server. The rollups whose bucket starts between the given
+     * dates are returned in ascending order by the bucket start time. The
+     * rollups are written by the client.
+     *
+     * @param securityServer security server code
+     * @param tier rollup tier
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @return list of E2EEventAggregates related to the given security server
+     */
+    @Override
+    public List<E2EEventAggregate> getRollups(String securityServer, RollupTier tier, Date from, Date to) {
+        try {
+            LOGGER.info("Fetch {} rollups for target \"{}\". Range {} - {}.", tier, securityServer, from, to);
+            List<E2EEventAggregate> results = new ArrayList<>();
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            MongoCollection<Document> table = db.getCollection(tier.getCollection());
+            Document filter = new Document(Constants.COLUMN_SECURITY_SERVER, securityServer)
+                    .append(Constants.COLUMN_BEGIN, new Document("$gte", from).append("$lt", to));
+            MongoCursor<Document> cursor = table.find(filter).sort(new Document(Constants.COLUMN_BEGIN, 1)).iterator();
+            try {
+                while (cursor.hasNext()) {
+                    results.add(this.documentToRollup(cursor.next()));
+                }
+                LOGGER.info("Found {} rollups.", results.size());
+                return results;
+            } finally {
+                cursor.close();
+            }
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Converts the given rollup document to an E2EEventAggregate object.
+     *
+     * @param document Document object to be converted
+     * @return E2EEventAggregate object
+     */
+    protected E2EEventAggregate documentToRollup(Document document) {
+        E2EEventAggregate aggregate = new E2EEventAggregate();
+        aggregate.setSecurityServer(document.getString(Constants.COLUMN_SECURITY_SERVER));
+        aggregate.setBegin(document.getDate(Constants.COLUMN_BEGIN));
+        aggregate.setEnd(document.getDate(Constants.COLUMN_END));
+        aggregate.setCount(((Number) document.get(Constants.COLUMN_COUNT)).longValue());
+        aggregate.setSuccessCount(((Number) document.get(Constants.COLUMN_SUCCESS_COUNT)).longValue());
+        aggregate.setMinDuration(toLong(document.get(Constants.COLUMN_MIN_DURATION)));
+        Object avgDuration = document.get(Constants.COLUMN_AVG_DURATION);
+        aggregate.setAvgDuration(avgDuration == null ? null : ((Number) avgDuration).doubleValue());
+        aggregate.setP95Duration(toLong(document.get(Constants.COLUMN_P95_DURATION)));
+        aggregate.setMaxDuration(toLong(document.get(Constants.COLUMN_MAX_DURATION)));
+        Map<String, Long> faultCodes = new LinkedHashMap<>();
+        List<?> entries = document.get(Constants.COLUMN_FAULT_CODES, List.class);
+        if (entries != null) {
+            for (Object entry : entries) {
+                Document faultCode = (Document) entry;
+                faultCodes.put(faultCode.getString(Constants.COLUMN_FAULT_CODE), ((Number) faultCode.get(Constants.COLUMN_COUNT)).longValue());
+            }
+        }
+        aggregate.setFaultCodes(faultCodes);
+        return aggregate;
+    }
+
+    private boolean isTimeSeries() {
+        return HistoricalLayout.fromString(this.historicalLayout) == HistoricalLayout.TIMESERIES;
+    }
+
+    /**
+     * Returns the name of the security server field of the historical state
+     * documents. In time-series layout it's part of the target metadata.
+     *
+     * @return name of the security server field
+     */
+    private String securityServerField() {
+        return this.isTimeSeries() ? Constants.COLUMN_TARGET + "." + Constants.COLUMN_SECURITY_SERVER : Constants.COLUMN_SECURITY_SERVER;
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    /**
+     * Converts the given document to an E2EEvent object. Documents of both
+     * historical layouts are supported, in time-series layout the target
+     * related fields are read from the metadata.
      *
      * @param document Document object to be converted
      * @return E2EEvent object
      */
     protected E2EEvent documentToE2EEvent(Document document) {
-        String label = document.getString(Constants.COLUMN_LABEL);
-        String producerMember = document.getString(Constants.COLUMN_PRODUCER_MEMBER);
-        String securityServer = document.getString(Constants.COLUMN_SECURITY_SERVER);
+        Document target = document.get(Constants.COLUMN_TARGET, Document.class);
+        if (target == null) {
+            target = document;
+        }
+        String label = target.getString(Constants.COLUMN_LABEL);
+        String producerMember = target.getString(Constants.COLUMN_PRODUCER_MEMBER);
+        String securityServer = target.getString(Constants.COLUMN_SECURITY_SERVER);
         String requestId = document.getString(Constants.COLUMN_REQUEST_ID);
         boolean status = document.getBoolean(Constants.COLUMN_STATUS);
         String faultCode = document.getString(Constants.COLUMN_FAULT_CODE);
         String faultString = document.getString(Constants.COLUMN_FAULT_STRING);
         long duration = document.getLong(Constants.COLUMN_DURATION);
+        // Connection setup time is not available in older documents
+        Long connectDuration = document.getLong(Constants.COLUMN_CONNECT_DURATION);
         Date begin = document.getDate(Constants.COLUMN_BEGIN);
         Date end = document.getDate(Constants.COLUMN_END);
         Date createdDate = document.getDate(Constants.COLUMN_CREATED_DATE);
@@ -148,6 +552,7 @@ public class MongoDbClient implements StorageClient {
                 .faultCode(faultCode)
                 .faultString(faultString)
                 .duration(duration)
+                .connectDuration(connectDuration == null ? -1 : connectDuration)
                 .begin(begin)
                 .end(end)
                 .createdDate(createdDate)
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.storage;
+
+import com.pkrete.xrde2e.common.exception.XRdE2EException;
+import com.pkrete.xrde2e.common.storage.StorageClient;
+import com.pkrete.xrde2e.common.storage.StorageProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class creates the StorageClient using the StorageProvider selected
+ * by xrde2e.storage.type property, unless MongoDB is selected in which case
+ * MongoDbClient is used. The xrde2e.storage.* properties are passed to the
+ * provider without the prefix, e.g. xrde2e.storage.file.directory is passed
+ * as file.directory.
+ *
+ * @author Petteri Kivimäki
+ */
+@Configuration
+@ConditionalOnExpression("!'${xrde2e.storage.type:mongodb}'.equalsIgnoreCase('mongodb')")
+public class StorageConfiguration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageConfiguration.class);
+    private static final String PROPERTIES_PREFIX = "xrde2e.storage";
+    @Value("${xrde2e.storage.type}")
+    private String storageType;
+
+    /**
+     * Creates the storage client of the configured storage provider.
+     *
+     * @param environment environment that holds the storage properties
+     * @return new storage client
+     * @throws XRdE2EException if the provider is not available or creating
+     * the client fails
+     */
+    @Bean
+    public StorageClient storageClient(Environment environment) throws XRdE2EException {
+        LOGGER.info("Using \"{}\" storage.", this.storageType);
+        Map<String, String> values = Binder.get(environment).bind(PROPERTIES_PREFIX, Bindable.mapOf(String.class, String.class))
+                .orElse(Collections.<String, String>emptyMap());
+        Properties settings = new Properties();
+        settings.putAll(values);
+        return StorageProvider.forName(this.storageType).createStorageClient(settings);
+    }
+}
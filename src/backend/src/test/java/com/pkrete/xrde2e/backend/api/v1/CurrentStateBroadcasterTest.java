@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.api.v1;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for CurrentStateBroadcaster class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CurrentStateBroadcasterTest {
+
+    /**
+     * Test detecting changes and status transitions.
+     */
+    @Test
+    public void testUpdate() {
+        Map<String, E2EEvent> state = new HashMap<>();
+        // Everything is new on the first update
+        List<CurrentStateBroadcaster.Change> changes = CurrentStateBroadcaster.update(state,
+                Arrays.asList(createEvent("ss1", "id1", true), createEvent("ss2", "id2", true)));
+        assertEquals(2, changes.size());
+        assertEquals(true, changes.get(0).isTransition());
+        // Nothing has changed
+        changes = CurrentStateBroadcaster.update(state,
+                Arrays.asList(createEvent("ss1", "id1", true), createEvent("ss2", "id2", true)));
+        assertEquals(0, changes.size());
+        // New event for ss1 with the same status, new event for ss2 with a different status
+        changes = CurrentStateBroadcaster.update(state,
+                Arrays.asList(createEvent("ss1", "id3", true), createEvent("ss2", "id4", false)));
+        assertEquals(2, changes.size());
+        assertEquals("id3", changes.get(0).getEvent().getRequestId());
+        assertEquals(false, changes.get(0).isTransition());
+        assertEquals("id4", changes.get(1).getEvent().getRequestId());
+        assertEquals(true, changes.get(1).isTransition());
+        // ss2 is no longer monitored
+        changes = CurrentStateBroadcaster.update(state, Arrays.asList(createEvent("ss1", "id3", true)));
+        assertEquals(0, changes.size());
+        assertEquals(1, state.size());
+    }
+
+    /**
+     * Test that the events are sent by a sender thread and that a subscriber
+     * whose queue is full is dropped.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSlowSubscriber() throws InterruptedException {
+        CurrentStateBroadcaster broadcaster = new CurrentStateBroadcaster();
+        BlockingEmitter emitter = new BlockingEmitter();
+        CurrentStateBroadcaster.Subscriber subscriber = new CurrentStateBroadcaster.Subscriber(emitter, false, 2);
+        assertEquals(true, broadcaster.send(subscriber, SseEmitter.event().comment("1")));
+        assertEquals(true, emitter.sending.tryAcquire(5, TimeUnit.SECONDS));
+        // The sender thread is blocked, two events fit in the queue
+        assertEquals(true, broadcaster.send(subscriber, SseEmitter.event().comment("2")));
+        assertEquals(true, broadcaster.send(subscriber, SseEmitter.event().comment("3")));
+        assertEquals(false, broadcaster.send(subscriber, SseEmitter.event().comment("4")));
+        assertEquals(true, emitter.completed);
+        emitter.release.countDown();
+        broadcaster.stop();
+    }
+
+    /**
+     * Test that all the queued events are sent.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSend() throws InterruptedException {
+        CurrentStateBroadcaster broadcaster = new CurrentStateBroadcaster();
+        BlockingEmitter emitter = new BlockingEmitter();
+        emitter.release.countDown();
+        CurrentStateBroadcaster.Subscriber subscriber = new CurrentStateBroadcaster.Subscriber(emitter, false, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(true, broadcaster.send(subscriber, SseEmitter.event().comment(Integer.toString(i))));
+        }
+        assertEquals(true, emitter.sending.tryAcquire(10, 5, TimeUnit.SECONDS));
+        assertEquals(false, emitter.completed);
+        broadcaster.stop();
+    }
+
+    /**
+     * Test that the changes of a single poll are sent to a subscriber as a
+     * single event, so a poll with more changes than fit in the queue of a
+     * subscriber doesn't drop it.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testBroadcast() throws IOException, InterruptedException {
+        List<List<E2EEvent>> serialized = new ArrayList<>();
+        CurrentStateBroadcaster broadcaster = new CurrentStateBroadcaster() {
+            @Override
+            protected String toJson(List<E2EEvent> events) {
+                serialized.add(events);
+                return Integer.toString(events.size());
+            }
+        };
+        BlockingEmitter emitter = new BlockingEmitter();
+        BlockingEmitter transitionsEmitter = new BlockingEmitter();
+        broadcaster.addSubscriber(new CurrentStateBroadcaster.Subscriber(emitter, false, 2));
+        broadcaster.addSubscriber(new CurrentStateBroadcaster.Subscriber(transitionsEmitter, true, 2));
+        Map<String, E2EEvent> state = new HashMap<>();
+        List<E2EEvent> current = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            current.add(createEvent("ss" + i, "id" + i, true));
+        }
+        // Ten new security servers, all of them are transitions
+        broadcaster.broadcast(CurrentStateBroadcaster.update(state, current));
+        assertEquals(true, emitter.sending.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(true, transitionsEmitter.sending.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(2, serialized.size());
+        assertEquals(10, serialized.get(0).size());
+        assertEquals(10, serialized.get(1).size());
+
+        // Ten changes, one of them is a transition
+        serialized.clear();
+        for (int i = 0; i < 10; i++) {
+            current.set(i, createEvent("ss" + i, "id" + (i + 10), i != 0));
+        }
+        broadcaster.broadcast(CurrentStateBroadcaster.update(state, current));
+        assertEquals(10, serialized.get(0).size());
+        assertEquals(1, serialized.get(1).size());
+        assertEquals("ss0", serialized.get(1).get(0).getSecurityServer());
+
+        // Ten changes without transitions
+        serialized.clear();
+        for (int i = 0; i < 10; i++) {
+            current.set(i, createEvent("ss" + i, "id" + (i + 20), i != 0));
+        }
+        broadcaster.broadcast(CurrentStateBroadcaster.update(state, current));
+        assertEquals(1, serialized.size());
+        // The senders are blocked and the queues of the subscribers are not full
+        assertEquals(false, emitter.completed);
+        assertEquals(false, transitionsEmitter.completed);
+        emitter.release.countDown();
+        transitionsEmitter.release.countDown();
+        assertEquals(true, emitter.sending.tryAcquire(2, 5, TimeUnit.SECONDS));
+        assertEquals(true, transitionsEmitter.sending.tryAcquire(1, 5, TimeUnit.SECONDS));
+        broadcaster.stop();
+    }
+
+    /**
+     * Emitter that blocks sending until released.
+     */
+    private static class BlockingEmitter extends SseEmitter {
+
+        private final Semaphore sending = new Semaphore(0);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEmitter.SseEventBuilder event) throws IOException {
+            this.sending.release();
+            try {
+                this.release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+        }
+
+        @Override
+        public void complete() {
+            this.completed = true;
+        }
+    }
+
+    private static E2EEvent createEvent(String securityServer, String requestId, boolean status) {
+        return new E2EEvent.E2EEventBuilder().securityServer(securityServer).requestId(requestId).status(status).build();
+    }
+}
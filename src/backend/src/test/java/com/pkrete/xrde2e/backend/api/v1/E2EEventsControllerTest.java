@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.api.v1;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Test cases for E2EEventsController class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class E2EEventsControllerTest {
+
+    /**
+     * Test that the ETag changes only when the state or since changes.
+     */
+    @Test
+    public void testComputeETag() {
+        List<E2EEvent> state1 = Arrays.asList(createEvent("ss1", "id1"), createEvent("ss2", "id2"));
+        List<E2EEvent> state2 = Arrays.asList(createEvent("ss1", "id1"), createEvent("ss2", "id2"));
+        List<E2EEvent> state3 = Arrays.asList(createEvent("ss1", "id1"), createEvent("ss2", "id3"));
+        String etag = E2EEventsController.computeETag(state1, null);
+        assertEquals(true, etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, E2EEventsController.computeETag(state2, null));
+        assertNotEquals(etag, E2EEventsController.computeETag(state3, null));
+        assertNotEquals(etag, E2EEventsController.computeETag(state1, 1000L));
+        assertEquals(E2EEventsController.computeETag(state1, 1000L), E2EEventsController.computeETag(state2, 1000L));
+    }
+
+    /**
+     * Test that the delta of the current state excludes the entries written
+     * at the given time.
+     */
+    @Test
+    public void testWrittenAfter() {
+        E2EEvent event1 = createEvent("ss1", "id1");
+        event1.setCreatedDate(new Date(1000));
+        E2EEvent event2 = createEvent("ss2", "id2");
+        event2.setCreatedDate(new Date(2000));
+        List<E2EEvent> state = Arrays.asList(event1, event2, createEvent("ss3", "id3"));
+        assertEquals(2000, E2EEventsController.getLatest(state));
+        assertEquals(1, E2EEventsController.getWrittenAfter(state, 1000).size());
+        assertEquals("id2", E2EEventsController.getWrittenAfter(state, 1000).get(0).getRequestId());
+        // The next since doesn't return the newest entry again
+        assertEquals(0, E2EEventsController.getWrittenAfter(state, E2EEventsController.getLatest(state)).size());
+    }
+
+    private static E2EEvent createEvent(String securityServer, String requestId) {
+        return new E2EEvent.E2EEventBuilder().securityServer(securityServer).requestId(requestId).build();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.mongodb;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.util.Constants;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Test cases for CurrentStateCache class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CurrentStateCacheTest {
+
+    /**
+     * Test that the cached entries are ordered by security server and that
+     * entries are replaced and removed by id.
+     */
+    @Test
+    public void testPutRemove() {
+        CurrentStateCache cache = new CurrentStateCache(null, CurrentStateCacheTest::toEvent, Long.MAX_VALUE, 0);
+        cache.put(createDocument("1", "FI.COM.123.ss2", false));
+        cache.put(createDocument("2", "FI.COM.123.ss1", true));
+        cache.put(createDocument("3", "FI.COM.123.ss3", true));
+        List<E2EEvent> events = cache.getAll();
+        assertEquals(3, events.size());
+        assertEquals("FI.COM.123.ss1", events.get(0).getSecurityServer());
+        assertEquals("FI.COM.123.ss2", events.get(1).getSecurityServer());
+        assertEquals("FI.COM.123.ss3", events.get(2).getSecurityServer());
+        assertEquals(false, events.get(1).isStatus());
+        // The list is rebuilt only after a change
+        assertSame(events, cache.getAll());
+        // Replace the state of ss2
+        cache.put(createDocument("1", "FI.COM.123.ss2", true));
+        events = cache.getAll();
+        assertEquals(3, events.size());
+        assertEquals(true, events.get(1).isStatus());
+        // Remove ss1
+        assertEquals(true, cache.remove("2"));
+        assertEquals(false, cache.remove("4"));
+        events = cache.getAll();
+        assertEquals(2, events.size());
+        assertEquals("FI.COM.123.ss2", events.get(0).getSecurityServer());
+    }
+
+    private static Document createDocument(String id, String securityServer, boolean status) {
+        return new Document("_id", id)
+                .append(Constants.COLUMN_SECURITY_SERVER, securityServer)
+                .append(Constants.COLUMN_STATUS, status);
+    }
+
+    private static E2EEvent toEvent(Document document) {
+        return new E2EEvent.E2EEventBuilder()
+                .securityServer(document.getString(Constants.COLUMN_SECURITY_SERVER))
+                .status(document.getBoolean(Constants.COLUMN_STATUS))
+                .build();
+    }
+}
@@ -24,16 +24,22 @@
 package com.pkrete.xrde2e.backend.mongodb;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
+import com.pkrete.xrde2e.common.storage.HistoryQuery;
 import com.pkrete.xrde2e.common.util.Constants;
 
 import org.niis.xrd4j.common.util.MessageHelper;
 
 import org.bson.Document;
+import org.junit.jupiter.api.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 /**
  * Test cases for MongoDbClient class.
@@ -80,4 +86,132 @@ public class MongoDbClientTest {
         assertEquals(sdf.parse("18.12.2016 08:57:30.893"), event.getEnd());
         assertEquals(sdf.parse("18.12.2016 08:57:30.895"), event.getCreatedDate());
     }
+
+    /**
+     * Test conversion from time-series Document to E2EEvent.
+     */
+    @Test
+    public void testTimeSeriesDocumentToE2EEvent() {
+        Document document = new Document();
+        document.put(Constants.COLUMN_TARGET, new Document(Constants.COLUMN_LABEL, "Text label")
+                .append(Constants.COLUMN_PRODUCER_MEMBER, "FI-PILOT.GOV.1019125-0.TestService")
+                .append(Constants.COLUMN_SECURITY_SERVER, "FI-PILOT.COM.2229125-0.orgsecser01t"));
+        document.put(Constants.COLUMN_REQUEST_ID, "1");
+        document.put(Constants.COLUMN_STATUS, false);
+        document.put(Constants.COLUMN_DURATION, 567L);
+        document.put(Constants.COLUMN_BEGIN, new Date(1000));
+        MongoDbClient client = new MongoDbClient();
+        E2EEvent event = client.documentToE2EEvent(document);
+        assertEquals("Text label", event.getLabel());
+        assertEquals("FI-PILOT.GOV.1019125-0.TestService", event.getProducerMember());
+        assertEquals("FI-PILOT.COM.2229125-0.orgsecser01t", event.getSecurityServer());
+        assertEquals("1", event.getRequestId());
+        assertEquals(false, event.isStatus());
+        assertEquals(new Date(1000), event.getBegin());
+    }
+
+    /**
+     * Test conversion from aggregation result Document to E2EEventAggregate.
+     */
+    @Test
+    public void testDocumentToE2EEventAggregate0() {
+        Document document = new Document("_id", 3600000L)
+                .append("count", 720)
+                .append("successCount", 684)
+                .append("minDuration", 12L)
+                .append("avgDuration", 45.5)
+                .append("maxDuration", 980L)
+                .append("durations", Arrays.asList(duration(980L, 1), duration(12L, 600), duration(120L, 60), duration(100L, 23)));
+        MongoDbClient client = new MongoDbClient();
+        E2EEventAggregate aggregate = client.documentToE2EEventAggregate(document, "FI-PILOT.COM.2229125-0.orgsecser01t", 3600000L);
+        assertEquals("FI-PILOT.COM.2229125-0.orgsecser01t", aggregate.getSecurityServer());
+        assertEquals(new Date(3600000L), aggregate.getBegin());
+        assertEquals(new Date(7200000L), aggregate.getEnd());
+        assertEquals(720, aggregate.getCount());
+        assertEquals(684, aggregate.getSuccessCount());
+        assertEquals(0.95, aggregate.getAvailability(), 0.0001);
+        assertEquals(12L, aggregate.getMinDuration());
+        assertEquals(45.5, aggregate.getAvgDuration());
+        assertEquals(120L, aggregate.getP95Duration());
+        assertEquals(980L, aggregate.getMaxDuration());
+    }
+
+    /**
+     * Test picking the 95th percentile from the distinct durations.
+     */
+    @Test
+    public void testGetPercentile() {
+        assertEquals(30L, MongoDbClient.getPercentile(Arrays.asList(duration(30L, 1), duration(10L, 1), duration(20L, 1)), 0.95));
+        // 19 of 20 durations are 10 ms
+        assertEquals(10L, MongoDbClient.getPercentile(Arrays.asList(duration(10L, 19), duration(500L, 1)), 0.95));
+        assertEquals(500L, MongoDbClient.getPercentile(Arrays.asList(duration(10L, 18), duration(500L, 2)), 0.95));
+        assertNull(MongoDbClient.getPercentile(Arrays.asList(), 0.95));
+    }
+
+    /**
+     * Duration statistics are null when the bucket contains only failed
+     * events.
+     */
+    @Test
+    public void testDocumentToE2EEventAggregate1() {
+        Document document = new Document("_id", 0L)
+                .append("count", 10)
+                .append("successCount", 0);
+        MongoDbClient client = new MongoDbClient();
+        E2EEventAggregate aggregate = client.documentToE2EEventAggregate(document, "FI-PILOT.COM.2229125-0.orgsecser01t", 60000L);
+        assertEquals(0.0, aggregate.getAvailability());
+        assertNull(aggregate.getMinDuration());
+        assertNull(aggregate.getAvgDuration());
+        assertNull(aggregate.getP95Duration());
+        assertNull(aggregate.getMaxDuration());
+    }
+
+    /**
+     * Test building the historical filter from a query.
+     */
+    @Test
+    public void testGetHistoricalFilter() {
+        MongoDbClient client = new MongoDbClient();
+        HistoryQuery query = new HistoryQuery.HistoryQueryBuilder().securityServer("FI.COM.123.ss1").limit(10).build();
+        Document filter = client.getHistoricalFilter(query);
+        assertEquals("FI.COM.123.ss1", filter.get(Constants.COLUMN_SECURITY_SERVER));
+        assertNull(filter.get(Constants.COLUMN_BEGIN));
+
+        query = new HistoryQuery.HistoryQueryBuilder().securityServer("FI.COM.123.ss1")
+                .from(new Date(1000)).before(new Date(4000)).build();
+        filter = client.getHistoricalFilter(query);
+        Document range = (Document) filter.get(Constants.COLUMN_BEGIN);
+        assertEquals(new Date(1000), range.get("$gte"));
+        assertEquals(new Date(4000), range.get("$lt"));
+    }
+
+    /**
+     * Test conversion from a rollup Document to E2EEventAggregate.
+     */
+    @Test
+    public void testDocumentToRollup() {
+        Document document = new Document(Constants.COLUMN_SECURITY_SERVER, "FI.COM.123.ss1")
+                .append(Constants.COLUMN_BEGIN, new Date(3600000L))
+                .append(Constants.COLUMN_END, new Date(7200000L))
+                .append(Constants.COLUMN_COUNT, 4L)
+                .append(Constants.COLUMN_SUCCESS_COUNT, 2L)
+                .append(Constants.COLUMN_MIN_DURATION, 10L)
+                .append(Constants.COLUMN_AVG_DURATION, 15.0)
+                .append(Constants.COLUMN_P95_DURATION, 20L)
+                .append(Constants.COLUMN_MAX_DURATION, 20L)
+                .append(Constants.COLUMN_FAULT_CODES, Arrays.asList(
+                        new Document(Constants.COLUMN_FAULT_CODE, "Server.Timeout").append(Constants.COLUMN_COUNT, 2L)));
+        MongoDbClient client = new MongoDbClient();
+        E2EEventAggregate aggregate = client.documentToRollup(document);
+        assertEquals("FI.COM.123.ss1", aggregate.getSecurityServer());
+        assertEquals(new Date(3600000L), aggregate.getBegin());
+        assertEquals(4L, aggregate.getCount());
+        assertEquals(0.5, aggregate.getAvailability());
+        assertEquals(20L, aggregate.getP95Duration());
+        assertEquals(2L, aggregate.getFaultCodes().get("Server.Timeout"));
+    }
+
+    private static Document duration(long duration, int count) {
+        return new Document("duration", duration).append("count", count);
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.backend.mongodb;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.util.Constants;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting a document read from the database to an E2EEvent the
+ * way the backend does it. The client isn't connected to a database.
+ *
+ * @author Petteri Kivimäki
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentToE2EEventBenchmark {
+
+    private static final long DURATION = 250L;
+    private static final long CONNECT_DURATION = 15L;
+    private MongoDbClient client;
+    private Document document;
+
+    /**
+     * Creates the client and the document to be converted. The document has
+     * the same fields as the documents written by the client.
+     */
+    @Setup
+    public void setup() {
+        this.client = new MongoDbClient();
+        long begin = System.currentTimeMillis();
+        this.document = new Document(Constants.COLUMN_LABEL, "My server 1")
+                .append(Constants.COLUMN_PRODUCER_MEMBER, "FI-TEST.GOV.0245437-2.TestService")
+                .append(Constants.COLUMN_SECURITY_SERVER, "FI-TEST.GOV.0245437-2.myserver1")
+                .append(Constants.COLUMN_REQUEST_ID, "d4c3b2a1")
+                .append(Constants.COLUMN_STATUS, true)
+                .append(Constants.COLUMN_FAULT_CODE, "")
+                .append(Constants.COLUMN_FAULT_STRING, "")
+                .append(Constants.COLUMN_DURATION, DURATION)
+                .append(Constants.COLUMN_CONNECT_DURATION, CONNECT_DURATION)
+                .append(Constants.COLUMN_BEGIN, new Date(begin))
+                .append(Constants.COLUMN_END, new Date(begin + DURATION))
+                .append(Constants.COLUMN_CREATED_DATE, new Date(begin + DURATION));
+    }
+
+    /**
+     * Converts the document to an event.
+     *
+     * @return event represented by the document
+     */
+    @Benchmark
+    public E2EEvent documentToE2EEvent() {
+        return this.client.documentToE2EEvent(this.document);
+    }
+}
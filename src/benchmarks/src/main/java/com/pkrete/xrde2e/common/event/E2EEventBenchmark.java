@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating a new E2EEvent the way the client does it, using a
+ * shared target and timestamps in milliseconds, and using separate target
+ * strings and Date objects.
+ *
+ * @author Petteri Kivimäki
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class E2EEventBenchmark {
+
+    private static final long DURATION = 250;
+    private E2ETarget target;
+    private String requestId;
+    private long begin;
+
+    /**
+     * Initializes the target of the events.
+     */
+    @Setup
+    public void setup() {
+        this.target = SampleEvents.target(1);
+        this.requestId = "d4c3b2a1";
+        this.begin = System.currentTimeMillis();
+    }
+
+    /**
+     * Builds an event using a shared target and timestamps in milliseconds.
+     *
+     * @return new event
+     */
+    @Benchmark
+    public E2EEvent buildWithTarget() {
+        return new E2EEvent.E2EEventBuilder()
+                .target(this.target)
+                .requestId(this.requestId)
+                .status(true)
+                .faultCode("")
+                .faultString("")
+                .duration(DURATION)
+                .connectDuration(0)
+                .begin(this.begin)
+                .end(this.begin + DURATION)
+                .build();
+    }
+
+    /**
+     * Builds an event using separate target strings and Date objects.
+     *
+     * @return new event
+     */
+    @Benchmark
+    public E2EEvent buildWithDates() {
+        return new E2EEvent.E2EEventBuilder()
+                .label(this.target.getLabel())
+                .producerMember(this.target.getProducerMember())
+                .securityServer(this.target.getSecurityServer())
+                .requestId(this.requestId)
+                .status(true)
+                .faultCode("")
+                .faultString("")
+                .duration(DURATION)
+                .connectDuration(0)
+                .begin(new Date(this.begin))
+                .end(new Date(this.begin + DURATION))
+                .build();
+    }
+}
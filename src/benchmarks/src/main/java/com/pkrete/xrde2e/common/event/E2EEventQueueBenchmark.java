@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures E2EEventQueue when several producers put events to the queue and
+ * a single consumer takes them, which is how the workers and the queue
+ * processor use the queue. The number of producers can be changed on the
+ * command line using the -tg option, e.g. "-tg 16,1".
+ *
+ * The consumer blocks when the queue is empty. If it's still blocked when an
+ * iteration ends, JMH interrupts it after the timeout.
+ *
+ * @author Petteri Kivimäki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 10)
+@Fork(1)
+public class E2EEventQueueBenchmark {
+
+    private static final int EVENT_COUNT = 1024;
+    private static final int TARGET_COUNT = 64;
+
+    /**
+     * Queue shared by the producers and the consumer.
+     */
+    @State(Scope.Group)
+    public static class QueueState {
+
+        /**
+         * Capacity of the queue, zero means unbounded.
+         */
+        @Param({"0", "1024"})
+        private int capacity;
+
+        /**
+         * Overflow policy of the queue.
+         */
+        @Param({"BLOCK", "DROP_OLDEST", "LATEST_PER_SERVER"})
+        private E2EEventQueue.OverflowPolicy overflowPolicy;
+
+        private E2EEventQueue queue;
+
+        /**
+         * Creates the queue.
+         */
+        @Setup
+        public void setup() {
+            this.queue = E2EEventQueue.init(this.capacity, this.overflowPolicy);
+        }
+    }
+
+    /**
+     * Events put to the queue by a single producer.
+     */
+    @State(Scope.Thread)
+    public static class ProducerState {
+
+        private E2EEvent[] events;
+        private int index;
+
+        /**
+         * Creates the events.
+         */
+        @Setup
+        public void setup() {
+            this.events = SampleEvents.create(EVENT_COUNT, TARGET_COUNT);
+        }
+
+        E2EEvent next() {
+            E2EEvent event = this.events[this.index];
+            this.index = (this.index + 1) % this.events.length;
+            return event;
+        }
+    }
+
+    /**
+     * Puts an event to the queue.
+     *
+     * @param queueState queue
+     * @param producerState events of the producer
+     */
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(4)
+    public void put(QueueState queueState, ProducerState producerState) {
+        queueState.queue.put(producerState.next());
+    }
+
+    /**
+     * Takes an event from the queue.
+     *
+     * @param queueState queue
+     * @return event taken from the queue
+     */
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public E2EEvent take(QueueState queueState) {
+        return queueState.queue.take();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import com.pkrete.xrde2e.common.storage.InMemoryStorageManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the path from E2EEventQueue through E2EEventQueueProcessor to the
+ * storage manager. Each invocation puts a fixed number of events to the
+ * queue and waits until the processor has written all of them to an
+ * in-memory storage manager, which can simulate the latency of the
+ * database. Each lane of the queue is consumed by a processor of its own.
+ *
+ * @author Petteri Kivimäki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class E2EEventQueueProcessorBenchmark {
+
+    private static final int EVENT_COUNT = 1000;
+    private static final int TARGET_COUNT = 64;
+    private static final long BATCH_TIMEOUT = 10;
+
+    /**
+     * Maximum number of events written using a single operation.
+     */
+    @Param({"1", "100"})
+    private int batchSize;
+
+    /**
+     * Time in microseconds each write operation takes.
+     */
+    @Param({"0", "500"})
+    private long writeDelay;
+
+    /**
+     * Number of queue lanes and processors.
+     */
+    @Param({"1", "4"})
+    private int lanes;
+
+    private E2EEvent[] events;
+    private E2EEventQueue queue;
+    private InMemoryStorageManager storageManager;
+    private Thread[] processors;
+    private long expected;
+
+    /**
+     * Creates the queue and the storage manager and starts the processors.
+     */
+    @Setup
+    public void setup() {
+        this.events = SampleEvents.create(EVENT_COUNT, TARGET_COUNT);
+        this.queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK, this.lanes);
+        this.storageManager = new InMemoryStorageManager(TimeUnit.MICROSECONDS.toNanos(this.writeDelay));
+        this.processors = new Thread[this.lanes];
+        for (int i = 0; i < this.lanes; i++) {
+            this.processors[i] = new Thread(new E2EEventQueueProcessor(this.storageManager, this.batchSize, BATCH_TIMEOUT, null, i));
+            this.processors[i].start();
+        }
+    }
+
+    /**
+     * Stops the processors.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * processors to stop
+     */
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        for (Thread processor : this.processors) {
+            processor.interrupt();
+            processor.join();
+        }
+    }
+
+    /**
+     * Puts the events to the queue and waits until all of them have been
+     * written to the storage.
+     *
+     * @return number of events written to the storage
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long putAndStore() {
+        for (E2EEvent event : this.events) {
+            this.queue.put(event);
+        }
+        this.expected += EVENT_COUNT;
+        while (this.storageManager.getCount() < this.expected) {
+            Thread.onSpinWait();
+        }
+        return this.storageManager.getCount();
+    }
+}
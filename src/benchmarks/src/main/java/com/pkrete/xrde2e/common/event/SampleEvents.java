@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+/**
+ * This class creates the events that are used by the benchmarks. The events
+ * resemble the events created by the client: the fault fields are empty and
+ * the duration is a few hundred milliseconds.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class SampleEvents {
+
+    private static final long DURATION = 250;
+    private static final long CONNECT_DURATION = 15;
+
+    /**
+     * SampleEvents class has only static methods and it must not be
+     * instantiated.
+     */
+    private SampleEvents() {
+
+    }
+
+    /**
+     * Returns a target with the given number.
+     *
+     * @param number number of the target
+     * @return target with the given number
+     */
+    public static E2ETarget target(int number) {
+        return new E2ETarget("My server " + number, "FI-TEST.GOV.0245437-2.TestService",
+                "FI-TEST.GOV.0245437-2.myserver" + number);
+    }
+
+    /**
+     * Returns the given number of targets.
+     *
+     * @param count number of targets
+     * @return array of targets
+     */
+    public static E2ETarget[] targets(int count) {
+        E2ETarget[] targets = new E2ETarget[count];
+        for (int i = 0; i < count; i++) {
+            targets[i] = target(i);
+        }
+        return targets;
+    }
+
+    /**
+     * Creates a new successful event of the given target.
+     *
+     * @param target target of the event
+     * @param requestId identifier of the request
+     * @param begin begin time of the request in milliseconds
+     * @return new event
+     */
+    public static E2EEvent create(E2ETarget target, String requestId, long begin) {
+        return new E2EEvent.E2EEventBuilder()
+                .target(target)
+                .requestId(requestId)
+                .status(true)
+                .faultCode("")
+                .faultString("")
+                .duration(DURATION)
+                .connectDuration(CONNECT_DURATION)
+                .begin(begin)
+                .end(begin + DURATION)
+                .build();
+    }
+
+    /**
+     * Creates the given number of events divided evenly between the given
+     * number of targets.
+     *
+     * @param count number of events
+     * @param targetCount number of targets
+     * @return array of events
+     */
+    public static E2EEvent[] create(int count, int targetCount) {
+        E2ETarget[] targets = targets(targetCount);
+        E2EEvent[] events = new E2EEvent[count];
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            events[i] = create(targets[i % targetCount], Integer.toString(i), begin + i);
+        }
+        return events;
+    }
+}
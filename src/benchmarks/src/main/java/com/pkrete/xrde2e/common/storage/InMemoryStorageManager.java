@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is an in-memory stand-in for a storage manager. It keeps the
+ * latest event of each security server and counts the stored events. The
+ * latency of a database round trip can be simulated by delaying each write
+ * operation.
+ *
+ * @author Petteri Kivimäki
+ */
+public class InMemoryStorageManager implements StorageManager {
+
+    private final long writeDelay;
+    private final Map<String, E2EEvent> current = new ConcurrentHashMap<>();
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Constructs and initializes a new InMemoryStorageManager object.
+     *
+     * @param writeDelay time in nanoseconds each write operation takes, zero
+     * means no delay
+     */
+    public InMemoryStorageManager(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    @Override
+    public boolean add(E2EEvent event) {
+        this.delay();
+        this.current.put(event.getSecurityServer(), event);
+        this.count.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean addAll(List<E2EEvent> events) {
+        this.delay();
+        for (E2EEvent event : events) {
+            this.current.put(event.getSecurityServer(), event);
+        }
+        this.count.addAndGet(events.size());
+        return true;
+    }
+
+    @Override
+    public boolean addHistorical(List<E2EEvent> events) {
+        this.delay();
+        this.count.addAndGet(events.size());
+        return true;
+    }
+
+    @Override
+    public boolean addCurrent(List<E2EEvent> events) {
+        this.delay();
+        for (E2EEvent event : events) {
+            this.current.put(event.getSecurityServer(), event);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean deleteOlderThan(int days) {
+        return true;
+    }
+
+    @Override
+    public boolean deleteOlderThanFromCurrent(int hours) {
+        return true;
+    }
+
+    /**
+     * Returns the number of events stored so far. Events can be stored and
+     * the count can be read by any thread.
+     *
+     * @return number of stored events
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    private void delay() {
+        if (this.writeDelay > 0) {
+            LockSupport.parkNanos(this.writeDelay);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds a snapshot of the client statistics. Probe, queue and
+ * storage statistics are read from the metrics that the client publishes in
+ * Prometheus format, and memory and thread counts are read from the JVM the
+ * client is running in. Values of the same metric with different labels
+ * are summed up.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class ClientStats {
+
+    private static final int TIMEOUT = 5000;
+    private static final String PROBE_REQUESTS = "xrde2e_probe_requests_total";
+    private static final String PROBE_FAILURES = "xrde2e_probe_requests_total{status=\"failure\"}";
+    private static final String QUEUE_SIZE = "xrde2e_queue_size";
+    private static final String QUEUE_DROPPED = "xrde2e_queue_dropped_total";
+    private static final String QUEUE_LAG_COUNT = "xrde2e_queue_lag_seconds_count";
+    private static final String QUEUE_LAG_SUM = "xrde2e_queue_lag_seconds_sum";
+    private static final String QUEUE_LAG_MAX = "xrde2e_queue_lag_seconds_max";
+    private static final String WRITTEN_EVENTS = "xrde2e_storage_batch_size_events_sum";
+    private static final String STORAGE_FAILURES = "xrde2e_storage_failures_total";
+    private static final double MILLISECONDS_IN_SECOND = 1000.0;
+    private static final double NANOSECONDS_IN_SECOND = 1e9;
+    private static final int BYTES_IN_MEGABYTE = 1024 * 1024;
+    private static final Pattern LABEL = Pattern.compile("(\\w+)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private final long timestamp;
+    private final Map<String, Double> values;
+    private final long heapUsed;
+    private final int threadCount;
+    private final int peakThreadCount;
+
+    private ClientStats(long timestamp, Map<String, Double> values) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        this.timestamp = timestamp;
+        this.values = values;
+        this.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        this.threadCount = threads.getThreadCount();
+        this.peakThreadCount = threads.getPeakThreadCount();
+    }
+
+    /**
+     * Reads the metrics from the given URL and returns a new snapshot.
+     *
+     * @param metricsUrl URL of the metrics endpoint
+     * @return new snapshot
+     * @throws IOException if reading the metrics fails
+     */
+    public static ClientStats read(URL metricsUrl) throws IOException {
+        long now = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) metricsUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return new ClientStats(now, parse(reader));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Parses metrics in Prometheus text format. Each value is added to the
+     * sum of the metric name, and to the sum of the metric name and each
+     * label of the value, e.g. name{label="value"}.
+     *
+     * @param reader reader that provides the metrics
+     * @return metric values
+     * @throws IOException if reading the metrics fails
+     */
+    static Map<String, Double> parse(BufferedReader reader) throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int separator = line.lastIndexOf(' ');
+            int labels = line.indexOf('{');
+            if (separator < 0) {
+                continue;
+            }
+            double value;
+            try {
+                value = Double.parseDouble(line.substring(separator + 1));
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            String name = labels < 0 || labels > separator ? line.substring(0, separator) : line.substring(0, labels);
+            values.merge(name, value, Double::sum);
+            if (labels >= 0 && labels < separator) {
+                Matcher matcher = LABEL.matcher(line.substring(labels, separator));
+                while (matcher.find()) {
+                    values.merge(name + "{" + matcher.group() + "}", value, Double::sum);
+                }
+            }
+        }
+        return values;
+    }
+
+    private double get(String name) {
+        Double value = this.values.get(name);
+        return value == null ? 0 : value;
+    }
+
+    private double rate(ClientStats previous, String name) {
+        double seconds = (this.timestamp - previous.timestamp) / NANOSECONDS_IN_SECOND;
+        return seconds <= 0 ? 0 : (this.get(name) - previous.get(name)) / seconds;
+    }
+
+    /**
+     * Returns a report that compares this snapshot to the given earlier
+     * snapshot.
+     *
+     * @param previous earlier snapshot
+     * @return report of the period between the snapshots
+     */
+    public String report(ClientStats previous) {
+        double lagCount = this.get(QUEUE_LAG_COUNT) - previous.get(QUEUE_LAG_COUNT);
+        double lagAverage = lagCount > 0 ? (this.get(QUEUE_LAG_SUM) - previous.get(QUEUE_LAG_SUM)) / lagCount : 0;
+        return String.format("probes %.1f/s (failures %.1f/s), queue size %.0f, dropped %.0f, queue lag avg %.1f ms max %.1f ms, "
+                + "writes %.1f events/s (failures %.0f), heap used %d MB, threads %d (peak %d)",
+                this.rate(previous, PROBE_REQUESTS), this.rate(previous, PROBE_FAILURES),
+                this.get(QUEUE_SIZE), this.get(QUEUE_DROPPED) - previous.get(QUEUE_DROPPED),
+                lagAverage * MILLISECONDS_IN_SECOND, this.get(QUEUE_LAG_MAX) * MILLISECONDS_IN_SECOND,
+                this.rate(previous, WRITTEN_EVENTS), this.get(STORAGE_FAILURES) - previous.get(STORAGE_FAILURES),
+                this.heapUsed / BYTES_IN_MEGABYTE, this.threadCount, this.peakThreadCount);
+    }
+}
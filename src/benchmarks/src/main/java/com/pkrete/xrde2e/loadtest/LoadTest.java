@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.loadtest;
+
+import com.pkrete.xrde2e.client.Main;
+import com.pkrete.xrde2e.client.util.ApplicationHelper;
+import com.pkrete.xrde2e.client.util.Constants;
+
+import org.niis.xrd4j.common.util.MessageHelper;
+import org.niis.xrd4j.common.util.PropertiesUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the client against the list methods dummy service and a
+ * local MongoDB using the given number of synthetic targets, and reports
+ * the achieved probes per second, queue lag, write throughput and memory
+ * and thread counts periodically and at the end of the test.
+ *
+ * The test is configured using system properties:
+ * <ul>
+ * <li>loadtest.targets - number of targets, default 1000</li>
+ * <li>loadtest.duration - duration of the test in seconds, default 300</li>
+ * <li>loadtest.reportInterval - interval between reports in seconds,
+ * default 10</li>
+ * <li>loadtest.template - xrde2e.properties file whose settings are used,
+ * default is the configuration packaged with the client</li>
+ * <li>loadtest.directory - directory where the generated configuration is
+ * written, default is a new temporary directory</li>
+ * </ul>
+ * Any client setting of the template can be overridden using a system
+ * property with the same name, e.g. -Dinterval=1000. If the template is not
+ * given, the test uses the dummy service at http://localhost:8081/, MongoDB
+ * at localhost:27017 and scheduled execution mode. Metrics are published
+ * at port 9400 unless the template defines the port.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class LoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+    private static final String PREFIX = "loadtest.";
+    private static final int DEFAULT_TARGETS = 1000;
+    private static final int DEFAULT_DURATION = 300;
+    private static final int DEFAULT_REPORT_INTERVAL = 10;
+    private static final String DEFAULT_PROXY = "http://localhost:8081/";
+    private static final String DEFAULT_CONNECTION_STRING = "mongodb://localhost:27017/xrde2emonitoring";
+    private static final String DEFAULT_EXECUTION_MODE = "scheduled";
+    private static final String DEFAULT_METRICS_PORT = "9400";
+    private static final double MILLISECONDS_IN_SECOND = 1000.0;
+
+    /**
+     * LoadTest class has only static methods and it must not be
+     * instantiated.
+     */
+    private LoadTest() {
+
+    }
+
+    /**
+     * Generates the configuration, starts the client and reports the
+     * statistics until the test duration has elapsed.
+     *
+     * @param args not used
+     * @throws Exception if the test can't be started
+     */
+    public static void main(String[] args) throws Exception {
+        ApplicationHelper.configureLog4j();
+        int targetCount = Integer.getInteger(PREFIX + "targets", DEFAULT_TARGETS);
+        int duration = Integer.getInteger(PREFIX + "duration", DEFAULT_DURATION);
+        int reportInterval = Integer.getInteger(PREFIX + "reportInterval", DEFAULT_REPORT_INTERVAL);
+
+        String template = System.getProperty(PREFIX + "template");
+        Properties settings;
+        if (template == null) {
+            settings = TargetGenerator.generate(PropertiesUtil.getInstance().load("/" + Constants.PROPERTIES_FILE), targetCount);
+            applyDefaults(settings);
+        } else {
+            settings = TargetGenerator.generate(PropertiesUtil.getInstance().load(template, false), targetCount);
+        }
+        // Metrics are needed for the reports
+        if (MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_METRICS_PORT)) <= 0) {
+            settings.setProperty(Constants.PROPERTIES_METRICS_PORT, DEFAULT_METRICS_PORT);
+        }
+        // System properties override the settings of the template
+        for (String key : settings.stringPropertyNames()) {
+            String value = System.getProperty(key);
+            if (value != null) {
+                settings.setProperty(key, value);
+            }
+        }
+        String directoryName = System.getProperty(PREFIX + "directory");
+        Path directory = directoryName == null ? Files.createTempDirectory("xrde2e-loadtest") : Files.createDirectories(Paths.get(directoryName));
+        Path file = TargetGenerator.write(settings, directory);
+        System.setProperty(Constants.PROPERTIES_DIR_PARAM_NAME, directory.toAbsolutePath().toString() + "/");
+
+        int interval = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_INTERVAL));
+        LOGGER.info("Load test configuration written to \"{}\".", file);
+        LOGGER.info("Load test: {} targets, interval {} ms, expected {} probes/s, duration {} s.", targetCount, interval,
+                String.format("%.1f", interval > 0 ? targetCount * MILLISECONDS_IN_SECOND / interval : 0), duration);
+
+        Thread client = new Thread(() -> new Main().start(), "xrde2e-client");
+        client.setDaemon(true);
+        client.start();
+
+        URL metricsUrl = new URL("http://localhost:" + settings.getProperty(Constants.PROPERTIES_METRICS_PORT) + "/metrics");
+        ClientStats first = null;
+        ClientStats previous = null;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        while (System.nanoTime() < end && client.isAlive()) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(reportInterval));
+            ClientStats stats;
+            try {
+                stats = ClientStats.read(metricsUrl);
+            } catch (IOException ex) {
+                LOGGER.warn("Reading client metrics failed: {}", ex.getMessage());
+                continue;
+            }
+            if (first == null) {
+                // The first snapshot is the baseline, it includes the time
+                // spent on starting the client
+                first = stats;
+            } else {
+                LOGGER.info("Load test: {}.", stats.report(previous));
+            }
+            previous = stats;
+        }
+        if (first != null && previous != first) {
+            LOGGER.info("Load test finished: {} targets. Average of the test: {}.", targetCount, previous.report(first));
+        } else {
+            LOGGER.warn("Load test finished without results. Check that the client was able to start.");
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Replaces the placeholders of the packaged configuration with values
+     * that work with a local dummy service and MongoDB.
+     *
+     * @param settings settings of the packaged configuration
+     */
+    private static void applyDefaults(Properties settings) {
+        settings.setProperty(Constants.PROPERTIES_PROXY, DEFAULT_PROXY);
+        settings.setProperty(Constants.PROPERTIES_DB_CONNECTION_STRING, DEFAULT_CONNECTION_STRING);
+        settings.setProperty(Constants.PROPERTIES_EXECUTION_MODE, DEFAULT_EXECUTION_MODE);
+    }
+}
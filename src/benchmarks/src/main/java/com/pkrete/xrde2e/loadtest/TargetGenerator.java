@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.loadtest;
+
+import com.pkrete.xrde2e.client.util.Constants;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * This class generates client configuration files in xrde2e.properties
+ * format. The settings are copied from a template and the targets of the
+ * template are replaced with the given number of synthetic targets. Each
+ * synthetic target has a security server of its own, and the list methods
+ * dummy service accepts all of them.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class TargetGenerator {
+
+    private static final String SUBSYSTEM = "FI-TEST.GOV.0245437-2.LoadTestService";
+    private static final String SERVER_PREFIX = "FI-TEST.GOV.0245437-2.loadtest";
+    private static final String LABEL_PREFIX = "Load test server ";
+    private static final Pattern TARGET_KEY = Pattern.compile("^\\d+\\..*");
+
+    /**
+     * TargetGenerator class has only static methods and it must not be
+     * instantiated.
+     */
+    private TargetGenerator() {
+
+    }
+
+    /**
+     * Returns a copy of the given settings where the targets have been
+     * replaced with the given number of synthetic targets.
+     *
+     * @param template settings to be copied
+     * @param targetCount number of targets
+     * @return settings with synthetic targets
+     */
+    public static Properties generate(Properties template, int targetCount) {
+        Properties settings = new Properties();
+        for (String key : template.stringPropertyNames()) {
+            if (!TARGET_KEY.matcher(key).matches()) {
+                settings.setProperty(key, template.getProperty(key));
+            }
+        }
+        for (int i = 0; i < targetCount; i++) {
+            String key = Integer.toString(i) + ".";
+            settings.setProperty(key + Constants.PROPERTIES_SUBSYSTEM, SUBSYSTEM);
+            settings.setProperty(key + Constants.PROPERTIES_SERVER, SERVER_PREFIX + i);
+            settings.setProperty(key + Constants.PROPERTIES_LABEL, LABEL_PREFIX + i);
+        }
+        return settings;
+    }
+
+    /**
+     * Writes the given settings to xrde2e.properties file in the given
+     * directory. The settings are written in alphabetical order followed by
+     * the targets in numerical order.
+     *
+     * @param settings settings to be written
+     * @param directory directory where the file is written
+     * @return path of the written file
+     * @throws IOException if writing the file fails
+     */
+    public static Path write(Properties settings, Path directory) throws IOException {
+        Path file = directory.resolve(Constants.PROPERTIES_FILE);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# Generated by XRdE2E load test\n");
+            for (String key : new TreeSet<>(settings.stringPropertyNames())) {
+                if (!TARGET_KEY.matcher(key).matches()) {
+                    writeProperty(writer, key, settings.getProperty(key));
+                }
+            }
+            for (int i = 0; settings.getProperty(i + "." + Constants.PROPERTIES_SUBSYSTEM) != null; i++) {
+                String key = Integer.toString(i) + ".";
+                writeProperty(writer, key + Constants.PROPERTIES_SUBSYSTEM, settings.getProperty(key + Constants.PROPERTIES_SUBSYSTEM));
+                writeProperty(writer, key + Constants.PROPERTIES_SERVER, settings.getProperty(key + Constants.PROPERTIES_SERVER));
+                writeProperty(writer, key + Constants.PROPERTIES_LABEL, settings.getProperty(key + Constants.PROPERTIES_LABEL));
+            }
+        }
+        return file;
+    }
+
+    private static void writeProperty(Writer writer, String key, String value) throws IOException {
+        writer.write(key);
+        writer.write('=');
+        writer.write(value);
+        writer.write('\n');
+    }
+}
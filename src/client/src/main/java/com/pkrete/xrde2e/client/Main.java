@@ -24,26 +24,57 @@
 package com.pkrete.xrde2e.client;
 
 
-import com.pkrete.xrde2e.client.mongodb.MongoDbManager;
+import com.pkrete.xrde2e.client.metrics.MetricsServer;
+import com.pkrete.xrde2e.client.metrics.ProbeMetrics;
 import com.pkrete.xrde2e.client.thread.E2EWorker;
+import com.pkrete.xrde2e.client.thread.ExecutionMode;
+import com.pkrete.xrde2e.client.thread.ProbeScheduler;
+import com.pkrete.xrde2e.client.thread.ProbeWatchdog;
+import com.pkrete.xrde2e.client.thread.RateLimiter;
+import com.pkrete.xrde2e.client.transport.PooledSOAPTransport;
+import com.pkrete.xrde2e.client.transport.SOAPTransport;
+import com.pkrete.xrde2e.client.transport.XRd4JTransport;
 import com.pkrete.xrde2e.client.util.ApplicationHelper;
 import com.pkrete.xrde2e.client.util.Constants;
+import com.pkrete.xrde2e.common.event.E2EEventQueue;
 import com.pkrete.xrde2e.common.event.E2EEventQueueProcessor;
+import com.pkrete.xrde2e.common.exception.XRdE2EException;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+import com.pkrete.xrde2e.common.storage.CoalescingStorageManager;
+import com.pkrete.xrde2e.common.storage.CurrentStateWriter;
+import com.pkrete.xrde2e.common.storage.EventSpool;
+import com.pkrete.xrde2e.common.storage.RollupManager;
+import com.pkrete.xrde2e.common.storage.RollupTier;
+import com.pkrete.xrde2e.common.storage.RollupWorker;
+import com.pkrete.xrde2e.common.storage.SpoolReplayer;
+import com.pkrete.xrde2e.common.storage.SpoolingStorageManager;
 import com.pkrete.xrde2e.common.storage.StorageCleaner;
 import com.pkrete.xrde2e.common.storage.StorageManager;
+import com.pkrete.xrde2e.common.storage.StorageProvider;
 
 import org.niis.xrd4j.common.member.ConsumerMember;
 import org.niis.xrd4j.common.message.ServiceRequest;
 import org.niis.xrd4j.common.util.MessageHelper;
 import org.niis.xrd4j.common.util.PropertiesUtil;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -55,7 +86,18 @@ public class Main {
 
     private static final String PROPS_LOG_PATTERN = "\"{}\" : \"{}\"";
     private static final int MILLISECONDS_TO_HOURS = 3600000;
+    private static final int BYTES_IN_MEGABYTE = 1024 * 1024;
+    private static final int SCHEDULER_THREADS_PER_PROCESSOR = 4;
+    private static final int MILLISECONDS_IN_SECOND = 1000;
+    private static final String HTTP_MAX_CONNECTIONS = "http.maxConnections";
+    private static final String HTTP_KEEP_ALIVE_TIME = "http.keepAlive.time.server";
+    private static final String HTTP_CONNECT_TIMEOUT = "sun.net.client.defaultConnectTimeout";
+    private static final String HTTP_READ_TIMEOUT = "sun.net.client.defaultReadTimeout";
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+    private final List<Thread> backgroundThreads = new ArrayList<>();
+    private EventSpool spool;
+    private MetricsServer metricsServer;
+    private PrometheusMeterRegistry meterRegistry;
 
     public Main() {
         ApplicationHelper.configureLog4j();
@@ -91,10 +133,15 @@ public class Main {
         int deleteOlderThanFromCurrent = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_OLDER_THAN_CURRENT));
         int deleteOlderThanInterval = MILLISECONDS_TO_HOURS * MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_OLDER_THAN_INTERVAL));
         int threadInterval = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_THREAD_INTERVAL));
-        String dbHost = settings.getProperty(Constants.PROPERTIES_DB_HOST);
-        int dbPort = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DB_PORT));
-        String dbConnectionString = System.getProperty(Constants.PROPERTIES_DB_CONNECTION_STRING,
-                settings.getProperty(Constants.PROPERTIES_DB_CONNECTION_STRING));
+        int batchSize = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_BATCH_SIZE));
+        int batchTimeout = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_BATCH_TIMEOUT));
+        int queueCapacity = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_QUEUE_CAPACITY));
+        E2EEventQueue.OverflowPolicy queueOverflowPolicy = E2EEventQueue.OverflowPolicy.fromString(
+                settings.getProperty(Constants.PROPERTIES_QUEUE_OVERFLOW_POLICY));
+        int processorLanes = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_PROCESSOR_LANES));
+        if (processorLanes <= 0) {
+            processorLanes = Runtime.getRuntime().availableProcessors();
+        }
 
         LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_PROXY, url);
         LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_INTERVAL, interval);
@@ -102,8 +149,11 @@ public class Main {
         LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DELETE_OLDER_THAN_CURRENT, deleteOlderThanFromCurrent);
         LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DELETE_OLDER_THAN_INTERVAL, deleteOlderThanInterval);
         LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_THREAD_INTERVAL, threadInterval);
-        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DB_HOST, dbHost);
-        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DB_PORT, dbPort);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_BATCH_SIZE, batchSize);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_BATCH_TIMEOUT, batchTimeout);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_QUEUE_CAPACITY, queueCapacity);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_QUEUE_OVERFLOW_POLICY, queueOverflowPolicy);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_PROCESSOR_LANES, processorLanes);
 
         consumer = ApplicationHelper.extractConsumer(settings.getProperty(Constants.PROPERTIES_CONSUMER));
         targets = ApplicationHelper.extractTargets(settings, consumer);
@@ -118,35 +168,174 @@ public class Main {
         }
 
         LOGGER.info("Start processing.");
-        // Create new storage manager
+        // Publish metrics if the metrics port has been defined
+        this.startMetrics(settings);
+        // Initialize event queue
+        E2EEventQueue eventQueue = E2EEventQueue.init(queueCapacity, queueOverflowPolicy, processorLanes);
+        // Pipeline metrics are always collected for the summary log line
+        // and they're published too if the metrics port has been defined
+        MeterRegistry pipelineRegistry = this.meterRegistry != null ? this.meterRegistry : new SimpleMeterRegistry();
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(pipelineRegistry, eventQueue);
+        // Create new storage manager using the configured provider
+        String storage = System.getProperty(Constants.PROPERTIES_STORAGE, settings.getProperty(Constants.PROPERTIES_STORAGE, Constants.STORAGE_MONGODB));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_STORAGE, storage);
+        StorageProvider storageProvider;
         StorageManager storageManager;
-        // Check if connection string has been defined
-        if (dbConnectionString != null && !dbConnectionString.isEmpty()) {
-            LOGGER.debug("Use {} for database connection.", Constants.PROPERTIES_DB_CONNECTION_STRING);
-            storageManager = new MongoDbManager(dbConnectionString);
+        try {
+            storageProvider = StorageProvider.forName(storage);
+            storageManager = storageProvider.createStorageManager(settings, pipelineMetrics);
+        } catch (XRdE2EException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            LOGGER.info("Creating storage failed. Exit.");
+            if (this.metricsServer != null) {
+                this.metricsServer.stop();
+            }
+            return;
+        }
+        boolean ttlIndex = storageProvider.removesExpiredEvents(settings);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TTL_INDEX, ttlIndex);
+        // Roll up historical events to the rollup tiers if enabled
+        this.startRollupWorker(storageManager, settings);
+        // Coalesce the current state updates if the flush interval is defined
+        storageManager = this.startCurrentStateWriter(storageManager, settings);
+        // Write events to a spool file when the storage is not available
+        storageManager = this.startSpool(storageManager, settings);
+        // Start an event processor for each lane of the queue
+        for (int lane = 0; lane < eventQueue.getLaneCount(); lane++) {
+            this.startBackgroundThread(new E2EEventQueueProcessor(storageManager, batchSize, batchTimeout, pipelineMetrics, lane));
+        }
+        // Start storage cleaner unless old events are removed by TTL indexes
+        if (ttlIndex) {
+            LOGGER.info("Old events are removed by the storage. StorageCleaner is not started.");
         } else {
-            storageManager = new MongoDbManager(dbHost, dbPort);
-            LOGGER.debug("Use {} and {} for database connection.", Constants.PROPERTIES_DB_HOST, Constants.PROPERTIES_DB_PORT);
-        }
-        // Initialize event queue processor
-        E2EEventQueueProcessor eventQueueProcessor = new E2EEventQueueProcessor(storageManager);
-        // Create new thread for event processing
-        Thread eventQueueProcessorThread = new Thread(eventQueueProcessor);
-        // Start event processor
-        eventQueueProcessorThread.start();
-        // Initialize storage cleaner
-        StorageCleaner storateCleaner = new StorageCleaner(storageManager, deleteOlderThan, deleteOlderThanInterval, deleteOlderThanFromCurrent);
-        // Create new thread for storage cleaner
-        Thread storateCleanerThread = new Thread(storateCleaner);
-        // Start storage cleaner
-        storateCleanerThread.start();
-
-        // Create executor for monitoring threads
-        ExecutorService executor = Executors.newFixedThreadPool(threadPoolSize);
-        for (int i = 0; i < targets.size(); i++) {
+            this.startBackgroundThread(new StorageCleaner(storageManager, deleteOlderThan, deleteOlderThanInterval, deleteOlderThanFromCurrent,
+                    pipelineMetrics));
+        }
+
+        // Create executor for monitoring threads and start the workers
+        ExecutorService executor = this.startWorkers(settings, url, interval, threadInterval, targets);
+
+        try {
+            // Blocks until all tasks have completed execution after a shutdown
+            // request, or the timeout occurs, or the current thread is
+            // interrupted, whichever happens first. Returns true if this
+            // executor is terminated and false if the timeout elapsed
+            // before termination.
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Wait for executor to be terminated
+                LOGGER.trace("Waiting for ExecutorService to be terminated.");
+                LOGGER.info("Event queue size {}/{}. Events enqueued {}, dropped {}. Enqueue wait time {} ms.",
+                        eventQueue.getSize(), eventQueue.getCapacity(), eventQueue.getEnqueuedCount(),
+                        eventQueue.getDroppedCount(), eventQueue.getEnqueueWaitTime());
+                pipelineMetrics.logSummary();
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
+        }
+
+        // Interupt eventQueueProcessor, storateCleaner and other background
+        // threads
+        for (Thread thread : this.backgroundThreads) {
+            thread.interrupt();
+        }
+
+        try {
+            for (Thread thread : this.backgroundThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
+        }
+        if (this.spool != null) {
+            this.spool.close();
+        }
+        if (this.metricsServer != null) {
+            this.metricsServer.stop();
+        }
+        LOGGER.info("Exit.");
+    }
+
+    /**
+     * Creates an executor according to the execution mode defined in the
+     * given settings and starts a worker for each target. In thread mode each
+     * worker gets a thread of its own, and the main thread sleeps the thread
+     * interval between starting the workers. In scheduled and virtual mode
+     * the probes are spread evenly over the interval by a probe scheduler.
+     * All the workers share the same rate limiter. The probe watchdog is
+     * started for all the execution modes.
+     *
+     * @param settings application properties
+     * @param url security server URL
+     * @param interval default interval between the requests of a single
+     * worker
+     * @param threadInterval interval between starting the workers in thread
+     * mode
+     * @param targets monitoring targets
+     * @return executor that runs the workers
+     */
+    private ExecutorService startWorkers(Properties settings, String url, int interval, int threadInterval, List<ServiceRequest> targets) {
+        ExecutionMode executionMode = ExecutionMode.fromString(settings.getProperty(Constants.PROPERTIES_EXECUTION_MODE));
+        int schedulerPoolSize = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_SCHEDULER_POOL_SIZE));
+        if (schedulerPoolSize <= 0) {
+            schedulerPoolSize = Runtime.getRuntime().availableProcessors() * SCHEDULER_THREADS_PER_PROCESSOR;
+        }
+        int jitter = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_JITTER));
+        int maxRequestsPerSecond = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_MAX_REQUESTS_PER_SECOND));
+        int transportDeadline = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_TRANSPORT_DEADLINE));
+        int watchdogIntervals = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_WATCHDOG_INTERVALS));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_EXECUTION_MODE, executionMode);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_SCHEDULER_POOL_SIZE, schedulerPoolSize);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_JITTER, jitter);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_MAX_REQUESTS_PER_SECOND, maxRequestsPerSecond);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT_DEADLINE, transportDeadline);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_WATCHDOG_INTERVALS, watchdogIntervals);
+
+        SOAPTransport transport = this.createTransport(settings, transportDeadline);
+        RateLimiter rateLimiter = new RateLimiter(maxRequestsPerSecond);
+        ProbeMetrics probeMetrics = this.meterRegistry == null ? null : new ProbeMetrics(this.meterRegistry);
+        List<E2EWorker> workers = new ArrayList<>();
+        double requestsPerSecond = 0;
+        for (ServiceRequest target : targets) {
+            E2EWorker worker = new E2EWorker(url, interval, target, transport, rateLimiter, probeMetrics);
+            requestsPerSecond += (double) MILLISECONDS_IN_SECOND / Math.max(worker.getInterval(), 1);
+            workers.add(worker);
+        }
+        if (rateLimiter.isLimited() && requestsPerSecond > maxRequestsPerSecond) {
+            LOGGER.warn("Targets require {} requests per second, but {} is limited to {}. Probes will be delayed or skipped.",
+                    Math.round(requestsPerSecond), Constants.PROPERTIES_MAX_REQUESTS_PER_SECOND, maxRequestsPerSecond);
+        }
+        if (watchdogIntervals > 0) {
+            this.startBackgroundThread(new ProbeWatchdog(workers, watchdogIntervals, transportDeadline, MILLISECONDS_IN_SECOND));
+        } else {
+            LOGGER.info("Probe watchdog is disabled.");
+        }
+
+        if (executionMode != ExecutionMode.THREAD) {
+            ScheduledThreadPoolExecutor timer;
+            Executor probeExecutor;
+            if (executionMode == ExecutionMode.VIRTUAL) {
+                // A single thread triggers the probes that run in virtual threads
+                timer = new ScheduledThreadPoolExecutor(1);
+                probeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            } else {
+                // A single thread triggers the probes that are run by a
+                // fixed size pool, so that a blocked probe never delays the
+                // triggers of the other targets
+                timer = new ScheduledThreadPoolExecutor(1);
+                probeExecutor = Executors.newFixedThreadPool(Math.min(schedulerPoolSize, targets.size()));
+            }
+            new ProbeScheduler(timer, probeExecutor, jitter).schedule(workers);
+            // The timer is not shut down, because the scheduled probes
+            // schedule new tasks
+            return timer;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(targets.size());
+        for (int i = 0; i < workers.size(); i++) {
             LOGGER.debug("Starting thread #{}.", i);
-            Runnable worker = new E2EWorker(url, interval, targets.get(i));
-            executor.execute(worker);
+            executor.execute(workers.get(i));
             try {
                 // Wait a bit before starting a new thread. All the threads
                 // are sending SOAP requests to the same security server
@@ -164,33 +353,192 @@ public class Main {
         // accepting new tasks and shut down after all running threads
         // finish their current work.
         executor.shutdown();
+        return executor;
+    }
 
+    /**
+     * Creates the meter registry and starts the HTTP server that publishes
+     * the metrics in Prometheus format, if the metrics port has been
+     * defined. If the server can't be started, the metrics are not
+     * collected at all.
+     *
+     * @param settings application properties
+     */
+    private void startMetrics(Properties settings) {
+        int metricsPort = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_METRICS_PORT));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_METRICS_PORT, metricsPort);
+        if (metricsPort <= 0) {
+            LOGGER.info("Metrics port is not defined. Metrics are not published.");
+            return;
+        }
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        MetricsServer server = new MetricsServer(registry);
         try {
-            // Blocks until all tasks have completed execution after a shutdown
-            // request, or the timeout occurs, or the current thread is
-            // interrupted, whichever happens first. Returns true if this
-            // executor is terminated and false if the timeout elapsed
-            // before termination.
-            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
-                // Wait for executor to be terminated
-                LOGGER.trace("Waiting for ExecutorService to be terminated.");
-            }
-        } catch (InterruptedException ex) {
+            server.start(metricsPort);
+        } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
-            Thread.currentThread().interrupt();
+            return;
+        }
+        this.meterRegistry = registry;
+        this.metricsServer = server;
+    }
+
+    /**
+     * Creates the transport that is shared by all the workers. The pooled
+     * transport keeps the connections alive between the requests and the
+     * keep-alive cache of the JVM is configured here, because the settings
+     * are read when the first connection is opened. The XRd4J transport
+     * doesn't support timeouts, so the default timeouts of the JVM are set
+     * instead and the deadline is not supported.
+     *
+     * @param settings application properties
+     * @param deadline maximum duration of a single request in milliseconds
+     * @return new transport
+     */
+    private SOAPTransport createTransport(Properties settings, int deadline) {
+        String transport = settings.getProperty(Constants.PROPERTIES_TRANSPORT, Constants.TRANSPORT_POOLED).trim();
+        int maxConnections = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_TRANSPORT_MAX_CONNECTIONS));
+        int keepAliveTime = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_TRANSPORT_KEEP_ALIVE_TIME));
+        int connectTimeout = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_TRANSPORT_CONNECT_TIMEOUT));
+        int readTimeout = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_TRANSPORT_READ_TIMEOUT));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT, transport);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT_MAX_CONNECTIONS, maxConnections);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT_KEEP_ALIVE_TIME, keepAliveTime);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT_CONNECT_TIMEOUT, connectTimeout);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_TRANSPORT_READ_TIMEOUT, readTimeout);
+        if (Constants.TRANSPORT_XRD4J.equalsIgnoreCase(transport)) {
+            // System properties given on the command line take precedence
+            if (connectTimeout > 0 && System.getProperty(HTTP_CONNECT_TIMEOUT) == null) {
+                System.setProperty(HTTP_CONNECT_TIMEOUT, Integer.toString(connectTimeout));
+            }
+            if (readTimeout > 0 && System.getProperty(HTTP_READ_TIMEOUT) == null) {
+                System.setProperty(HTTP_READ_TIMEOUT, Integer.toString(readTimeout));
+            }
+            if (deadline > 0) {
+                LOGGER.warn("{} is not supported by {} transport.", Constants.PROPERTIES_TRANSPORT_DEADLINE, Constants.TRANSPORT_XRD4J);
+            }
+            return new XRd4JTransport();
+        }
+        // System properties given on the command line take precedence
+        if (maxConnections > 0 && System.getProperty(HTTP_MAX_CONNECTIONS) == null) {
+            System.setProperty(HTTP_MAX_CONNECTIONS, Integer.toString(maxConnections));
+        }
+        if (keepAliveTime > 0 && System.getProperty(HTTP_KEEP_ALIVE_TIME) == null) {
+            System.setProperty(HTTP_KEEP_ALIVE_TIME, Integer.toString(keepAliveTime));
+        }
+        return new PooledSOAPTransport(connectTimeout, readTimeout, deadline);
+    }
+
+    /**
+     * Starts the rollup worker if the rollup interval has been defined and
+     * the storage supports rollups. Unknown tier names are ignored.
+     *
+     * @param storageManager storage manager created by the storage provider
+     * @param settings application properties
+     */
+    private void startRollupWorker(StorageManager storageManager, Properties settings) {
+        int rollupInterval = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_ROLLUP_INTERVAL));
+        String rollupTiers = settings.getProperty(Constants.PROPERTIES_ROLLUP_TIERS, "");
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_ROLLUP_INTERVAL, rollupInterval);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_ROLLUP_TIERS, rollupTiers);
+        if (rollupInterval <= 0) {
+            LOGGER.info("Rollup interval is not defined. Historical events are not rolled up.");
+            return;
         }
+        if (!(storageManager instanceof RollupManager)) {
+            LOGGER.warn("The storage doesn't support rollups. Historical events are not rolled up.");
+            return;
+        }
+        Map<RollupTier, Integer> retention = new EnumMap<>(RollupTier.class);
+        for (String name : rollupTiers.split(",")) {
+            RollupTier tier = RollupTier.fromString(name);
+            if (tier == null) {
+                LOGGER.warn("Unknown rollup tier \"{}\".", name.trim());
+                continue;
+            }
+            String key = String.format(Constants.PROPERTIES_ROLLUP_RETENTION, tier.name().toLowerCase(Locale.ROOT));
+            int days = MessageHelper.strToInt(settings.getProperty(key));
+            LOGGER.info(PROPS_LOG_PATTERN, key, days);
+            retention.put(tier, days);
+        }
+        if (retention.isEmpty()) {
+            LOGGER.warn("No rollup tiers defined. Historical events are not rolled up.");
+            return;
+        }
+        this.startBackgroundThread(new RollupWorker((RollupManager) storageManager, retention, rollupInterval));
+    }
 
-        // Interupt eventQueueProcessor and storateCleaner
-        eventQueueProcessorThread.interrupt();
-        storateCleanerThread.interrupt();
+    /**
+     * Starts the current state writer if the current state flush interval
+     * has been defined. Returns a storage manager that leaves writing the
+     * current state to the writer.
+     *
+     * @param storageManager storage manager that writes events to the storage
+     * @param settings application properties
+     * @return storage manager that uses the current state writer, or the
+     * given storage manager if the flush interval is not defined
+     */
+    private StorageManager startCurrentStateWriter(StorageManager storageManager, Properties settings) {
+        int flushInterval = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_CURRENT_STATE_FLUSH_INTERVAL));
+        int heartbeat = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_CURRENT_STATE_HEARTBEAT));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_CURRENT_STATE_FLUSH_INTERVAL, flushInterval);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_CURRENT_STATE_HEARTBEAT, heartbeat);
+        if (flushInterval <= 0) {
+            LOGGER.info("Current state flush interval is not defined. Current state is updated on every event.");
+            return storageManager;
+        }
+        CurrentStateWriter writer = new CurrentStateWriter(storageManager, flushInterval, TimeUnit.SECONDS.toMillis(heartbeat));
+        this.startBackgroundThread(writer);
+        return new CoalescingStorageManager(storageManager, writer);
+    }
 
+    /**
+     * Opens the spool file and starts the spool replayer if the spool file
+     * has been defined. Returns a storage manager that writes events to the
+     * spool when the given storage manager is not available.
+     *
+     * @param storageManager storage manager that writes events to the storage
+     * @param settings application properties
+     * @return storage manager that uses the spool, or the given storage
+     * manager if the spool file is not defined
+     */
+    private StorageManager startSpool(StorageManager storageManager, Properties settings) {
+        String spoolFile = settings.getProperty(Constants.PROPERTIES_SPOOL_FILE);
+        int spoolSize = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_SPOOL_SIZE));
+        int spoolBatchSize = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_SPOOL_BATCH_SIZE));
+        int spoolReplayInterval = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_SPOOL_REPLAY_INTERVAL));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_SPOOL_FILE, spoolFile);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_SPOOL_SIZE, spoolSize);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_SPOOL_BATCH_SIZE, spoolBatchSize);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_SPOOL_REPLAY_INTERVAL, spoolReplayInterval);
+        if (spoolFile == null || spoolFile.isEmpty() || spoolSize <= 0) {
+            LOGGER.info("Spool file is not defined. Events are dropped when the storage is not available.");
+            return storageManager;
+        }
+        long spoolBytes = (long) spoolSize * BYTES_IN_MEGABYTE;
+        if (spoolBytes > EventSpool.MAX_CAPACITY) {
+            LOGGER.warn("Spool size {} MB exceeds the maximum of {} MB. Use the maximum.", spoolSize, EventSpool.MAX_CAPACITY / BYTES_IN_MEGABYTE);
+            spoolBytes = EventSpool.MAX_CAPACITY;
+        }
         try {
-            storateCleanerThread.join();
-            eventQueueProcessorThread.join();
-        } catch (InterruptedException ex) {
+            this.spool = new EventSpool(spoolFile, (int) spoolBytes);
+        } catch (IOException ex) {
             LOGGER.error(ex.getMessage(), ex);
-            Thread.currentThread().interrupt();
+            return storageManager;
         }
-        LOGGER.info("Exit.");
+        this.startBackgroundThread(new SpoolReplayer(storageManager, this.spool, spoolBatchSize, spoolReplayInterval));
+        return new SpoolingStorageManager(storageManager, this.spool);
+    }
+
+    /**
+     * Starts the given runnable in a new background thread. Background threads
+     * are interrupted when the application exits.
+     *
+     * @param runnable runnable to be started
+     */
+    private void startBackgroundThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        this.backgroundThreads.add(thread);
+        thread.start();
     }
 }
@@ -27,14 +27,15 @@ import org.niis.xrd4j.common.exception.XRd4JException;
 import org.niis.xrd4j.common.member.ProducerMember;
 
 /**
- * This class extends the ProducerMember class and adds a new label instance
- * variable to it.
+ * This class extends the ProducerMember class and adds new label and interval
+ * instance variables to it.
  *
  * @author Petteri Kivimäki
  */
 public class E2EProducerMember extends ProducerMember {
 
     private String label;
+    private int interval;
 
     public E2EProducerMember(String xRoadInstance, String memberClass, String memberCode, String subsystemCode, String serviceCode, String label)
             throws XRd4JException {
@@ -59,4 +60,23 @@ public class E2EProducerMember extends ProducerMember {
     public void setLabel(String label) {
         this.label = label;
     }
+
+    /**
+     * Returns the monitoring interval of this E2EProducerMember in
+     * milliseconds. Zero means that the global interval is used.
+     *
+     * @return the monitoring interval of this E2EProducerMember
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the monitoring interval of this E2EProducerMember in milliseconds.
+     *
+     * @param interval the interval to set
+     */
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.metrics;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps probe metrics of each monitored security server: a
+ * latency histogram of the successful requests, counters of successful and
+ * failed requests, counters of faults by fault code and a gauge that tells
+ * if the latest request succeeded. The meters of a security server are
+ * created when its first event is recorded and reused after that, so
+ * recording an event doesn't look up the meters from the registry.
+ *
+ * @author Petteri Kivimäki
+ */
+public class ProbeMetrics {
+
+    private static final String TAG_SECURITY_SERVER = "securityServer";
+    private static final String TAG_STATUS = "status";
+    private static final String TAG_FAULT_CODE = "faultCode";
+    private static final String UNKNOWN_FAULT_CODE = "unknown";
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+    private static final Duration MIN_EXPECTED_DURATION = Duration.ofMillis(1);
+    private static final Duration MAX_EXPECTED_DURATION = Duration.ofMinutes(1);
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, TargetMeters> meters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs and initializes a new ProbeMetrics object.
+     *
+     * @param registry registry where the meters are registered
+     */
+    public ProbeMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Records the result of a single request.
+     *
+     * @param event event that holds the result of the request
+     */
+    public void record(E2EEvent event) {
+        String securityServer = event.getSecurityServer() == null ? "" : event.getSecurityServer();
+        this.meters.computeIfAbsent(securityServer, this::createMeters).record(event);
+    }
+
+    private TargetMeters createMeters(String securityServer) {
+        return new TargetMeters(this.registry, securityServer);
+    }
+
+    /**
+     * Meters of a single security server.
+     */
+    private static class TargetMeters {
+
+        private final MeterRegistry registry;
+        private final String securityServer;
+        private final Timer duration;
+        private final Counter success;
+        private final Counter failure;
+        private final AtomicInteger up = new AtomicInteger();
+        private final ConcurrentMap<String, Counter> faults = new ConcurrentHashMap<>();
+
+        TargetMeters(MeterRegistry registry, String securityServer) {
+            this.registry = registry;
+            this.securityServer = securityServer;
+            this.duration = Timer.builder("xrde2e.probe.duration")
+                    .description("Duration of the successful listMethods requests")
+                    .tag(TAG_SECURITY_SERVER, securityServer)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(PERCENTILES)
+                    .minimumExpectedValue(MIN_EXPECTED_DURATION)
+                    .maximumExpectedValue(MAX_EXPECTED_DURATION)
+                    .register(registry);
+            this.success = createRequestCounter("success");
+            this.failure = createRequestCounter("failure");
+            Gauge.builder("xrde2e.probe.up", this.up, AtomicInteger::get)
+                    .description("1 if the latest request succeeded, otherwise 0")
+                    .tag(TAG_SECURITY_SERVER, securityServer)
+                    .register(registry);
+        }
+
+        private Counter createRequestCounter(String status) {
+            return Counter.builder("xrde2e.probe.requests")
+                    .description("Number of listMethods requests")
+                    .tag(TAG_SECURITY_SERVER, this.securityServer)
+                    .tag(TAG_STATUS, status)
+                    .register(this.registry);
+        }
+
+        private Counter createFaultCounter(String faultCode) {
+            return Counter.builder("xrde2e.probe.faults")
+                    .description("Number of failed listMethods requests by fault code")
+                    .tag(TAG_SECURITY_SERVER, this.securityServer)
+                    .tag(TAG_FAULT_CODE, faultCode)
+                    .register(this.registry);
+        }
+
+        void record(E2EEvent event) {
+            if (event.isStatus()) {
+                this.duration.record(event.getDuration(), TimeUnit.MILLISECONDS);
+                this.success.increment();
+                this.up.set(1);
+                return;
+            }
+            this.failure.increment();
+            this.up.set(0);
+            String faultCode = event.getFaultCode() == null || event.getFaultCode().isEmpty() ? UNKNOWN_FAULT_CODE : event.getFaultCode();
+            this.faults.computeIfAbsent(faultCode, this::createFaultCounter).increment();
+        }
+    }
+}
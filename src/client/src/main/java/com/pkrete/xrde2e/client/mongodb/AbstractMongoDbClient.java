@@ -44,8 +44,9 @@ public abstract class AbstractMongoDbClient implements ServerMonitorListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMongoDbClient.class);
     protected MongoClient mongoClient;
-    protected boolean serverStatus;
-    protected boolean pingStarted;
+    protected volatile boolean serverStatus;
+    protected volatile boolean pingStarted;
+    protected volatile boolean heartbeatReceived;
 
     /**
      * Opens a connection using the given connection string that contains all
@@ -57,7 +58,9 @@ public abstract class AbstractMongoDbClient implements ServerMonitorListener {
      */
     protected boolean connect(String connectionString) {
         try {
-            MongoClientURI uri = new MongoClientURI(connectionString);
+            MongoClientOptions.Builder clientOptions = new MongoClientOptions.Builder()
+                    .addServerMonitorListener(this);
+            MongoClientURI uri = new MongoClientURI(connectionString, clientOptions);
             this.mongoClient = new MongoClient(uri);
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
@@ -104,6 +107,19 @@ public abstract class AbstractMongoDbClient implements ServerMonitorListener {
         return true;
     }
 
+    /**
+     * Returns true if the latest heartbeat sent to the MongoDB host succeeded.
+     * Before the first heartbeat has completed the host is considered
+     * available, so that the writes made right after startup are tried
+     * instead of being spooled.
+     *
+     * @return true if and only if the MongoDB host is available, otherwise
+     * false
+     */
+    public boolean isAvailable() {
+        return !this.heartbeatReceived || this.serverStatus;
+    }
+
     @Override
     public void serverHearbeatStarted(ServerHeartbeatStartedEvent serverHeartbeatStartedEvent) {
         LOGGER.trace("Heartbeat started.");
@@ -113,12 +129,20 @@ public abstract class AbstractMongoDbClient implements ServerMonitorListener {
     @Override
     public void serverHeartbeatSucceeded(ServerHeartbeatSucceededEvent serverHeartbeatSucceededEvent) {
         LOGGER.trace("Heartbeat succeeded.");
+        if (!this.serverStatus) {
+            LOGGER.info("MongoDB host is available.");
+        }
         this.serverStatus = true;
+        this.heartbeatReceived = true;
     }
 
     @Override
     public void serverHeartbeatFailed(ServerHeartbeatFailedEvent serverHeartbeatFailedEvent) {
         LOGGER.trace("Heartbeat failed.");
+        if (this.serverStatus || !this.heartbeatReceived) {
+            LOGGER.warn("MongoDB host is not available.");
+        }
         this.serverStatus = false;
+        this.heartbeatReceived = true;
     }
 }
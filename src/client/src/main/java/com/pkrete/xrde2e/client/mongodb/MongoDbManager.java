@@ -24,31 +24,78 @@
 package com.pkrete.xrde2e.client.mongodb;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+import com.pkrete.xrde2e.common.storage.HistoricalLayout;
+import com.pkrete.xrde2e.common.storage.RollupManager;
+import com.pkrete.xrde2e.common.storage.RollupTier;
 import com.pkrete.xrde2e.common.storage.StorageManager;
 import com.pkrete.xrde2e.common.util.Constants;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements operations for adding, updating and deleting data
- * to/from MongoDb.
+ * to/from MongoDb, and for rolling up the historical events to the rollup
+ * collections.
+ *
+ * In documents layout the id of a historical document is the request id of
+ * the event, so an event that is written again, e.g. replayed from the
+ * spool, is rejected as a duplicate and treated as written. Time-series
+ * collections don't enforce unique ids.
  *
  * @author Petteri Kivimäki
  */
-public class MongoDbManager extends AbstractMongoDbClient implements StorageManager {
+public class MongoDbManager extends AbstractMongoDbClient implements StorageManager, RollupManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MongoDbManager.class);
+    // Error codes returned when an index with the same name or keys but
+    // different options already exists
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
+    // Error code returned when a collection with the same name exists
+    private static final int NAMESPACE_EXISTS = 48;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final String TYPE_TIMESERIES = "timeseries";
+    private static final String EXPIRE_AFTER_SECONDS = "expireAfterSeconds";
+    private static final String FIELD_ID = "_id";
+    private static final int ROLLUP_WRITE_CHUNK_SIZE = 500;
+    private PipelineMetrics metrics;
+    private HistoricalLayout historicalLayout = HistoricalLayout.DOCUMENTS;
+    private int deleteChunkSize;
+    private long deleteChunkPause;
+    private int deleteMaxDocsPerSecond;
 
     /**
      * Constructs and initializes a new MongoDbManager object.
@@ -77,6 +124,47 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
         super.connect(host, port);
     }
 
+    /**
+     * Sets the layout of the historical state collection. Must be called
+     * before the collection is created by createIndexes.
+     *
+     * @param historicalLayout layout of the historical events
+     */
+    public void setHistoricalLayout(HistoricalLayout historicalLayout) {
+        this.historicalLayout = historicalLayout;
+    }
+
+    /**
+     * Sets how old entries are deleted from the historical state collection.
+     * If the chunk size is greater than zero, the entries are deleted in
+     * chunks of at most chunk size documents instead of a single delete
+     * operation. The deleting thread pauses between the chunks at least the
+     * given time, and if the maximum rate is defined, long enough to keep
+     * the number of deleted documents per second below it.
+     *
+     * @param chunkSize maximum number of documents deleted using a single
+     * operation, zero or less means that all the entries are deleted using
+     * a single operation
+     * @param chunkPause minimum pause between the chunks in milliseconds
+     * @param maxDocsPerSecond maximum number of deleted documents per second,
+     * zero or less means unlimited
+     */
+    public void setDeleteChunks(int chunkSize, long chunkPause, int maxDocsPerSecond) {
+        this.deleteChunkSize = chunkSize;
+        this.deleteChunkPause = chunkPause;
+        this.deleteMaxDocsPerSecond = maxDocsPerSecond;
+    }
+
+    /**
+     * Sets the metrics where the durations of the write operations and the
+     * number of deleted documents are recorded.
+     *
+     * @param metrics pipeline metrics, may be null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     /**
      * Adds a new E2EEvent to the database.
@@ -85,18 +173,490 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
      * @return true or false
      */
     public boolean add(E2EEvent event) {
-        if (!this.insert(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, event)) {
+        long start = System.nanoTime();
+        boolean success = this.insert(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, event);
+        this.recordWrite(PipelineMetrics.Operation.INSERT, start, 1, success);
+        if (!success) {
             return false;
         }
-        if (!this.update(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE, event)) {
+        start = System.nanoTime();
+        success = this.update(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE, event);
+        this.recordWrite(PipelineMetrics.Operation.UPSERT, start, 1, success);
+        return success;
+    }
+
+    /**
+     * Adds the given E2EEvents to the database. All the events are inserted to
+     * the historical state collection using a single insert operation, and the
+     * current state collection is updated using a single bulk write operation.
+     *
+     * @param events E2EEvents to be added to the database
+     * @return true if and only if all the events were added successfully,
+     * otherwise false
+     */
+    @Override
+    public boolean addAll(List<E2EEvent> events) {
+        if (events.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean success = this.insertAll(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, events);
+        this.recordWrite(PipelineMetrics.Operation.INSERT, start, events.size(), success);
+        if (!success) {
+            return false;
+        }
+        start = System.nanoTime();
+        success = this.updateAll(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE, events);
+        this.recordWrite(PipelineMetrics.Operation.UPSERT, start, events.size(), success);
+        return success;
+    }
+
+    /**
+     * Adds the given E2EEvents to the historical state collection using a
+     * single insert operation. The current state collection is not updated.
+     *
+     * @param events E2EEvents to be added to the database
+     * @return true if and only if all the events were added successfully,
+     * otherwise false
+     */
+    @Override
+    public boolean addHistorical(List<E2EEvent> events) {
+        return this.tryAddHistorical(events).isEmpty();
+    }
+
+    /**
+     * Adds the given E2EEvents to the historical state collection using a
+     * single unordered insert operation and returns the events that could
+     * not be added.
+     *
+     * @param events E2EEvents to be added to the database
+     * @return events that could not be added, empty if all the events were
+     * added successfully
+     */
+    @Override
+    public List<E2EEvent> tryAddHistorical(List<E2EEvent> events) {
+        if (events.isEmpty()) {
+            return events;
+        }
+        long start = System.nanoTime();
+        List<E2EEvent> failed = this.insertAllOrFailed(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, events);
+        this.recordWrite(PipelineMetrics.Operation.INSERT, start, events.size(), failed.isEmpty());
+        return failed;
+    }
+
+    /**
+     * Adds the given E2EEvents replayed from the spool to the historical
+     * state collection. In documents layout the request id is the id of the
+     * document, so the events that have already been added are rejected as
+     * duplicates. Time-series collections don't have unique indexes, which
+     * is why in time-series layout the request ids that already exist in the
+     * collection are looked up first and those events are skipped.
+     *
+     * @param events E2EEvents to be added to the database
+     * @return true if and only if all the events were added successfully or
+     * had been added already, otherwise false
+     */
+    @Override
+    public boolean replayHistorical(List<E2EEvent> events) {
+        if (events.isEmpty() || this.historicalLayout != HistoricalLayout.TIMESERIES) {
+            return this.addHistorical(events);
+        }
+        List<E2EEvent> missing;
+        try {
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            MongoCollection<Document> table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
+            Set<String> existing = new HashSet<>();
+            for (Document document : table.find(getRequestIdQuery(events)).projection(new Document(Constants.COLUMN_REQUEST_ID, 1))) {
+                existing.add(document.getString(Constants.COLUMN_REQUEST_ID));
+            }
+            missing = removeExisting(events, existing);
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+        if (missing.size() < events.size()) {
+            LOGGER.debug("{} of {} replayed events have already been added.", events.size() - missing.size(), events.size());
+        }
+        return this.addHistorical(missing);
+    }
+
+    /**
+     * Returns a query that matches the time-series documents of the given
+     * E2EEvents by request id. If all the events have a begin time, the
+     * query is limited to the begin times of the events, so that only the
+     * buckets covering them are scanned.
+     *
+     * @param events E2EEvents to be looked up
+     * @return query matching the documents of the given events
+     */
+    protected static Document getRequestIdQuery(List<E2EEvent> events) {
+        List<String> requestIds = new ArrayList<>(events.size());
+        Date from = null;
+        Date to = null;
+        boolean limited = true;
+        for (E2EEvent event : events) {
+            requestIds.add(event.getRequestId());
+            Date begin = event.getBegin();
+            if (begin == null) {
+                // Creation time was used as the begin time
+                limited = false;
+            } else {
+                from = from == null || begin.before(from) ? begin : from;
+                to = to == null || begin.after(to) ? begin : to;
+            }
+        }
+        Document query = new Document(Constants.COLUMN_REQUEST_ID, new Document("$in", requestIds));
+        if (limited) {
+            query.append(Constants.COLUMN_BEGIN, new Document("$gte", from).append("$lte", to));
+        }
+        return query;
+    }
+
+    /**
+     * Returns the given E2EEvents whose request id is not in the given set.
+     *
+     * @param events E2EEvents
+     * @param existing request ids of the events that have already been added
+     * @return events that have not been added yet
+     */
+    protected static List<E2EEvent> removeExisting(List<E2EEvent> events, Set<String> existing) {
+        if (existing.isEmpty()) {
+            return events;
+        }
+        List<E2EEvent> missing = new ArrayList<>(events.size());
+        for (E2EEvent event : events) {
+            if (!existing.contains(event.getRequestId())) {
+                missing.add(event);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Updates the current state collection with the given E2EEvents using a
+     * single bulk write operation. The historical state collection is not
+     * updated.
+     *
+     * @param events E2EEvents to be written to the current state
+     * @return true if and only if all the events were written successfully,
+     * otherwise false
+     */
+    @Override
+    public boolean addCurrent(List<E2EEvent> events) {
+        if (events.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean success = this.updateAll(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE, events);
+        this.recordWrite(PipelineMetrics.Operation.UPSERT, start, events.size(), success);
+        return success;
+    }
+
+    private void recordWrite(PipelineMetrics.Operation operation, long start, int events, boolean success) {
+        if (this.metrics != null) {
+            this.metrics.recordWrite(operation, System.nanoTime() - start, events, success);
+        }
+    }
+
+    private void recordDeleted(String collection, long count) {
+        if (this.metrics != null) {
+            this.metrics.recordDeleted(collection, count);
+        }
+    }
+
+    private void recordDeleteChunk(String collection, long nanos) {
+        if (this.metrics != null) {
+            this.metrics.recordDeleteChunk(collection, nanos);
+        }
+    }
+
+    /**
+     * Creates the indexes needed by the queries, updates and deletes if they
+     * don't exist yet. The historical state collection is indexed by security
+     * server and begin time, and the current state collection has a unique
+     * index on security server. Both collections are indexed by creation
+     * time. If a TTL value is given, the creation time index is a TTL index
+     * and MongoDB removes the expired documents automatically.
+     *
+     * In time-series layout the historical state collection is created as a
+     * time-series collection if it doesn't exist yet. It's indexed by the
+     * security server of the target and begin time, and the historical TTL
+     * is set as the expiration time of the collection.
+     *
+     * @param historicalTtl number of days after which the entries are removed
+     * from the historical state collection, zero or less means never
+     * @param currentTtl number of hours after which the entries are removed
+     * from the current state collection, zero or less means never
+     * @return true if and only if all the indexes were created successfully,
+     * otherwise false
+     */
+    public boolean createIndexes(int historicalTtl, int currentTtl) {
+        boolean success;
+        if (this.historicalLayout == HistoricalLayout.TIMESERIES) {
+            success = this.createTimeSeriesCollection(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, historicalTtl);
+            success &= this.createIndex(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE,
+                    new Document(Constants.COLUMN_TARGET + "." + Constants.COLUMN_SECURITY_SERVER, 1).append(Constants.COLUMN_BEGIN, -1),
+                    new IndexOptions());
+        } else {
+            success = this.createIndex(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE,
+                    new Document(Constants.COLUMN_SECURITY_SERVER, 1).append(Constants.COLUMN_BEGIN, -1), new IndexOptions());
+            success &= this.createIndex(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE,
+                    new Document(Constants.COLUMN_CREATED_DATE, 1), this.ttlIndexOptions(historicalTtl, TimeUnit.DAYS));
+        }
+        success &= this.createIndex(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE,
+                new Document(Constants.COLUMN_SECURITY_SERVER, 1), new IndexOptions().unique(true));
+        success &= this.createIndex(Constants.DB_NAME, Constants.TABLE_CURRENT_STATE,
+                new Document(Constants.COLUMN_CREATED_DATE, 1), this.ttlIndexOptions(currentTtl, TimeUnit.HOURS));
+        return success;
+    }
+
+    /**
+     * Creates the indexes needed by the rollups if they don't exist yet. The
+     * historical state collection is indexed by begin time, which is not
+     * needed in time-series layout, and the collection of each tier has a
+     * unique index on security server and bucket start time and an index
+     * on bucket start time.
+     *
+     * @return true if and only if all the indexes were created successfully,
+     * otherwise false
+     */
+    public boolean createRollupIndexes() {
+        boolean success = true;
+        if (this.historicalLayout != HistoricalLayout.TIMESERIES) {
+            success = this.createIndex(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, new Document(Constants.COLUMN_BEGIN, 1), new IndexOptions());
+        }
+        for (RollupTier tier : RollupTier.values()) {
+            success &= this.createIndex(Constants.DB_NAME, tier.getCollection(),
+                    new Document(Constants.COLUMN_SECURITY_SERVER, 1).append(Constants.COLUMN_BEGIN, 1), new IndexOptions().unique(true));
+            success &= this.createIndex(Constants.DB_NAME, tier.getCollection(), new Document(Constants.COLUMN_BEGIN, 1), new IndexOptions());
+        }
+        return success;
+    }
+
+    @Override
+    public long getRollupStart(RollupTier tier) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            Document latest = db.getCollection(tier.getCollection()).find()
+                    .sort(new Document(Constants.COLUMN_BEGIN, -1)).limit(1).first();
+            if (latest != null) {
+                return latest.getDate(Constants.COLUMN_BEGIN).getTime();
+            }
+            Document oldest = db.getCollection(Constants.TABLE_HISTORICAL_STATE).find()
+                    .sort(new Document(Constants.COLUMN_BEGIN, 1)).projection(new Document(Constants.COLUMN_BEGIN, 1)).limit(1).first();
+            if (oldest != null && oldest.getDate(Constants.COLUMN_BEGIN) != null) {
+                return tier.getBucketStart(oldest.getDate(Constants.COLUMN_BEGIN).getTime());
+            }
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        return E2EEvent.NO_TIMESTAMP;
+    }
+
+    /**
+     * Rolls up the given range to the collection of the given tier. The
+     * historical events are grouped by security server and bucket using an
+     * aggregation. The rollups of a source tier are read in the order of
+     * security server and begin time, and the consecutive rollups of the
+     * same bucket are merged. Only a single bucket is held in memory at a
+     * time and the rollups are upserted in chunks of unordered bulk write
+     * operations, so rolling up the same range again replaces the earlier
+     * rollups.
+     *
+     * @param tier rollup tier
+     * @param source smaller tier whose rollups are merged, or null if the
+     * historical events are rolled up
+     * @param from start of the range in milliseconds since the epoch,
+     * inclusive
+     * @param to end of the range in milliseconds since the epoch, exclusive
+     * @return true if and only if the range was rolled up successfully,
+     * otherwise false
+     */
+    @Override
+    public boolean rollup(RollupTier tier, RollupTier source, long from, long to) {
+        long start = System.nanoTime();
+        try {
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            MongoCollection<Document> target = db.getCollection(tier.getCollection());
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            long written = 0;
+            if (source == null) {
+                MongoCursor<Document> cursor = db.getCollection(Constants.TABLE_HISTORICAL_STATE)
+                        .aggregate(this.getRollupPipeline(tier, from, to)).allowDiskUse(true).iterator();
+                try {
+                    while (cursor.hasNext()) {
+                        written += this.addRollupUpdate(target, updates, this.toRollupDocument(cursor.next(), tier));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } else {
+                Document query = new Document(Constants.COLUMN_BEGIN, new Document("$gte", new Date(from)).append("$lt", new Date(to)));
+                MongoCursor<Document> cursor = db.getCollection(source.getCollection()).find(query)
+                        .sort(new Document(Constants.COLUMN_SECURITY_SERVER, 1).append(Constants.COLUMN_BEGIN, 1)).iterator();
+                try {
+                    RollupAccumulator accumulator = null;
+                    Object securityServer = null;
+                    long bucketStart = 0;
+                    while (cursor.hasNext()) {
+                        Document rollup = cursor.next();
+                        long bucket = tier.getBucketStart(rollup.getDate(Constants.COLUMN_BEGIN).getTime());
+                        Object server = rollup.get(Constants.COLUMN_SECURITY_SERVER);
+                        if (accumulator != null && (bucket != bucketStart || !Objects.equals(server, securityServer))) {
+                            written += this.addRollupUpdate(target, updates, accumulator.toDocument(securityServer, bucketStart, tier));
+                            accumulator = null;
+                        }
+                        if (accumulator == null) {
+                            accumulator = new RollupAccumulator();
+                            securityServer = server;
+                            bucketStart = bucket;
+                        }
+                        accumulator.addRollup(rollup);
+                    }
+                    if (accumulator != null) {
+                        written += this.addRollupUpdate(target, updates, accumulator.toDocument(securityServer, bucketStart, tier));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            written += this.writeRollups(target, updates);
+            LOGGER.info("Rolled up {} {} - {} to {} documents in \"{}\" collection in {} ms.", source == null ? "events" : source.getCollection(),
+                    new Date(from), new Date(to), written, tier.getCollection(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds an upsert of the given rollup to the given list of updates, and
+     * writes the updates when the list is full.
+     *
+     * @param target rollup collection
+     * @param updates pending updates
+     * @param rollup rollup document
+     * @return number of rollups written
+     */
+    private long addRollupUpdate(MongoCollection<Document> target, List<WriteModel<Document>> updates, Document rollup) {
+        Bson query = new Document(Constants.COLUMN_SECURITY_SERVER, rollup.get(Constants.COLUMN_SECURITY_SERVER))
+                .append(Constants.COLUMN_BEGIN, rollup.get(Constants.COLUMN_BEGIN));
+        updates.add(new UpdateOneModel<Document>(query, new Document("$set", rollup), new UpdateOptions().upsert(true)));
+        return updates.size() < ROLLUP_WRITE_CHUNK_SIZE ? 0 : this.writeRollups(target, updates);
+    }
+
+    private long writeRollups(MongoCollection<Document> target, List<WriteModel<Document>> updates) {
+        if (updates.isEmpty()) {
+            return 0;
+        }
+        target.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        long written = updates.size();
+        updates.clear();
+        return written;
+    }
+
+    @Override
+    public boolean deleteRollupsOlderThan(RollupTier tier, int days) {
+        try {
+            Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+            MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
+            MongoCollection<Document> table = db.getCollection(tier.getCollection());
+            DeleteResult deleteResult = table.deleteMany(new Document(Constants.COLUMN_BEGIN, new Document("$lt", cutoff)));
+            if (deleteResult.getDeletedCount() > 0) {
+                LOGGER.info("Deleted {} documents from \"{}\" collection.", deleteResult.getDeletedCount(), tier.getCollection());
+            }
+            this.recordDeleted(tier.getCollection(), deleteResult.getDeletedCount());
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            this.recordDeleted(tier.getCollection(), -1);
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns an aggregation pipeline that groups the historical events
+     * within the given range by security server and bucket of the given
+     * tier. The events are first grouped by histogram bin of the successful
+     * events and by fault code of the failed events within each bucket, and
+     * the counts of the bins and the fault codes are then pushed to the
+     * group of the bucket, so the size of each group is bounded by the
+     * number of bins and distinct fault codes instead of the number of
+     * events.
+     *
+     * @param tier rollup tier
+     * @param from start of the range in milliseconds since the epoch,
+     * inclusive
+     * @param to end of the range in milliseconds since the epoch, exclusive
+     * @return aggregation pipeline
+     */
+    protected List<Document> getRollupPipeline(RollupTier tier, long from, long to) {
+        String status = "$" + Constants.COLUMN_STATUS;
+        String duration = "$" + Constants.COLUMN_DURATION;
+        Document successDuration = new Document("$cond", Arrays.asList(status, duration, null));
+        // Milliseconds since the epoch rounded down to the bucket size
+        Document millis = new Document("$subtract", Arrays.asList("$" + Constants.COLUMN_BEGIN, new Date(0)));
+        Document bucket = new Document("$subtract", Arrays.asList(millis, new Document("$mod", Arrays.asList(millis, tier.getBucketSize()))));
+        String securityServer = this.historicalLayout == HistoricalLayout.TIMESERIES
+                ? Constants.COLUMN_TARGET + "." + Constants.COLUMN_SECURITY_SERVER : Constants.COLUMN_SECURITY_SERVER;
+        String id = "$" + FIELD_ID + ".";
+        return Arrays.asList(
+                new Document("$match", new Document(Constants.COLUMN_BEGIN, new Document("$gte", new Date(from)).append("$lt", new Date(to)))),
+                new Document("$group", new Document(FIELD_ID, new Document(Constants.COLUMN_SECURITY_SERVER, "$" + securityServer)
+                        .append(Constants.COLUMN_BEGIN, bucket)
+                        .append(RollupAccumulator.FIELD_BIN, new Document("$cond", Arrays.asList(status, RollupAccumulator.getBinExpression(duration), null)))
+                        .append(Constants.COLUMN_FAULT_CODE, new Document("$cond", Arrays.asList(status, null, "$" + Constants.COLUMN_FAULT_CODE))))
+                        .append(Constants.COLUMN_COUNT, new Document("$sum", 1))
+                        .append(Constants.COLUMN_SUCCESS_COUNT, new Document("$sum", new Document("$cond", Arrays.asList(status, 1, 0))))
+                        .append(Constants.COLUMN_MIN_DURATION, new Document("$min", successDuration))
+                        .append(Constants.COLUMN_MAX_DURATION, new Document("$max", successDuration))
+                        .append(RollupAccumulator.FIELD_DURATION_SUM, new Document("$sum", successDuration))),
+                new Document("$group", new Document(FIELD_ID, new Document(Constants.COLUMN_SECURITY_SERVER, id + Constants.COLUMN_SECURITY_SERVER)
+                        .append(Constants.COLUMN_BEGIN, id + Constants.COLUMN_BEGIN))
+                        .append(Constants.COLUMN_COUNT, new Document("$sum", "$" + Constants.COLUMN_COUNT))
+                        .append(Constants.COLUMN_SUCCESS_COUNT, new Document("$sum", "$" + Constants.COLUMN_SUCCESS_COUNT))
+                        .append(Constants.COLUMN_MIN_DURATION, new Document("$min", "$" + Constants.COLUMN_MIN_DURATION))
+                        .append(Constants.COLUMN_MAX_DURATION, new Document("$max", "$" + Constants.COLUMN_MAX_DURATION))
+                        .append(RollupAccumulator.FIELD_DURATION_SUM, new Document("$sum", "$" + RollupAccumulator.FIELD_DURATION_SUM))
+                        .append(Constants.COLUMN_DURATION_HISTOGRAM, new Document("$push",
+                                new Document(RollupAccumulator.FIELD_BIN, id + RollupAccumulator.FIELD_BIN)
+                                        .append(Constants.COLUMN_COUNT, "$" + Constants.COLUMN_SUCCESS_COUNT)))
+                        .append(Constants.COLUMN_FAULT_CODES, new Document("$push",
+                                new Document(Constants.COLUMN_FAULT_CODE, id + Constants.COLUMN_FAULT_CODE)
+                                        .append(Constants.COLUMN_COUNT, "$" + Constants.COLUMN_COUNT)))),
+                // Only the bins of the successful events and the fault codes
+                // of the failed events are kept
+                new Document("$addFields", new Document(Constants.COLUMN_DURATION_HISTOGRAM,
+                        this.filterNotNull(Constants.COLUMN_DURATION_HISTOGRAM, RollupAccumulator.FIELD_BIN))
+                        .append(Constants.COLUMN_FAULT_CODES, this.filterNotNull(Constants.COLUMN_FAULT_CODES, Constants.COLUMN_FAULT_CODE))));
+    }
+
+    private Document filterNotNull(String array, String field) {
+        return new Document("$filter", new Document("input", "$" + array)
+                .append("cond", new Document("$ne", Arrays.asList("$$this." + field, null))));
+    }
+
+    /**
+     * Converts the given aggregation result document to a rollup document.
+     *
+     * @param result aggregation result document
+     * @param tier rollup tier
+     * @return rollup document
+     */
+    protected Document toRollupDocument(Document result, RollupTier tier) {
+        Document id = (Document) result.get(FIELD_ID);
+        RollupAccumulator accumulator = new RollupAccumulator();
+        accumulator.addResult(result);
+        return accumulator.toDocument(id.get(Constants.COLUMN_SECURITY_SERVER), ((Number) id.get(Constants.COLUMN_BEGIN)).longValue(), tier);
+    }
+
     /**
      * Deletes all the entries older than the given days from the historical
-     * state collection.
+     * state collection. The entries are deleted in chunks if the chunk size
+     * has been set. In time-series layout the documents are not deleted
+     * one by one, instead the expiration time of the collection is set and
+     * MongoDB removes the expired buckets as a whole.
      *
      * @param days number of days
      * @return true if and only if the entries were deleted successfully,
@@ -104,6 +664,13 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
      */
     @Override
     public boolean deleteOlderThan(int days) {
+        if (this.historicalLayout == HistoricalLayout.TIMESERIES) {
+            if (days > 0 && !this.setExpiration(Constants.DB_NAME, Constants.TABLE_HISTORICAL_STATE, days)) {
+                this.recordDeleted(Constants.TABLE_HISTORICAL_STATE, -1);
+                return false;
+            }
+            return true;
+        }
         try {
             // Days must be negative
             int dayCount = days > 0 ? days * -1 : days;
@@ -113,19 +680,96 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
             calendar.add(Calendar.DATE, dayCount);
             LOGGER.info("Delete documents older than \"{}\" days from \"{}\" collection.", calendar.getTime(), Constants.TABLE_HISTORICAL_STATE);
             MongoDatabase db = mongoClient.getDatabase(Constants.DB_NAME);
-            MongoCollection table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
+            MongoCollection<Document> table = db.getCollection(Constants.TABLE_HISTORICAL_STATE);
             Document document = new Document();
             document.put("$lt", calendar.getTime());
             Bson query = new Document(Constants.COLUMN_CREATED_DATE, document);
+            if (this.deleteChunkSize > 0) {
+                return this.deleteInChunks(table, Constants.TABLE_HISTORICAL_STATE, query);
+            }
             DeleteResult deleteResult = table.deleteMany(query);
             LOGGER.info("Deleted {} documents from \"{}\" collection.", deleteResult.getDeletedCount(), Constants.TABLE_HISTORICAL_STATE);
+            this.recordDeleted(Constants.TABLE_HISTORICAL_STATE, deleteResult.getDeletedCount());
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
+            this.recordDeleted(Constants.TABLE_HISTORICAL_STATE, -1);
             return false;
         }
         return true;
     }
 
+    /**
+     * Deletes the documents matching the given query in chunks, oldest first.
+     * The identifiers of at most chunk size documents are looked up using the
+     * creation time index and the documents are then deleted by their
+     * identifiers, so that a single delete operation doesn't run for long.
+     * The progress and the duration of each chunk are logged and recorded.
+     * If the thread is interrupted while pausing between the chunks, the
+     * remaining documents are deleted on the next run.
+     *
+     * @param table collection where the documents are deleted from
+     * @param collection collection name
+     * @param query query that matches the documents to be deleted
+     * @return true if and only if all the matching documents were deleted,
+     * otherwise false
+     */
+    protected boolean deleteInChunks(MongoCollection<Document> table, String collection, Bson query) {
+        long start = System.nanoTime();
+        long total = 0;
+        int chunks = 0;
+        List<Object> ids = new ArrayList<>(this.deleteChunkSize);
+        do {
+            long chunkStart = System.nanoTime();
+            ids.clear();
+            for (Document document : table.find(query).sort(new Document(Constants.COLUMN_CREATED_DATE, 1))
+                    .projection(new Document(FIELD_ID, 1)).limit(this.deleteChunkSize)) {
+                ids.add(document.get(FIELD_ID));
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            long deleted = table.deleteMany(new Document(FIELD_ID, new Document("$in", ids))).getDeletedCount();
+            long chunkDuration = System.nanoTime() - chunkStart;
+            total += deleted;
+            chunks++;
+            this.recordDeleted(collection, deleted);
+            this.recordDeleteChunk(collection, chunkDuration);
+            LOGGER.info("Deleted chunk #{} of {} documents from \"{}\" collection in {} ms. {} documents deleted so far.",
+                    chunks, deleted, collection, TimeUnit.NANOSECONDS.toMillis(chunkDuration), total);
+            if (ids.size() < this.deleteChunkSize) {
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(this.getChunkPause(deleted, chunkDuration));
+            } catch (InterruptedException ex) {
+                LOGGER.warn("Deleting documents from \"{}\" collection interrupted after {} documents.", collection, total);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        } while (!Thread.currentThread().isInterrupted());
+        LOGGER.info("Deleted {} documents from \"{}\" collection in {} chunks and {} ms.", total, collection, chunks,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    /**
+     * Returns the time to pause after deleting a chunk. The pause is at least
+     * the chunk pause, and if the maximum rate is defined, long enough that
+     * the chunk and the pause together take the time the deleted documents
+     * are allowed to take.
+     *
+     * @param deleted number of documents deleted in the chunk
+     * @param chunkDuration duration of the chunk in nanoseconds
+     * @return pause in nanoseconds
+     */
+    protected long getChunkPause(long deleted, long chunkDuration) {
+        long pause = TimeUnit.MILLISECONDS.toNanos(this.deleteChunkPause);
+        if (this.deleteMaxDocsPerSecond > 0) {
+            pause = Math.max(pause, TimeUnit.SECONDS.toNanos(deleted) / this.deleteMaxDocsPerSecond - chunkDuration);
+        }
+        return pause;
+    }
+
     /**
      * Deletes all the entries older than the given hours from the current state
      * collection.
@@ -151,13 +795,132 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
             Bson query = new Document(Constants.COLUMN_CREATED_DATE, document);
             DeleteResult deleteResult = table.deleteMany(query);
             LOGGER.info("Deleted {} documents from \"{}\" collection.", deleteResult.getDeletedCount(), Constants.TABLE_CURRENT_STATE);
+            this.recordDeleted(Constants.TABLE_CURRENT_STATE, deleteResult.getDeletedCount());
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
+            this.recordDeleted(Constants.TABLE_CURRENT_STATE, -1);
             return false;
         }
         return true;
     }
 
+    /**
+     * Creates a time-series collection with begin as the time field and the
+     * target as metadata. If the collection already exists, only its
+     * expiration time is updated. An existing ordinary collection is not
+     * converted, in which case a warning is logged and the time-series
+     * documents are written to it as they are.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param ttl number of days after which the entries are removed, zero or
+     * less means never
+     * @return true if and only if the collection was created or it already
+     * existed, otherwise false
+     */
+    protected boolean createTimeSeriesCollection(String database, String collection, int ttl) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(database);
+            Document options = new Document("timeField", Constants.COLUMN_BEGIN).append("metaField", Constants.COLUMN_TARGET);
+            Document command = new Document("create", collection).append(TYPE_TIMESERIES, options);
+            if (ttl > 0) {
+                command.append(EXPIRE_AFTER_SECONDS, TimeUnit.DAYS.toSeconds(ttl));
+            }
+            try {
+                db.runCommand(command);
+                LOGGER.info("Time-series collection \"{}\" created.", collection);
+                return true;
+            } catch (MongoCommandException ex) {
+                if (ex.getErrorCode() != NAMESPACE_EXISTS) {
+                    throw ex;
+                }
+            }
+            Document info = db.listCollections().filter(new Document("name", collection)).first();
+            if (info == null || !TYPE_TIMESERIES.equals(info.getString("type"))) {
+                LOGGER.warn("Collection \"{}\" exists but it's not a time-series collection. Drop or rename it to use time-series layout.", collection);
+                return true;
+            }
+            return ttl <= 0 || this.setExpiration(database, collection, ttl);
+        } catch (Exception ex) {
+            LOGGER.error("Creating time-series collection \"{}\" failed.", collection);
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * Sets the expiration time of a time-series collection. MongoDB removes
+     * a bucket of documents when all the documents in it have expired.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param days number of days after which the entries are removed
+     * @return true if and only if the expiration time was set, otherwise
+     * false
+     */
+    protected boolean setExpiration(String database, String collection, int days) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(database);
+            db.runCommand(new Document("collMod", collection).append(EXPIRE_AFTER_SECONDS, TimeUnit.DAYS.toSeconds(days)));
+            LOGGER.info("Documents older than {} days are removed from \"{}\" collection by MongoDB.", days, collection);
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates an index with the given keys and options. If an index with the
+     * same keys but different options already exists, e.g. TTL has been
+     * enabled or disabled, the existing index is dropped and recreated.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param keys index keys
+     * @param options index options
+     * @return true if and only the index was successfully created or it
+     * already existed, otherwise false
+     */
+    protected boolean createIndex(String database, String collection, Bson keys, IndexOptions options) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(database);
+            MongoCollection<Document> table = db.getCollection(collection);
+            String name;
+            try {
+                name = table.createIndex(keys, options);
+            } catch (MongoCommandException ex) {
+                if (ex.getErrorCode() != INDEX_OPTIONS_CONFLICT && ex.getErrorCode() != INDEX_KEY_SPECS_CONFLICT) {
+                    throw ex;
+                }
+                LOGGER.info("Index options changed on \"{}\" collection. Recreate index {}.", collection, keys);
+                table.dropIndex(keys);
+                name = table.createIndex(keys, options);
+            }
+            LOGGER.info("Index \"{}\" is available on \"{}\" collection.", name, collection);
+        } catch (Exception ex) {
+            LOGGER.error("Creating index {} on \"{}\" collection failed.", keys, collection);
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns options for an index that expires the documents after the given
+     * time. If the time is zero or less, the documents never expire.
+     *
+     * @param ttl time after which the documents expire
+     * @param unit unit of the time
+     * @return index options
+     */
+    private IndexOptions ttlIndexOptions(int ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            return new IndexOptions();
+        }
+        return new IndexOptions().expireAfter((long) ttl, unit);
+    }
+
     /**
      * Inserts a new E2EEvent to the database.
      *
@@ -171,8 +934,15 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
         try {
             MongoDatabase db = mongoClient.getDatabase(database);
             MongoCollection table = db.getCollection(collection);
-            Document document = this.eventToDocument(event);
+            Document document = this.eventToHistoricalDocument(event);
             table.insertOne(document);
+        } catch (MongoWriteException ex) {
+            if (ex.getError().getCode() == DUPLICATE_KEY) {
+                LOGGER.debug("Event \"{}\" has already been added.", event.getRequestId());
+                return true;
+            }
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage(), ex);
             return false;
@@ -181,6 +951,83 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
 
     }
 
+    /**
+     * Inserts the given E2EEvents to the database using a single unordered
+     * insert operation.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param events E2EEvents to be added to the database
+     * @return true if and only the events were successfully added, otherwise
+     * false
+     */
+    protected boolean insertAll(String database, String collection, List<E2EEvent> events) {
+        return this.insertAllOrFailed(database, collection, events).isEmpty();
+    }
+
+    /**
+     * Inserts the given E2EEvents to the database using a single unordered
+     * insert operation and returns the events that could not be inserted.
+     * The failed events are picked using the indexes of the write errors.
+     * Duplicates of events that have already been inserted are not failures.
+     * If the write concern fails, it's not known which of the events were
+     * written, so all the events are returned.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param events E2EEvents to be added to the database
+     * @return events that could not be inserted, empty if all the events
+     * were inserted successfully
+     */
+    protected List<E2EEvent> insertAllOrFailed(String database, String collection, List<E2EEvent> events) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(database);
+            MongoCollection<Document> table = db.getCollection(collection);
+            List<Document> documents = new ArrayList<>(events.size());
+            for (E2EEvent event : events) {
+                documents.add(this.eventToHistoricalDocument(event));
+            }
+            table.insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException ex) {
+            return this.getFailedEvents(events, ex);
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return events;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the events that failed in the bulk write that threw the given
+     * exception.
+     *
+     * @param events events of the bulk write
+     * @param ex exception thrown by the bulk write
+     * @return events that were not written
+     */
+    protected List<E2EEvent> getFailedEvents(List<E2EEvent> events, MongoBulkWriteException ex) {
+        if (ex.getWriteConcernError() != null) {
+            LOGGER.error(ex.getMessage(), ex);
+            return events;
+        }
+        List<E2EEvent> failed = new ArrayList<>();
+        int duplicates = 0;
+        for (BulkWriteError error : ex.getWriteErrors()) {
+            if (error.getCode() == DUPLICATE_KEY) {
+                duplicates++;
+            } else {
+                failed.add(events.get(error.getIndex()));
+            }
+        }
+        if (duplicates > 0) {
+            LOGGER.debug("{} events have already been added.", duplicates);
+        }
+        if (!failed.isEmpty()) {
+            LOGGER.error("Inserting {} of {} events failed. {}", failed.size(), events.size(), ex.getMessage());
+        }
+        return failed;
+    }
+
     /**
      * Deletes an event with the same security server code from the database.
      *
@@ -231,6 +1078,54 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
         return true;
     }
 
+    /**
+     * Updates the given E2EEvents to the database based on the security server
+     * code using a single unordered bulk write operation. Items that do not
+     * exist are created. An unordered bulk write does not guarantee the order
+     * of the operations, which is why only the latest event of each security
+     * server is written.
+     *
+     * @param database database name
+     * @param collection collection name
+     * @param events E2EEvents to be updated to the database
+     * @return true if and only the events were successfully updated, otherwise
+     * false
+     */
+    protected boolean updateAll(String database, String collection, List<E2EEvent> events) {
+        try {
+            MongoDatabase db = mongoClient.getDatabase(database);
+            MongoCollection<Document> table = db.getCollection(collection);
+            Collection<E2EEvent> latest = getLatestPerServer(events);
+            List<WriteModel<Document>> updates = new ArrayList<>(latest.size());
+            for (E2EEvent event : latest) {
+                Bson query = new Document(Constants.COLUMN_SECURITY_SERVER, event.getSecurityServer());
+                Bson newDocument = new Document("$set", this.eventToDocument(event));
+                updates.add(new UpdateOneModel<Document>(query, newDocument, new UpdateOptions().upsert(true)));
+            }
+            table.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (Exception ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the latest event of each security server in the given events.
+     * The events are in the order in which the security servers first
+     * appear in the given events.
+     *
+     * @param events E2EEvents in the order they were received
+     * @return latest event of each security server
+     */
+    protected static Collection<E2EEvent> getLatestPerServer(List<E2EEvent> events) {
+        Map<String, E2EEvent> latest = new LinkedHashMap<>();
+        for (E2EEvent event : events) {
+            latest.put(event.getSecurityServer(), event);
+        }
+        return latest.values();
+    }
+
     /**
      * Deletes all the entries from the given collection.
      *
@@ -252,6 +1147,53 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
 
     }
 
+    /**
+     * Converts the given E2EEvent to a Document of the historical state
+     * collection according to the historical layout.
+     *
+     * @param event E2EEvent to be converted
+     * @return Document representing the given E2EEvent
+     */
+    protected Document eventToHistoricalDocument(E2EEvent event) {
+        if (this.historicalLayout == HistoricalLayout.TIMESERIES) {
+            return this.eventToTimeSeriesDocument(event);
+        }
+        Document document = new Document();
+        if (event.getRequestId() != null) {
+            document.put(FIELD_ID, event.getRequestId());
+        }
+        document.putAll(this.eventToDocument(event));
+        return document;
+    }
+
+    /**
+     * Converts the given E2EEvent to a Document of a time-series collection.
+     * The label, producer member and security server are the metadata of
+     * the document, which MongoDB stores once per bucket. The time field is
+     * required, so the creation time is used as the begin time of an event
+     * that has none.
+     *
+     * @param event E2EEvent to be converted
+     * @return Document representing the given E2EEvent
+     */
+    protected Document eventToTimeSeriesDocument(E2EEvent event) {
+        Date createdDate = new Date();
+        Document document = new Document();
+        document.put(Constants.COLUMN_TARGET, new Document(Constants.COLUMN_LABEL, event.getLabel())
+                .append(Constants.COLUMN_PRODUCER_MEMBER, event.getProducerMember())
+                .append(Constants.COLUMN_SECURITY_SERVER, event.getSecurityServer()));
+        document.put(Constants.COLUMN_REQUEST_ID, event.getRequestId());
+        document.put(Constants.COLUMN_STATUS, event.isStatus());
+        document.put(Constants.COLUMN_FAULT_CODE, event.getFaultCode());
+        document.put(Constants.COLUMN_FAULT_STRING, event.getFaultString());
+        document.put(Constants.COLUMN_DURATION, event.getDuration());
+        document.put(Constants.COLUMN_CONNECT_DURATION, event.getConnectDuration());
+        document.put(Constants.COLUMN_BEGIN, event.getBegin() != null ? event.getBegin() : createdDate);
+        document.put(Constants.COLUMN_END, event.getEnd());
+        document.put(Constants.COLUMN_CREATED_DATE, createdDate);
+        return document;
+    }
+
     /**
      * Converts the given E2EEvent to a corresponding Document
      *
@@ -268,6 +1210,7 @@ public class MongoDbManager extends AbstractMongoDbClient implements StorageMana
         document.put(Constants.COLUMN_FAULT_CODE, event.getFaultCode());
         document.put(Constants.COLUMN_FAULT_STRING, event.getFaultString());
         document.put(Constants.COLUMN_DURATION, event.getDuration());
+        document.put(Constants.COLUMN_CONNECT_DURATION, event.getConnectDuration());
         document.put(Constants.COLUMN_BEGIN, event.getBegin());
         document.put(Constants.COLUMN_END, event.getEnd());
         document.put(Constants.COLUMN_CREATED_DATE, new Date());
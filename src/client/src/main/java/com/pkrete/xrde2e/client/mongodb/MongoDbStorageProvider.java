@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.mongodb;
+
+import com.pkrete.xrde2e.client.util.Constants;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+import com.pkrete.xrde2e.common.storage.HistoricalLayout;
+import com.pkrete.xrde2e.common.storage.StorageManager;
+import com.pkrete.xrde2e.common.storage.StorageProvider;
+
+import org.niis.xrd4j.common.util.MessageHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+/**
+ * This class provides the MongoDB storage of the client. The storage
+ * manager creates the indexes needed by the storage, the TTL indexes too if
+ * old events are removed by MongoDB, and the rollup indexes if rollups are
+ * enabled.
+ *
+ * @author Petteri Kivimäki
+ */
+public class MongoDbStorageProvider implements StorageProvider {
+
+    /**
+     * Name of the provider.
+     */
+    public static final String NAME = Constants.STORAGE_MONGODB;
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoDbStorageProvider.class);
+    private static final String PROPS_LOG_PATTERN = "\"{}\" : \"{}\"";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public StorageManager createStorageManager(Properties settings, PipelineMetrics metrics) {
+        String dbHost = settings.getProperty(Constants.PROPERTIES_DB_HOST);
+        int dbPort = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DB_PORT));
+        String dbConnectionString = System.getProperty(Constants.PROPERTIES_DB_CONNECTION_STRING,
+                settings.getProperty(Constants.PROPERTIES_DB_CONNECTION_STRING));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DB_HOST, dbHost);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DB_PORT, dbPort);
+        MongoDbManager storageManager;
+        // Check if connection string has been defined
+        if (dbConnectionString != null && !dbConnectionString.isEmpty()) {
+            LOGGER.debug("Use {} for database connection.", Constants.PROPERTIES_DB_CONNECTION_STRING);
+            storageManager = new MongoDbManager(dbConnectionString);
+        } else {
+            LOGGER.debug("Use {} and {} for database connection.", Constants.PROPERTIES_DB_HOST, Constants.PROPERTIES_DB_PORT);
+            storageManager = new MongoDbManager(dbHost, dbPort);
+        }
+        storageManager.setMetrics(metrics);
+        HistoricalLayout historicalLayout = HistoricalLayout.fromString(settings.getProperty(Constants.PROPERTIES_DB_HISTORICAL_LAYOUT));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DB_HISTORICAL_LAYOUT, historicalLayout);
+        storageManager.setHistoricalLayout(historicalLayout);
+        int deleteChunkSize = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_CHUNK_SIZE));
+        int deleteChunkPause = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_CHUNK_PAUSE));
+        int deleteMaxDocsPerSecond = MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_MAX_DOCS_PER_SECOND));
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DELETE_CHUNK_SIZE, deleteChunkSize);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DELETE_CHUNK_PAUSE, deleteChunkPause);
+        LOGGER.info(PROPS_LOG_PATTERN, Constants.PROPERTIES_DELETE_MAX_DOCS_PER_SECOND, deleteMaxDocsPerSecond);
+        storageManager.setDeleteChunks(deleteChunkSize, Math.max(deleteChunkPause, 0), deleteMaxDocsPerSecond);
+        // Expiration times are passed to the indexes only if old events are
+        // removed by TTL indexes
+        boolean ttlIndex = this.removesExpiredEvents(settings);
+        int historicalTtl = ttlIndex ? MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_OLDER_THAN)) : 0;
+        int currentTtl = ttlIndex ? MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_DELETE_OLDER_THAN_CURRENT)) : 0;
+        if (!storageManager.createIndexes(historicalTtl, currentTtl)) {
+            LOGGER.warn("Creating database indexes failed. Queries may be slow until the indexes are created on the next start.");
+        }
+        if (MessageHelper.strToInt(settings.getProperty(Constants.PROPERTIES_ROLLUP_INTERVAL)) > 0 && !storageManager.createRollupIndexes()) {
+            LOGGER.warn("Creating rollup indexes failed. Rollups may be slow until the indexes are created on the next start.");
+        }
+        return storageManager;
+    }
+
+    @Override
+    public boolean removesExpiredEvents(Properties settings) {
+        return Boolean.parseBoolean(settings.getProperty(Constants.PROPERTIES_TTL_INDEX));
+    }
+}
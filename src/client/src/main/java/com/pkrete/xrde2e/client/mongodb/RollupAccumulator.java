@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.mongodb;
+
+import com.pkrete.xrde2e.common.storage.RollupTier;
+import com.pkrete.xrde2e.common.util.Constants;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class accumulates the summary of the events of a single security
+ * server and bucket, and converts it to a rollup document. The summary can
+ * be accumulated from aggregation results of the raw events or from the
+ * rollups of a smaller tier, so the durations of the events are never held
+ * in memory.
+ *
+ * The durations of the successful events are counted in a histogram whose
+ * bins grow exponentially, so histograms can be merged and the 95th
+ * percentile duration is calculated from the histogram with a relative
+ * error of at most five percent. The fault codes are counted per code and
+ * only the most common ones are stored, so the fault codes of a merged
+ * rollup are the most common ones of its source rollups.
+ *
+ * @author Petteri Kivimäki
+ */
+final class RollupAccumulator {
+
+    static final String FIELD_BIN = "bin";
+    static final String FIELD_DURATION_SUM = "durationSum";
+    private static final double BIN_GROWTH = 1.05;
+    private static final double LN_BIN_GROWTH = Math.log(BIN_GROWTH);
+    private static final double PERCENTILE_95 = 0.95;
+    private static final int TOP_FAULT_CODES = 5;
+    private long count;
+    private long successCount;
+    private Long minDuration;
+    private Long maxDuration;
+    private double durationSum;
+    private final Map<Integer, Long> histogram = new TreeMap<>();
+    private final Map<String, Long> faultCodes = new HashMap<>();
+
+    /**
+     * Returns an aggregation expression that calculates the histogram bin
+     * of the given duration. The duration d belongs to the bin
+     * floor(ln(d + 1) / ln(1.05)).
+     *
+     * @param duration duration expression
+     * @return aggregation expression
+     */
+    static Document getBinExpression(Object duration) {
+        Document ln = new Document("$ln", new Document("$add", Arrays.asList(duration, 1)));
+        return new Document("$floor", new Document("$divide", Arrays.asList(ln, LN_BIN_GROWTH)));
+    }
+
+    /**
+     * Returns the largest duration that belongs to the given histogram bin.
+     *
+     * @param bin histogram bin
+     * @return largest duration of the bin
+     */
+    static long getUpperBound(int bin) {
+        return Math.max(0, (long) Math.ceil(Math.exp((bin + 1) * LN_BIN_GROWTH) - 1) - 1);
+    }
+
+    /**
+     * Adds the given aggregation result of the raw events. The result
+     * contains the counts, the min and max durations, the sum of the
+     * durations, the histogram and the fault code counts.
+     *
+     * @param result aggregation result document
+     */
+    void addResult(Document result) {
+        this.add(result, toDouble(result.get(FIELD_DURATION_SUM)));
+    }
+
+    /**
+     * Adds the given rollup of a smaller tier.
+     *
+     * @param rollup rollup document
+     */
+    void addRollup(Document rollup) {
+        Object avgDuration = rollup.get(Constants.COLUMN_AVG_DURATION);
+        this.add(rollup, toDouble(avgDuration) * toLong(rollup.get(Constants.COLUMN_SUCCESS_COUNT)));
+    }
+
+    /**
+     * Converts the accumulated summary to a rollup document of the given
+     * security server, bucket and tier.
+     *
+     * @param securityServer security server
+     * @param bucketStart start time of the bucket in milliseconds since the
+     * epoch
+     * @param tier rollup tier
+     * @return rollup document
+     */
+    Document toDocument(Object securityServer, long bucketStart, RollupTier tier) {
+        List<Document> bins = new ArrayList<>(this.histogram.size());
+        for (Map.Entry<Integer, Long> entry : this.histogram.entrySet()) {
+            bins.add(new Document(FIELD_BIN, entry.getKey()).append(Constants.COLUMN_COUNT, entry.getValue()));
+        }
+        Document document = new Document();
+        document.put(Constants.COLUMN_SECURITY_SERVER, securityServer);
+        document.put(Constants.COLUMN_BEGIN, new Date(bucketStart));
+        document.put(Constants.COLUMN_END, new Date(bucketStart + tier.getBucketSize()));
+        document.put(Constants.COLUMN_COUNT, this.count);
+        document.put(Constants.COLUMN_SUCCESS_COUNT, this.successCount);
+        document.put(Constants.COLUMN_MIN_DURATION, this.minDuration);
+        document.put(Constants.COLUMN_AVG_DURATION, this.successCount > 0 ? this.durationSum / this.successCount : null);
+        document.put(Constants.COLUMN_P95_DURATION, this.getPercentile(PERCENTILE_95));
+        document.put(Constants.COLUMN_MAX_DURATION, this.maxDuration);
+        document.put(Constants.COLUMN_DURATION_HISTOGRAM, bins);
+        document.put(Constants.COLUMN_FAULT_CODES, this.getTopFaultCodes());
+        document.put(Constants.COLUMN_CREATED_DATE, new Date());
+        return document;
+    }
+
+    private void add(Document document, double sum) {
+        this.count += toLong(document.get(Constants.COLUMN_COUNT));
+        this.successCount += toLong(document.get(Constants.COLUMN_SUCCESS_COUNT));
+        this.durationSum += sum;
+        Object min = document.get(Constants.COLUMN_MIN_DURATION);
+        if (min != null && (this.minDuration == null || toLong(min) < this.minDuration)) {
+            this.minDuration = toLong(min);
+        }
+        Object max = document.get(Constants.COLUMN_MAX_DURATION);
+        if (max != null && (this.maxDuration == null || toLong(max) > this.maxDuration)) {
+            this.maxDuration = toLong(max);
+        }
+        for (Document bin : getList(document, Constants.COLUMN_DURATION_HISTOGRAM)) {
+            Object value = bin.get(FIELD_BIN);
+            if (value != null) {
+                this.histogram.merge(((Number) value).intValue(), toLong(bin.get(Constants.COLUMN_COUNT)), Long::sum);
+            }
+        }
+        for (Document faultCode : getList(document, Constants.COLUMN_FAULT_CODES)) {
+            Object value = faultCode.get(Constants.COLUMN_FAULT_CODE);
+            if (value != null) {
+                this.faultCodes.merge(value.toString(), toLong(faultCode.get(Constants.COLUMN_COUNT)), Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Returns the given percentile duration picked from the histogram using
+     * the nearest-rank method like in the aggregates of the backend. The
+     * upper bound of the bin is limited to the min and max durations.
+     */
+    private Long getPercentile(double percentile) {
+        long total = 0;
+        for (long binCount : this.histogram.values()) {
+            total += binCount;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long cumulative = 0;
+        for (Map.Entry<Integer, Long> entry : this.histogram.entrySet()) {
+            cumulative += entry.getValue();
+            if (cumulative >= rank) {
+                long duration = getUpperBound(entry.getKey());
+                if (this.maxDuration != null) {
+                    duration = Math.min(duration, this.maxDuration);
+                }
+                if (this.minDuration != null) {
+                    duration = Math.max(duration, this.minDuration);
+                }
+                return duration;
+            }
+        }
+        return null;
+    }
+
+    private List<Document> getTopFaultCodes() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(this.faultCodes.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        List<Document> top = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(TOP_FAULT_CODES, entries.size()))) {
+            top.add(new Document(Constants.COLUMN_FAULT_CODE, entry.getKey()).append(Constants.COLUMN_COUNT, entry.getValue()));
+        }
+        return top;
+    }
+
+    private static List<Document> getList(Document document, String key) {
+        List<Document> list = new ArrayList<>();
+        Object value = document.get(key);
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (item instanceof Document) {
+                    list.add((Document) item);
+                }
+            }
+        }
+        return list;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    private static double toDouble(Object value) {
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+}
@@ -24,24 +24,41 @@
 package com.pkrete.xrde2e.client.thread;
 
 import com.pkrete.xrde2e.client.member.E2EProducerMember;
+import com.pkrete.xrde2e.client.metrics.ProbeMetrics;
+import com.pkrete.xrde2e.client.transport.ProbeResult;
+import com.pkrete.xrde2e.client.transport.SOAPTransport;
 import com.pkrete.xrde2e.common.event.E2EEvent;
 import com.pkrete.xrde2e.common.event.E2EEventQueue;
+import com.pkrete.xrde2e.common.event.E2ETarget;
 
-import org.niis.xrd4j.client.SOAPClient;
-import org.niis.xrd4j.client.SOAPClientImpl;
 import org.niis.xrd4j.common.message.ServiceRequest;
-import org.niis.xrd4j.common.message.ServiceResponse;
 import org.niis.xrd4j.common.util.MessageHelper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class is responsible for calling security server's listMethods service
  * and storing the response in the storage.
  *
+ * The worker can be run in a thread of its own, in which case it keeps on
+ * sending requests until the thread is interrupted and sleeps the given
+ * interval between the requests. Alternatively, the probe method can be
+ * scheduled to run periodically, which sends a single request.
+ *
+ * A request that times out produces a failure event with a fault code of
+ * its own. A probe that hangs in spite of the timeouts can be recycled by
+ * a watchdog, which records a timeout event in place of the probe, cancels
+ * the probe and closes its connection. Only one probe of a worker runs at a
+ * time.
+ *
  * @author Petteri Kivimäki
  */
 public class E2EWorker implements Runnable {
@@ -50,20 +67,35 @@ public class E2EWorker implements Runnable {
     private final String url;
     private final int interval;
     private final ServiceRequest request;
+    private final SOAPTransport transport;
+    private final RateLimiter rateLimiter;
+    private final ProbeMetrics metrics;
+    private final E2ETarget target;
     private static int count = 0;
     private final int number;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    // Probe that is currently running, null if there's none
+    private final AtomicReference<InFlightProbe> inFlight = new AtomicReference<>();
 
     /**
      * Constructs and initializes a new E2EWorker object.
      *
      * @param url
-     * @param interval
+     * @param interval interval that's used if the target doesn't define one
      * @param request
+     * @param transport transport used for sending the requests
+     * @param rateLimiter limiter shared by all the workers
+     * @param metrics metrics where the results are recorded, may be null
      */
-    public E2EWorker(String url, int interval, ServiceRequest request) {
+    public E2EWorker(String url, int interval, ServiceRequest request, SOAPTransport transport, RateLimiter rateLimiter, ProbeMetrics metrics) {
+        E2EProducerMember producer = (E2EProducerMember) request.getProducer();
         this.url = url;
-        this.interval = interval;
+        this.interval = producer.getInterval() > 0 ? producer.getInterval() : interval;
         this.request = request;
+        this.transport = transport;
+        this.rateLimiter = rateLimiter;
+        this.metrics = metrics;
+        this.target = new E2ETarget(producer.getLabel(), producer.toString(), request.getSecurityServer().toString());
         this.number = count;
         count++;
     }
@@ -73,64 +105,9 @@ public class E2EWorker implements Runnable {
         if (LOGGER.isInfoEnabled()) {
             LOGGER.info("Thread #{} starting to monitor security server \"{}\".", this.number, request.getSecurityServer());
         }
-        // Init variables for counting requests and time
-        int requestCount = 0;
-        String label = ((E2EProducerMember) this.request.getProducer()).getLabel();
         // Keep on sending messages forever
         while (!Thread.currentThread().isInterrupted()) {
-            // Init variables for logging
-            long throughput = 0;
-            boolean status = false;
-            String faultCode = "";
-            String faultString = "";
-            Date begin = null;
-            Date end = null;
-            // Get unique ID for the message
-            String reqId = MessageHelper.generateId();
-            try {
-                // Set message ID
-                request.setId(reqId);
-                LOGGER.debug("Thread #{} sending message #{}, ID : \"{}\".", this.number, requestCount, reqId);
-                long msgStartTime = System.currentTimeMillis();
-                begin = new Date();
-                // Create new client for sending the message
-                SOAPClient client = new SOAPClientImpl();
-                // Send the ServiceRequest, result is returned as ServiceResponse object
-                ServiceResponse<String, String> serviceResponse = client.listMethods(request, url);
-                // Calculate message throughput time
-                throughput = System.currentTimeMillis() - msgStartTime;
-                end = new Date();
-                // Check SOAP response for SOAP Fault
-                if (serviceResponse.hasError()) {
-                    status = false;
-                    faultCode = serviceResponse.getErrorMessage().getFaultCode();
-                    faultString = serviceResponse.getErrorMessage().getFaultString();
-                    LOGGER.error("Thread #{} received response containing SOAP Fault for message #{}, ID : \"{}\".", this.number, requestCount, reqId);
-                    LOGGER.error("Fault code : \"{}\".", serviceResponse.getErrorMessage().getFaultCode());
-                } else {
-                    status = true;
-                    LOGGER.debug("Thread #{} received response for message #{}, ID : \"{}\".", this.number, requestCount, reqId);
-                }
-                LOGGER.info("Server \"{}\" status: {}. Request \"{}\" duration {}ms. Fault code: \"{}\"",
-                        request.getSecurityServer().getServerCode(), status, reqId, throughput, faultCode);
-            } catch (Exception ex) {
-                LOGGER.error("Thread #{} sending message #{} failed, ID : \"{}\".", this.number, requestCount, reqId);
-                LOGGER.error(ex.getMessage(), ex);
-            }
-            // Create new E2EEvent for the storage and put it in the queue
-            E2EEvent event = new E2EEvent.E2EEventBuilder()
-                    .label(label)
-                    .producerMember(request.getProducer().toString())
-                    .securityServer(request.getSecurityServer().toString())
-                    .requestId(reqId)
-                    .status(status)
-                    .faultCode(faultCode)
-                    .faultString(faultString)
-                    .duration(throughput)
-                    .begin(begin)
-                    .end(end)
-                    .build();
-            E2EEventQueue.getInstance().put(event);
+            this.probe();
             // Sleep...
             if (this.interval > 0) {
                 try {
@@ -141,11 +118,228 @@ public class E2EWorker implements Runnable {
                     Thread.currentThread().interrupt();
                 }
             }
-            // Update request counter
-            requestCount++;
         }
         if (LOGGER.isInfoEnabled()) {
             LOGGER.info("Thread #{} quitting to monitor security server \"{}\".", this.number, request.getSecurityServer());
         }
     }
+
+    /**
+     * Returns the interval between the requests in milliseconds.
+     *
+     * @return interval between the requests
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Recycles the running probe if no event has been produced for it within
+     * the given time. A timeout event is recorded in place of the probe, the
+     * task of the probe is cancelled, which interrupts its thread, and the
+     * connection of the probe is closed, which makes a blocked read fail.
+     * The result of the probe is dropped if it completes later. A new probe
+     * is not started before the thread of the recycled probe is released,
+     * so if the transport can't close the connection, a new timeout event is
+     * recorded after each period of the given time until the thread is
+     * released.
+     *
+     * @param now current time in milliseconds since the epoch
+     * @param maxDuration maximum time in milliseconds a probe may run
+     * without producing an event
+     * @return true if a timeout event was recorded, otherwise false
+     */
+    public boolean recycle(long now, long maxDuration) {
+        InFlightProbe probe = this.inFlight.get();
+        if (probe == null || now - probe.since < maxDuration) {
+            return false;
+        }
+        String reqId;
+        if (probe.completed.compareAndSet(false, true)) {
+            reqId = probe.requestId;
+            probe.task.cancel(true);
+            this.transport.disconnect(reqId);
+            LOGGER.warn("Thread #{} probe of security server \"{}\" has been running {} ms without producing an event. Probe recycled, ID : \"{}\".",
+                    this.number, request.getSecurityServer(), now - probe.begin, reqId);
+        } else if (probe.task.isCancelled()) {
+            reqId = MessageHelper.generateId();
+            LOGGER.warn("Thread #{} recycled probe of security server \"{}\" is still blocked after {} ms.",
+                    this.number, request.getSecurityServer(), now - probe.begin);
+        } else {
+            // The probe completed just now
+            return false;
+        }
+        long begin = probe.since;
+        probe.since = now;
+        this.publish(new E2EEvent.E2EEventBuilder()
+                .target(target)
+                .requestId(reqId)
+                .status(false)
+                .faultCode(ProbeResult.FAULT_CODE_TIMEOUT)
+                .faultString("Probe didn't complete in " + maxDuration + " ms")
+                .duration(now - begin)
+                .begin(begin)
+                .end(now)
+                .build());
+        return true;
+    }
+
+    /**
+     * Sends a single listMethods request to the security server and puts the
+     * result in the event queue. Blocks until the rate limiter allows sending
+     * the request. The request is run as a cancellable task in the current
+     * thread, so that the watchdog can cancel it.
+     */
+    public void probe() {
+        try {
+            this.rateLimiter.acquire();
+        } catch (InterruptedException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        this.sendProbe();
+    }
+
+    /**
+     * Reserves a permit from the rate limiter for the next probe without
+     * blocking.
+     *
+     * @param delay minimum delay of the probe in nanoseconds
+     * @return time in nanoseconds after which the probe may be sent
+     */
+    public long reservePermit(long delay) {
+        return this.rateLimiter.reserve(delay);
+    }
+
+    /**
+     * Sends a single listMethods request to the security server and puts the
+     * result in the event queue without acquiring a permit from the rate
+     * limiter. The caller must have reserved a permit using reservePermit
+     * and waited until it's available.
+     */
+    public void sendProbe() {
+        // Init variables for logging
+        long throughput = 0;
+        long connectDuration = -1;
+        boolean status = false;
+        String faultCode = "";
+        String faultString = "";
+        long end = E2EEvent.NO_TIMESTAMP;
+        int messageNumber = this.requestCount.getAndIncrement();
+        // Get unique ID for the message. The ID is passed to the transport,
+        // because the request is shared by all the probes of the target.
+        String reqId = MessageHelper.generateId();
+        FutureTask<ProbeResult> task = new FutureTask<>(() -> transport.listMethods(request, reqId, url));
+        LOGGER.debug("Thread #{} sending message #{}, ID : \"{}\".", this.number, messageNumber, reqId);
+        long begin = System.currentTimeMillis();
+        InFlightProbe probe = new InFlightProbe(task, reqId, begin);
+        this.inFlight.set(probe);
+        // Send the ServiceRequest using the shared transport
+        task.run();
+        long completed = System.currentTimeMillis();
+        this.inFlight.compareAndSet(probe, null);
+        if (task.isCancelled()) {
+            // The thread is not interrupted anymore when the task returns,
+            // clear the interrupt so that the thread can run the next probe
+            Thread.interrupted();
+        }
+        if (!probe.completed.compareAndSet(false, true)) {
+            LOGGER.warn("Thread #{} message #{} completed after the probe was recycled, ID : \"{}\". Result dropped.", this.number, messageNumber, reqId);
+            return;
+        }
+        try {
+            ProbeResult result = task.get();
+            // Calculate message throughput time
+            end = completed;
+            throughput = end - begin;
+            connectDuration = result.getConnectDuration();
+            status = result.isStatus();
+            // Check SOAP response for SOAP Fault
+            if (!status) {
+                faultCode = result.getFaultCode();
+                faultString = result.getFaultString();
+                LOGGER.error("Thread #{} received response containing SOAP Fault for message #{}, ID : \"{}\".", this.number, messageNumber, reqId);
+                LOGGER.error("Fault code : \"{}\".", faultCode);
+            } else {
+                LOGGER.debug("Thread #{} received response for message #{}, ID : \"{}\".", this.number, messageNumber, reqId);
+            }
+            LOGGER.info("Server \"{}\" status: {}. Request \"{}\" duration {}ms, connect {}ms. Fault code: \"{}\"",
+                    request.getSecurityServer().getServerCode(), status, reqId, throughput, connectDuration, faultCode);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (isTimeout(cause)) {
+                end = completed;
+                throughput = end - begin;
+                faultCode = ProbeResult.FAULT_CODE_TIMEOUT;
+                faultString = cause.getMessage();
+                LOGGER.error("Thread #{} sending message #{} timed out, ID : \"{}\". {}", this.number, messageNumber, reqId, faultString);
+            } else {
+                LOGGER.error("Thread #{} sending message #{} failed, ID : \"{}\".", this.number, messageNumber, reqId);
+                LOGGER.error(cause.getMessage(), cause);
+            }
+        } catch (InterruptedException ex) {
+            // The task has already completed, so get doesn't wait
+            LOGGER.error(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
+        }
+        // Create new E2EEvent for the storage and put it in the queue
+        E2EEvent event = new E2EEvent.E2EEventBuilder()
+                .target(target)
+                .requestId(reqId)
+                .status(status)
+                .faultCode(faultCode)
+                .faultString(faultString)
+                .duration(throughput)
+                .connectDuration(connectDuration)
+                .begin(begin)
+                .end(end)
+                .build();
+        this.publish(event);
+    }
+
+    private void publish(E2EEvent event) {
+        if (this.metrics != null) {
+            this.metrics.record(event);
+        }
+        E2EEventQueue.getInstance().put(event);
+    }
+
+    /**
+     * Returns true if the given exception or one of its causes tells that a
+     * connect or read timeout or the deadline of the request expired.
+     *
+     * @param ex exception to be checked
+     * @return true if the request timed out, otherwise false
+     */
+    static boolean isTimeout(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Holds the state of a running probe. The probe and the watchdog both
+     * try to complete the probe and only the one that succeeds produces an
+     * event for it.
+     */
+    private static final class InFlightProbe {
+
+        private final FutureTask<ProbeResult> task;
+        private final String requestId;
+        private final long begin;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        // Time since when the probe hasn't produced an event
+        private volatile long since;
+
+        InFlightProbe(FutureTask<ProbeResult> task, String requestId, long begin) {
+            this.task = task;
+            this.requestId = requestId;
+            this.begin = begin;
+            this.since = begin;
+        }
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+/**
+ * This enum defines how the monitoring workers are executed.
+ *
+ * @author Petteri Kivimäki
+ */
+public enum ExecutionMode {
+    /**
+     * Each worker runs in a platform thread of its own and sleeps between
+     * the requests.
+     */
+    THREAD,
+    /**
+     * Probes are scheduled by a single scheduler thread and run by a fixed
+     * size pool of threads. The number of threads does not depend on the
+     * number of targets.
+     */
+    SCHEDULED,
+    /**
+     * Probes are scheduled by a single scheduler thread and each probe is run
+     * in a new virtual thread. Blocking I/O doesn't reserve a platform
+     * thread.
+     */
+    VIRTUAL;
+
+    /**
+     * Returns the execution mode matching the given name. The comparison is
+     * case insensitive. If the name is null or empty, or no match is found,
+     * THREAD is returned.
+     *
+     * @param name name of the execution mode
+     * @return execution mode matching the given name
+     */
+    public static ExecutionMode fromString(String name) {
+        if (name != null) {
+            String value = name.trim();
+            for (ExecutionMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+        }
+        return THREAD;
+    }
+}
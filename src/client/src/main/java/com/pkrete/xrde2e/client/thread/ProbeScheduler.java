@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class schedules the probes of the workers. The first probe of each
+ * worker is delayed so that the probes are spread evenly over the interval
+ * window, and after that the probes are run at a fixed rate. The schedule is
+ * tied to the start time, so slow requests don't cause the probes to drift
+ * into bursts. Each probe may be delayed by a random jitter that is at most
+ * half of the interval of the worker. If the previous probe of a worker is
+ * still running when the next one is due, the next one is skipped. This
+ * applies to the probes recycled by the watchdog too, so a target never
+ * holds more than one thread of the executor.
+ *
+ * The timer only triggers the probes and the probes are run by the given
+ * executor. A permit of the shared rate limiter is reserved when a probe is
+ * triggered and the probe is dispatched to the executor when the permit is
+ * available, so neither the timer nor the executor waits for permits.
+ *
+ * @author Petteri Kivimäki
+ */
+public class ProbeScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProbeScheduler.class);
+    // Jitter is limited to interval / MAX_JITTER_DIVISOR
+    private static final int MAX_JITTER_DIVISOR = 2;
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final int jitter;
+
+    /**
+     * Constructs and initializes a new ProbeScheduler object.
+     *
+     * @param timer scheduled executor that triggers the probes
+     * @param executor executor that runs the probes
+     * @param jitter maximum random delay of a single probe in milliseconds
+     */
+    public ProbeScheduler(ScheduledExecutorService timer, Executor executor, int jitter) {
+        this.timer = timer;
+        this.executor = executor;
+        this.jitter = Math.max(jitter, 0);
+    }
+
+    /**
+     * Schedules the probes of the given workers. The first probe of worker i
+     * is delayed by i / n of its interval, where n is the number of workers.
+     *
+     * @param workers workers to be scheduled
+     */
+    public void schedule(List<E2EWorker> workers) {
+        int count = workers.size();
+        for (int i = 0; i < count; i++) {
+            E2EWorker worker = workers.get(i);
+            // The period must be positive
+            long interval = Math.max(worker.getInterval(), 1);
+            long offset = interval * i / count;
+            LOGGER.debug("Scheduling worker #{}. Interval {} ms, offset {} ms.", i, interval, offset);
+            this.timer.scheduleAtFixedRate(new ScheduledProbe(worker, Math.min(this.jitter, interval / MAX_JITTER_DIVISOR)),
+                    offset, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Triggers the probes of a single worker. A periodic task that throws an
+     * exception is not run again, which is why all the exceptions are caught
+     * and logged.
+     */
+    private class ScheduledProbe implements Runnable {
+
+        private final E2EWorker worker;
+        private final long maxJitter;
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        ScheduledProbe(E2EWorker worker, long maxJitter) {
+            this.worker = worker;
+            this.maxJitter = maxJitter;
+        }
+
+        @Override
+        public void run() {
+            if (!this.running.compareAndSet(false, true)) {
+                LOGGER.debug("Previous probe still running. Probe skipped.");
+                return;
+            }
+            try {
+                long randomDelay = this.maxJitter > 0 ? ThreadLocalRandom.current().nextLong(this.maxJitter + 1) : 0;
+                // The permit is reserved now and the probe is dispatched
+                // when it's available, so the timer thread never sleeps
+                long delay = this.worker.reservePermit(TimeUnit.MILLISECONDS.toNanos(randomDelay));
+                if (delay > 0) {
+                    timer.schedule(this::dispatch, delay, TimeUnit.NANOSECONDS);
+                } else {
+                    this.dispatch();
+                }
+            } catch (RuntimeException ex) {
+                this.running.set(false);
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+
+        private void dispatch() {
+            try {
+                executor.execute(this::probe);
+            } catch (RejectedExecutionException ex) {
+                this.running.set(false);
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+
+        private void probe() {
+            try {
+                this.worker.sendProbe();
+            } catch (Exception ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            } finally {
+                this.running.set(false);
+            }
+        }
+    }
+}
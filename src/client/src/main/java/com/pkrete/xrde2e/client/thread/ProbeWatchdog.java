@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is responsible for detecting workers whose probe has not
+ * produced an event within the given number of intervals of the worker.
+ * The probe of such a worker is recycled, which records a timeout event
+ * for the target, cancels the probe and closes its connection, so that the
+ * thread of the probe is released for new probes. The request
+ * timeouts of the transport should normally end the probes before the
+ * watchdog, which is why the watchdog never acts before the deadline of
+ * the request has passed.
+ *
+ * @author Petteri Kivimäki
+ */
+public class ProbeWatchdog implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProbeWatchdog.class);
+    private final List<E2EWorker> workers;
+    private final int intervals;
+    private final long deadline;
+    private final long checkInterval;
+
+    /**
+     * Constructs and initializes a new ProbeWatchdog object.
+     *
+     * @param workers workers to be watched
+     * @param intervals number of intervals of a worker after which its probe
+     * is recycled
+     * @param deadline deadline of a single request in milliseconds, zero or
+     * less if not set
+     * @param checkInterval how often in milliseconds the workers are checked
+     */
+    public ProbeWatchdog(List<E2EWorker> workers, int intervals, long deadline, long checkInterval) {
+        this.workers = new ArrayList<>(workers);
+        this.intervals = intervals;
+        this.deadline = deadline;
+        this.checkInterval = checkInterval;
+        LOGGER.info("ProbeWatchdog initiated.");
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("ProbeWatchdog started. Intervals {}, check interval {} ms.", this.intervals, this.checkInterval);
+        while (this.checkInterval > 0 && !Thread.currentThread().isInterrupted()) {
+            this.check(System.currentTimeMillis());
+            try {
+                Thread.sleep(this.checkInterval);
+            } catch (InterruptedException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOGGER.info("ProbeWatchdog quitted.");
+    }
+
+    /**
+     * Recycles the probes that have been running too long.
+     *
+     * @param now current time in milliseconds since the epoch
+     * @return number of recycled probes
+     */
+    int check(long now) {
+        int recycled = 0;
+        for (E2EWorker worker : this.workers) {
+            if (worker.recycle(now, this.getMaxDuration(worker))) {
+                recycled++;
+            }
+        }
+        if (recycled > 0) {
+            LOGGER.warn("{} stuck probes recycled.", recycled);
+        }
+        return recycled;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds the probe of the given worker
+     * may run without producing an event.
+     *
+     * @param worker worker
+     * @return maximum duration of a probe in milliseconds
+     */
+    long getMaxDuration(E2EWorker worker) {
+        return Math.max((long) this.intervals * Math.max(worker.getInterval(), 1), this.deadline);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the number of requests per second. Permits are handed
+ * out at evenly spaced points in time and unused permits are not saved, so
+ * the requests never come in bursts. A limiter with zero or negative rate
+ * doesn't limit the requests at all.
+ *
+ * @author Petteri Kivimäki
+ */
+public class RateLimiter {
+
+    private final long permitInterval;
+    private long nextPermit;
+
+    /**
+     * Constructs and initializes a new RateLimiter object.
+     *
+     * @param permitsPerSecond maximum number of permits per second, zero or
+     * less means unlimited
+     */
+    public RateLimiter(int permitsPerSecond) {
+        this.permitInterval = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        this.nextPermit = System.nanoTime();
+    }
+
+    /**
+     * Returns true if the number of permits is limited.
+     *
+     * @return true if and only if the rate is limited, otherwise false
+     */
+    public boolean isLimited() {
+        return this.permitInterval > 0;
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait = this.reserve(0);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Reserves the first permit that is available after the given delay
+     * without blocking. The caller must not send the request before the
+     * returned time has elapsed.
+     *
+     * @param delay minimum delay of the permit in nanoseconds
+     * @return time until the reserved permit in nanoseconds, at least the
+     * given delay
+     */
+    public long reserve(long delay) {
+        if (this.permitInterval == 0) {
+            return delay;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            long permit = Math.max(now + delay, this.nextPermit);
+            this.nextPermit = permit + this.permitInterval;
+            return permit - now;
+        }
+    }
+}
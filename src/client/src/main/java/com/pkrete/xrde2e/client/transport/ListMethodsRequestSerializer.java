@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.ProducerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class converts a ServiceRequest object to an X-Road message protocol
+ * 4.0 listMethods request.
+ *
+ * @author Petteri Kivimäki
+ */
+final class ListMethodsRequestSerializer {
+
+    private static final String PROTOCOL_VERSION = "4.0";
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * Private constructor that hides the implicit public one.
+     */
+    private ListMethodsRequestSerializer() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Converts the given request to a UTF-8 encoded SOAP message.
+     *
+     * @param request request to be converted
+     * @return SOAP message as a byte array
+     */
+    static byte[] serialize(ServiceRequest request) {
+        return serialize(request, request.getId());
+    }
+
+    /**
+     * Converts the given request to a UTF-8 encoded SOAP message using the
+     * given message id instead of the id of the request.
+     *
+     * @param request request to be converted
+     * @param requestId message id
+     * @return SOAP message as a byte array
+     */
+    static byte[] serialize(ServiceRequest request, String requestId) {
+        StringBuilder xml = new StringBuilder(INITIAL_SIZE);
+        xml.append("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"")
+                .append(" xmlns:id=\"http://x-road.eu/xsd/identifiers\" xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\">")
+                .append("<SOAP-ENV:Header>");
+        appendClient(xml, request.getConsumer());
+        appendService(xml, request.getProducer());
+        appendSecurityServer(xml, request.getSecurityServer());
+        appendElement(xml, "xrd:id", requestId);
+        appendElement(xml, "xrd:userId", request.getUserId());
+        appendElement(xml, "xrd:protocolVersion", PROTOCOL_VERSION);
+        xml.append("</SOAP-ENV:Header><SOAP-ENV:Body><xrd:listMethods/></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendClient(StringBuilder xml, ConsumerMember consumer) {
+        boolean subsystem = consumer.getSubsystemCode() != null && !consumer.getSubsystemCode().isEmpty();
+        xml.append("<xrd:client id:objectType=\"").append(subsystem ? "SUBSYSTEM" : "MEMBER").append("\">");
+        appendElement(xml, "id:xRoadInstance", consumer.getXRoadInstance());
+        appendElement(xml, "id:memberClass", consumer.getMemberClass());
+        appendElement(xml, "id:memberCode", consumer.getMemberCode());
+        appendElement(xml, "id:subsystemCode", consumer.getSubsystemCode());
+        xml.append("</xrd:client>");
+    }
+
+    private static void appendService(StringBuilder xml, ProducerMember producer) {
+        xml.append("<xrd:service id:objectType=\"SERVICE\">");
+        appendElement(xml, "id:xRoadInstance", producer.getXRoadInstance());
+        appendElement(xml, "id:memberClass", producer.getMemberClass());
+        appendElement(xml, "id:memberCode", producer.getMemberCode());
+        appendElement(xml, "id:subsystemCode", producer.getSubsystemCode());
+        appendElement(xml, "id:serviceCode", producer.getServiceCode());
+        appendElement(xml, "id:serviceVersion", producer.getServiceVersion());
+        xml.append("</xrd:service>");
+    }
+
+    private static void appendSecurityServer(StringBuilder xml, SecurityServer server) {
+        if (server == null) {
+            return;
+        }
+        xml.append("<xrd:securityServer id:objectType=\"SERVER\">");
+        appendElement(xml, "id:xRoadInstance", server.getXRoadInstance());
+        appendElement(xml, "id:memberClass", server.getMemberClass());
+        appendElement(xml, "id:memberCode", server.getMemberCode());
+        appendElement(xml, "id:serverCode", server.getServerCode());
+        xml.append("</xrd:securityServer>");
+    }
+
+    /**
+     * Appends an element with the given name and value. Null and empty values
+     * are omitted.
+     */
+    private static void appendElement(StringBuilder xml, String name, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        xml.append('<').append(name).append('>');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+        xml.append("</").append(name).append('>');
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.xml.soap.MessageFactory;
+import jakarta.xml.soap.MimeHeaders;
+import jakarta.xml.soap.SOAPBody;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.soap.SOAPFault;
+import jakarta.xml.soap.SOAPMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class sends listMethods requests over HTTP connections that are kept
+ * alive and reused between the requests. The connections are pooled by the
+ * HTTP keep-alive cache of the JVM, so a single instance can be shared by
+ * all the workers. The maximum number of idle connections per security
+ * server and the idle time of a connection are controlled by the
+ * "http.maxConnections" and "http.keepAlive.time.server" system properties.
+ *
+ * The time spent on opening the connection is measured separately. When an
+ * idle connection is reused the connection setup time is close to zero.
+ *
+ * Each request may have a connect timeout, a read timeout and an overall
+ * deadline. The read timeout only limits a single read, so a server that
+ * keeps on sending the response slowly is stopped by the deadline, which
+ * closes the connection from a timer thread. All the timeouts are reported
+ * as SocketTimeoutExceptions. The connection of a request in progress can
+ * also be closed using its message id.
+ *
+ * @author Petteri Kivimäki
+ */
+public class PooledSOAPTransport implements SOAPTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledSOAPTransport.class);
+    private static final int HTTP_BAD_REQUEST = 400;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long deadline;
+    private final ScheduledThreadPoolExecutor timer;
+    // Connections of the requests in progress by message id
+    private final ConcurrentMap<String, HttpURLConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs and initializes a new PooledSOAPTransport object without
+     * timeouts.
+     */
+    public PooledSOAPTransport() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Constructs and initializes a new PooledSOAPTransport object. Zero or
+     * less means that the timeout is not set.
+     *
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param deadline maximum duration of a single request in milliseconds
+     */
+    public PooledSOAPTransport(int connectTimeout, int readTimeout, long deadline) {
+        this.connectTimeout = Math.max(connectTimeout, 0);
+        this.readTimeout = Math.max(readTimeout, 0);
+        this.deadline = Math.max(deadline, 0);
+        if (this.deadline > 0) {
+            this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "xrde2e-transport-deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Most of the requests complete in time and their deadlines are
+            // cancelled, so the cancelled tasks are removed right away
+            this.timer.setRemoveOnCancelPolicy(true);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    @Override
+    public ProbeResult listMethods(ServiceRequest request, String requestId, String url) throws IOException, SOAPException {
+        byte[] body = ListMethodsRequestSerializer.serialize(request, requestId);
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
+        connection.setRequestProperty("SOAPAction", "\"\"");
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+
+        // Closing the connection makes the blocked connect, write or read
+        // fail right away
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> abort = this.timer == null ? null : this.timer.schedule(() -> {
+            expired.set(true);
+            connection.disconnect();
+        }, this.deadline, TimeUnit.MILLISECONDS);
+        long connectDuration;
+        byte[] response;
+        this.connections.put(requestId, connection);
+        try {
+            // Get a connection from the keep-alive cache or open a new one
+            long connectStart = System.nanoTime();
+            connection.connect();
+            connectDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+            LOGGER.trace("Connection to \"{}\" opened in {} ms.", url, connectDuration);
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int responseCode = connection.getResponseCode();
+            InputStream in = responseCode < HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+            if (in == null) {
+                throw new IOException("Server returned HTTP response code " + responseCode + " without a response body.");
+            }
+            // The response must be read completely and the stream closed before
+            // the connection is returned to the keep-alive cache
+            try (InputStream responseStream = in) {
+                response = responseStream.readAllBytes();
+            }
+        } catch (IOException ex) {
+            if (expired.get()) {
+                SocketTimeoutException timeout = new SocketTimeoutException("Request deadline of " + this.deadline + " ms exceeded");
+                timeout.initCause(ex);
+                throw timeout;
+            }
+            throw ex;
+        } finally {
+            this.connections.remove(requestId);
+            if (abort != null) {
+                abort.cancel(false);
+            }
+        }
+        return parse(response, connection.getContentType(), connectDuration);
+    }
+
+    @Override
+    public void disconnect(String requestId) {
+        HttpURLConnection connection = this.connections.remove(requestId);
+        if (connection != null) {
+            LOGGER.debug("Closing the connection of request \"{}\".", requestId);
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Parses the given listMethods response and checks if it contains a SOAP
+     * Fault.
+     *
+     * @param response response body
+     * @param contentType content type of the response, may be null
+     * @param connectDuration time spent on opening the connection
+     * @return result of the request
+     * @throws IOException if reading the response fails
+     * @throws SOAPException if the response is not a valid SOAP message
+     */
+    static ProbeResult parse(byte[] response, String contentType, long connectDuration) throws IOException, SOAPException {
+        MimeHeaders headers = new MimeHeaders();
+        if (contentType != null) {
+            headers.addHeader("Content-Type", contentType);
+        }
+        SOAPMessage message = MessageFactory.newInstance().createMessage(headers, new ByteArrayInputStream(response));
+        SOAPBody soapBody = message.getSOAPBody();
+        if (soapBody.hasFault()) {
+            SOAPFault fault = soapBody.getFault();
+            return new ProbeResult(false, fault.getFaultCode(), fault.getFaultString(), connectDuration);
+        }
+        return new ProbeResult(true, "", "", connectDuration);
+    }
+}
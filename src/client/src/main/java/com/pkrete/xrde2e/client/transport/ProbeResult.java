@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+/**
+ * This class holds the result of a single listMethods request sent to a
+ * security server.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class ProbeResult {
+
+    /**
+     * Fault code of the events whose request didn't complete in time. The
+     * code is set by the client, so it never collides with the fault codes
+     * returned by the security servers.
+     */
+    public static final String FAULT_CODE_TIMEOUT = "xrde2e.Timeout";
+    private final boolean status;
+    private final String faultCode;
+    private final String faultString;
+    private final long connectDuration;
+
+    /**
+     * Constructs and initializes a new ProbeResult object.
+     *
+     * @param status true if and only if the response didn't contain a fault
+     * @param faultCode fault code of the response or an empty string
+     * @param faultString fault string of the response or an empty string
+     * @param connectDuration time spent on opening the connection in
+     * milliseconds, -1 if the time was not measured
+     */
+    public ProbeResult(boolean status, String faultCode, String faultString, long connectDuration) {
+        this.status = status;
+        this.faultCode = faultCode;
+        this.faultString = faultString;
+        this.connectDuration = connectDuration;
+    }
+
+    /**
+     * Returns true if and only if the response didn't contain a fault.
+     *
+     * @return true if and only if the status is OK, otherwise false
+     */
+    public boolean isStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the fault code of the response.
+     *
+     * @return fault code or an empty string if the status is OK
+     */
+    public String getFaultCode() {
+        return faultCode;
+    }
+
+    /**
+     * Returns the fault string of the response.
+     *
+     * @return fault string or an empty string if the status is OK
+     */
+    public String getFaultString() {
+        return faultString;
+    }
+
+    /**
+     * Returns the time spent on opening the connection in milliseconds.
+     *
+     * @return connection setup time in milliseconds, -1 if the time was not
+     * measured
+     */
+    public long getConnectDuration() {
+        return connectDuration;
+    }
+}
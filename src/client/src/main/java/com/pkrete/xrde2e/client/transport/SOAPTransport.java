@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import jakarta.xml.soap.SOAPException;
+
+import java.io.IOException;
+
+/**
+ * This interface defines a transport that sends listMethods requests to a
+ * security server. Implementations must be thread safe, because a single
+ * transport is shared by all the workers. The request object is shared by
+ * all the probes of a target, so implementations must not modify it.
+ *
+ * @author Petteri Kivimäki
+ */
+public interface SOAPTransport {
+
+    /**
+     * Sends the given listMethods request to the given URL and returns the
+     * result.
+     *
+     * @param request request to be sent
+     * @param requestId unique message id of this request
+     * @param url URL of the security server
+     * @return result of the request
+     * @throws IOException if sending the request or reading the response
+     * fails
+     * @throws SOAPException if the response is not a valid SOAP message
+     * @throws XRd4JException if the request is not valid
+     */
+    ProbeResult listMethods(ServiceRequest request, String requestId, String url) throws IOException, SOAPException, XRd4JException;
+
+    /**
+     * Closes the connection of the request with the given message id if the
+     * request is still in progress, which makes the request fail right away.
+     * Transports that don't support closing the connections ignore the call.
+     *
+     * @param requestId message id of the request
+     */
+    default void disconnect(String requestId) {
+    }
+}
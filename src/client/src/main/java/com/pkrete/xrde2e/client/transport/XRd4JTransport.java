@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+import org.niis.xrd4j.client.SOAPClient;
+import org.niis.xrd4j.client.SOAPClientImpl;
+import org.niis.xrd4j.common.exception.XRd4JException;
+import org.niis.xrd4j.common.message.ServiceRequest;
+import org.niis.xrd4j.common.message.ServiceResponse;
+
+import jakarta.xml.soap.SOAPException;
+
+/**
+ * This class sends listMethods requests using the XRd4J SOAP client. A new
+ * client and connection is created for every request, so connection setup
+ * time is included in the duration of the request and it's not measured
+ * separately. The XRd4J client doesn't give access to the connection, so
+ * the requests can't be disconnected.
+ *
+ * @author Petteri Kivimäki
+ */
+public class XRd4JTransport implements SOAPTransport {
+
+    @Override
+    public ProbeResult listMethods(ServiceRequest request, String requestId, String url) throws SOAPException, XRd4JException {
+        // The shared request is copied, because the client reads the message
+        // id from the request
+        ServiceRequest<String> copy = new ServiceRequest<>(request.getConsumer(), request.getProducer(), requestId);
+        copy.setSecurityServer(request.getSecurityServer());
+        // Create new client for sending the message
+        SOAPClient client = new SOAPClientImpl();
+        // Send the ServiceRequest, result is returned as ServiceResponse object
+        ServiceResponse<String, String> serviceResponse = client.listMethods(copy, url);
+        // Check SOAP response for SOAP Fault
+        if (serviceResponse.hasError()) {
+            return new ProbeResult(false, serviceResponse.getErrorMessage().getFaultCode(),
+                    serviceResponse.getErrorMessage().getFaultString(), -1);
+        }
+        return new ProbeResult(true, "", "", -1);
+    }
+}
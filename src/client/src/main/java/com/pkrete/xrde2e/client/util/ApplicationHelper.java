@@ -27,7 +27,6 @@ import com.pkrete.xrde2e.client.member.E2EProducerMember;
 
 import org.niis.xrd4j.common.exception.XRd4JException;
 import org.niis.xrd4j.common.member.ConsumerMember;
-import org.niis.xrd4j.common.member.ProducerMember;
 import org.niis.xrd4j.common.member.SecurityServer;
 import org.niis.xrd4j.common.message.ServiceRequest;
 import org.niis.xrd4j.common.util.MessageHelper;
@@ -189,6 +188,7 @@ public final class ApplicationHelper {
             String subsystem = settings.getProperty(key + "." + Constants.PROPERTIES_SUBSYSTEM);
             String server = settings.getProperty(key + "." + Constants.PROPERTIES_SERVER);
             String label = settings.getProperty(key + "." + Constants.PROPERTIES_LABEL);
+            int interval = strToInt(settings.getProperty(key + "." + Constants.PROPERTIES_INTERVAL));
 
             // Validate subsystem and server value. Returned Matcher contains
             // four groups that are used for creating a new
@@ -216,10 +216,13 @@ public final class ApplicationHelper {
             String[] partsSubsystem = subsystem.split("\\.");
 
             try {
-                ProducerMember producer = new E2EProducerMember(
+                E2EProducerMember producer = new E2EProducerMember(
                         partsSubsystem[INSTANCE_ID_INDEX], partsSubsystem[MEMBER_CLASS_INDEX],
                         partsSubsystem[MEMBER_CODE_INDEX], partsSubsystem[SUBSYSTEM_INDEX],
                         "listMethods", label);
+                // Target specific interval, zero means that the global
+                // interval is used
+                producer.setInterval(interval);
                 SecurityServer securityServer = new SecurityServer(
                         matcher.group(INSTANCE_ID_GROUP), matcher.group(MEMBER_CLASS_GROUP),
                         matcher.group(MEMBER_CODE_GROUP), matcher.group(SERVER_CODE_GROUP));
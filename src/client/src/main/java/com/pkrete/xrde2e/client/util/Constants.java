@@ -49,13 +49,55 @@ public final class Constants {
     public static final String PROPERTIES_SUBSYSTEM = "subsystem";
     public static final String PROPERTIES_LABEL = "label";
     public static final String PROPERTIES_SERVER = "server";
+    public static final String PROPERTIES_STORAGE = "storage";
     public static final String PROPERTIES_DB_HOST = "db.host";
     public static final String PROPERTIES_DB_PORT = "db.port";
     public static final String PROPERTIES_DB_CONNECTION_STRING = "db.connectionString";
+    public static final String PROPERTIES_DB_HISTORICAL_LAYOUT = "db.historicalLayout";
     public static final String PROPERTIES_DELETE_OLDER_THAN = "deleteOlderThan";
     public static final String PROPERTIES_DELETE_OLDER_THAN_CURRENT = "deleteOlderThanFromCurrent";
     public static final String PROPERTIES_DELETE_OLDER_THAN_INTERVAL = "deleteOlderThanInterval";
+    public static final String PROPERTIES_DELETE_CHUNK_SIZE = "deleteChunkSize";
+    public static final String PROPERTIES_DELETE_CHUNK_PAUSE = "deleteChunkPause";
+    public static final String PROPERTIES_DELETE_MAX_DOCS_PER_SECOND = "deleteMaxDocsPerSecond";
+    public static final String PROPERTIES_TTL_INDEX = "ttlIndex";
+    public static final String PROPERTIES_ROLLUP_INTERVAL = "rollup.interval";
+    public static final String PROPERTIES_ROLLUP_TIERS = "rollup.tiers";
+    // Retention of a rollup tier, the tier name is lower case
+    public static final String PROPERTIES_ROLLUP_RETENTION = "rollup.%s.retention";
     public static final String PROPERTIES_THREAD_INTERVAL = "threadInterval";
+    public static final String PROPERTIES_BATCH_SIZE = "batchSize";
+    public static final String PROPERTIES_BATCH_TIMEOUT = "batchTimeout";
+    public static final String PROPERTIES_QUEUE_CAPACITY = "queueCapacity";
+    public static final String PROPERTIES_QUEUE_OVERFLOW_POLICY = "queueOverflowPolicy";
+    public static final String PROPERTIES_PROCESSOR_LANES = "processorLanes";
+    public static final String PROPERTIES_CURRENT_STATE_FLUSH_INTERVAL = "currentStateFlushInterval";
+    public static final String PROPERTIES_CURRENT_STATE_HEARTBEAT = "currentStateHeartbeat";
+    public static final String PROPERTIES_SPOOL_FILE = "spoolFile";
+    public static final String PROPERTIES_SPOOL_SIZE = "spoolSize";
+    public static final String PROPERTIES_SPOOL_BATCH_SIZE = "spoolBatchSize";
+    public static final String PROPERTIES_SPOOL_REPLAY_INTERVAL = "spoolReplayInterval";
+    public static final String PROPERTIES_EXECUTION_MODE = "executionMode";
+    public static final String PROPERTIES_SCHEDULER_POOL_SIZE = "schedulerPoolSize";
+    public static final String PROPERTIES_JITTER = "jitter";
+    public static final String PROPERTIES_MAX_REQUESTS_PER_SECOND = "maxRequestsPerSecond";
+    public static final String PROPERTIES_TRANSPORT = "transport";
+    public static final String PROPERTIES_TRANSPORT_MAX_CONNECTIONS = "transportMaxConnections";
+    public static final String PROPERTIES_TRANSPORT_KEEP_ALIVE_TIME = "transportKeepAliveTime";
+    public static final String PROPERTIES_TRANSPORT_CONNECT_TIMEOUT = "transportConnectTimeout";
+    public static final String PROPERTIES_TRANSPORT_READ_TIMEOUT = "transportReadTimeout";
+    public static final String PROPERTIES_TRANSPORT_DEADLINE = "transportDeadline";
+    public static final String PROPERTIES_WATCHDOG_INTERVALS = "watchdogIntervals";
+    public static final String PROPERTIES_METRICS_PORT = "metricsPort";
+    /**
+     * Transport names
+     */
+    public static final String TRANSPORT_POOLED = "pooled";
+    public static final String TRANSPORT_XRD4J = "xrd4j";
+    /**
+     * Storage names
+     */
+    public static final String STORAGE_MONGODB = "mongodb";
 
     /**
      * Private constructor that hides the implicit public one.
@@ -24,15 +24,28 @@
 package com.pkrete.xrde2e.client.mongodb;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.storage.HistoricalLayout;
+import com.pkrete.xrde2e.common.storage.RollupTier;
 import com.pkrete.xrde2e.common.util.Constants;
 
 import org.niis.xrd4j.common.util.MessageHelper;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
 import org.bson.Document;
 import org.junit.jupiter.api.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -84,4 +97,228 @@ public class MongoDbManagerTest {
         assertEquals(sdf.parse("18.12.2016 08:57:30.893"), document.getDate(Constants.COLUMN_END));
         // CreatedDate is assigned during conversion so we dont't know its value
     }
+
+    /**
+     * Test conversion from E2EEvent to a time-series Document.
+     */
+    @Test
+    public void testEventToTimeSeriesDocument() {
+        E2EEvent event = new E2EEvent.E2EEventBuilder()
+                .label("Text label")
+                .producerMember("FI-PILOT.GOV.1019125-0.TestService")
+                .securityServer("FI-PILOT.COM.2229125-0.orgsecser01t")
+                .requestId("1")
+                .status(true)
+                .duration(567)
+                .begin(1000)
+                .end(1567)
+                .build();
+        MongoDbManager manager = new MongoDbManager();
+        assertEquals(true, manager.eventToHistoricalDocument(event).containsKey(Constants.COLUMN_SECURITY_SERVER));
+        manager.setHistoricalLayout(HistoricalLayout.TIMESERIES);
+        Document document = manager.eventToHistoricalDocument(event);
+        Document target = document.get(Constants.COLUMN_TARGET, Document.class);
+        assertEquals("Text label", target.getString(Constants.COLUMN_LABEL));
+        assertEquals("FI-PILOT.GOV.1019125-0.TestService", target.getString(Constants.COLUMN_PRODUCER_MEMBER));
+        assertEquals("FI-PILOT.COM.2229125-0.orgsecser01t", target.getString(Constants.COLUMN_SECURITY_SERVER));
+        assertEquals(false, document.containsKey(Constants.COLUMN_SECURITY_SERVER));
+        assertEquals("1", document.getString(Constants.COLUMN_REQUEST_ID));
+        assertEquals(1000, document.getDate(Constants.COLUMN_BEGIN).getTime());
+        // The time field is required, creation time is used if begin is not set
+        event.setBegin(null);
+        document = manager.eventToTimeSeriesDocument(event);
+        assertEquals(document.getDate(Constants.COLUMN_CREATED_DATE), document.getDate(Constants.COLUMN_BEGIN));
+    }
+
+    /**
+     * Test that the id of a historical document is the request id in
+     * documents layout.
+     */
+    @Test
+    public void testEventToHistoricalDocumentId() {
+        E2EEvent event = new E2EEvent.E2EEventBuilder()
+                .securityServer("FI-PILOT.COM.2229125-0.orgsecser01t")
+                .requestId("abc")
+                .status(true)
+                .build();
+        MongoDbManager manager = new MongoDbManager();
+        assertEquals("abc", manager.eventToHistoricalDocument(event).getString("_id"));
+        assertEquals(false, manager.eventToDocument(event).containsKey("_id"));
+        event.setRequestId(null);
+        assertEquals(false, manager.eventToHistoricalDocument(event).containsKey("_id"));
+    }
+
+    /**
+     * Test that the replayed events whose request id already exists in a
+     * time-series collection are skipped.
+     */
+    @Test
+    public void testReplayTimeSeries() {
+        List<E2EEvent> events = Arrays.asList(
+                new E2EEvent.E2EEventBuilder().requestId("1").begin(3000).build(),
+                new E2EEvent.E2EEventBuilder().requestId("2").begin(1000).build(),
+                new E2EEvent.E2EEventBuilder().requestId("3").begin(2000).build());
+        Document query = MongoDbManager.getRequestIdQuery(events);
+        assertEquals(Arrays.asList("1", "2", "3"), query.get(Constants.COLUMN_REQUEST_ID, Document.class).get("$in"));
+        Document begin = query.get(Constants.COLUMN_BEGIN, Document.class);
+        assertEquals(1000, begin.getDate("$gte").getTime());
+        assertEquals(3000, begin.getDate("$lte").getTime());
+
+        List<E2EEvent> missing = MongoDbManager.removeExisting(events, new HashSet<>(Arrays.asList("1", "3")));
+        assertEquals(1, missing.size());
+        assertEquals("2", missing.get(0).getRequestId());
+        assertEquals(events, MongoDbManager.removeExisting(events, new HashSet<String>()));
+
+        // Creation time was used as the begin time of an event without one
+        events.get(1).setBegin(null);
+        assertEquals(false, MongoDbManager.getRequestIdQuery(events).containsKey(Constants.COLUMN_BEGIN));
+    }
+
+    /**
+     * Test picking the failed events of a bulk insert.
+     */
+    @Test
+    public void testGetFailedEvents() {
+        List<E2EEvent> events = Arrays.asList(
+                new E2EEvent.E2EEventBuilder().requestId("1").build(),
+                new E2EEvent.E2EEventBuilder().requestId("2").build(),
+                new E2EEvent.E2EEventBuilder().requestId("3").build());
+        // Duplicates have already been inserted
+        List<BulkWriteError> errors = Arrays.asList(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+                new BulkWriteError(121, "validation failed", new BsonDocument(), 2));
+        MongoBulkWriteException ex = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), errors, null, new ServerAddress());
+        List<E2EEvent> failed = new MongoDbManager().getFailedEvents(events, ex);
+        assertEquals(1, failed.size());
+        assertEquals("3", failed.get(0).getRequestId());
+    }
+
+    /**
+     * Test that the current state is updated only with the latest event of
+     * each security server in a batch.
+     */
+    @Test
+    public void testGetLatestPerServer() {
+        List<E2EEvent> events = Arrays.asList(
+                new E2EEvent.E2EEventBuilder().requestId("1").securityServer("server1").build(),
+                new E2EEvent.E2EEventBuilder().requestId("2").securityServer("server2").build(),
+                new E2EEvent.E2EEventBuilder().requestId("3").securityServer("server1").build(),
+                new E2EEvent.E2EEventBuilder().requestId("4").securityServer("server1").build());
+        List<E2EEvent> latest = new ArrayList<>(MongoDbManager.getLatestPerServer(events));
+        assertEquals(2, latest.size());
+        assertEquals("4", latest.get(0).getRequestId());
+        assertEquals("2", latest.get(1).getRequestId());
+    }
+
+    /**
+     * Test that the host is considered available until the first heartbeat
+     * fails.
+     */
+    @Test
+    public void testIsAvailable() {
+        MongoDbManager manager = new MongoDbManager();
+        assertEquals(true, manager.isAvailable());
+        manager.serverHeartbeatFailed(null);
+        assertEquals(false, manager.isAvailable());
+        manager.serverHeartbeatSucceeded(null);
+        assertEquals(true, manager.isAvailable());
+    }
+
+    /**
+     * Test the pause between the chunks of deleted documents.
+     */
+    @Test
+    public void testGetChunkPause() {
+        MongoDbManager manager = new MongoDbManager();
+        manager.setDeleteChunks(1000, 100, 0);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), manager.getChunkPause(1000, TimeUnit.MILLISECONDS.toNanos(50)));
+        // 1000 documents at 2000 documents per second take 500 ms
+        manager.setDeleteChunks(1000, 100, 2000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(450), manager.getChunkPause(1000, TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), manager.getChunkPause(1000, TimeUnit.MILLISECONDS.toNanos(800)));
+    }
+
+    /**
+     * Test conversion from an aggregation result to a rollup document.
+     */
+    @Test
+    public void testToRollupDocument() {
+        Document result = new Document("_id", new Document(Constants.COLUMN_SECURITY_SERVER, "FI.COM.123.ss1").append(Constants.COLUMN_BEGIN, 3600000L))
+                .append(Constants.COLUMN_COUNT, 5)
+                .append(Constants.COLUMN_SUCCESS_COUNT, 3)
+                .append(Constants.COLUMN_MIN_DURATION, 10L)
+                .append(Constants.COLUMN_MAX_DURATION, 30L)
+                .append("durationSum", 60L)
+                .append(Constants.COLUMN_DURATION_HISTOGRAM, Arrays.asList(bin(49, 1), bin(57, 1), bin(70, 1)))
+                .append(Constants.COLUMN_FAULT_CODES, Arrays.asList(faultCode("Server.Timeout", 2), faultCode("Client.Error", 1)));
+        MongoDbManager manager = new MongoDbManager();
+        Document document = manager.toRollupDocument(result, RollupTier.HOUR);
+        assertEquals("FI.COM.123.ss1", document.get(Constants.COLUMN_SECURITY_SERVER));
+        assertEquals(new Date(3600000L), document.get(Constants.COLUMN_BEGIN));
+        assertEquals(new Date(7200000L), document.get(Constants.COLUMN_END));
+        assertEquals(5L, document.get(Constants.COLUMN_COUNT));
+        assertEquals(3L, document.get(Constants.COLUMN_SUCCESS_COUNT));
+        assertEquals(20.0, document.get(Constants.COLUMN_AVG_DURATION));
+        // Upper bound of the bin is limited to the max duration
+        assertEquals(30L, document.get(Constants.COLUMN_P95_DURATION));
+        List<?> faultCodes = (List<?>) document.get(Constants.COLUMN_FAULT_CODES);
+        assertEquals(2, faultCodes.size());
+        assertEquals("Server.Timeout", ((Document) faultCodes.get(0)).get(Constants.COLUMN_FAULT_CODE));
+        assertEquals(2L, ((Document) faultCodes.get(0)).get(Constants.COLUMN_COUNT));
+        assertEquals("Client.Error", ((Document) faultCodes.get(1)).get(Constants.COLUMN_FAULT_CODE));
+    }
+
+    /**
+     * Test merging the rollups of a smaller tier.
+     */
+    @Test
+    public void testMergeRollups() {
+        RollupAccumulator accumulator = new RollupAccumulator();
+        for (int i = 0; i < 20; i++) {
+            // One slow request in each bucket, the others are fast
+            long slow = 1000 + i;
+            accumulator.addRollup(new Document(Constants.COLUMN_COUNT, 11L)
+                    .append(Constants.COLUMN_SUCCESS_COUNT, 10L)
+                    .append(Constants.COLUMN_MIN_DURATION, 10L)
+                    .append(Constants.COLUMN_AVG_DURATION, (9 * 10 + slow) / 10.0)
+                    .append(Constants.COLUMN_MAX_DURATION, slow)
+                    .append(Constants.COLUMN_DURATION_HISTOGRAM, Arrays.asList(bin(49, 9), bin(141, 1)))
+                    .append(Constants.COLUMN_FAULT_CODES, Arrays.asList(faultCode("Server.Timeout", 1))));
+        }
+        Document document = accumulator.toDocument("FI.COM.123.ss1", 0, RollupTier.DAY);
+        assertEquals(220L, document.get(Constants.COLUMN_COUNT));
+        assertEquals(200L, document.get(Constants.COLUMN_SUCCESS_COUNT));
+        assertEquals(10L, document.get(Constants.COLUMN_MIN_DURATION));
+        assertEquals(1019L, document.get(Constants.COLUMN_MAX_DURATION));
+        assertEquals((180 * 10 + 20 * 1009.5) / 200, (Double) document.get(Constants.COLUMN_AVG_DURATION), 0.001);
+        // 10 % of the requests are slow, so the 95th percentile is slow
+        long p95 = (Long) document.get(Constants.COLUMN_P95_DURATION);
+        assertEquals(true, p95 >= 1000 && p95 <= 1019);
+        List<?> faultCodes = (List<?>) document.get(Constants.COLUMN_FAULT_CODES);
+        assertEquals(20L, ((Document) faultCodes.get(0)).get(Constants.COLUMN_COUNT));
+        assertEquals(2, ((List<?>) document.get(Constants.COLUMN_DURATION_HISTOGRAM)).size());
+    }
+
+    /**
+     * Test the upper bounds of the histogram bins.
+     */
+    @Test
+    public void testHistogramUpperBound() {
+        assertEquals(0L, RollupAccumulator.getUpperBound(0));
+        assertEquals(1L, RollupAccumulator.getUpperBound(14));
+        // The relative error of the bins is at most five percent
+        for (int bin = 20; bin < 300; bin++) {
+            long lower = RollupAccumulator.getUpperBound(bin - 1) + 1;
+            long upper = RollupAccumulator.getUpperBound(bin);
+            assertEquals(true, upper <= Math.max(lower, (long) Math.ceil(lower * 1.05)));
+        }
+    }
+
+    private static Document bin(int bin, long count) {
+        return new Document("bin", bin).append(Constants.COLUMN_COUNT, count);
+    }
+
+    private static Document faultCode(String faultCode, long count) {
+        return new Document(Constants.COLUMN_FAULT_CODE, faultCode).append(Constants.COLUMN_COUNT, count);
+    }
 }
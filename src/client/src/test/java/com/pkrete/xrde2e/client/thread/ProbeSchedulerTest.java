@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+import com.pkrete.xrde2e.client.member.E2EProducerMember;
+import com.pkrete.xrde2e.client.transport.ProbeResult;
+import com.pkrete.xrde2e.client.transport.SOAPTransport;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for ProbeScheduler and RateLimiter classes.
+ *
+ * @author Petteri Kivimäki
+ */
+public class ProbeSchedulerTest {
+
+    private static final SOAPTransport TRANSPORT = (request, requestId, url) -> new ProbeResult(true, "", "", 0);
+
+    /**
+     * Probes are spread evenly over the interval and target specific
+     * intervals are used.
+     */
+    @Test
+    public void testPhaseOffsets() throws Exception {
+        List<long[]> schedules = new ArrayList<>();
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+                schedules.add(new long[]{initialDelay, period});
+                return null;
+            }
+        };
+        RateLimiter rateLimiter = new RateLimiter(0);
+        List<E2EWorker> workers = new ArrayList<>();
+        workers.add(new E2EWorker("", 1000, createRequest(0), TRANSPORT, rateLimiter, null));
+        workers.add(new E2EWorker("", 1000, createRequest(0), TRANSPORT, rateLimiter, null));
+        workers.add(new E2EWorker("", 1000, createRequest(2000), TRANSPORT, rateLimiter, null));
+        workers.add(new E2EWorker("", 1000, createRequest(0), TRANSPORT, rateLimiter, null));
+        new ProbeScheduler(timer, Runnable::run, 100).schedule(workers);
+        timer.shutdown();
+        assertEquals(4, schedules.size());
+        assertEquals(0, schedules.get(0)[0]);
+        assertEquals(250, schedules.get(1)[0]);
+        assertEquals(1000, schedules.get(2)[0]);
+        assertEquals(2000, schedules.get(2)[1]);
+        assertEquals(750, schedules.get(3)[0]);
+        assertEquals(1000, schedules.get(3)[1]);
+    }
+
+    /**
+     * Probes wait for their permits on the timer instead of sleeping.
+     */
+    @Test
+    public void testReservedPermit() throws Exception {
+        List<Runnable> probes = new ArrayList<>();
+        List<Long> delays = new ArrayList<>();
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+                probes.add(command);
+                return null;
+            }
+
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+        List<Runnable> dispatched = new ArrayList<>();
+        Executor executor = dispatched::add;
+        RateLimiter rateLimiter = new RateLimiter(10);
+        List<E2EWorker> workers = new ArrayList<>();
+        workers.add(new E2EWorker("", 1000, createRequest(0), TRANSPORT, rateLimiter, null));
+        workers.add(new E2EWorker("", 1000, createRequest(0), TRANSPORT, rateLimiter, null));
+        new ProbeScheduler(timer, executor, 0).schedule(workers);
+        timer.shutdown();
+        probes.get(0).run();
+        probes.get(1).run();
+        // The first probe is dispatched at once, the second one is delayed
+        // until its permit is available
+        assertEquals(1, dispatched.size());
+        assertEquals(1, delays.size());
+        assertTrue(delays.get(0) > 50 && delays.get(0) <= 100, "Delay " + delays.get(0) + " ms");
+        // The delay is at least the given jitter
+        assertTrue(rateLimiter.reserve(TimeUnit.SECONDS.toNanos(1)) >= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Rate limiter spaces the permits evenly.
+     */
+    @Test
+    public void testRateLimiter() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(50);
+        assertTrue(rateLimiter.isLimited());
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            rateLimiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 190, "Elapsed " + elapsed + " ms");
+    }
+
+    /**
+     * Rate limiter with zero rate doesn't limit.
+     */
+    @Test
+    public void testRateLimiterUnlimited() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(0);
+        assertEquals(false, rateLimiter.isLimited());
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            rateLimiter.acquire();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+    }
+
+    private ServiceRequest createRequest(int interval) throws Exception {
+        ConsumerMember consumer = new ConsumerMember("FI-PILOT", "MUN", "9879125-0", "E2EClient");
+        E2EProducerMember producer = new E2EProducerMember("FI-PILOT", "GOV", "1019125-0", "TestService", "listMethods", "Server 01");
+        producer.setInterval(interval);
+        ServiceRequest<String> request = new ServiceRequest<String>(consumer, producer, "id-1");
+        request.setSecurityServer(new SecurityServer("FI-PILOT", "COM", "2229125-0", "orgsecser01t"));
+        return request;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.thread;
+
+import com.pkrete.xrde2e.client.member.E2EProducerMember;
+import com.pkrete.xrde2e.client.transport.ProbeResult;
+import com.pkrete.xrde2e.client.transport.SOAPTransport;
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventQueue;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for ProbeWatchdog class and the timeouts of E2EWorker class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class ProbeWatchdogTest {
+
+    /**
+     * A request that times out produces a timeout event.
+     */
+    @Test
+    public void testTimeoutEvent() throws Exception {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        SOAPTransport transport = (request, requestId, url) -> {
+            throw new IOException("Request failed", new SocketTimeoutException("Read timed out"));
+        };
+        E2EWorker worker = new E2EWorker("", 1000, createRequest(), transport, new RateLimiter(0), null);
+        worker.probe();
+        E2EEvent event = queue.take();
+        assertEquals(false, event.isStatus());
+        assertEquals(ProbeResult.FAULT_CODE_TIMEOUT, event.getFaultCode());
+        assertEquals(false, E2EWorker.isTimeout(new IOException("Connection refused")));
+    }
+
+    /**
+     * A stuck probe is cancelled, its connection is closed and its thread
+     * is released for the next probe.
+     */
+    @Test
+    public void testRecycle() throws Exception {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        BlockingTransport transport = new BlockingTransport(true);
+        E2EWorker worker = new E2EWorker("", 1000, createRequest(), transport, new RateLimiter(0), null);
+        ProbeWatchdog watchdog = new ProbeWatchdog(Arrays.asList(worker), 3, 5000, 1000);
+        assertEquals(5000, watchdog.getMaxDuration(worker));
+        Thread thread = new Thread(worker::probe);
+        thread.start();
+        assertTrue(transport.started.await(5, TimeUnit.SECONDS));
+        long now = System.currentTimeMillis();
+        assertEquals(0, watchdog.check(now));
+        assertEquals(1, watchdog.check(now + 6000));
+        thread.join(5000);
+        assertEquals(false, thread.isAlive());
+        assertEquals(1, transport.disconnected.size());
+        assertEquals(transport.requestIds.get(0), transport.disconnected.get(0));
+        assertEquals(0, watchdog.check(now + 60000));
+        List<E2EEvent> events = new ArrayList<>();
+        queue.drainTo(events, 10, 0);
+        assertEquals(1, events.size());
+        assertEquals(ProbeResult.FAULT_CODE_TIMEOUT, events.get(0).getFaultCode());
+        assertEquals(transport.requestIds.get(0), events.get(0).getRequestId());
+    }
+
+    /**
+     * A probe that can't be cancelled produces a timeout event once per
+     * period until it completes and its late result is dropped.
+     */
+    @Test
+    public void testRecycleBlocked() throws Exception {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        BlockingTransport transport = new BlockingTransport(false);
+        E2EWorker worker = new E2EWorker("", 1000, createRequest(), transport, new RateLimiter(0), null);
+        ProbeWatchdog watchdog = new ProbeWatchdog(Arrays.asList(worker), 3, 0, 1000);
+        Thread thread = new Thread(worker::probe);
+        thread.start();
+        assertTrue(transport.started.await(5, TimeUnit.SECONDS));
+        long now = System.currentTimeMillis();
+        assertEquals(1, watchdog.check(now + 4000));
+        assertEquals(0, watchdog.check(now + 5000));
+        assertEquals(1, watchdog.check(now + 8000));
+        transport.release.countDown();
+        thread.join(5000);
+        assertEquals(false, thread.isAlive());
+        assertEquals(0, watchdog.check(now + 60000));
+        List<E2EEvent> events = new ArrayList<>();
+        queue.drainTo(events, 10, 0);
+        assertEquals(2, events.size());
+        assertEquals(ProbeResult.FAULT_CODE_TIMEOUT, events.get(1).getFaultCode());
+    }
+
+    /**
+     * Transport that blocks until it's released or, optionally, interrupted.
+     */
+    private static class BlockingTransport implements SOAPTransport {
+
+        private final boolean interruptible;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> requestIds = new CopyOnWriteArrayList<>();
+        private final List<String> disconnected = new CopyOnWriteArrayList<>();
+
+        BlockingTransport(boolean interruptible) {
+            this.interruptible = interruptible;
+        }
+
+        @Override
+        public ProbeResult listMethods(ServiceRequest request, String requestId, String url) throws IOException {
+            this.requestIds.add(requestId);
+            this.started.countDown();
+            while (true) {
+                try {
+                    this.release.await();
+                    return new ProbeResult(true, "", "", 0);
+                } catch (InterruptedException ex) {
+                    if (this.interruptible) {
+                        throw new IOException("Closed by interrupt", ex);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void disconnect(String requestId) {
+            this.disconnected.add(requestId);
+        }
+    }
+
+    private ServiceRequest createRequest() throws Exception {
+        ConsumerMember consumer = new ConsumerMember("FI-PILOT", "MUN", "9879125-0", "E2EClient");
+        E2EProducerMember producer = new E2EProducerMember("FI-PILOT", "GOV", "1019125-0", "TestService", "listMethods", "Server 01");
+        ServiceRequest<String> request = new ServiceRequest<String>(consumer, producer, "id-1");
+        request.setSecurityServer(new SecurityServer("FI-PILOT", "COM", "2229125-0", "orgsecser01t"));
+        return request;
+    }
+}
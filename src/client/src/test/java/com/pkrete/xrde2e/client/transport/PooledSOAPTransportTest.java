@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.client.transport;
+
+import com.pkrete.xrde2e.client.member.E2EProducerMember;
+
+import org.niis.xrd4j.common.member.ConsumerMember;
+import org.niis.xrd4j.common.member.SecurityServer;
+import org.niis.xrd4j.common.message.ServiceRequest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for PooledSOAPTransport class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class PooledSOAPTransportTest {
+
+    private static final String RESPONSE = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<SOAP-ENV:Body><xrd:listMethodsResponse xmlns:xrd=\"http://x-road.eu/xsd/xroad.xsd\"/></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    private static final String FAULT = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<SOAP-ENV:Body><SOAP-ENV:Fault><faultcode>Server.ClientProxy.NetworkError</faultcode>"
+            + "<faultstring>Unknown host</faultstring></SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    /**
+     * Subsequent requests use the same connection.
+     */
+    @Test
+    public void testConnectionReuse() throws Exception {
+        Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+        StringBuilder lastRequest = new StringBuilder();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clients.add(exchange.getRemoteAddress());
+            try (InputStream in = exchange.getRequestBody()) {
+                lastRequest.setLength(0);
+                lastRequest.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            SOAPTransport transport = new PooledSOAPTransport();
+            ServiceRequest request = createRequest();
+            for (int i = 0; i < 3; i++) {
+                ProbeResult result = transport.listMethods(request, "id-" + i, url);
+                assertEquals(true, result.isStatus());
+                assertEquals("", result.getFaultCode());
+                assertTrue(result.getConnectDuration() >= 0);
+            }
+            assertEquals(1, clients.size());
+            assertTrue(lastRequest.indexOf("<xrd:client id:objectType=\"SUBSYSTEM\"><id:xRoadInstance>FI-PILOT</id:xRoadInstance>"
+                    + "<id:memberClass>MUN</id:memberClass><id:memberCode>9879125-0</id:memberCode>"
+                    + "<id:subsystemCode>E2EClient</id:subsystemCode></xrd:client>") > 0);
+            assertTrue(lastRequest.indexOf("<id:subsystemCode>TestService</id:subsystemCode>"
+                    + "<id:serviceCode>listMethods</id:serviceCode></xrd:service>") > 0);
+            assertTrue(lastRequest.indexOf("<id:serverCode>orgsecser01t</id:serverCode></xrd:securityServer>") > 0);
+            assertTrue(lastRequest.indexOf("<xrd:listMethods/>") > 0);
+            assertTrue(lastRequest.indexOf("<xrd:id>id-2</xrd:id>") > 0);
+            assertEquals("id-1", request.getId());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Read timeout and deadline end a request to a server that doesn't
+     * respond.
+     */
+    @Test
+    public void testTimeouts() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            ServiceRequest request = createRequest();
+            SocketTimeoutException ex = assertThrows(SocketTimeoutException.class,
+                    () -> new PooledSOAPTransport(1000, 200, 0).listMethods(request, "id-1", url));
+            assertEquals(false, ex.getMessage().contains("deadline"));
+            long start = System.nanoTime();
+            ex = assertThrows(SocketTimeoutException.class,
+                    () -> new PooledSOAPTransport(1000, 0, 300).listMethods(request, "id-2", url));
+            assertTrue(ex.getMessage().contains("deadline"));
+            assertTrue(System.nanoTime() - start < 4000000000L);
+
+            // Closing the connection of a request in progress
+            SOAPTransport transport = new PooledSOAPTransport();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    transport.listMethods(request, "id-3", url);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            start = System.nanoTime();
+            thread.start();
+            Thread.sleep(300);
+            transport.disconnect("id-3");
+            thread.join(4000);
+            assertTrue(failure.get() != null);
+            assertTrue(System.nanoTime() - start < 4000000000L);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Response containing SOAP Fault.
+     */
+    @Test
+    public void testParseFault() throws Exception {
+        ProbeResult result = PooledSOAPTransport.parse(FAULT.getBytes(StandardCharsets.UTF_8), "text/xml; charset=UTF-8", 5);
+        assertEquals(false, result.isStatus());
+        assertEquals("Server.ClientProxy.NetworkError", result.getFaultCode());
+        assertEquals("Unknown host", result.getFaultString());
+        assertEquals(5, result.getConnectDuration());
+    }
+
+    /**
+     * Special characters in the request are escaped.
+     */
+    @Test
+    public void testSerializeEscape() throws Exception {
+        ServiceRequest request = createRequest();
+        request.setId("<&>");
+        String xml = new String(ListMethodsRequestSerializer.serialize(request), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<xrd:id>&lt;&amp;&gt;</xrd:id>"));
+    }
+
+    private ServiceRequest createRequest() throws Exception {
+        ConsumerMember consumer = new ConsumerMember("FI-PILOT", "MUN", "9879125-0", "E2EClient");
+        E2EProducerMember producer = new E2EProducerMember("FI-PILOT", "GOV", "1019125-0", "TestService", "listMethods", "Server 01");
+        ServiceRequest<String> request = new ServiceRequest<>(consumer, producer, "id-1");
+        request.setSecurityServer(new SecurityServer("FI-PILOT", "COM", "2229125-0", "orgsecser01t"));
+        return request;
+    }
+}
@@ -30,10 +30,20 @@ import java.util.Date;
  * This class represents X-Road E2E event and holds information related to a
  * single event.
  *
+ * Timestamps are stored as milliseconds since the epoch and the target
+ * related strings can be shared between all the events of the same target
+ * using E2ETarget, so creating an event allocates only the event itself.
+ * The Date based getters and setters are kept for the REST API and the
+ * storage, they convert the timestamps on each call.
+ *
  * @author Petteri Kivimäki
  */
 public final class E2EEvent implements Serializable {
 
+    /**
+     * Value of a timestamp that is not set.
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
     private String label;
     private String producerMember;
     private String securityServer;
@@ -42,9 +52,13 @@ public final class E2EEvent implements Serializable {
     private String faultCode;
     private String faultString;
     private long duration;
-    private Date begin;
-    private Date end;
-    private Date createdDate;
+    private long connectDuration;
+    private long begin;
+    private long end;
+    private long createdDate;
+    // Time when the event was added to the event queue, used for measuring
+    // the time the event spends in the queue
+    private transient long enqueued;
 
     private E2EEvent(E2EEventBuilder builder) {
         this.label = builder.label;
@@ -55,6 +69,7 @@ public final class E2EEvent implements Serializable {
         this.faultCode = builder.faultCode;
         this.faultString = builder.faultString;
         this.duration = builder.duration;
+        this.connectDuration = builder.connectDuration;
         this.begin = builder.begin;
         this.end = builder.end;
         this.createdDate = builder.createdDate;
@@ -209,13 +224,34 @@ public final class E2EEvent implements Serializable {
         this.duration = duration;
     }
 
+    /**
+     * Time spent on opening the connection to the security server in milli
+     * seconds. The time is included in the duration of the event. Zero means
+     * that an already open connection was reused and -1 that the time was
+     * not measured.
+     *
+     * @return the connection setup time of the event in milli seconds
+     */
+    public long getConnectDuration() {
+        return connectDuration;
+    }
+
+    /**
+     * Sets the connection setup time of the event in milli seconds.
+     *
+     * @param connectDuration the connectDuration to set
+     */
+    public void setConnectDuration(long connectDuration) {
+        this.connectDuration = connectDuration;
+    }
+
     /**
      * Returns the begin time of the event.
      *
      * @return the begin time of the event
      */
     public Date getBegin() {
-        return begin;
+        return toDate(begin);
     }
 
     /**
@@ -224,7 +260,7 @@ public final class E2EEvent implements Serializable {
      * @param begin the begin to set
      */
     public void setBegin(Date begin) {
-        this.begin = begin;
+        this.begin = toMillis(begin);
     }
 
     /**
@@ -233,7 +269,7 @@ public final class E2EEvent implements Serializable {
      * @return the end time of the event
      */
     public Date getEnd() {
-        return end;
+        return toDate(end);
     }
 
     /**
@@ -242,7 +278,7 @@ public final class E2EEvent implements Serializable {
      * @param end the end to set
      */
     public void setEnd(Date end) {
-        this.end = end;
+        this.end = toMillis(end);
     }
 
     /**
@@ -251,7 +287,7 @@ public final class E2EEvent implements Serializable {
      * @return the creation time of the event
      */
     public Date getCreatedDate() {
-        return createdDate;
+        return toDate(createdDate);
     }
 
     /**
@@ -260,7 +296,66 @@ public final class E2EEvent implements Serializable {
      * @param createdDate the creation time to set
      */
     public void setCreatedDate(Date createdDate) {
-        this.createdDate = createdDate;
+        this.createdDate = toMillis(createdDate);
+    }
+
+    /**
+     * Returns the begin time of the event in milliseconds since the epoch,
+     * or NO_TIMESTAMP if it's not set. Unlike getBegin, this method doesn't
+     * allocate and it's not part of the JSON form of the event.
+     *
+     * @return the begin time of the event in milliseconds
+     */
+    public long beginMillis() {
+        return begin;
+    }
+
+    /**
+     * Returns the end time of the event in milliseconds since the epoch, or
+     * NO_TIMESTAMP if it's not set.
+     *
+     * @return the end time of the event in milliseconds
+     */
+    public long endMillis() {
+        return end;
+    }
+
+    /**
+     * Returns the creation time of the event in milliseconds since the
+     * epoch, or NO_TIMESTAMP if it's not set.
+     *
+     * @return the creation time of the event in milliseconds
+     */
+    public long createdDateMillis() {
+        return createdDate;
+    }
+
+    /**
+     * Returns the value of System.nanoTime when the event was added to the
+     * event queue.
+     *
+     * @return time when the event was added to the queue
+     */
+    long enqueuedNanos() {
+        return enqueued;
+    }
+
+    /**
+     * Sets the time when the event was added to the event queue.
+     *
+     * @param enqueued value of System.nanoTime when the event was added to
+     * the queue
+     */
+    void markEnqueued(long enqueued) {
+        this.enqueued = enqueued;
+    }
+
+    private static Date toDate(long millis) {
+        return millis == NO_TIMESTAMP ? null : new Date(millis);
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? NO_TIMESTAMP : date.getTime();
     }
 
     @Override
@@ -311,9 +406,10 @@ public final class E2EEvent implements Serializable {
         private String faultCode;
         private String faultString;
         private long duration;
-        private Date begin;
-        private Date end;
-        private Date createdDate;
+        private long connectDuration = -1;
+        private long begin = NO_TIMESTAMP;
+        private long end = NO_TIMESTAMP;
+        private long createdDate = NO_TIMESTAMP;
 
         public E2EEventBuilder label(final String label) {
             this.label = label;
@@ -355,17 +451,51 @@ public final class E2EEvent implements Serializable {
             return this;
         }
 
+        public E2EEventBuilder connectDuration(final long connectDuration) {
+            this.connectDuration = connectDuration;
+            return this;
+        }
+
+        /**
+         * Sets the label, producer member and security server of the target.
+         * The String instances of the target are shared by the event.
+         *
+         * @param target target of the event
+         * @return this builder
+         */
+        public E2EEventBuilder target(final E2ETarget target) {
+            this.label = target.getLabel();
+            this.producerMember = target.getProducerMember();
+            this.securityServer = target.getSecurityServer();
+            return this;
+        }
+
         public E2EEventBuilder begin(final Date begin) {
+            this.begin = toMillis(begin);
+            return this;
+        }
+
+        public E2EEventBuilder begin(final long begin) {
             this.begin = begin;
             return this;
         }
 
         public E2EEventBuilder end(final Date end) {
+            this.end = toMillis(end);
+            return this;
+        }
+
+        public E2EEventBuilder end(final long end) {
             this.end = end;
             return this;
         }
 
         public E2EEventBuilder createdDate(final Date createdDate) {
+            this.createdDate = toMillis(createdDate);
+            return this;
+        }
+
+        public E2EEventBuilder createdDate(final long createdDate) {
             this.createdDate = createdDate;
             return this;
         }
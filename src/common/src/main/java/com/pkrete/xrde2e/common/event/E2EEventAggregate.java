@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * This class represents aggregated statistics of the E2E events of a single
+ * security server during a time bucket. Duration statistics are calculated
+ * from the successful events only, and they are null if the bucket doesn't
+ * contain any successful events. The most common fault codes are available
+ * only in the rollups that are calculated before the events expire.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class E2EEventAggregate implements Serializable {
+
+    private String securityServer;
+    private Date begin;
+    private Date end;
+    private long count;
+    private long successCount;
+    private Long minDuration;
+    private Double avgDuration;
+    private Long p95Duration;
+    private Long maxDuration;
+    private Map<String, Long> faultCodes;
+
+    /**
+     * Returns the identifier of the security server as a String.
+     *
+     * @return identifier of the security server as a String
+     */
+    public String getSecurityServer() {
+        return securityServer;
+    }
+
+    /**
+     * Sets the identifier of the security server as a String.
+     *
+     * @param securityServer the securityServer to set
+     */
+    public void setSecurityServer(String securityServer) {
+        this.securityServer = securityServer;
+    }
+
+    /**
+     * Returns the start time of the bucket, inclusive.
+     *
+     * @return the start time of the bucket
+     */
+    public Date getBegin() {
+        return begin;
+    }
+
+    /**
+     * Sets the start time of the bucket.
+     *
+     * @param begin the begin to set
+     */
+    public void setBegin(Date begin) {
+        this.begin = begin;
+    }
+
+    /**
+     * Returns the end time of the bucket, exclusive.
+     *
+     * @return the end time of the bucket
+     */
+    public Date getEnd() {
+        return end;
+    }
+
+    /**
+     * Sets the end time of the bucket.
+     *
+     * @param end the end to set
+     */
+    public void setEnd(Date end) {
+        this.end = end;
+    }
+
+    /**
+     * Returns the number of events in the bucket.
+     *
+     * @return the number of events
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Sets the number of events in the bucket.
+     *
+     * @param count the count to set
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * Returns the number of events in the bucket whose status is OK.
+     *
+     * @return the number of successful events
+     */
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * Sets the number of events in the bucket whose status is OK.
+     *
+     * @param successCount the successCount to set
+     */
+    public void setSuccessCount(long successCount) {
+        this.successCount = successCount;
+    }
+
+    /**
+     * Returns the share of successful events in the bucket, between 0 and 1.
+     *
+     * @return availability ratio of the bucket
+     */
+    public double getAvailability() {
+        return count == 0 ? 0 : (double) successCount / count;
+    }
+
+    /**
+     * Returns the minimum duration of the successful events in milli
+     * seconds.
+     *
+     * @return the minimum duration or null
+     */
+    public Long getMinDuration() {
+        return minDuration;
+    }
+
+    /**
+     * Sets the minimum duration of the successful events in milli seconds.
+     *
+     * @param minDuration the minDuration to set
+     */
+    public void setMinDuration(Long minDuration) {
+        this.minDuration = minDuration;
+    }
+
+    /**
+     * Returns the average duration of the successful events in milli
+     * seconds.
+     *
+     * @return the average duration or null
+     */
+    public Double getAvgDuration() {
+        return avgDuration;
+    }
+
+    /**
+     * Sets the average duration of the successful events in milli seconds.
+     *
+     * @param avgDuration the avgDuration to set
+     */
+    public void setAvgDuration(Double avgDuration) {
+        this.avgDuration = avgDuration;
+    }
+
+    /**
+     * Returns the 95th percentile duration of the successful events in milli
+     * seconds.
+     *
+     * @return the 95th percentile duration or null
+     */
+    public Long getP95Duration() {
+        return p95Duration;
+    }
+
+    /**
+     * Sets the 95th percentile duration of the successful events in milli
+     * seconds.
+     *
+     * @param p95Duration the p95Duration to set
+     */
+    public void setP95Duration(Long p95Duration) {
+        this.p95Duration = p95Duration;
+    }
+
+    /**
+     * Returns the maximum duration of the successful events in milli
+     * seconds.
+     *
+     * @return the maximum duration or null
+     */
+    public Long getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * Sets the maximum duration of the successful events in milli seconds.
+     *
+     * @param maxDuration the maxDuration to set
+     */
+    public void setMaxDuration(Long maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+    /**
+     * Returns the most common fault codes of the failed events and the
+     * number of events with each fault code, in descending order by the
+     * number of events.
+     *
+     * @return the most common fault codes or null
+     */
+    public Map<String, Long> getFaultCodes() {
+        return faultCodes;
+    }
+
+    /**
+     * Sets the most common fault codes of the failed events and the number
+     * of events with each fault code.
+     *
+     * @param faultCodes the faultCodes to set
+     */
+    public void setFaultCodes(Map<String, Long> faultCodes) {
+        this.faultCodes = faultCodes;
+    }
+}
@@ -26,18 +26,39 @@ package com.pkrete.xrde2e.common.event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class presents a queue of E2EEvent objects that are waiting to be stored
  * in the storage. Every E2E operation generates a new event that is stored to
  * the storage.
  *
- * This queue is accessed via BlockingQueue interface and the queue
- * implementation uses LinkedBlockingQueue class. BlockingQueue implementation
- * is thread-safe. All queuing methods achieve their effects atomically using
- * internal locks or other forms of concurrency control.
+ * This queue is accessed via BlockingQueue interface. A bounded queue uses
+ * ArrayBlockingQueue class, which preallocates its storage so that adding an
+ * event doesn't allocate, and an unbounded queue uses LinkedBlockingQueue
+ * class. BlockingQueue implementation is thread-safe. All queuing methods
+ * achieve their effects atomically using internal locks or other forms of
+ * concurrency control.
+ *
+ * The capacity of the queue can be limited. The overflow policy defines what
+ * happens when a new event is added to a full queue: the producer is blocked
+ * until there's space available, the oldest event in the queue is dropped, or
+ * the oldest event of the same security server is dropped. Events are only
+ * dropped when the lane of the event is full, and if the security server has no
+ * event to drop, the producer is blocked like with the block policy. The queue
+ * keeps track of the dropped events and the time spent waiting for space to
+ * become available, which makes the back-pressure visible.
+ *
+ * The queue can be split into lanes that are consumed by processors of their
+ * own. An event is routed to a lane by the hash of its security server, so
+ * the events of a security server always end up in the same lane and they
+ * are stored in the order they were added. The capacity is divided evenly
+ * between the lanes.
  *
  * This class implements Singleton design pattern, which means that only one
  * object is created runtime, and it's referenced by all the other objects.
@@ -46,54 +67,244 @@ import java.util.concurrent.LinkedBlockingQueue;
 public final class E2EEventQueue {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(E2EEventQueue.class);
-    private final BlockingQueue<E2EEvent> queue;
-    private static E2EEventQueue ref;
+    private static final int HASH_SPREAD_SHIFT = 16;
+    private static volatile E2EEventQueue ref;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Lane[] lanes;
+    private final LongAdder enqueuedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder enqueueWaitTime = new LongAdder();
+
+    /**
+     * Defines what happens when a new event is added to a full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait until space becomes available.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest event in the queue.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the oldest event of the same security server. If the security
+         * server has no event in the queue, wait until space becomes
+         * available.
+         */
+        LATEST_PER_SERVER;
+
+        /**
+         * Returns the overflow policy matching the given name. The comparison
+         * is case insensitive and underscores are ignored, e.g. "dropOldest"
+         * matches DROP_OLDEST. If the name is null or empty, or no match is
+         * found, BLOCK is returned.
+         *
+         * @param name name of the overflow policy
+         * @return overflow policy matching the given name
+         */
+        public static OverflowPolicy fromString(String name) {
+            if (name != null) {
+                String value = name.replace("_", "").trim();
+                for (OverflowPolicy policy : values()) {
+                    if (policy.name().replace("_", "").equalsIgnoreCase(value)) {
+                        return policy;
+                    }
+                }
+            }
+            return BLOCK;
+        }
+    }
 
     /**
      * The class implements Singleton design pattern, so constructor must be
      * defined as private.
+     *
+     * @param capacity maximum number of events in the queue, zero or less
+     * means unbounded
+     * @param overflowPolicy defines what happens when the queue is full
+     * @param laneCount number of lanes, one or less means a single lane
      */
-    private E2EEventQueue() {
-        this.queue = new LinkedBlockingQueue<>();
+    private E2EEventQueue(int capacity, OverflowPolicy overflowPolicy, int laneCount) {
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        this.overflowPolicy = overflowPolicy;
+        this.lanes = new Lane[Math.max(laneCount, 1)];
+        int laneCapacity = capacity > 0 ? Math.max(capacity / this.lanes.length, 1) : 0;
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane(laneCapacity);
+        }
+    }
+
+    /**
+     * Holds the events of a single lane.
+     */
+    private static final class Lane {
+
+        private final BlockingQueue<E2EEvent> queue;
+
+        private Lane(int capacity) {
+            this.queue = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+        }
+
+        private int size() {
+            return this.queue.size();
+        }
     }
 
     /**
      * Returns the EventQueue Singleton object. If the object doesn't exist yet,
-     * it's created.
+     * it's created. By default the queue is unbounded.
      *
      * @return EventQueue Singleton object
      */
     public static E2EEventQueue getInstance() {
         if (ref == null) {
-            ref = new E2EEventQueue();
+            synchronized (E2EEventQueue.class) {
+                if (ref == null) {
+                    ref = new E2EEventQueue(0, OverflowPolicy.BLOCK, 1);
+                }
+            }
         }
         return ref;
     }
 
     /**
-     * Inserts a new E2E event to the queue, waiting if necessary for space to
-     * become available.
+     * Creates a new EventQueue Singleton object with the given capacity and
+     * overflow policy. This method must be called before the queue is used
+     * by any other object.
+     *
+     * @param capacity maximum number of events in the queue, zero or less
+     * means unbounded
+     * @param overflowPolicy defines what happens when the queue is full
+     * @return EventQueue Singleton object
+     */
+    public static synchronized E2EEventQueue init(int capacity, OverflowPolicy overflowPolicy) {
+        return init(capacity, overflowPolicy, 1);
+    }
+
+    /**
+     * Creates a new EventQueue Singleton object with the given capacity,
+     * overflow policy and number of lanes. Each lane must be consumed by a
+     * processor of its own. This method must be called before the queue is
+     * used by any other object.
+     *
+     * @param capacity maximum number of events in the queue, zero or less
+     * means unbounded
+     * @param overflowPolicy defines what happens when the queue is full
+     * @param laneCount number of lanes, one or less means a single lane
+     * @return EventQueue Singleton object
+     */
+    public static synchronized E2EEventQueue init(int capacity, OverflowPolicy overflowPolicy, int laneCount) {
+        ref = new E2EEventQueue(capacity, overflowPolicy, laneCount);
+        LOGGER.info("E2EEventQueue initiated. Capacity is {}, overflow policy {} and number of lanes {}.",
+                ref.capacity, overflowPolicy, ref.lanes.length);
+        return ref;
+    }
+
+    /**
+     * Inserts a new E2E event to the queue. If the queue is full, the overflow
+     * policy defines if the method waits for space to become available or if
+     * an older event is dropped.
      *
      * @param event the event to be inserted
      */
     public void put(E2EEvent event) {
+        long start = System.nanoTime();
+        event.markEnqueued(start);
+        String server = getServerKey(event);
+        Lane lane = this.lanes[this.getLane(server)];
         try {
-            queue.put(event);
+            switch (this.overflowPolicy) {
+                case DROP_OLDEST:
+                    this.putDropOldest(lane, event);
+                    break;
+                case LATEST_PER_SERVER:
+                    this.putLatestPerServer(lane, server, event);
+                    break;
+                default:
+                    lane.queue.put(event);
+                    break;
+            }
+            enqueuedCount.increment();
         } catch (InterruptedException iex) {
             LOGGER.error(iex.getMessage(), iex);
             Thread.currentThread().interrupt();
+        } finally {
+            enqueueWaitTime.add(System.nanoTime() - start);
+        }
+    }
+
+    private void putDropOldest(Lane lane, E2EEvent event) {
+        while (!lane.queue.offer(event)) {
+            E2EEvent dropped = lane.queue.poll();
+            if (dropped != null) {
+                droppedCount.increment();
+                LOGGER.debug("Queue is full. Event dropped: \"{}\"", dropped);
+            }
+        }
+    }
+
+    private void putLatestPerServer(Lane lane, String server, E2EEvent event) throws InterruptedException {
+        while (!lane.queue.offer(event)) {
+            // The lane is full, drop the oldest event of the security server.
+            // The lane is scanned only when it's full.
+            E2EEvent dropped = null;
+            for (E2EEvent queued : lane.queue) {
+                if (server.equals(getServerKey(queued))) {
+                    dropped = queued;
+                    break;
+                }
+            }
+            if (dropped == null) {
+                lane.queue.put(event);
+                return;
+            }
+            // The event may have been taken meanwhile
+            if (lane.queue.remove(dropped)) {
+                droppedCount.increment();
+                LOGGER.debug("Queue is full and newer event available. Event dropped: \"{}\"", dropped);
+            }
         }
     }
 
+    private static String getServerKey(E2EEvent event) {
+        return event.getSecurityServer() == null ? "" : event.getSecurityServer();
+    }
+
     /**
-     * Retrieves and removes the head of this queue, waiting if necessary until
-     * an element becomes available.
+     * Returns the lane of the given security server. The hash code is spread
+     * so that the security servers are divided evenly between the lanes.
+     *
+     * @param server identifier of the security server
+     * @return index of the lane
+     */
+    int getLane(String server) {
+        int h = server.hashCode();
+        return Math.floorMod(h ^ (h >>> HASH_SPREAD_SHIFT), this.lanes.length);
+    }
+
+    /**
+     * Retrieves and removes the head of the first lane, waiting if necessary
+     * until an element becomes available.
      *
      * @return head of the queue
      */
     public E2EEvent take() {
+        return this.take(0);
+    }
+
+    /**
+     * Retrieves and removes the head of the given lane, waiting if necessary
+     * until an element becomes available.
+     *
+     * @param lane index of the lane
+     * @return head of the lane
+     */
+    public E2EEvent take(int lane) {
+        Lane l = this.lanes[lane];
         try {
-            return queue.take();
+            return l.queue.take();
         } catch (InterruptedException iex) {
             LOGGER.error(iex.getMessage(), iex);
             Thread.currentThread().interrupt();
@@ -101,12 +312,155 @@ public final class E2EEventQueue {
         }
     }
 
+    /**
+     * Retrieves and removes the head of the given lane, waiting up to the
+     * given time if necessary for an element to become available.
+     *
+     * @param lane lane where the element is retrieved from
+     * @param timeout how long to wait in nanoseconds
+     * @return head of the lane, or null if the time elapsed before an element
+     * became available
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private E2EEvent poll(Lane lane, long timeout) throws InterruptedException {
+        return lane.queue.poll(timeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Retrieves and removes at most the given number of events from the first
+     * lane and adds them to the given list. See drainTo(int, List, int, long).
+     *
+     * @param events list where the events are added
+     * @param maxEvents maximum number of events to be retrieved
+     * @param timeout maximum time in milliseconds to wait for more events
+     * after the first one has been received
+     * @return number of events added to the list
+     */
+    public int drainTo(List<E2EEvent> events, int maxEvents, long timeout) {
+        return this.drainTo(0, events, maxEvents, timeout);
+    }
+
+    /**
+     * Retrieves and removes at most the given number of events from the given
+     * lane and adds them to the given list. Waits if necessary until the first
+     * event becomes available, and after that waits at most the given time
+     * for more events to arrive.
+     *
+     * @param lane index of the lane
+     * @param events list where the events are added
+     * @param maxEvents maximum number of events to be retrieved
+     * @param timeout maximum time in milliseconds to wait for more events
+     * after the first one has been received
+     * @return number of events added to the list
+     */
+    public int drainTo(int lane, List<E2EEvent> events, int maxEvents, long timeout) {
+        Lane l = this.lanes[lane];
+        E2EEvent first = this.take(lane);
+        if (first == null) {
+            return 0;
+        }
+        events.add(first);
+        int count = 1;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            while (count < maxEvents) {
+                count += l.queue.drainTo(events, maxEvents - count);
+                if (count >= maxEvents) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                E2EEvent event = this.poll(l, remaining);
+                if (event == null) {
+                    break;
+                }
+                events.add(event);
+                count++;
+            }
+        } catch (InterruptedException iex) {
+            LOGGER.error(iex.getMessage(), iex);
+            Thread.currentThread().interrupt();
+        }
+        return count;
+    }
+
     /**
      * Returns true if this queue contains no elements.
      *
      * @return true if this queue contains no elements
      */
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return this.getSize() == 0;
+    }
+
+    /**
+     * Returns the number of events in this queue.
+     *
+     * @return number of events in this queue
+     */
+    public int getSize() {
+        int size = 0;
+        for (Lane lane : this.lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of events in this queue.
+     *
+     * @return maximum number of events in this queue
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of lanes in this queue.
+     *
+     * @return number of lanes in this queue
+     */
+    public int getLaneCount() {
+        return this.lanes.length;
+    }
+
+    /**
+     * Returns the overflow policy of this queue.
+     *
+     * @return overflow policy of this queue
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Returns the number of events that have been added to this queue.
+     *
+     * @return number of events that have been added to this queue
+     */
+    public long getEnqueuedCount() {
+        return enqueuedCount.sum();
+    }
+
+    /**
+     * Returns the number of events that have been dropped because of the
+     * overflow policy.
+     *
+     * @return number of dropped events
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Returns the total time in milliseconds that producers have spent adding
+     * events to this queue, including waiting for space to become available.
+     *
+     * @return total enqueue wait time in milliseconds
+     */
+    public long getEnqueueWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(enqueueWaitTime.sum());
     }
 }
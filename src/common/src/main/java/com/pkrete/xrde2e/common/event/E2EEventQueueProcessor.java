@@ -23,11 +23,15 @@
  */
 package com.pkrete.xrde2e.common.event;
 
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
 import com.pkrete.xrde2e.common.storage.StorageManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class is responsible for monitoring E2E event queue and saving the
  * objects added to the queue to the storage. After the object has been added,
@@ -40,6 +44,16 @@ import org.slf4j.LoggerFactory;
  * making blocking method calls, which means that it keeps on running until the
  * shutdown.
  *
+ * If the batch size is greater than one, the processor works in batch mode.
+ * Events are then taken from the queue in batches of at most batch size events,
+ * and a batch is closed when it's full or when the batch timeout has elapsed
+ * after the first event of the batch was received. Each batch is saved to the
+ * storage using a single operation.
+ *
+ * If the queue is split into lanes, each lane is consumed by a processor of
+ * its own. The processors are independent of each other and they can write to
+ * the storage in parallel.
+ *
  * @author Petteri Kivimäki
  */
 public class E2EEventQueueProcessor implements Runnable {
@@ -47,6 +61,10 @@ public class E2EEventQueueProcessor implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(E2EEventQueueProcessor.class);
     private final E2EEventQueue queue;
     private final StorageManager storageManager;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final PipelineMetrics metrics;
+    private final int lane;
 
     /**
      * Constructs and initializes a new E2EEventQueueProcessor object.
@@ -54,9 +72,57 @@ public class E2EEventQueueProcessor implements Runnable {
      * E2E events to the storage
      */
     public E2EEventQueueProcessor(StorageManager storageManager) {
+        this(storageManager, 1, 0);
+    }
+
+    /**
+     * Constructs and initializes a new E2EEventQueueProcessor object.
+     * @param storageManager storage manager is responsible for storing
+     * E2E events to the storage
+     * @param batchSize maximum number of events saved to the storage using a
+     * single operation. Batch mode is disabled if batch size is one or less.
+     * @param batchTimeout maximum time in milliseconds to wait for a batch to
+     * fill up
+     */
+    public E2EEventQueueProcessor(StorageManager storageManager, int batchSize, long batchTimeout) {
+        this(storageManager, batchSize, batchTimeout, null);
+    }
+
+    /**
+     * Constructs and initializes a new E2EEventQueueProcessor object.
+     * @param storageManager storage manager is responsible for storing
+     * E2E events to the storage
+     * @param batchSize maximum number of events saved to the storage using a
+     * single operation. Batch mode is disabled if batch size is one or less.
+     * @param batchTimeout maximum time in milliseconds to wait for a batch to
+     * fill up
+     * @param metrics metrics where the time events spend in the queue is
+     * recorded, may be null
+     */
+    public E2EEventQueueProcessor(StorageManager storageManager, int batchSize, long batchTimeout, PipelineMetrics metrics) {
+        this(storageManager, batchSize, batchTimeout, metrics, 0);
+    }
+
+    /**
+     * Constructs and initializes a new E2EEventQueueProcessor object.
+     * @param storageManager storage manager is responsible for storing
+     * E2E events to the storage
+     * @param batchSize maximum number of events saved to the storage using a
+     * single operation. Batch mode is disabled if batch size is one or less.
+     * @param batchTimeout maximum time in milliseconds to wait for a batch to
+     * fill up
+     * @param metrics metrics where the time events spend in the queue is
+     * recorded, may be null
+     * @param lane index of the queue lane that's consumed by this processor
+     */
+    public E2EEventQueueProcessor(StorageManager storageManager, int batchSize, long batchTimeout, PipelineMetrics metrics, int lane) {
         this.queue = E2EEventQueue.getInstance();
         this.storageManager = storageManager;
-        LOGGER.info("E2EEventQueueProcessor initiated.");
+        this.batchSize = batchSize;
+        this.batchTimeout = batchTimeout;
+        this.metrics = metrics;
+        this.lane = lane;
+        LOGGER.info("E2EEventQueueProcessor initiated for lane {}.", lane);
     }
 
     /**
@@ -65,14 +131,45 @@ public class E2EEventQueueProcessor implements Runnable {
      */
     @Override
     public void run() {
-        LOGGER.info("E2EEventQueueProcessor started.");
-        E2EEvent event = queue.take();
+        LOGGER.info("E2EEventQueueProcessor started for lane {}.", this.lane);
+        if (this.batchSize > 1) {
+            this.processBatches();
+            return;
+        }
+        E2EEvent event = queue.take(this.lane);
         while (event != null && !Thread.currentThread().isInterrupted()) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("New event received: \"{}\"", event);
             }
+            this.recordQueueLag(event, System.nanoTime());
             this.storageManager.add(event);
-            event = queue.take();
+            event = queue.take(this.lane);
+        }
+    }
+
+    /**
+     * Monitors the E2E event queue and saves events to the storage in batches.
+     */
+    private void processBatches() {
+        LOGGER.info("Batch mode enabled. Batch size is {} and batch timeout {} ms.", this.batchSize, this.batchTimeout);
+        List<E2EEvent> batch = new ArrayList<>(this.batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            batch.clear();
+            if (queue.drainTo(this.lane, batch, this.batchSize, this.batchTimeout) == 0) {
+                break;
+            }
+            LOGGER.debug("New batch of {} events received.", batch.size());
+            long now = System.nanoTime();
+            for (E2EEvent event : batch) {
+                this.recordQueueLag(event, now);
+            }
+            this.storageManager.addAll(batch);
+        }
+    }
+
+    private void recordQueueLag(E2EEvent event, long now) {
+        if (this.metrics != null) {
+            this.metrics.recordQueueLag(now - event.enqueuedNanos());
         }
     }
 }
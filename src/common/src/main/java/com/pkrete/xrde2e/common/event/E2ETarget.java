@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * This class holds the information that is the same for all the events of
+ * a single monitoring target. The object is created once per target and
+ * passed to E2EEvent.E2EEventBuilder, so that the events of the target
+ * share the same String instances instead of building them again for every
+ * event.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class E2ETarget implements Serializable {
+
+    private final String label;
+    private final String producerMember;
+    private final String securityServer;
+
+    /**
+     * Constructs and initializes a new E2ETarget object.
+     *
+     * @param label label of the target
+     * @param producerMember identifier of the producer member as a String
+     * @param securityServer identifier of the security server as a String
+     */
+    public E2ETarget(String label, String producerMember, String securityServer) {
+        this.label = label;
+        this.producerMember = producerMember;
+        this.securityServer = securityServer;
+    }
+
+    /**
+     * Returns the label of the target.
+     *
+     * @return the label of the target
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the identifier of the producer member as a String.
+     *
+     * @return identifier of the producer member as a String
+     */
+    public String getProducerMember() {
+        return producerMember;
+    }
+
+    /**
+     * Returns the identifier of the security server as a String.
+     *
+     * @return identifier of the security server as a String
+     */
+    public String getSecurityServer() {
+        return securityServer;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof E2ETarget)) {
+            return false;
+        }
+        E2ETarget other = (E2ETarget) o;
+        return Objects.equals(label, other.label) && Objects.equals(producerMember, other.producerMember)
+                && Objects.equals(securityServer, other.securityServer);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(label, producerMember, securityServer);
+    }
+
+    @Override
+    public String toString() {
+        return producerMember + "::" + securityServer;
+    }
+}
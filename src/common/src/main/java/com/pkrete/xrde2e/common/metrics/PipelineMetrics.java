@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.metrics;
+
+import com.pkrete.xrde2e.common.event.E2EEventQueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps metrics of the pipeline between the event queue and the
+ * storage: the time events spend in the queue, the latency of the insert
+ * and upsert operations and the number of events written by each operation,
+ * the number of failed operations, and the duration and the number of
+ * removed documents of the storage cleaner runs and of the chunks in which
+ * the documents are removed.
+ *
+ * The metrics are registered in the given meter registry and a summary of
+ * the metrics recorded since the previous summary can be written to the
+ * log periodically.
+ *
+ * @author Petteri Kivimäki
+ */
+public class PipelineMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineMetrics.class);
+    private static final String TAG_OPERATION = "operation";
+    private static final String TAG_COLLECTION = "collection";
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+    private static final Duration MIN_EXPECTED_DURATION = Duration.ofMillis(1);
+    private static final Duration MAX_EXPECTED_DURATION = Duration.ofMinutes(1);
+    private final MeterRegistry registry;
+    private final Timer queueLag;
+    private final Timer insertDuration;
+    private final Timer upsertDuration;
+    private final Counter insertFailures;
+    private final Counter upsertFailures;
+    private final Counter deleteFailures;
+    private final DistributionSummary batchSize;
+    private final Timer cleanerDuration;
+    private final ConcurrentMap<String, Counter> deleted = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> deleteChunkDuration = new ConcurrentHashMap<>();
+    private final TimerWindow queueLagWindow;
+    private final TimerWindow insertWindow;
+    private final TimerWindow upsertWindow;
+    private final TimerWindow cleanerWindow;
+    private long lastFailureCount;
+    private long lastDeletedCount;
+
+    /**
+     * Operation that writes events to the storage.
+     */
+    public enum Operation {
+        /**
+         * Insert to the historical state collection.
+         */
+        INSERT,
+        /**
+         * Upsert to the current state collection.
+         */
+        UPSERT
+    }
+
+    /**
+     * Constructs and initializes a new PipelineMetrics object.
+     *
+     * @param registry registry where the meters are registered
+     * @param queue event queue whose size and dropped events are published
+     */
+    public PipelineMetrics(MeterRegistry registry, E2EEventQueue queue) {
+        this.registry = registry;
+        this.queueLag = createTimer("xrde2e.queue.lag", "Time events spend in the event queue").register(registry);
+        this.insertDuration = createTimer("xrde2e.storage.write.duration", "Duration of the storage write operations")
+                .tag(TAG_OPERATION, "insert").register(registry);
+        this.upsertDuration = createTimer("xrde2e.storage.write.duration", "Duration of the storage write operations")
+                .tag(TAG_OPERATION, "upsert").register(registry);
+        this.insertFailures = createFailureCounter("insert");
+        this.upsertFailures = createFailureCounter("upsert");
+        this.deleteFailures = createFailureCounter("delete");
+        this.batchSize = DistributionSummary.builder("xrde2e.storage.batch.size")
+                .description("Number of events written by a single insert operation")
+                .baseUnit("events")
+                .register(registry);
+        this.cleanerDuration = Timer.builder("xrde2e.cleaner.duration")
+                .description("Duration of the storage cleaner runs")
+                .register(registry);
+        Gauge.builder("xrde2e.queue.size", queue, E2EEventQueue::getSize)
+                .description("Number of events waiting in the event queue")
+                .register(registry);
+        FunctionCounter.builder("xrde2e.queue.dropped", queue, E2EEventQueue::getDroppedCount)
+                .description("Number of events dropped because of the queue overflow policy")
+                .register(registry);
+        this.queueLagWindow = new TimerWindow(this.queueLag);
+        this.insertWindow = new TimerWindow(this.insertDuration);
+        this.upsertWindow = new TimerWindow(this.upsertDuration);
+        this.cleanerWindow = new TimerWindow(this.cleanerDuration);
+    }
+
+    private static Timer.Builder createTimer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .publishPercentiles(PERCENTILES)
+                .minimumExpectedValue(MIN_EXPECTED_DURATION)
+                .maximumExpectedValue(MAX_EXPECTED_DURATION);
+    }
+
+    private Counter createFailureCounter(String operation) {
+        return Counter.builder("xrde2e.storage.failures")
+                .description("Number of failed storage operations")
+                .tag(TAG_OPERATION, operation)
+                .register(this.registry);
+    }
+
+    private Counter createDeletedCounter(String collection) {
+        return Counter.builder("xrde2e.cleaner.deleted")
+                .description("Number of documents removed by the storage cleaner")
+                .tag(TAG_COLLECTION, collection)
+                .register(this.registry);
+    }
+
+    private Timer createDeleteChunkTimer(String collection) {
+        return createTimer("xrde2e.cleaner.chunk.duration", "Duration of deleting a single chunk of documents")
+                .tag(TAG_COLLECTION, collection)
+                .register(this.registry);
+    }
+
+    /**
+     * Records the time an event spent in the event queue.
+     *
+     * @param nanos time in the queue in nanoseconds
+     */
+    public void recordQueueLag(long nanos) {
+        this.queueLag.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a single write operation.
+     *
+     * @param operation type of the operation
+     * @param nanos duration of the operation in nanoseconds
+     * @param events number of events written by the operation
+     * @param success true if the operation succeeded, otherwise false
+     */
+    public void recordWrite(Operation operation, long nanos, int events, boolean success) {
+        if (operation == Operation.INSERT) {
+            this.insertDuration.record(nanos, TimeUnit.NANOSECONDS);
+            this.batchSize.record(events);
+            if (!success) {
+                this.insertFailures.increment();
+            }
+        } else {
+            this.upsertDuration.record(nanos, TimeUnit.NANOSECONDS);
+            if (!success) {
+                this.upsertFailures.increment();
+            }
+        }
+    }
+
+    /**
+     * Records the number of documents removed from the given collection. If
+     * the removal failed, the count is negative.
+     *
+     * @param collection collection name
+     * @param count number of removed documents, or a negative number if the
+     * removal failed
+     */
+    public void recordDeleted(String collection, long count) {
+        if (count < 0) {
+            this.deleteFailures.increment();
+            return;
+        }
+        this.deleted.computeIfAbsent(collection, this::createDeletedCounter).increment(count);
+    }
+
+    /**
+     * Records the duration of deleting a single chunk of documents from the
+     * given collection.
+     *
+     * @param collection collection name
+     * @param nanos duration of the chunk in nanoseconds
+     */
+    public void recordDeleteChunk(String collection, long nanos) {
+        this.deleteChunkDuration.computeIfAbsent(collection, this::createDeleteChunkTimer).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the duration of a single storage cleaner run.
+     *
+     * @param nanos duration of the run in nanoseconds
+     */
+    public void recordCleanerRun(long nanos) {
+        this.cleanerDuration.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes a summary of the metrics recorded since the previous summary to
+     * the log. Max values are the maximums of the recent past as reported by
+     * the meter registry.
+     */
+    public synchronized void logSummary() {
+        long failureCount = (long) (this.insertFailures.count() + this.upsertFailures.count() + this.deleteFailures.count());
+        long deletedCount = 0;
+        for (Counter counter : this.deleted.values()) {
+            deletedCount += (long) counter.count();
+        }
+        LOGGER.info("Pipeline: queue lag {}. Inserts {}. Upserts {}. Failures {}. Cleaner runs {}, deleted {} documents.",
+                this.queueLagWindow.next(), this.insertWindow.next(), this.upsertWindow.next(),
+                failureCount - this.lastFailureCount, this.cleanerWindow.next(), deletedCount - this.lastDeletedCount);
+        this.lastFailureCount = failureCount;
+        this.lastDeletedCount = deletedCount;
+    }
+
+    /**
+     * Calculates the count and the average of the values recorded by a timer
+     * since the previous call.
+     */
+    private static class TimerWindow {
+
+        private final Timer timer;
+        private long lastCount;
+        private double lastTotalTime;
+
+        TimerWindow(Timer timer) {
+            this.timer = timer;
+        }
+
+        String next() {
+            long count = this.timer.count();
+            double totalTime = this.timer.totalTime(TimeUnit.MILLISECONDS);
+            long windowCount = count - this.lastCount;
+            double average = windowCount > 0 ? (totalTime - this.lastTotalTime) / windowCount : 0;
+            this.lastCount = count;
+            this.lastTotalTime = totalTime;
+            return String.format("%d (avg %.1f ms, max %.1f ms)", windowCount, average, this.timer.max(TimeUnit.MILLISECONDS));
+        }
+    }
+}
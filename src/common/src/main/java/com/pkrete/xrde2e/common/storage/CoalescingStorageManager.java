@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a storage manager that adds the events to the historical
+ * data right away, but leaves writing the current state to a
+ * CurrentStateWriter that coalesces the updates of each security server.
+ * All the other operations are passed to the given storage manager.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CoalescingStorageManager implements StorageManager {
+
+    private final StorageManager storageManager;
+    private final CurrentStateWriter currentStateWriter;
+
+    /**
+     * Constructs and initializes a new CoalescingStorageManager object.
+     *
+     * @param storageManager storage manager that's used for writing events to
+     * the storage
+     * @param currentStateWriter writer that writes the current state to the
+     * storage
+     */
+    public CoalescingStorageManager(StorageManager storageManager, CurrentStateWriter currentStateWriter) {
+        this.storageManager = storageManager;
+        this.currentStateWriter = currentStateWriter;
+    }
+
+    @Override
+    public boolean add(E2EEvent event) {
+        if (!this.storageManager.addHistorical(Collections.singletonList(event))) {
+            return false;
+        }
+        this.currentStateWriter.offer(event);
+        return true;
+    }
+
+    @Override
+    public boolean addAll(List<E2EEvent> events) {
+        if (!this.storageManager.addHistorical(events)) {
+            return false;
+        }
+        this.currentStateWriter.offerAll(events);
+        return true;
+    }
+
+    @Override
+    public boolean addHistorical(List<E2EEvent> events) {
+        return this.storageManager.addHistorical(events);
+    }
+
+    @Override
+    public List<E2EEvent> tryAddHistorical(List<E2EEvent> events) {
+        return this.storageManager.tryAddHistorical(events);
+    }
+
+    @Override
+    public boolean replayHistorical(List<E2EEvent> events) {
+        return this.storageManager.replayHistorical(events);
+    }
+
+    @Override
+    public boolean addCurrent(List<E2EEvent> events) {
+        this.currentStateWriter.offerAll(events);
+        return true;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return this.storageManager.isAvailable();
+    }
+
+    @Override
+    public boolean deleteOlderThan(int days) {
+        return this.storageManager.deleteOlderThan(days);
+    }
+
+    @Override
+    public boolean deleteOlderThanFromCurrent(int hours) {
+        return this.storageManager.deleteOlderThanFromCurrent(hours);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is responsible for writing the current state of the security
+ * servers to the storage. Instead of updating the current state on every
+ * event, the events are collected and only the latest event of each security
+ * server is written when the flush interval has elapsed. The writer is run in
+ * a separate thread of its own.
+ *
+ * If a heartbeat age is defined, the current state of a security server is
+ * written only when its status or fault code has changed, or when it was last
+ * written longer than the heartbeat age ago. The number of writes then
+ * depends on how often the state changes instead of the number of events.
+ * The heartbeat age must be shorter than the time after which old entries
+ * are removed from the current state.
+ *
+ * If writing fails, the events are written again on the next flush unless
+ * newer events of the same security servers have been received.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CurrentStateWriter implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CurrentStateWriter.class);
+    private final StorageManager storageManager;
+    private final long flushInterval;
+    private final long heartbeat;
+    // Latest event of each security server that's waiting to be written
+    private final ConcurrentMap<String, E2EEvent> pending = new ConcurrentHashMap<>();
+    // State that was last written for each security server, accessed by the
+    // flushing thread only
+    private final Map<String, WrittenState> written = new HashMap<>();
+
+    /**
+     * Constructs and initializes a new CurrentStateWriter object.
+     *
+     * @param storageManager storage manager that's used for writing the
+     * current state to the storage
+     * @param flushInterval how often in milliseconds the current state is
+     * written to the storage
+     * @param heartbeat time in milliseconds after which an unchanged state
+     * is written again, zero or less means that the latest event is always
+     * written
+     */
+    public CurrentStateWriter(StorageManager storageManager, long flushInterval, long heartbeat) {
+        this.storageManager = storageManager;
+        this.flushInterval = flushInterval;
+        this.heartbeat = heartbeat;
+        LOGGER.info("CurrentStateWriter initiated.");
+    }
+
+    /**
+     * Adds the given event to the events waiting to be written. An event of
+     * the same security server that's already waiting is replaced.
+     *
+     * @param event event to be written
+     */
+    public void offer(E2EEvent event) {
+        this.pending.put(getServerKey(event), event);
+    }
+
+    /**
+     * Adds the given events to the events waiting to be written. The events
+     * must be in the order they were received.
+     *
+     * @param events events to be written
+     */
+    public void offerAll(List<E2EEvent> events) {
+        for (E2EEvent event : events) {
+            this.offer(event);
+        }
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("CurrentStateWriter started. Flush interval is {} ms and heartbeat {} ms.", this.flushInterval, this.heartbeat);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(this.flushInterval);
+            } catch (InterruptedException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+                Thread.currentThread().interrupt();
+            }
+            // Pending events are flushed on exit too
+            this.flush();
+        }
+        LOGGER.info("CurrentStateWriter quitted.");
+    }
+
+    /**
+     * Writes the latest event of each security server to the storage if its
+     * state needs to be written.
+     *
+     * @return true if and only if the events were written successfully or
+     * there was nothing to write, otherwise false
+     */
+    boolean flush() {
+        if (this.pending.isEmpty()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        List<E2EEvent> events = new ArrayList<>();
+        int skipped = 0;
+        for (String server : this.pending.keySet()) {
+            E2EEvent event = this.pending.remove(server);
+            if (event == null) {
+                continue;
+            }
+            if (this.isWriteNeeded(server, event, now)) {
+                events.add(event);
+            } else {
+                skipped++;
+            }
+        }
+        if (events.isEmpty()) {
+            LOGGER.debug("Current state unchanged. {} events skipped.", skipped);
+            return true;
+        }
+        if (!this.storageManager.addCurrent(events)) {
+            // Retry on the next flush unless a newer event has been received
+            for (E2EEvent event : events) {
+                this.pending.putIfAbsent(getServerKey(event), event);
+            }
+            LOGGER.warn("Writing current state of {} security servers failed. Retry later.", events.size());
+            return false;
+        }
+        for (E2EEvent event : events) {
+            this.written.put(getServerKey(event), new WrittenState(event, now));
+        }
+        LOGGER.debug("Current state of {} security servers written. {} events skipped.", events.size(), skipped);
+        return true;
+    }
+
+    /**
+     * Returns the number of security servers whose current state is waiting
+     * to be written.
+     *
+     * @return number of security servers waiting to be written
+     */
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    private boolean isWriteNeeded(String server, E2EEvent event, long now) {
+        if (this.heartbeat <= 0) {
+            return true;
+        }
+        WrittenState state = this.written.get(server);
+        return state == null || state.status != event.isStatus() || !Objects.equals(state.faultCode, event.getFaultCode())
+                || now - state.writtenAt >= this.heartbeat;
+    }
+
+    private static String getServerKey(E2EEvent event) {
+        return event.getSecurityServer() == null ? "" : event.getSecurityServer();
+    }
+
+    /**
+     * State of a security server that was last written to the storage.
+     */
+    private static final class WrittenState {
+
+        private final boolean status;
+        private final String faultCode;
+        private final long writtenAt;
+
+        private WrittenState(E2EEvent event, long writtenAt) {
+            this.status = event.isStatus();
+            this.faultCode = event.getFaultCode();
+            this.writtenAt = writtenAt;
+        }
+    }
+}
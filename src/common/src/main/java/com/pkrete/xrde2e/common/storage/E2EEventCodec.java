@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class converts E2EEvent objects to a compact binary format and back.
+ * The format is used for storing events in local files. Timestamps are
+ * written as milliseconds since the epoch, E2EEvent.NO_TIMESTAMP meaning
+ * that the timestamp is not set. Strings are written as UTF-8 bytes prefixed
+ * with their length, a negative length meaning that the string is not set.
+ * This way the length of a string, e.g. a long fault string, isn't limited.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class E2EEventCodec {
+
+    private static final byte VERSION = 3;
+    private static final byte VERSION_MODIFIED_UTF8 = 2;
+    private static final byte VERSION_WITHOUT_CONNECT_DURATION = 1;
+    private static final int NULL_STRING = -1;
+    private static final int INITIAL_SIZE = 256;
+
+    /**
+     * Private constructor that hides the implicit public one.
+     */
+    private E2EEventCodec() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Converts the given E2EEvent to a byte array.
+     *
+     * @param event E2EEvent to be converted
+     * @return byte array representing the given E2EEvent
+     * @throws IOException if conversion fails
+     */
+    public static byte[] encode(E2EEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeString(out, event.getLabel());
+        writeString(out, event.getProducerMember());
+        writeString(out, event.getSecurityServer());
+        writeString(out, event.getRequestId());
+        out.writeBoolean(event.isStatus());
+        writeString(out, event.getFaultCode());
+        writeString(out, event.getFaultString());
+        out.writeLong(event.getDuration());
+        out.writeLong(event.beginMillis());
+        out.writeLong(event.endMillis());
+        out.writeLong(event.createdDateMillis());
+        out.writeLong(event.getConnectDuration());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Converts the given byte array to an E2EEvent object. Events encoded
+     * using the previous versions of the format are supported too.
+     *
+     * @param data byte array to be converted
+     * @return E2EEvent object
+     * @throws IOException if conversion fails
+     */
+    public static E2EEvent decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION && version != VERSION_MODIFIED_UTF8 && version != VERSION_WITHOUT_CONNECT_DURATION) {
+            throw new IOException("Unsupported event format version: " + version);
+        }
+        boolean utf8 = version == VERSION;
+        E2EEvent.E2EEventBuilder builder = new E2EEvent.E2EEventBuilder()
+                .label(readString(in, utf8))
+                .producerMember(readString(in, utf8))
+                .securityServer(readString(in, utf8))
+                .requestId(readString(in, utf8))
+                .status(in.readBoolean())
+                .faultCode(readString(in, utf8))
+                .faultString(readString(in, utf8))
+                .duration(in.readLong())
+                .begin(in.readLong())
+                .end(in.readLong())
+                .createdDate(in.readLong());
+        if (version != VERSION_WITHOUT_CONNECT_DURATION) {
+            builder.connectDuration(in.readLong());
+        }
+        return builder.build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, boolean utf8) throws IOException {
+        if (!utf8) {
+            // Previous versions used modified UTF-8 limited to 65535 bytes
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements an append-only spool file for E2EEvents that could
+ * not be written to the storage. The file is memory-mapped and has a fixed
+ * size. The beginning of the file contains a header that holds the read and
+ * write positions, which makes it possible to continue replaying the spool
+ * after a restart. Each event is stored as a length prefixed record.
+ *
+ * Events are read in batches using the peek method, and a batch is removed
+ * from the spool only after commit has been called. If the batch could not be
+ * replayed, the same events are returned by the next peek. The spool expects
+ * that there's only one reader at the time, and all the methods are
+ * synchronized.
+ *
+ * @author Petteri Kivimäki
+ */
+public class EventSpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventSpool.class);
+    /**
+     * Maximum size of the spool file in bytes. The file is mapped to a
+     * single buffer, which can't be larger.
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE;
+    private static final int READ_POSITION_OFFSET = 0;
+    private static final int WRITE_POSITION_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private final String path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int readPosition;
+    private int writePosition;
+    private int peekPosition;
+    private int peekSkipped;
+    private int eventCount;
+    private long droppedCount;
+
+    /**
+     * Constructs and initializes a new EventSpool object. If the file already
+     * exists, the events stored in it are kept.
+     *
+     * @param path path of the spool file
+     * @param capacity size of the spool file in bytes
+     * @throws IOException if opening the file fails
+     */
+    public EventSpool(String path, int capacity) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = this.file.getChannel();
+        this.capacity = Math.max(capacity, (int) Math.min(MAX_CAPACITY, this.channel.size()));
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        this.readPosition = (int) this.buffer.getLong(READ_POSITION_OFFSET);
+        this.writePosition = (int) this.buffer.getLong(WRITE_POSITION_OFFSET);
+        if (this.readPosition < HEADER_SIZE || this.writePosition < this.readPosition || this.writePosition > this.capacity) {
+            LOGGER.info("Spool file \"{}\" is empty or its header is invalid. Initialize a new spool.", path);
+            this.reset();
+        }
+        this.peekPosition = this.readPosition;
+        this.eventCount = this.countEvents();
+        LOGGER.info("Spool file \"{}\" opened. The spool contains {} events.", path, this.eventCount);
+    }
+
+    /**
+     * Appends the given event to the spool.
+     *
+     * @param event E2EEvent to be appended
+     * @return true if and only if the event was appended, otherwise false
+     */
+    public synchronized boolean append(E2EEvent event) {
+        try {
+            byte[] data = E2EEventCodec.encode(event);
+            int recordSize = RECORD_HEADER_SIZE + data.length;
+            if (this.writePosition + recordSize > this.capacity) {
+                this.compact();
+            }
+            if (this.writePosition + recordSize > this.capacity) {
+                this.droppedCount++;
+                LOGGER.warn("Spool file \"{}\" is full. Event dropped: \"{}\"", this.path, event);
+                return false;
+            }
+            this.buffer.putInt(this.writePosition, data.length);
+            this.buffer.position(this.writePosition + RECORD_HEADER_SIZE);
+            this.buffer.put(data);
+            this.writePosition += recordSize;
+            this.buffer.putLong(WRITE_POSITION_OFFSET, this.writePosition);
+            this.eventCount++;
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            this.droppedCount++;
+            return false;
+        }
+    }
+
+    /**
+     * Appends the given events to the spool.
+     *
+     * @param events E2EEvents to be appended
+     * @return true if and only if all the events were appended, otherwise
+     * false
+     */
+    public synchronized boolean appendAll(List<E2EEvent> events) {
+        boolean result = true;
+        for (E2EEvent event : events) {
+            result &= this.append(event);
+        }
+        return result;
+    }
+
+    /**
+     * Returns at most the given number of events from the beginning of the
+     * spool without removing them. The events are removed when commit is
+     * called.
+     *
+     * @param maxEvents maximum number of events to be returned
+     * @return list of events
+     */
+    public synchronized List<E2EEvent> peek(int maxEvents) {
+        List<E2EEvent> events = new ArrayList<>();
+        int position = this.readPosition;
+        this.peekSkipped = 0;
+        while (events.size() < maxEvents && position < this.writePosition) {
+            int length = this.buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > this.writePosition) {
+                LOGGER.error("Spool file \"{}\" contains an invalid record at position {}. Skip the rest of the spool.", this.path, position);
+                position = this.writePosition;
+                break;
+            }
+            byte[] data = new byte[length];
+            this.buffer.position(position + RECORD_HEADER_SIZE);
+            this.buffer.get(data);
+            position += RECORD_HEADER_SIZE + length;
+            try {
+                events.add(E2EEventCodec.decode(data));
+            } catch (IOException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+                this.peekSkipped++;
+            }
+        }
+        this.peekPosition = position;
+        return events;
+    }
+
+    /**
+     * Removes the events returned by the previous peek from the spool. The
+     * records that the previous peek skipped, because they couldn't be
+     * decoded, are removed too. When the spool becomes empty, writing starts
+     * again from the beginning of the file.
+     *
+     * @param events number of events returned by the previous peek
+     */
+    public synchronized void commit(int events) {
+        this.readPosition = this.peekPosition;
+        this.eventCount = Math.max(0, this.eventCount - events - this.peekSkipped);
+        this.peekSkipped = 0;
+        if (this.readPosition >= this.writePosition) {
+            this.reset();
+        } else {
+            this.buffer.putLong(READ_POSITION_OFFSET, this.readPosition);
+        }
+        this.buffer.force();
+    }
+
+    /**
+     * Returns true if the spool contains no events.
+     *
+     * @return true if the spool contains no events
+     */
+    public synchronized boolean isEmpty() {
+        return this.readPosition >= this.writePosition;
+    }
+
+    /**
+     * Returns the number of events in the spool.
+     *
+     * @return number of events in the spool
+     */
+    public synchronized int getEventCount() {
+        return this.eventCount;
+    }
+
+    /**
+     * Returns the number of events that could not be appended to the spool.
+     *
+     * @return number of dropped events
+     */
+    public synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Writes all the changes to the disk and closes the spool file.
+     */
+    public synchronized void close() {
+        try {
+            this.buffer.force();
+            this.channel.close();
+            this.file.close();
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Moves the events that have not been replayed yet to the beginning of
+     * the spool.
+     */
+    private void compact() {
+        int offset = this.readPosition - HEADER_SIZE;
+        if (offset <= 0) {
+            return;
+        }
+        int length = this.writePosition - this.readPosition;
+        byte[] data = new byte[length];
+        this.buffer.position(this.readPosition);
+        this.buffer.get(data);
+        this.buffer.position(HEADER_SIZE);
+        this.buffer.put(data);
+        this.readPosition = HEADER_SIZE;
+        this.writePosition = HEADER_SIZE + length;
+        this.peekPosition = Math.max(HEADER_SIZE, this.peekPosition - offset);
+        this.buffer.putLong(READ_POSITION_OFFSET, this.readPosition);
+        this.buffer.putLong(WRITE_POSITION_OFFSET, this.writePosition);
+        LOGGER.debug("Spool file \"{}\" compacted, {} bytes released.", this.path, offset);
+    }
+
+    private void reset() {
+        this.readPosition = HEADER_SIZE;
+        this.writePosition = HEADER_SIZE;
+        this.peekPosition = HEADER_SIZE;
+        this.eventCount = 0;
+        this.buffer.putLong(READ_POSITION_OFFSET, this.readPosition);
+        this.buffer.putLong(WRITE_POSITION_OFFSET, this.writePosition);
+    }
+
+    private int countEvents() {
+        int count = 0;
+        int position = this.readPosition;
+        while (position < this.writePosition) {
+            int length = this.buffer.getInt(position);
+            if (length <= 0) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+/**
+ * This enum defines how the historical events are stored in MongoDB.
+ *
+ * @author Petteri Kivimäki
+ */
+public enum HistoricalLayout {
+    /**
+     * Each event is an ordinary document that contains all the fields of
+     * the event.
+     */
+    DOCUMENTS,
+    /**
+     * Events are stored in a time-series collection with begin as the time
+     * field and the target as metadata. MongoDB groups the events of the
+     * same target into compressed buckets, which reduces the storage
+     * footprint, and removes expired buckets as a whole.
+     */
+    TIMESERIES;
+
+    /**
+     * Returns the layout matching the given name. The comparison is case
+     * insensitive. If the name is null or empty, or no match is found,
+     * DOCUMENTS is returned.
+     *
+     * @param name name of the layout
+     * @return layout matching the given name
+     */
+    public static HistoricalLayout fromString(String name) {
+        if (name != null) {
+            String value = name.trim();
+            for (HistoricalLayout layout : values()) {
+                if (layout.name().equalsIgnoreCase(value)) {
+                    return layout;
+                }
+            }
+        }
+        return DOCUMENTS;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import java.util.Date;
+
+/**
+ * This class defines which historical events are fetched from the storage.
+ * Besides the security server, the query may define a time range and a
+ * keyset position. The time range is defined using from (inclusive) and to
+ * (exclusive) timestamps. Keyset pagination is done using before and after
+ * (both exclusive) timestamps: the next older page is fetched using the
+ * begin timestamp of the oldest event of the current page as before, and
+ * the next newer page using the begin timestamp of the newest event as
+ * after. All the timestamps are compared against the event begin timestamp.
+ *
+ * @author Petteri Kivimäki
+ */
+public final class HistoryQuery {
+
+    private final String securityServer;
+    private final int limit;
+    private final Date from;
+    private final Date to;
+    private final Date before;
+    private final Date after;
+
+    private HistoryQuery(HistoryQueryBuilder builder) {
+        this.securityServer = builder.securityServer;
+        this.limit = builder.limit;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.before = builder.before;
+        this.after = builder.after;
+    }
+
+    /**
+     * Returns the security server whose events are fetched.
+     *
+     * @return security server identifier
+     */
+    public String getSecurityServer() {
+        return securityServer;
+    }
+
+    /**
+     * Returns the maximum number of events to be fetched. All the events
+     * are fetched if limit is 0.
+     *
+     * @return maximum number of events
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the start of the time range, inclusive. May be null.
+     *
+     * @return start of the time range
+     */
+    public Date getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the end of the time range, exclusive. May be null.
+     *
+     * @return end of the time range
+     */
+    public Date getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the keyset position that all the fetched events must be older
+     * than. May be null.
+     *
+     * @return keyset position of the next older page
+     */
+    public Date getBefore() {
+        return before;
+    }
+
+    /**
+     * Returns the keyset position that all the fetched events must be newer
+     * than. May be null.
+     *
+     * @return keyset position of the next newer page
+     */
+    public Date getAfter() {
+        return after;
+    }
+
+    /**
+     * Returns the lower bound of the begin timestamp, inclusive, combining
+     * from and after. Returns null if neither is defined.
+     *
+     * @return lower bound of the begin timestamp
+     */
+    public Date getLowerBound() {
+        if (after == null) {
+            return from;
+        }
+        // after is exclusive, from is inclusive
+        Date afterInclusive = new Date(after.getTime() + 1);
+        return from == null || afterInclusive.after(from) ? afterInclusive : from;
+    }
+
+    /**
+     * Returns the upper bound of the begin timestamp, exclusive, combining
+     * to and before. Returns null if neither is defined.
+     *
+     * @return upper bound of the begin timestamp
+     */
+    public Date getUpperBound() {
+        if (before == null) {
+            return to;
+        }
+        return to == null || before.before(to) ? before : to;
+    }
+
+    /**
+     * Returns true if the events must be scanned from the oldest to the
+     * newest. This is the case when a newer page is fetched using after, so
+     * that the events closest to the keyset position are included when limit
+     * is defined. The events are still returned from the newest to the
+     * oldest.
+     *
+     * @return true if the events must be scanned in ascending order
+     */
+    public boolean isAscending() {
+        return after != null && before == null;
+    }
+
+    /**
+     * Static nested inner builder class for HistoryQueries.
+     */
+    public static class HistoryQueryBuilder {
+
+        private String securityServer;
+        private int limit;
+        private Date from;
+        private Date to;
+        private Date before;
+        private Date after;
+
+        public HistoryQueryBuilder securityServer(final String securityServer) {
+            this.securityServer = securityServer;
+            return this;
+        }
+
+        public HistoryQueryBuilder limit(final int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public HistoryQueryBuilder from(final Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public HistoryQueryBuilder to(final Date to) {
+            this.to = to;
+            return this;
+        }
+
+        public HistoryQueryBuilder before(final Date before) {
+            this.before = before;
+            return this;
+        }
+
+        public HistoryQueryBuilder after(final Date after) {
+            this.after = after;
+            return this;
+        }
+
+        public HistoryQuery build() {
+            return new HistoryQuery(this);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+/**
+ * This interface defines operations for rolling up the historical events to
+ * rollup tiers and for removing old rollups. It's implemented by the
+ * storage managers whose storage supports rollups.
+ *
+ * @author Petteri Kivimäki
+ */
+public interface RollupManager {
+
+    /**
+     * Returns the start time of the first bucket of the given tier that
+     * needs to be rolled up. That's the newest bucket that has already been
+     * rolled up, or the bucket of the oldest historical event if there are
+     * no rollups yet.
+     *
+     * @param tier rollup tier
+     * @return start time of the bucket in milliseconds since the epoch, or
+     * E2EEvent.NO_TIMESTAMP if there are no events or the start time could
+     * not be read
+     */
+    long getRollupStart(RollupTier tier);
+
+    /**
+     * Rolls up the given range to the given tier. If the source tier is
+     * null, the historical events whose begin time is within the range are
+     * rolled up, otherwise the rollups of the source tier within the range
+     * are merged. The range must be aligned to the buckets of the tier.
+     * Existing rollups of the same buckets are replaced.
+     *
+     * @param tier rollup tier
+     * @param source smaller tier whose rollups are merged, or null if the
+     * historical events are rolled up
+     * @param from start of the range in milliseconds since the epoch,
+     * inclusive
+     * @param to end of the range in milliseconds since the epoch, exclusive
+     * @return true if and only if the range was rolled up successfully,
+     * otherwise false
+     */
+    boolean rollup(RollupTier tier, RollupTier source, long from, long to);
+
+    /**
+     * Deletes the rollups of the given tier older than the given days.
+     *
+     * @param tier rollup tier
+     * @param days number of days
+     * @return true if and only if the rollups were deleted successfully,
+     * otherwise false
+     */
+    boolean deleteRollupsOlderThan(RollupTier tier, int days);
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.util.Constants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This enum defines the tiers of the rollups that summarize the historical
+ * events of each security server. Each tier has a bucket size and a
+ * collection of its own, and the rollups of each tier are kept for a time
+ * of their own, so long-term trends remain available after the raw events
+ * have been removed.
+ *
+ * @author Petteri Kivimäki
+ */
+public enum RollupTier {
+    /**
+     * One rollup per security server and minute.
+     */
+    MINUTE(TimeUnit.MINUTES.toMillis(1), Constants.TABLE_ROLLUP_MINUTE),
+    /**
+     * One rollup per security server and hour.
+     */
+    HOUR(TimeUnit.HOURS.toMillis(1), Constants.TABLE_ROLLUP_HOUR),
+    /**
+     * One rollup per security server and day (UTC).
+     */
+    DAY(TimeUnit.DAYS.toMillis(1), Constants.TABLE_ROLLUP_DAY);
+
+    private final long bucketSize;
+    private final String collection;
+
+    RollupTier(long bucketSize, String collection) {
+        this.bucketSize = bucketSize;
+        this.collection = collection;
+    }
+
+    /**
+     * Returns the size of a single bucket in milliseconds.
+     *
+     * @return size of a single bucket
+     */
+    public long getBucketSize() {
+        return this.bucketSize;
+    }
+
+    /**
+     * Returns the name of the collection where the rollups are stored.
+     *
+     * @return collection name
+     */
+    public String getCollection() {
+        return this.collection;
+    }
+
+    /**
+     * Returns the start time of the bucket that contains the given time.
+     * Buckets are aligned to the epoch.
+     *
+     * @param millis time in milliseconds since the epoch
+     * @return start time of the bucket in milliseconds since the epoch
+     */
+    public long getBucketStart(long millis) {
+        return millis - Math.floorMod(millis, this.bucketSize);
+    }
+
+    /**
+     * Returns the tier matching the given name. The comparison is case
+     * insensitive. If the name is null, or no match is found, null is
+     * returned.
+     *
+     * @param name name of the tier
+     * @return tier matching the given name or null
+     */
+    public static RollupTier fromString(String name) {
+        if (name != null) {
+            String value = name.trim();
+            for (RollupTier tier : values()) {
+                if (tier.name().equalsIgnoreCase(value)) {
+                    return tier;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is responsible for rolling up the historical events to the
+ * rollup tiers and for removing old rollups. The smallest enabled tier is
+ * rolled up from the raw events and each larger tier is merged from the
+ * rollups of the next smaller enabled tier, so the raw events and the
+ * rollups of each tier must be kept longer than the bucket size of the next
+ * larger tier. A larger tier is not rolled up past the buckets that have
+ * been rolled up to its source tier.
+ *
+ * A bucket is rolled up when it has closed at least the rollup delay ago,
+ * so that the events whose request was still in progress when the bucket
+ * closed are included. Events that are written to the storage later, e.g.
+ * replayed from the spool, are not included in the buckets that have
+ * already been rolled up. The worker continues from the newest rollup of
+ * each tier after a restart.
+ *
+ * @author Petteri Kivimäki
+ */
+public class RollupWorker implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollupWorker.class);
+    private static final long ROLLUP_DELAY = TimeUnit.MINUTES.toMillis(2);
+    // Maximum time range rolled up using a single operation, unless the
+    // bucket size of the tier is larger
+    private static final long MAX_RANGE = TimeUnit.HOURS.toMillis(1);
+    private final RollupManager rollupManager;
+    private final Map<RollupTier, Integer> retention;
+    private final long interval;
+    // Start time of the next bucket to be rolled up of each tier
+    private final Map<RollupTier, Long> next = new EnumMap<>(RollupTier.class);
+
+    /**
+     * Constructs and initializes a new RollupWorker object.
+     *
+     * @param rollupManager rollup manager that's used for rolling up the
+     * events
+     * @param retention tiers to be rolled up and the number of days the
+     * rollups of each tier are kept, zero or less means forever
+     * @param interval how often in milliseconds the rollups are updated
+     */
+    public RollupWorker(RollupManager rollupManager, Map<RollupTier, Integer> retention, long interval) {
+        this.rollupManager = rollupManager;
+        this.retention = new EnumMap<>(retention);
+        this.interval = interval;
+        LOGGER.info("RollupWorker initiated.");
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("RollupWorker started. Tiers {}, interval {} ms.", this.retention, this.interval);
+        while (this.interval > 0 && !Thread.currentThread().isInterrupted()) {
+            this.update(System.currentTimeMillis());
+            try {
+                Thread.sleep(this.interval);
+            } catch (InterruptedException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOGGER.info("RollupWorker quitted.");
+    }
+
+    /**
+     * Rolls up the buckets of each tier that have closed before the given
+     * time and removes the rollups older than the retention time of the
+     * tier.
+     *
+     * @param now current time in milliseconds since the epoch
+     */
+    void update(long now) {
+        // Tiers are iterated from the smallest to the largest
+        RollupTier source = null;
+        for (Map.Entry<RollupTier, Integer> entry : this.retention.entrySet()) {
+            this.rollup(entry.getKey(), source, now);
+            if (entry.getValue() > 0) {
+                this.rollupManager.deleteRollupsOlderThan(entry.getKey(), entry.getValue());
+            }
+            source = entry.getKey();
+        }
+    }
+
+    private void rollup(RollupTier tier, RollupTier source, long now) {
+        Long start = this.next.get(tier);
+        if (start == null) {
+            start = this.rollupManager.getRollupStart(tier);
+            if (start == E2EEvent.NO_TIMESTAMP) {
+                LOGGER.debug("Nothing to roll up to tier {}.", tier);
+                return;
+            }
+        }
+        long end = tier.getBucketStart(now - ROLLUP_DELAY);
+        if (source != null) {
+            // Only the buckets whose source rollups are complete
+            Long sourceEnd = this.next.get(source);
+            end = sourceEnd == null ? start : Math.min(end, tier.getBucketStart(sourceEnd));
+        }
+        long range = Math.max(tier.getBucketSize(), MAX_RANGE);
+        while (start < end && !Thread.currentThread().isInterrupted()) {
+            long to = Math.min(end, start + range);
+            if (!this.rollupManager.rollup(tier, source, start, to)) {
+                LOGGER.warn("Rolling up tier {} failed. Retry later.", tier);
+                break;
+            }
+            start = to;
+        }
+        this.next.put(tier, start);
+    }
+}
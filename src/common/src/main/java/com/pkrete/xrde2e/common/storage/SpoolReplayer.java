@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * This class is responsible for writing the events stored in the spool to
+ * the storage after the storage has recovered. The events are replayed in
+ * batches in a separate thread, so live events are written to the storage
+ * at the same time without waiting for the replay.
+ *
+ * Replayed events are added to the historical data only. The current state
+ * is updated by the live events, and replaying older events would overwrite
+ * it with outdated information. If replaying a batch fails, the same batch is
+ * replayed again later, which means that an event may be replayed more than
+ * once. The storage skips the events that have already been written.
+ *
+ * @author Petteri Kivimäki
+ */
+public class SpoolReplayer implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolReplayer.class);
+    private final StorageManager storageManager;
+    private final EventSpool spool;
+    private final int batchSize;
+    private final long replayInterval;
+
+    /**
+     * Constructs and initializes a new SpoolReplayer object.
+     *
+     * @param storageManager storage manager that's used for writing events to
+     * the storage
+     * @param spool spool that contains the events to be replayed
+     * @param batchSize maximum number of events replayed using a single
+     * operation
+     * @param replayInterval how often in milliseconds the spool is checked
+     * when it's empty or the storage is not available
+     */
+    public SpoolReplayer(StorageManager storageManager, EventSpool spool, int batchSize, long replayInterval) {
+        this.storageManager = storageManager;
+        this.spool = spool;
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+        this.replayInterval = replayInterval;
+        LOGGER.info("SpoolReplayer initiated.");
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("SpoolReplayer started.");
+        while (!Thread.currentThread().isInterrupted()) {
+            if (this.spool.isEmpty() || !this.storageManager.isAvailable() || !this.replayBatch()) {
+                try {
+                    Thread.sleep(this.replayInterval);
+                } catch (InterruptedException ex) {
+                    LOGGER.error(ex.getMessage(), ex);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        LOGGER.info("SpoolReplayer quitted.");
+    }
+
+    /**
+     * Writes the next batch of events from the spool to the storage.
+     *
+     * @return true if and only if the batch was written successfully,
+     * otherwise false
+     */
+    private boolean replayBatch() {
+        List<E2EEvent> events = this.spool.peek(this.batchSize);
+        if (!events.isEmpty() && !this.storageManager.replayHistorical(events)) {
+            LOGGER.warn("Replaying {} events from spool failed. Retry later.", events.size());
+            return false;
+        }
+        this.spool.commit(events.size());
+        LOGGER.info("{} events replayed from spool. {} events left.", events.size(), this.spool.getEventCount());
+        return true;
+    }
+}
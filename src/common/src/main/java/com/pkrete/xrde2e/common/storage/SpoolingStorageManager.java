@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class wraps a StorageManager and writes events to a local spool file
+ * when the storage is not available or writing to the storage fails. The
+ * events stored in the spool are written to the storage by SpoolReplayer
+ * after the storage has recovered.
+ *
+ * The historical state and the current state are written separately. Only
+ * the events whose historical insert failed are written to the spool, so
+ * a partially failed batch or a failed current state update doesn't cause
+ * the events that were already stored to be written again. The current
+ * state is not spooled, because the next event of each security server
+ * replaces it anyway.
+ *
+ * @author Petteri Kivimäki
+ */
+public class SpoolingStorageManager implements StorageManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolingStorageManager.class);
+    private final StorageManager storageManager;
+    private final EventSpool spool;
+
+    /**
+     * Constructs and initializes a new SpoolingStorageManager object.
+     *
+     * @param storageManager storage manager that's used for writing events to
+     * the storage
+     * @param spool spool where the events are written when the storage is not
+     * available
+     */
+    public SpoolingStorageManager(StorageManager storageManager, EventSpool spool) {
+        this.storageManager = storageManager;
+        this.spool = spool;
+    }
+
+    @Override
+    public boolean add(E2EEvent event) {
+        return this.addAll(Collections.singletonList(event));
+    }
+
+    /**
+     * Adds the given events to the storage. The events whose historical
+     * insert fails are written to the spool.
+     *
+     * @param events events to be added
+     * @return true if and only if all the events were written to the storage
+     * or to the spool and the current state was updated, otherwise false
+     */
+    @Override
+    public boolean addAll(List<E2EEvent> events) {
+        if (events.isEmpty()) {
+            return true;
+        }
+        if (!this.storageManager.isAvailable()) {
+            LOGGER.debug("Storage is not available. Write {} events to spool.", events.size());
+            return this.spool.appendAll(events);
+        }
+        boolean success = true;
+        List<E2EEvent> failed = this.storageManager.tryAddHistorical(events);
+        if (!failed.isEmpty()) {
+            LOGGER.debug("Writing {} of {} events failed. Write them to spool.", failed.size(), events.size());
+            success = this.spool.appendAll(failed);
+        }
+        if (!this.storageManager.addCurrent(events)) {
+            LOGGER.warn("Updating the current state of {} events failed.", events.size());
+            success = false;
+        }
+        return success;
+    }
+
+    @Override
+    public boolean addHistorical(List<E2EEvent> events) {
+        return this.storageManager.addHistorical(events);
+    }
+
+    @Override
+    public List<E2EEvent> tryAddHistorical(List<E2EEvent> events) {
+        return this.storageManager.tryAddHistorical(events);
+    }
+
+    @Override
+    public boolean replayHistorical(List<E2EEvent> events) {
+        return this.storageManager.replayHistorical(events);
+    }
+
+    @Override
+    public boolean addCurrent(List<E2EEvent> events) {
+        return this.storageManager.addCurrent(events);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return this.storageManager.isAvailable();
+    }
+
+    @Override
+    public boolean deleteOlderThan(int days) {
+        return this.storageManager.deleteOlderThan(days);
+    }
+
+    @Override
+    public boolean deleteOlderThanFromCurrent(int hours) {
+        return this.storageManager.deleteOlderThanFromCurrent(hours);
+    }
+}
@@ -23,6 +23,8 @@
  */
 package com.pkrete.xrde2e.common.storage;
 
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +40,7 @@ public class StorageCleaner implements Runnable {
     private final int deleteOlderThan;
     private final int deleteOlderThanInterval;
     private final int deleteOlderThanFromCurrent;
+    private final PipelineMetrics metrics;
 
     /**
      * Constructs and initializes a new StorageCleaner object.
@@ -47,10 +50,25 @@ public class StorageCleaner implements Runnable {
      * @param deleteOlderThanFromCurrent
      */
     public StorageCleaner(StorageManager storageManager, int deleteOlderThan, int deleteOlderThanInterval, int deleteOlderThanFromCurrent) {
+        this(storageManager, deleteOlderThan, deleteOlderThanInterval, deleteOlderThanFromCurrent, null);
+    }
+
+    /**
+     * Constructs and initializes a new StorageCleaner object.
+     * @param storageManager
+     * @param deleteOlderThan
+     * @param deleteOlderThanInterval
+     * @param deleteOlderThanFromCurrent
+     * @param metrics metrics where the duration of each run is recorded, may
+     * be null
+     */
+    public StorageCleaner(StorageManager storageManager, int deleteOlderThan, int deleteOlderThanInterval, int deleteOlderThanFromCurrent,
+            PipelineMetrics metrics) {
         this.storageManager = storageManager;
         this.deleteOlderThan = deleteOlderThan;
         this.deleteOlderThanInterval = deleteOlderThanInterval;
         this.deleteOlderThanFromCurrent = deleteOlderThanFromCurrent;
+        this.metrics = metrics;
         LOGGER.info("StorageCleaner initiated.");
     }
 
@@ -58,10 +76,14 @@ public class StorageCleaner implements Runnable {
     public void run() {
         LOGGER.info("StorageCleaner started.");
         while (this.deleteOlderThanInterval > 0 && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
             // Cleant history collection
             this.storageManager.deleteOlderThan(this.deleteOlderThan);
             // Clean current collection
             this.storageManager.deleteOlderThanFromCurrent(this.deleteOlderThanFromCurrent);
+            if (this.metrics != null) {
+                this.metrics.recordCleanerRun(System.nanoTime() - start);
+            }
             try {
                 LOGGER.debug("StorageCleaner sleeping {} ms.", this.deleteOlderThanInterval);
                 Thread.sleep(this.deleteOlderThanInterval);
@@ -24,8 +24,11 @@
 package com.pkrete.xrde2e.common.storage;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
 
+import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This interface defines operations for querying data from storage.
@@ -36,6 +39,12 @@ public interface StorageClient {
 
     List<E2EEvent> getAllCurrent();
 
-    List<E2EEvent> getHistorical(String securityServer, int limit);
+    List<E2EEvent> getHistorical(HistoryQuery query);
+
+    long streamHistorical(HistoryQuery query, Consumer<E2EEvent> consumer);
+
+    List<E2EEventAggregate> getHistoricalAggregate(String securityServer, Date from, Date to, long bucketSize);
+
+    List<E2EEventAggregate> getRollups(String securityServer, RollupTier tier, Date from, Date to);
 
 }
@@ -25,6 +25,9 @@ package com.pkrete.xrde2e.common.storage;
 
 import com.pkrete.xrde2e.common.event.E2EEvent;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This interface defines operations for inserting, updating and deleting data
  * to/from storage.
@@ -35,6 +38,40 @@ public interface StorageManager {
 
     boolean add(E2EEvent event);
 
+    boolean addAll(List<E2EEvent> events);
+
+    boolean addHistorical(List<E2EEvent> events);
+
+    /**
+     * Adds the given events to the historical state and returns the events
+     * that could not be added. Storages that can't tell which of the events
+     * failed return all the events on failure.
+     *
+     * @param events events to be added
+     * @return events that could not be added, empty if all the events were
+     * added successfully
+     */
+    default List<E2EEvent> tryAddHistorical(List<E2EEvent> events) {
+        return this.addHistorical(events) ? Collections.<E2EEvent>emptyList() : events;
+    }
+
+    /**
+     * Adds the given events replayed from the spool to the historical state.
+     * A replayed event may have been added already, and storages that don't
+     * reject duplicate events skip the events that have already been added.
+     *
+     * @param events events to be added
+     * @return true if and only if all the events were added successfully or
+     * had been added already, otherwise false
+     */
+    default boolean replayHistorical(List<E2EEvent> events) {
+        return this.addHistorical(events);
+    }
+
+    boolean addCurrent(List<E2EEvent> events);
+
+    boolean isAvailable();
+
     boolean deleteOlderThan(int days);
     
     boolean deleteOlderThanFromCurrent(int hours);
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.exception.XRdE2EException;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * This interface defines a storage backend that creates the StorageManager
+ * used by the client and the StorageClient used by the backend. Providers
+ * are looked up using ServiceLoader, so a new backend can be plugged in by
+ * adding a jar that lists its provider in
+ * META-INF/services/com.pkrete.xrde2e.common.storage.StorageProvider. The
+ * provider is selected by its name in the configuration.
+ *
+ * @author Petteri Kivimäki
+ */
+public interface StorageProvider {
+
+    /**
+     * Returns the name that is used for selecting this provider in the
+     * configuration.
+     *
+     * @return name of the provider
+     */
+    String getName();
+
+    /**
+     * Creates a new storage manager using the given settings.
+     *
+     * @param settings application properties
+     * @param metrics metrics where the write operations are recorded, may be
+     * null
+     * @return new storage manager
+     * @throws XRdE2EException if the storage manager can't be created
+     */
+    default StorageManager createStorageManager(Properties settings, PipelineMetrics metrics) throws XRdE2EException {
+        throw new XRdE2EException("Storage \"" + this.getName() + "\" doesn't support writing events.");
+    }
+
+    /**
+     * Creates a new storage client using the given settings.
+     *
+     * @param settings storage related properties
+     * @return new storage client
+     * @throws XRdE2EException if the storage client can't be created
+     */
+    default StorageClient createStorageClient(Properties settings) throws XRdE2EException {
+        throw new XRdE2EException("Storage \"" + this.getName() + "\" doesn't support reading events.");
+    }
+
+    /**
+     * Returns true if the storage removes expired events by itself, in which
+     * case StorageCleaner doesn't need to be run.
+     *
+     * @param settings application properties
+     * @return true if the storage removes expired events by itself
+     */
+    default boolean removesExpiredEvents(Properties settings) {
+        return false;
+    }
+
+    /**
+     * Returns the provider with the given name. The name is case
+     * insensitive.
+     *
+     * @param name name of the provider
+     * @return provider with the given name
+     * @throws XRdE2EException if there's no provider with the given name
+     */
+    static StorageProvider forName(String name) throws XRdE2EException {
+        StringBuilder available = new StringBuilder();
+        for (StorageProvider provider : ServiceLoader.load(StorageProvider.class)) {
+            if (provider.getName().equalsIgnoreCase(name.trim())) {
+                return provider;
+            }
+            available.append(available.length() == 0 ? "" : ", ").append(provider.getName());
+        }
+        throw new XRdE2EException("Storage \"" + name + "\" is not available. Available storages: " + available + ".");
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage.file;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
+import com.pkrete.xrde2e.common.storage.E2EEventCodec;
+import com.pkrete.xrde2e.common.storage.HistoryQuery;
+import com.pkrete.xrde2e.common.storage.RollupTier;
+import com.pkrete.xrde2e.common.storage.StorageClient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * This class implements a StorageClient that reads the events written by
+ * FileStorageManager. The segments are indexed in memory by security server
+ * and begin timestamp, and new events are indexed incrementally before each
+ * query, so the writer and the reader can be different processes sharing
+ * the same directory. The index holds the position of each event, and the
+ * events themselves are read from the segments when they're queried. The
+ * current state is the event with the newest begin timestamp of each
+ * security server.
+ *
+ * @author Petteri Kivimäki
+ */
+public class FileStorageClient implements StorageClient, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileStorageClient.class);
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int INITIAL_INDEX_SIZE = 64;
+    private static final int GROWTH_FACTOR = 2;
+    private static final double PERCENTILE_95 = 0.95;
+    private final Path directory;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, ServerIndex> servers = new HashMap<>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private long cutoff = Long.MIN_VALUE;
+
+    /**
+     * Constructs and initializes a new FileStorageClient object and indexes
+     * the existing segments.
+     *
+     * @param directory directory where the segment files are stored
+     * @throws IOException if reading the segments fails
+     */
+    public FileStorageClient(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.refresh();
+        LOGGER.info("File storage opened. Directory \"{}\", {} segments, {} security servers.", directory, this.segments.size(), this.servers.size());
+    }
+
+    /**
+     * Updates the index with the segments that have been added, deleted or
+     * appended to since the previous call.
+     *
+     * @throws IOException if reading the segments fails
+     */
+    private synchronized void refresh() throws IOException {
+        TreeMap<Long, Path> files = SegmentFiles.list(this.directory);
+        Set<Long> removed = new HashSet<>();
+        Iterator<Map.Entry<Long, Segment>> iterator = this.segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Segment> entry = iterator.next();
+            if (!files.containsKey(entry.getKey())) {
+                entry.getValue().channel.close();
+                iterator.remove();
+                removed.add(entry.getKey());
+            }
+        }
+        if (!removed.isEmpty()) {
+            LOGGER.debug("Removing {} deleted segments from the index.", removed.size());
+            for (ServerIndex index : this.servers.values()) {
+                index.removeSegments(removed);
+            }
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = this.segments.get(file.getKey());
+            if (segment == null) {
+                segment = new Segment(file.getKey(), FileChannel.open(file.getValue(), StandardOpenOption.READ));
+                this.segments.put(file.getKey(), segment);
+            }
+            this.index(segment);
+        }
+        this.cutoff = SegmentFiles.readCutoff(this.directory);
+    }
+
+    /**
+     * Indexes the complete records that have been appended to the given
+     * segment since it was indexed the last time.
+     *
+     * @param segment segment to be indexed
+     * @throws IOException if reading the segment fails
+     */
+    private void index(Segment segment) throws IOException {
+        long size = segment.channel.size();
+        while (segment.indexed + SegmentFiles.RECORD_HEADER_SIZE <= size) {
+            ByteBuffer buffer = this.readBuffer;
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - segment.indexed));
+            SegmentFiles.readFully(segment.channel, buffer, segment.indexed);
+            buffer.flip();
+            int consumed = 0;
+            while (buffer.remaining() >= SegmentFiles.RECORD_HEADER_SIZE) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0) {
+                    LOGGER.warn("Invalid record in segment {} at offset {}. The rest of the segment is skipped.",
+                            segment.sequence, segment.indexed + consumed);
+                    segment.indexed = size;
+                    return;
+                }
+                if (buffer.remaining() < SegmentFiles.RECORD_HEADER_SIZE + length) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                buffer.position(buffer.position() + SegmentFiles.RECORD_HEADER_SIZE);
+                buffer.get(data);
+                this.add(data, SegmentFiles.position(segment.sequence, segment.indexed + consumed));
+                consumed += SegmentFiles.RECORD_HEADER_SIZE + length;
+            }
+            if (consumed == 0) {
+                int required = SegmentFiles.RECORD_HEADER_SIZE + buffer.getInt(0);
+                if (required <= buffer.capacity()) {
+                    // The last record is still being written
+                    return;
+                }
+                this.readBuffer = ByteBuffer.allocate(required);
+            }
+            segment.indexed += consumed;
+        }
+    }
+
+    private void add(byte[] data, long position) {
+        E2EEvent event;
+        try {
+            event = E2EEventCodec.decode(data);
+        } catch (IOException ex) {
+            LOGGER.warn("Skipping invalid record in segment {} at offset {}: {}", SegmentFiles.sequence(position),
+                    SegmentFiles.offset(position), ex.getMessage());
+            return;
+        }
+        if (event.getSecurityServer() == null) {
+            return;
+        }
+        ServerIndex index = this.servers.get(event.getSecurityServer());
+        if (index == null) {
+            index = new ServerIndex();
+            this.servers.put(event.getSecurityServer(), index);
+        }
+        index.add(event, position);
+    }
+
+    @Override
+    /**
+     * Returns the newest E2EEvent of each security server, excluding the
+     * servers whose newest event has expired.
+     *
+     * @return list of E2EEvents containing the latest state of the monitored
+     * security servers
+     */
+    public synchronized List<E2EEvent> getAllCurrent() {
+        try {
+            this.refresh();
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        }
+        List<E2EEvent> results = new ArrayList<>(this.servers.size());
+        for (ServerIndex index : this.servers.values()) {
+            if (index.latest != null && index.latest.createdDateMillis() >= this.cutoff) {
+                results.add(index.latest);
+            }
+        }
+        results.sort(Comparator.comparing(E2EEvent::getSecurityServer));
+        return results;
+    }
+
+    @Override
+    /**
+     * Returns the E2EEvents matching the given query. If limit is defined,
+     * only the given number of events is returned. The events are ordered in
+     * descending order by the event begin timestamp.
+     *
+     * @param query query that defines the security server, time range,
+     * keyset position and limit
+     * @return list of E2EEvents matching the query
+     */
+    public List<E2EEvent> getHistorical(HistoryQuery query) {
+        try {
+            LOGGER.info("Fetch historical data for target \"{}\". Limit is set to {}.", query.getSecurityServer(), query.getLimit());
+            List<E2EEvent> results = new ArrayList<>();
+            for (long position : this.select(query.getSecurityServer(), query.getLowerBound(), query.getUpperBound(), query.getLimit(),
+                    query.isAscending())) {
+                E2EEvent event = this.read(position);
+                if (event != null) {
+                    results.add(event);
+                }
+            }
+            if (query.isAscending()) {
+                Collections.reverse(results);
+            }
+            LOGGER.info("Found {} historical monitoring events.", results.size());
+            return results;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    /**
+     * Passes the E2EEvents matching the given query to the given consumer one
+     * by one as they are read from the segments. The events are passed in
+     * descending order by the event begin timestamp, except when only the
+     * after keyset position is defined, in which case they're passed in
+     * ascending order. Exceptions are not caught.
+     *
+     * @param query query that defines the security server, time range,
+     * keyset position and limit
+     * @param consumer consumer that receives the events
+     * @return number of events passed to the consumer
+     */
+    public long streamHistorical(HistoryQuery query, Consumer<E2EEvent> consumer) {
+        LOGGER.info("Stream historical data for target \"{}\". Limit is set to {}.", query.getSecurityServer(), query.getLimit());
+        long count = 0;
+        try {
+            for (long position : this.select(query.getSecurityServer(), query.getLowerBound(), query.getUpperBound(), query.getLimit(),
+                    query.isAscending())) {
+                E2EEvent event = this.read(position);
+                if (event != null) {
+                    consumer.accept(event);
+                    count++;
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        LOGGER.info("Streamed {} historical monitoring events.", count);
+        return count;
+    }
+
+    @Override
+    /**
+     * Returns the rollups of the given tier related to the specified security
+     * server. The file storage doesn't store rollups, so they're calculated
+     * from the events that haven't been removed yet.
+     *
+     * @param securityServer security server identifier
+     * @param tier rollup tier
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @return list of E2EEventAggregates related to the given security server
+     */
+    public List<E2EEventAggregate> getRollups(String securityServer, RollupTier tier, Date from, Date to) {
+        return this.getHistoricalAggregate(securityServer, from, to, tier.getBucketSize());
+    }
+
+    @Override
+    /**
+     * Returns aggregated statistics of the E2EEvents related to the specified
+     * security server. The events between the given dates are grouped into
+     * buckets of the given size that are aligned to the epoch, and one
+     * aggregate is returned for each bucket that contains events in
+     * ascending order by the bucket start time.
+     *
+     * @param securityServer security server identifier
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param bucketSize size of a single bucket in milliseconds
+     * @return list of E2EEventAggregates related to the given security server
+     */
+    public List<E2EEventAggregate> getHistoricalAggregate(String securityServer, Date from, Date to, long bucketSize) {
+        try {
+            LOGGER.info("Fetch aggregated historical data for target \"{}\". Range {} - {}, bucket size {} ms.", securityServer, from, to, bucketSize);
+            TreeMap<Long, Bucket> buckets = new TreeMap<>();
+            for (long position : this.select(securityServer, from, to, 0, true)) {
+                E2EEvent event = this.read(position);
+                if (event == null) {
+                    continue;
+                }
+                long bucketStart = event.beginMillis() - Math.floorMod(event.beginMillis(), bucketSize);
+                Bucket bucket = buckets.get(bucketStart);
+                if (bucket == null) {
+                    bucket = new Bucket();
+                    buckets.put(bucketStart, bucket);
+                }
+                bucket.add(event);
+            }
+            List<E2EEventAggregate> results = new ArrayList<>(buckets.size());
+            for (Map.Entry<Long, Bucket> bucket : buckets.entrySet()) {
+                results.add(bucket.getValue().toAggregate(securityServer, bucket.getKey(), bucketSize));
+            }
+            LOGGER.info("Found {} buckets.", results.size());
+            return results;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Returns the positions of the events of the given security server whose
+     * begin timestamp is within the given range.
+     *
+     * @param securityServer security server identifier
+     * @param lower lower bound of the begin timestamp, inclusive, or null
+     * @param upper upper bound of the begin timestamp, exclusive, or null
+     * @param limit maximum number of positions, 0 means no limit
+     * @param ascending if true, the oldest events are selected first
+     * @return positions of the selected events in the selection order
+     * @throws IOException if updating the index fails
+     */
+    private synchronized long[] select(String securityServer, Date lower, Date upper, int limit, boolean ascending) throws IOException {
+        this.refresh();
+        ServerIndex index = this.servers.get(securityServer);
+        if (index == null) {
+            return new long[0];
+        }
+        int first = lower == null ? 0 : index.lowerBound(lower.getTime());
+        int last = upper == null ? index.size : index.lowerBound(upper.getTime());
+        int count = Math.max(last - first, 0);
+        if (limit > 0) {
+            count = Math.min(count, limit);
+        }
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = index.positions[ascending ? first + i : last - 1 - i];
+        }
+        return positions;
+    }
+
+    private synchronized FileChannel channel(long sequence) {
+        Segment segment = this.segments.get(sequence);
+        return segment == null ? null : segment.channel;
+    }
+
+    /**
+     * Reads the event at the given position. The segments are read outside
+     * the lock, so the segment may have been deleted after the position was
+     * selected, in which case null is returned.
+     *
+     * @param position position of the event
+     * @return event or null if the segment has been deleted
+     * @throws IOException if reading the segment fails
+     */
+    private E2EEvent read(long position) throws IOException {
+        FileChannel channel = this.channel(SegmentFiles.sequence(position));
+        if (channel == null) {
+            return null;
+        }
+        long offset = SegmentFiles.offset(position);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SegmentFiles.RECORD_HEADER_SIZE);
+            SegmentFiles.readFully(channel, header, offset);
+            byte[] data = new byte[header.getInt(0)];
+            SegmentFiles.readFully(channel, ByteBuffer.wrap(data), offset + SegmentFiles.RECORD_HEADER_SIZE);
+            return E2EEventCodec.decode(data);
+        } catch (ClosedChannelException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the segment files.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : this.segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+        this.segments.clear();
+        this.servers.clear();
+    }
+
+    /**
+     * Segment file and the length of its indexed part.
+     */
+    private static final class Segment {
+
+        private final long sequence;
+        private final FileChannel channel;
+        private long indexed;
+
+        private Segment(long sequence, FileChannel channel) {
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Positions of the events of a single security server sorted by the
+     * begin timestamp, and the newest event.
+     */
+    private static final class ServerIndex {
+
+        private long[] begins = new long[INITIAL_INDEX_SIZE];
+        private long[] positions = new long[INITIAL_INDEX_SIZE];
+        private int size;
+        private E2EEvent latest;
+
+        private void add(E2EEvent event, long position) {
+            long begin = event.beginMillis();
+            if (this.size == this.begins.length) {
+                this.begins = Arrays.copyOf(this.begins, this.size * GROWTH_FACTOR);
+                this.positions = Arrays.copyOf(this.positions, this.size * GROWTH_FACTOR);
+            }
+            // Events are mostly appended in order, replayed events are
+            // inserted in the right place
+            int index = this.size;
+            if (this.size > 0 && this.begins[this.size - 1] > begin) {
+                index = this.lowerBound(begin + 1);
+                System.arraycopy(this.begins, index, this.begins, index + 1, this.size - index);
+                System.arraycopy(this.positions, index, this.positions, index + 1, this.size - index);
+            }
+            this.begins[index] = begin;
+            this.positions[index] = position;
+            this.size++;
+            if (this.latest == null || begin >= this.latest.beginMillis()) {
+                this.latest = event;
+            }
+        }
+
+        /**
+         * Returns the index of the first event whose begin timestamp is
+         * greater than or equal to the given value.
+         */
+        private int lowerBound(long begin) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.begins[middle] < begin) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private void removeSegments(Set<Long> removed) {
+            int kept = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (!removed.contains(SegmentFiles.sequence(this.positions[i]))) {
+                    this.begins[kept] = this.begins[i];
+                    this.positions[kept] = this.positions[i];
+                    kept++;
+                }
+            }
+            this.size = kept;
+        }
+    }
+
+    /**
+     * Statistics of the events of a single time bucket.
+     */
+    private static final class Bucket {
+
+        private long count;
+        private long[] durations = new long[INITIAL_INDEX_SIZE];
+        private int successCount;
+
+        private void add(E2EEvent event) {
+            this.count++;
+            if (!event.isStatus()) {
+                return;
+            }
+            if (this.successCount == this.durations.length) {
+                this.durations = Arrays.copyOf(this.durations, this.successCount * GROWTH_FACTOR);
+            }
+            this.durations[this.successCount++] = event.getDuration();
+        }
+
+        private E2EEventAggregate toAggregate(String securityServer, long bucketStart, long bucketSize) {
+            E2EEventAggregate aggregate = new E2EEventAggregate();
+            aggregate.setSecurityServer(securityServer);
+            aggregate.setBegin(new Date(bucketStart));
+            aggregate.setEnd(new Date(bucketStart + bucketSize));
+            aggregate.setCount(this.count);
+            aggregate.setSuccessCount(this.successCount);
+            if (this.successCount > 0) {
+                // Same nearest-rank percentile as the MongoDB aggregation
+                Arrays.sort(this.durations, 0, this.successCount);
+                long sum = 0;
+                for (int i = 0; i < this.successCount; i++) {
+                    sum += this.durations[i];
+                }
+                aggregate.setMinDuration(this.durations[0]);
+                aggregate.setMaxDuration(this.durations[this.successCount - 1]);
+                aggregate.setAvgDuration((double) sum / this.successCount);
+                aggregate.setP95Duration(this.durations[(int) Math.ceil(PERCENTILE_95 * this.successCount) - 1]);
+            }
+            return aggregate;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage.file;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+import com.pkrete.xrde2e.common.storage.E2EEventCodec;
+import com.pkrete.xrde2e.common.storage.StorageManager;
+import com.pkrete.xrde2e.common.util.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a StorageManager that appends the events to local
+ * segment files. A batch of events is written with a single write call and
+ * a new segment is started when the active one reaches the configured size.
+ * There's no separate current state, it's derived from the events by
+ * FileStorageClient. Expired events are removed a segment at a time, so
+ * events may be kept up to the time it takes to fill one segment longer
+ * than configured.
+ *
+ * If writing a batch fails, the batch is retried as a whole, so the records
+ * of the batch that were already written are removed when the active
+ * segment is reopened. This way a retried batch is not stored twice.
+ *
+ * @author Petteri Kivimäki
+ */
+public class FileStorageManager implements StorageManager, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileStorageManager.class);
+    private final Path directory;
+    private final long segmentSize;
+    private FileChannel channel;
+    private long sequence;
+    private long size;
+    // Segment and length the segment is truncated to when it's reopened
+    private long rollbackSequence = -1;
+    private long rollbackLength;
+    private PipelineMetrics metrics;
+
+    /**
+     * Constructs and initializes a new FileStorageManager object. The
+     * directory is created if it doesn't exist. If the last segment ends
+     * with an incomplete record, the record is removed.
+     *
+     * @param directory directory where the segment files are stored
+     * @param segmentSize size of a single segment file in bytes
+     * @throws IOException if opening the storage fails
+     */
+    public FileStorageManager(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.open();
+    }
+
+    /**
+     * Sets the metrics where the durations of the write operations and the
+     * number of deleted events are recorded.
+     *
+     * @param metrics pipeline metrics, may be null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void open() throws IOException {
+        TreeMap<Long, Path> segments = SegmentFiles.list(this.directory);
+        this.sequence = segments.isEmpty() ? 1 : segments.lastKey();
+        FileChannel file = FileChannel.open(SegmentFiles.segment(this.directory, this.sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = SegmentFiles.validLength(file);
+        if (this.sequence == this.rollbackSequence && this.rollbackLength < length) {
+            // Records of a failed batch are removed, because the batch is retried
+            length = this.rollbackLength;
+        }
+        if (length < file.size()) {
+            LOGGER.warn("Removing incomplete records from the end of segment {}. {} bytes removed.", this.sequence, file.size() - length);
+            file.truncate(length);
+        }
+        this.rollbackSequence = -1;
+        file.position(length);
+        this.channel = file;
+        this.size = length;
+        LOGGER.info("File storage opened. Directory \"{}\", active segment {}.", this.directory, this.sequence);
+    }
+
+    private void roll() throws IOException {
+        this.channel.close();
+        this.sequence++;
+        this.channel = FileChannel.open(SegmentFiles.segment(this.directory, this.sequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.size = 0;
+        LOGGER.debug("Started segment {}.", this.sequence);
+    }
+
+    private synchronized boolean append(List<E2EEvent> events) {
+        long start = System.nanoTime();
+        boolean success = this.write(events);
+        if (this.metrics != null) {
+            this.metrics.recordWrite(PipelineMetrics.Operation.INSERT, System.nanoTime() - start, events.size(), success);
+        }
+        return success;
+    }
+
+    private boolean write(List<E2EEvent> events) {
+        try {
+            if (this.channel == null) {
+                this.open();
+            }
+            Date now = new Date();
+            List<byte[]> records = new ArrayList<>(events.size());
+            int length = 0;
+            for (E2EEvent event : events) {
+                // The events are not used after they have been stored
+                event.setCreatedDate(now);
+                byte[] data = E2EEventCodec.encode(event);
+                records.add(data);
+                length += SegmentFiles.RECORD_HEADER_SIZE + data.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (byte[] data : records) {
+                buffer.putInt(data.length).put(data);
+            }
+            buffer.flip();
+            if (this.size > 0 && this.size + length > this.segmentSize) {
+                this.roll();
+            }
+            this.write(this.channel, buffer);
+            this.size += length;
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            // The channel may have been closed already, so the segment is
+            // truncated to its size before the batch when it's reopened
+            this.rollbackSequence = this.sequence;
+            this.rollbackLength = this.size;
+            this.closeQuietly();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the given buffer to the given channel.
+     *
+     * @param file channel of the active segment
+     * @param buffer buffer to be written
+     * @throws IOException if writing fails
+     */
+    protected void write(FileChannel file, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+    }
+
+    @Override
+    /**
+     * Adds a new E2EEvent to the active segment.
+     *
+     * @param event E2EEvent to be added
+     * @return true or false
+     */
+    public boolean add(E2EEvent event) {
+        return this.append(Collections.singletonList(event));
+    }
+
+    @Override
+    /**
+     * Adds the given E2EEvents to the active segment with a single write.
+     *
+     * @param events E2EEvents to be added
+     * @return true or false
+     */
+    public boolean addAll(List<E2EEvent> events) {
+        if (events.isEmpty()) {
+            return true;
+        }
+        return this.append(events);
+    }
+
+    @Override
+    /**
+     * Adds the given E2EEvents to the active segment. The current state is
+     * derived from the newest events by their begin timestamp, so older
+     * events don't replace it.
+     *
+     * @param events E2EEvents to be added
+     * @return true or false
+     */
+    public boolean addHistorical(List<E2EEvent> events) {
+        return this.addAll(events);
+    }
+
+    @Override
+    /**
+     * Does nothing, because there's no separate current state. The current
+     * state is derived from the events added to the segments.
+     *
+     * @param events E2EEvents of the current state
+     * @return always true
+     */
+    public boolean addCurrent(List<E2EEvent> events) {
+        return true;
+    }
+
+    @Override
+    /**
+     * Returns true if the active segment is open or it can be reopened.
+     *
+     * @return true if events can be written, otherwise false
+     */
+    public synchronized boolean isAvailable() {
+        if (this.channel == null) {
+            try {
+                this.open();
+            } catch (IOException ex) {
+                LOGGER.debug(ex.getMessage(), ex);
+                this.closeQuietly();
+            }
+        }
+        return this.channel != null;
+    }
+
+    @Override
+    /**
+     * Deletes the segments whose newest event is older than the given number
+     * of days. The active segment is never deleted.
+     *
+     * @param days number of days
+     * @return true or false
+     */
+    public synchronized boolean deleteOlderThan(int days) {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        long deleted = 0;
+        try {
+            for (Map.Entry<Long, Path> segment : SegmentFiles.list(this.directory).entrySet()) {
+                if (segment.getKey() >= this.sequence || Files.getLastModifiedTime(segment.getValue()).toMillis() >= cutoff) {
+                    continue;
+                }
+                try (FileChannel file = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                    deleted += SegmentFiles.recordCount(file);
+                }
+                Files.delete(segment.getValue());
+                LOGGER.debug("Deleted segment {}.", segment.getKey());
+            }
+            LOGGER.info("Deleted {} entries from historical data.", deleted);
+            this.recordDeleted(Constants.TABLE_HISTORICAL_STATE, deleted);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            this.recordDeleted(Constants.TABLE_HISTORICAL_STATE, -1);
+            return false;
+        }
+    }
+
+    @Override
+    /**
+     * Hides the current state entries that haven't been updated during the
+     * given number of hours. The events remain in the segments until they
+     * expire.
+     *
+     * @param hours number of hours
+     * @return true or false
+     */
+    public boolean deleteOlderThanFromCurrent(int hours) {
+        try {
+            SegmentFiles.writeCutoff(this.directory, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours));
+            LOGGER.info("Current state entries older than {} hours are expired.", hours);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            this.recordDeleted(Constants.TABLE_CURRENT_STATE, -1);
+            return false;
+        }
+    }
+
+    private void recordDeleted(String collection, long count) {
+        if (this.metrics != null) {
+            this.metrics.recordDeleted(collection, count);
+        }
+    }
+
+    /**
+     * Closes the active segment.
+     */
+    @Override
+    public synchronized void close() {
+        this.closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+        }
+        this.channel = null;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage.file;
+
+import com.pkrete.xrde2e.common.exception.XRdE2EException;
+import com.pkrete.xrde2e.common.metrics.PipelineMetrics;
+import com.pkrete.xrde2e.common.storage.StorageClient;
+import com.pkrete.xrde2e.common.storage.StorageManager;
+import com.pkrete.xrde2e.common.storage.StorageProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * This class provides the embedded file storage that doesn't need any
+ * external service. The client writes the events to the segment files of
+ * the configured directory and the backend reads them from the same
+ * directory.
+ *
+ * @author Petteri Kivimäki
+ */
+public class FileStorageProvider implements StorageProvider {
+
+    /**
+     * Name of the provider.
+     */
+    public static final String NAME = "file";
+    /**
+     * Property that defines the storage directory.
+     */
+    public static final String PROPERTIES_DIRECTORY = "file.directory";
+    /**
+     * Property that defines the size of a single segment file in megabytes.
+     */
+    public static final String PROPERTIES_SEGMENT_SIZE = "file.segmentSize";
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileStorageProvider.class);
+    private static final String PROPS_LOG_PATTERN = "\"{}\" : \"{}\"";
+    private static final String DEFAULT_DIRECTORY = "data";
+    private static final long DEFAULT_SEGMENT_SIZE = 64;
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public StorageManager createStorageManager(Properties settings, PipelineMetrics metrics) throws XRdE2EException {
+        Path directory = getDirectory(settings);
+        long segmentSize = DEFAULT_SEGMENT_SIZE;
+        String value = settings.getProperty(PROPERTIES_SEGMENT_SIZE, "").trim();
+        if (!value.isEmpty()) {
+            try {
+                segmentSize = Long.parseLong(value);
+            } catch (NumberFormatException ex) {
+                throw new XRdE2EException("Invalid " + PROPERTIES_SEGMENT_SIZE + " value: \"" + value + "\".");
+            }
+        }
+        if (segmentSize <= 0) {
+            segmentSize = DEFAULT_SEGMENT_SIZE;
+        }
+        LOGGER.info(PROPS_LOG_PATTERN, PROPERTIES_SEGMENT_SIZE, segmentSize);
+        try {
+            FileStorageManager storageManager = new FileStorageManager(directory, segmentSize * BYTES_IN_MEGABYTE);
+            storageManager.setMetrics(metrics);
+            return storageManager;
+        } catch (IOException ex) {
+            throw new XRdE2EException("Opening file storage \"" + directory + "\" failed: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public StorageClient createStorageClient(Properties settings) throws XRdE2EException {
+        Path directory = getDirectory(settings);
+        try {
+            return new FileStorageClient(directory);
+        } catch (IOException ex) {
+            throw new XRdE2EException("Opening file storage \"" + directory + "\" failed: " + ex.getMessage());
+        }
+    }
+
+    private static Path getDirectory(Properties settings) {
+        String directory = settings.getProperty(PROPERTIES_DIRECTORY, "").trim();
+        if (directory.isEmpty()) {
+            directory = DEFAULT_DIRECTORY;
+        }
+        LOGGER.info(PROPS_LOG_PATTERN, PROPERTIES_DIRECTORY, directory);
+        return Paths.get(directory);
+    }
+}
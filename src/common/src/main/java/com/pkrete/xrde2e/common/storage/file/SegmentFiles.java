@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeMap;
+
+/**
+ * This class defines the layout of the file storage directory. Events are
+ * appended to segment files named by an increasing sequence number. Each
+ * record consists of the length of the encoded event as an int followed by
+ * the event encoded using E2EEventCodec.
+ *
+ * @author Petteri Kivimäki
+ */
+final class SegmentFiles {
+
+    static final int RECORD_HEADER_SIZE = Integer.BYTES;
+    // Position of a record is stored in a single long, the sequence number
+    // of the segment in the high bits and the offset in the low bits
+    static final int OFFSET_BITS = 40;
+    static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SEGMENT_FORMAT = SEGMENT_PREFIX + "%012d" + SEGMENT_SUFFIX;
+    private static final String CUTOFF_FILE = "current.cutoff";
+
+    /**
+     * Private constructor that hides the implicit public one.
+     */
+    private SegmentFiles() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    static Path segment(Path directory, long sequence) {
+        return directory.resolve(String.format(SEGMENT_FORMAT, sequence));
+    }
+
+    /**
+     * Returns the segment files of the given directory ordered by their
+     * sequence number.
+     *
+     * @param directory storage directory
+     * @return segment files by sequence number
+     * @throws IOException if listing the directory fails
+     */
+    static TreeMap<Long, Path> list(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+                } catch (NumberFormatException ex) {
+                    // Not a segment file
+                }
+            }
+        }
+        return segments;
+    }
+
+    static long position(long sequence, long offset) {
+        return (sequence << OFFSET_BITS) | offset;
+    }
+
+    static long sequence(long position) {
+        return position >>> OFFSET_BITS;
+    }
+
+    static long offset(long position) {
+        return position & OFFSET_MASK;
+    }
+
+    /**
+     * Returns the length of the complete records at the beginning of the
+     * given segment. A record may be incomplete if writing it was
+     * interrupted.
+     *
+     * @param channel segment file
+     * @return length of the complete records in bytes
+     * @throws IOException if reading the file fails
+     */
+    static long validLength(FileChannel channel) throws IOException {
+        return scan(channel)[0];
+    }
+
+    /**
+     * Returns the number of complete records in the given segment.
+     *
+     * @param channel segment file
+     * @return number of records
+     * @throws IOException if reading the file fails
+     */
+    static long recordCount(FileChannel channel) throws IOException {
+        return scan(channel)[1];
+    }
+
+    private static long[] scan(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long count = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+        return new long[]{position, count};
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment file.");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds since the epoch before which the
+     * current state entries are considered expired, or Long.MIN_VALUE if
+     * the time has not been set.
+     *
+     * @param directory storage directory
+     * @return expiration time of the current state entries
+     * @throws IOException if reading the file fails
+     */
+    static long readCutoff(Path directory) throws IOException {
+        Path file = directory.resolve(CUTOFF_FILE);
+        if (!Files.exists(file)) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Sets the time in milliseconds since the epoch before which the current
+     * state entries are considered expired. The file is replaced atomically,
+     * so readers never see a partially written value.
+     *
+     * @param directory storage directory
+     * @param cutoff expiration time of the current state entries
+     * @throws IOException if writing the file fails
+     */
+    static void writeCutoff(Path directory, long cutoff) throws IOException {
+        Path temp = directory.resolve(CUTOFF_FILE + ".tmp");
+        Files.write(temp, Long.toString(cutoff).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(CUTOFF_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -44,9 +44,26 @@ public final class Constants {
     public static final String COLUMN_FAULT_CODE = "faultCode";
     public static final String COLUMN_FAULT_STRING = "faultString";
     public static final String COLUMN_DURATION = "duration";
+    public static final String COLUMN_CONNECT_DURATION = "connectDuration";
     public static final String COLUMN_BEGIN = "begin";
     public static final String COLUMN_END = "end";
     public static final String COLUMN_CREATED_DATE = "createdDate";
+    // Metadata field of the time-series layout that contains the label,
+    // producer member and security server
+    public static final String COLUMN_TARGET = "target";
+    // Collections and fields of the rollup documents that summarize the
+    // historical events of a security server during a time bucket
+    public static final String TABLE_ROLLUP_MINUTE = "rollup_minute";
+    public static final String TABLE_ROLLUP_HOUR = "rollup_hour";
+    public static final String TABLE_ROLLUP_DAY = "rollup_day";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_SUCCESS_COUNT = "successCount";
+    public static final String COLUMN_MIN_DURATION = "minDuration";
+    public static final String COLUMN_AVG_DURATION = "avgDuration";
+    public static final String COLUMN_P95_DURATION = "p95Duration";
+    public static final String COLUMN_MAX_DURATION = "maxDuration";
+    public static final String COLUMN_FAULT_CODES = "faultCodes";
+    public static final String COLUMN_DURATION_HISTOGRAM = "durationHistogram";
 
     /**
      * Private constructor that hides the implicit public one.
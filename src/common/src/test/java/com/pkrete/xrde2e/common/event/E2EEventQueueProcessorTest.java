@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import com.pkrete.xrde2e.common.storage.StorageManager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for E2EEventQueueProcessor class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class E2EEventQueueProcessorTest {
+
+    private static final long BATCH_TIMEOUT = 200;
+
+    /**
+     * Test that queued events are saved in full batches and that a partial
+     * batch is saved when the batch timeout has elapsed.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testBatches() throws InterruptedException {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 7; i++) {
+            queue.put(createEvent(Integer.toString(i), "server" + i));
+        }
+        InMemoryStorageManager storage = new InMemoryStorageManager();
+        Thread thread = new Thread(new E2EEventQueueProcessor(storage, 3, BATCH_TIMEOUT));
+        thread.start();
+        try {
+            assertRequestIds(storage.nextBatch(), "0", "1", "2");
+            assertRequestIds(storage.nextBatch(), "3", "4", "5");
+            assertRequestIds(storage.nextBatch(), "6");
+            assertTrue(storage.add.isEmpty());
+
+            // A partial batch is saved only after the batch timeout
+            long start = System.nanoTime();
+            queue.put(createEvent("7", "server7"));
+            queue.put(createEvent("8", "server8"));
+            assertRequestIds(storage.nextBatch(), "7", "8");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(BATCH_TIMEOUT));
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Test that events are saved one by one when the batch mode is disabled.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testBatchModeDisabled() throws InterruptedException {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        queue.put(createEvent("1", "server1"));
+        queue.put(createEvent("2", "server2"));
+        InMemoryStorageManager storage = new InMemoryStorageManager();
+        Thread thread = new Thread(new E2EEventQueueProcessor(storage, 1, BATCH_TIMEOUT));
+        thread.start();
+        try {
+            assertEquals("1", storage.add.poll(1, TimeUnit.SECONDS).getRequestId());
+            assertEquals("2", storage.add.poll(1, TimeUnit.SECONDS).getRequestId());
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+        assertTrue(storage.addAll.isEmpty());
+    }
+
+    private static void assertRequestIds(List<E2EEvent> batch, String... requestIds) {
+        assertNotNull(batch);
+        assertEquals(requestIds.length, batch.size());
+        for (int i = 0; i < requestIds.length; i++) {
+            assertEquals(requestIds[i], batch.get(i).getRequestId());
+        }
+    }
+
+    private static E2EEvent createEvent(String requestId, String securityServer) {
+        return new E2EEvent.E2EEventBuilder()
+                .requestId(requestId)
+                .securityServer(securityServer)
+                .build();
+    }
+
+    /**
+     * StorageManager that keeps the saved events in memory.
+     */
+    private static class InMemoryStorageManager implements StorageManager {
+
+        private final BlockingQueue<E2EEvent> add = new LinkedBlockingQueue<>();
+        private final BlockingQueue<List<E2EEvent>> addAll = new LinkedBlockingQueue<>();
+
+        List<E2EEvent> nextBatch() throws InterruptedException {
+            return this.addAll.poll(1, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public boolean add(E2EEvent event) {
+            this.add.add(event);
+            return true;
+        }
+
+        @Override
+        public boolean addAll(List<E2EEvent> events) {
+            // The processor reuses the list, so a copy is stored
+            this.addAll.add(Collections.unmodifiableList(new ArrayList<>(events)));
+            return true;
+        }
+
+        @Override
+        public boolean addHistorical(List<E2EEvent> events) {
+            return true;
+        }
+
+        @Override
+        public boolean addCurrent(List<E2EEvent> events) {
+            return true;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean deleteOlderThan(int days) {
+            return true;
+        }
+
+        @Override
+        public boolean deleteOlderThanFromCurrent(int hours) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test cases for E2EEventQueue class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class E2EEventQueueTest {
+
+    /**
+     * Test that the oldest event is dropped when the queue is full.
+     */
+    @Test
+    public void testDropOldest() {
+        E2EEventQueue queue = E2EEventQueue.init(2, E2EEventQueue.OverflowPolicy.DROP_OLDEST);
+        queue.put(createEvent("1", "server1"));
+        queue.put(createEvent("2", "server2"));
+        queue.put(createEvent("3", "server3"));
+        assertEquals(2, queue.getSize());
+        assertEquals(3, queue.getEnqueuedCount());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("2", queue.take().getRequestId());
+        assertEquals("3", queue.take().getRequestId());
+        assertEquals(true, queue.isEmpty());
+    }
+
+    /**
+     * Test that the oldest event of the same security server is dropped
+     * only when the queue is full.
+     */
+    @Test
+    public void testLatestPerServer() {
+        E2EEventQueue queue = E2EEventQueue.init(10, E2EEventQueue.OverflowPolicy.LATEST_PER_SERVER);
+        queue.put(createEvent("1", "server1"));
+        queue.put(createEvent("2", "server2"));
+        queue.put(createEvent("3", "server1"));
+        assertEquals(3, queue.getSize());
+        assertEquals(0, queue.getDroppedCount());
+
+        queue = E2EEventQueue.init(3, E2EEventQueue.OverflowPolicy.LATEST_PER_SERVER);
+        queue.put(createEvent("1", "server1"));
+        queue.put(createEvent("2", "server2"));
+        queue.put(createEvent("3", "server1"));
+        queue.put(createEvent("4", "server1"));
+        assertEquals(3, queue.getSize());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("2", queue.take().getRequestId());
+        assertEquals("3", queue.take().getRequestId());
+        assertEquals("4", queue.take().getRequestId());
+        assertEquals(true, queue.isEmpty());
+    }
+
+    /**
+     * Test that the time when an event was added to the queue is recorded.
+     */
+    @Test
+    public void testEnqueuedTime() {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        long before = System.nanoTime();
+        queue.put(createEvent("1", "server1"));
+        E2EEvent event = queue.take();
+        assertTrue(event.enqueuedNanos() - before >= 0);
+        assertTrue(System.nanoTime() - event.enqueuedNanos() >= 0);
+    }
+
+    /**
+     * Test draining events in batches.
+     */
+    @Test
+    public void testDrainTo() {
+        E2EEventQueue queue = E2EEventQueue.init(0, E2EEventQueue.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            queue.put(createEvent(Integer.toString(i), "server" + i));
+        }
+        List<E2EEvent> batch = new ArrayList<>();
+        assertEquals(3, queue.drainTo(batch, 3, 0));
+        assertEquals("0", batch.get(0).getRequestId());
+        assertEquals("2", batch.get(2).getRequestId());
+        batch.clear();
+        assertEquals(2, queue.drainTo(batch, 3, 10));
+        assertEquals("4", batch.get(1).getRequestId());
+    }
+
+    /**
+     * Test that the events of a security server are always routed to the same
+     * lane and they're taken from the lane in order.
+     */
+    @Test
+    public void testLanes() {
+        E2EEventQueue queue = E2EEventQueue.init(40, E2EEventQueue.OverflowPolicy.BLOCK, 4);
+        assertEquals(4, queue.getLaneCount());
+        assertEquals(40, queue.getCapacity());
+        for (int i = 0; i < 4; i++) {
+            queue.put(createEvent("a" + i, "serverA"));
+            queue.put(createEvent("b" + i, "serverB"));
+        }
+        assertEquals(8, queue.getSize());
+        int laneA = queue.getLane("serverA");
+        int laneB = queue.getLane("serverB");
+        List<E2EEvent> batch = new ArrayList<>();
+        queue.drainTo(laneA, batch, 8, 0);
+        if (laneA != laneB) {
+            queue.drainTo(laneB, batch, 8, 0);
+        }
+        assertEquals(8, batch.size());
+        int nextA = 0;
+        int nextB = 0;
+        for (E2EEvent event : batch) {
+            if ("serverA".equals(event.getSecurityServer())) {
+                assertEquals("a" + nextA++, event.getRequestId());
+            } else {
+                assertEquals("b" + nextB++, event.getRequestId());
+            }
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Test parsing overflow policy names.
+     */
+    @Test
+    public void testOverflowPolicyFromString() {
+        assertEquals(E2EEventQueue.OverflowPolicy.DROP_OLDEST, E2EEventQueue.OverflowPolicy.fromString("dropOldest"));
+        assertEquals(E2EEventQueue.OverflowPolicy.LATEST_PER_SERVER, E2EEventQueue.OverflowPolicy.fromString("latestPerServer"));
+        assertEquals(E2EEventQueue.OverflowPolicy.BLOCK, E2EEventQueue.OverflowPolicy.fromString("block"));
+        assertEquals(E2EEventQueue.OverflowPolicy.BLOCK, E2EEventQueue.OverflowPolicy.fromString(null));
+    }
+
+    private static E2EEvent createEvent(String requestId, String securityServer) {
+        return new E2EEvent.E2EEventBuilder()
+                .requestId(requestId)
+                .securityServer(securityServer)
+                .build();
+    }
+}
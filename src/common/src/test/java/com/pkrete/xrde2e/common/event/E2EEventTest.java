@@ -29,8 +29,11 @@ import org.junit.jupiter.api.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * Test cases for E2EEvent class.
@@ -75,4 +78,29 @@ public class E2EEventTest {
         assertEquals(sdf.parse("18.12.2016 08:57:30.893"), event.getEnd());
         assertEquals(sdf.parse("18.12.2016 08:57:30.895"), event.getCreatedDate());
     }
+
+    /**
+     * Test E2EEventBuilder with a shared target and millisecond timestamps.
+     */
+    @Test
+    public void testE2EEventBuilder1() {
+        E2ETarget target = new E2ETarget("Text label", "FI-PILOT.GOV.1019125-0.TestService", "FI-PILOT.COM.2229125-0.orgsecser01t");
+        E2EEvent event = new E2EEvent.E2EEventBuilder()
+                .target(target)
+                .requestId("id1")
+                .begin(1000L)
+                .end(1500L)
+                .build();
+        // The event shares the String instances of the target
+        assertSame(target.getLabel(), event.getLabel());
+        assertSame(target.getProducerMember(), event.getProducerMember());
+        assertSame(target.getSecurityServer(), event.getSecurityServer());
+        assertEquals(1000L, event.beginMillis());
+        assertEquals(new Date(1500L), event.getEnd());
+        // Timestamps that are not set are null in the Date form
+        assertEquals(E2EEvent.NO_TIMESTAMP, event.createdDateMillis());
+        assertNull(event.getCreatedDate());
+        event.setCreatedDate(new Date(2000L));
+        assertEquals(2000L, event.createdDateMillis());
+    }
 }
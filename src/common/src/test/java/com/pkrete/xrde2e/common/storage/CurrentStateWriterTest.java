@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for CurrentStateWriter class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class CurrentStateWriterTest {
+
+    /**
+     * Test that only the latest event of each security server is written.
+     */
+    @Test
+    public void testLatestPerServer() {
+        RecordingStorageManager storage = new RecordingStorageManager();
+        CurrentStateWriter writer = new CurrentStateWriter(storage, 1000, 0);
+        CoalescingStorageManager manager = new CoalescingStorageManager(storage, writer);
+        manager.addAll(Arrays.asList(createEvent("1", "server1", true), createEvent("2", "server2", true)));
+        manager.add(createEvent("3", "server1", false));
+        assertEquals(3, storage.historical.size());
+        assertEquals(0, storage.current.size());
+        assertEquals(2, writer.getPendingCount());
+        assertEquals(true, writer.flush());
+        assertEquals(2, storage.current.size());
+        assertEquals(true, storage.current.contains(createEvent("3", "server1", false)));
+        assertEquals(true, storage.current.contains(createEvent("2", "server2", true)));
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    /**
+     * Test that an unchanged state is not written again before the heartbeat
+     * age has elapsed.
+     */
+    @Test
+    public void testTransitionsOnly() {
+        RecordingStorageManager storage = new RecordingStorageManager();
+        CurrentStateWriter writer = new CurrentStateWriter(storage, 1000, 60000);
+        writer.offer(createEvent("1", "server1", true));
+        writer.flush();
+        assertEquals(1, storage.current.size());
+        writer.offer(createEvent("2", "server1", true));
+        writer.flush();
+        assertEquals(1, storage.current.size());
+        writer.offer(createEvent("3", "server1", false));
+        writer.flush();
+        assertEquals(2, storage.current.size());
+        assertEquals("3", storage.current.get(1).getRequestId());
+    }
+
+    /**
+     * Test that the events are written again after a failed write unless a
+     * newer event has been received.
+     */
+    @Test
+    public void testRetry() {
+        RecordingStorageManager storage = new RecordingStorageManager();
+        CurrentStateWriter writer = new CurrentStateWriter(storage, 1000, 0);
+        writer.offer(createEvent("1", "server1", true));
+        writer.offer(createEvent("2", "server2", true));
+        storage.available = false;
+        assertEquals(false, writer.flush());
+        writer.offer(createEvent("3", "server2", false));
+        storage.available = true;
+        assertEquals(true, writer.flush());
+        assertEquals(2, storage.current.size());
+        assertEquals(true, storage.current.contains(createEvent("1", "server1", true)));
+        assertEquals(true, storage.current.contains(createEvent("3", "server2", false)));
+    }
+
+    private static E2EEvent createEvent(String requestId, String securityServer, boolean status) {
+        return new E2EEvent.E2EEventBuilder()
+                .requestId(requestId)
+                .securityServer(securityServer)
+                .status(status)
+                .faultCode(status ? "" : "Server.ServerProxy.NetworkError")
+                .build();
+    }
+
+    /**
+     * Storage manager that records the written events.
+     */
+    private static class RecordingStorageManager implements StorageManager {
+
+        private final List<E2EEvent> historical = new ArrayList<>();
+        private final List<E2EEvent> current = new ArrayList<>();
+        private boolean available = true;
+
+        @Override
+        public boolean add(E2EEvent event) {
+            return this.addAll(Arrays.asList(event));
+        }
+
+        @Override
+        public boolean addAll(List<E2EEvent> events) {
+            return this.addHistorical(events) && this.addCurrent(events);
+        }
+
+        @Override
+        public boolean addHistorical(List<E2EEvent> events) {
+            this.historical.addAll(events);
+            return this.available;
+        }
+
+        @Override
+        public boolean addCurrent(List<E2EEvent> events) {
+            if (this.available) {
+                this.current.addAll(events);
+            }
+            return this.available;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+
+        @Override
+        public boolean deleteOlderThan(int days) {
+            return true;
+        }
+
+        @Override
+        public boolean deleteOlderThanFromCurrent(int hours) {
+            return true;
+        }
+    }
+}
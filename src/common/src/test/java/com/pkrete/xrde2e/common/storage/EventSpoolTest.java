@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for EventSpool class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class EventSpoolTest {
+
+    /**
+     * Test appending, peeking and committing events.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testAppendPeekCommit() throws IOException {
+        File file = File.createTempFile("xrde2e-spool", ".dat");
+        file.deleteOnExit();
+        EventSpool spool = new EventSpool(file.getAbsolutePath(), 4096);
+        assertEquals(true, spool.isEmpty());
+        spool.append(createEvent("1"));
+        spool.append(createEvent("2"));
+        spool.append(createEvent("3"));
+        assertEquals(3, spool.getEventCount());
+        List<E2EEvent> events = spool.peek(2);
+        assertEquals(2, events.size());
+        assertEquals("1", events.get(0).getRequestId());
+        assertEquals("Text label", events.get(0).getLabel());
+        assertEquals(new Date(1000), events.get(0).getBegin());
+        assertEquals(null, events.get(0).getFaultCode());
+        // Events are not removed before commit
+        assertEquals("1", spool.peek(2).get(0).getRequestId());
+        spool.commit(2);
+        assertEquals(1, spool.getEventCount());
+        spool.close();
+        // Remaining events are available after reopening the spool
+        spool = new EventSpool(file.getAbsolutePath(), 4096);
+        assertEquals(1, spool.getEventCount());
+        events = spool.peek(10);
+        assertEquals("3", events.get(0).getRequestId());
+        spool.commit(events.size());
+        assertEquals(true, spool.isEmpty());
+        spool.close();
+    }
+
+    /**
+     * Test that events are dropped when the spool is full and replayed
+     * events release space.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFullSpool() throws IOException {
+        File file = File.createTempFile("xrde2e-spool", ".dat");
+        file.deleteOnExit();
+        EventSpool spool = new EventSpool(file.getAbsolutePath(), 400);
+        int count = 0;
+        while (spool.append(createEvent(Integer.toString(count)))) {
+            count++;
+        }
+        assertEquals(1, spool.getDroppedCount());
+        // Release space by replaying the first event, compaction makes room
+        // for a new one
+        spool.commit(spool.peek(1).size());
+        assertEquals(true, spool.append(createEvent("x")));
+        List<E2EEvent> events = spool.peek(count);
+        assertEquals("1", events.get(0).getRequestId());
+        assertEquals("x", events.get(events.size() - 1).getRequestId());
+        spool.close();
+    }
+
+    /**
+     * Test that records that can't be decoded are subtracted from the event
+     * count when committed.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSkipInvalidRecord() throws IOException {
+        File file = File.createTempFile("xrde2e-spool", ".dat");
+        file.deleteOnExit();
+        EventSpool spool = new EventSpool(file.getAbsolutePath(), 4096);
+        spool.append(createEvent("1"));
+        spool.append(createEvent("2"));
+        spool.close();
+        // Overwrite the format version of the first record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(20);
+            raf.writeByte(-1);
+        }
+        spool = new EventSpool(file.getAbsolutePath(), 4096);
+        assertEquals(2, spool.getEventCount());
+        List<E2EEvent> events = spool.peek(10);
+        assertEquals(1, events.size());
+        assertEquals("2", events.get(0).getRequestId());
+        spool.append(createEvent("3"));
+        spool.commit(events.size());
+        assertEquals(1, spool.getEventCount());
+        assertEquals("3", spool.peek(10).get(0).getRequestId());
+        spool.close();
+    }
+
+    /**
+     * Test that a fault string longer than 65535 bytes is spooled.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testLongFaultString() throws IOException {
+        File file = File.createTempFile("xrde2e-spool", ".dat");
+        file.deleteOnExit();
+        EventSpool spool = new EventSpool(file.getAbsolutePath(), 1024 * 1024);
+        StringBuilder faultString = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            faultString.append("\u00e4");
+        }
+        E2EEvent event = createEvent("1");
+        event.setFaultString(faultString.toString());
+        assertEquals(true, spool.append(event));
+        E2EEvent spooled = spool.peek(10).get(0);
+        assertEquals(faultString.toString(), spooled.getFaultString());
+        assertEquals(null, spooled.getFaultCode());
+        spool.close();
+    }
+
+    private static E2EEvent createEvent(String requestId) {
+        return new E2EEvent.E2EEventBuilder()
+                .label("Text label")
+                .securityServer("FI-PILOT.COM.2229125-0.orgsecser01t")
+                .requestId(requestId)
+                .status(true)
+                .duration(10)
+                .begin(new Date(1000))
+                .end(new Date(1010))
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test cases for HistoryQuery class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class HistoryQueryTest {
+
+    /**
+     * Test query without time range or keyset position.
+     */
+    @Test
+    public void testNoBounds() {
+        HistoryQuery query = new HistoryQuery.HistoryQueryBuilder().securityServer("ss").limit(10).build();
+        assertNull(query.getLowerBound());
+        assertNull(query.getUpperBound());
+        assertEquals(false, query.isAscending());
+    }
+
+    /**
+     * Test combining time range and keyset position.
+     */
+    @Test
+    public void testCombinedBounds() {
+        HistoryQuery query = new HistoryQuery.HistoryQueryBuilder()
+                .from(new Date(1000)).to(new Date(5000)).before(new Date(4000)).after(new Date(2000)).build();
+        // after is exclusive, so the inclusive lower bound is one millisecond later
+        assertEquals(new Date(2001), query.getLowerBound());
+        assertEquals(new Date(4000), query.getUpperBound());
+        assertEquals(false, query.isAscending());
+
+        query = new HistoryQuery.HistoryQueryBuilder()
+                .from(new Date(3000)).to(new Date(5000)).before(new Date(6000)).after(new Date(2000)).build();
+        assertEquals(new Date(3000), query.getLowerBound());
+        assertEquals(new Date(5000), query.getUpperBound());
+    }
+
+    /**
+     * Test that a newer page is scanned in ascending order.
+     */
+    @Test
+    public void testAfterOnly() {
+        HistoryQuery query = new HistoryQuery.HistoryQueryBuilder().after(new Date(2000)).limit(10).build();
+        assertEquals(new Date(2001), query.getLowerBound());
+        assertNull(query.getUpperBound());
+        assertEquals(true, query.isAscending());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test cases for RollupWorker and RollupTier classes.
+ *
+ * @author Petteri Kivimäki
+ */
+public class RollupWorkerTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Test calculating the bucket start times.
+     */
+    @Test
+    public void testBucketStart() {
+        assertEquals(120000L, RollupTier.MINUTE.getBucketStart(179999L));
+        assertEquals(HOUR, RollupTier.HOUR.getBucketStart(HOUR + 1));
+        assertEquals(0L, RollupTier.DAY.getBucketStart(HOUR));
+        assertEquals(RollupTier.HOUR, RollupTier.fromString("hour"));
+        assertNull(RollupTier.fromString("week"));
+    }
+
+    /**
+     * Test that the closed buckets are rolled up in ranges and that the
+     * worker continues from where it stopped.
+     */
+    @Test
+    public void testUpdate() {
+        RecordingRollupManager manager = new RecordingRollupManager(0L);
+        Map<RollupTier, Integer> retention = new EnumMap<>(RollupTier.class);
+        retention.put(RollupTier.MINUTE, 7);
+        RollupWorker worker = new RollupWorker(manager, retention, 1000);
+        worker.update(2 * HOUR + TimeUnit.MINUTES.toMillis(3));
+        assertEquals(3, manager.ranges.size());
+        assertEquals(0L, manager.ranges.get(0)[0]);
+        assertEquals(HOUR, manager.ranges.get(0)[1]);
+        assertEquals(2 * HOUR, manager.ranges.get(1)[1]);
+        assertEquals(2 * HOUR + TimeUnit.MINUTES.toMillis(1), manager.ranges.get(2)[1]);
+        assertEquals(1, manager.deletes);
+
+        manager.ranges.clear();
+        worker.update(2 * HOUR + TimeUnit.MINUTES.toMillis(3));
+        assertEquals(0, manager.ranges.size());
+        worker.update(2 * HOUR + TimeUnit.MINUTES.toMillis(4));
+        assertEquals(1, manager.ranges.size());
+        assertEquals(2 * HOUR + TimeUnit.MINUTES.toMillis(1), manager.ranges.get(0)[0]);
+        assertEquals(1, manager.startQueries);
+    }
+
+    /**
+     * Test that the larger tiers are merged from the next smaller enabled
+     * tier and only up to the buckets rolled up to it.
+     */
+    @Test
+    public void testSourceTier() {
+        RecordingRollupManager manager = new RecordingRollupManager(0L);
+        Map<RollupTier, Integer> retention = new EnumMap<>(RollupTier.class);
+        retention.put(RollupTier.MINUTE, 7);
+        retention.put(RollupTier.DAY, 0);
+        RollupWorker worker = new RollupWorker(manager, retention, 1000);
+        worker.update(TimeUnit.DAYS.toMillis(1) + HOUR);
+        assertNull(manager.sources.get(0));
+        assertEquals(RollupTier.MINUTE, manager.sources.get(manager.sources.size() - 1));
+        assertEquals(TimeUnit.DAYS.toMillis(1), manager.ranges.get(manager.ranges.size() - 1)[1]);
+
+        // The day tier waits for the minute tier
+        manager = new RecordingRollupManager(0L);
+        manager.failing = RollupTier.MINUTE;
+        worker = new RollupWorker(manager, retention, 1000);
+        worker.update(TimeUnit.DAYS.toMillis(1) + HOUR);
+        assertEquals(1, manager.ranges.size());
+        assertNull(manager.sources.get(0));
+    }
+
+    /**
+     * Test that nothing is rolled up when there are no events and that the
+     * old rollups are kept if the retention is not set.
+     */
+    @Test
+    public void testNoEvents() {
+        RecordingRollupManager manager = new RecordingRollupManager(E2EEvent.NO_TIMESTAMP);
+        Map<RollupTier, Integer> retention = new EnumMap<>(RollupTier.class);
+        retention.put(RollupTier.DAY, 0);
+        RollupWorker worker = new RollupWorker(manager, retention, 1000);
+        worker.update(HOUR);
+        worker.update(2 * HOUR);
+        assertEquals(0, manager.ranges.size());
+        assertEquals(2, manager.startQueries);
+        assertEquals(0, manager.deletes);
+    }
+
+    private static class RecordingRollupManager implements RollupManager {
+
+        private final long start;
+        private final List<long[]> ranges = new ArrayList<>();
+        private final List<RollupTier> sources = new ArrayList<>();
+        private int startQueries;
+        private int deletes;
+        private RollupTier failing;
+
+        RecordingRollupManager(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public long getRollupStart(RollupTier tier) {
+            this.startQueries++;
+            return this.start;
+        }
+
+        @Override
+        public boolean rollup(RollupTier tier, RollupTier source, long from, long to) {
+            this.ranges.add(new long[]{from, to});
+            this.sources.add(source);
+            return tier != this.failing;
+        }
+
+        @Override
+        public boolean deleteRollupsOlderThan(RollupTier tier, int days) {
+            this.deletes++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for SpoolingStorageManager class.
+ *
+ * @author Petteri Kivimäki
+ */
+public class SpoolingStorageManagerTest {
+
+    /**
+     * Test that only the events whose historical insert failed are spooled
+     * and that the current state is updated with all the events.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testPartialFailure() throws IOException {
+        EventSpool spool = createSpool();
+        FakeStorageManager storage = new FakeStorageManager();
+        SpoolingStorageManager manager = new SpoolingStorageManager(storage, spool);
+        List<E2EEvent> events = Arrays.asList(createEvent("1"), createEvent("2"), createEvent("3"));
+        storage.failed = Collections.singletonList(events.get(1));
+        assertEquals(true, manager.addAll(events));
+        assertEquals(1, spool.getEventCount());
+        assertEquals("2", spool.peek(10).get(0).getRequestId());
+        assertEquals(3, storage.current.size());
+        spool.close();
+    }
+
+    /**
+     * Test that a failed current state update is not spooled.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCurrentFailure() throws IOException {
+        EventSpool spool = createSpool();
+        FakeStorageManager storage = new FakeStorageManager();
+        storage.currentAvailable = false;
+        SpoolingStorageManager manager = new SpoolingStorageManager(storage, spool);
+        assertEquals(false, manager.addAll(Arrays.asList(createEvent("1"), createEvent("2"))));
+        assertEquals(true, spool.isEmpty());
+        spool.close();
+    }
+
+    /**
+     * Test that all the events are spooled when the storage is not available.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testNotAvailable() throws IOException {
+        EventSpool spool = createSpool();
+        FakeStorageManager storage = new FakeStorageManager();
+        storage.available = false;
+        SpoolingStorageManager manager = new SpoolingStorageManager(storage, spool);
+        assertEquals(true, manager.addAll(Arrays.asList(createEvent("1"), createEvent("2"))));
+        assertEquals(2, spool.getEventCount());
+        assertEquals(0, storage.current.size());
+        spool.close();
+    }
+
+    private static EventSpool createSpool() throws IOException {
+        File file = File.createTempFile("xrde2e-spool", ".dat");
+        file.deleteOnExit();
+        return new EventSpool(file.getAbsolutePath(), 4096);
+    }
+
+    private static E2EEvent createEvent(String requestId) {
+        return new E2EEvent.E2EEventBuilder()
+                .label("Text label")
+                .securityServer("FI-PILOT.COM.2229125-0.orgsecser01t")
+                .requestId(requestId)
+                .status(true)
+                .duration(10)
+                .build();
+    }
+
+    /**
+     * StorageManager whose historical inserts fail for the given events.
+     */
+    private static class FakeStorageManager implements StorageManager {
+
+        private List<E2EEvent> failed = Collections.emptyList();
+        private final List<E2EEvent> current = new ArrayList<>();
+        private boolean available = true;
+        private boolean currentAvailable = true;
+
+        @Override
+        public boolean add(E2EEvent event) {
+            return this.addAll(Collections.singletonList(event));
+        }
+
+        @Override
+        public boolean addAll(List<E2EEvent> events) {
+            return this.addHistorical(events) && this.addCurrent(events);
+        }
+
+        @Override
+        public boolean addHistorical(List<E2EEvent> events) {
+            return this.tryAddHistorical(events).isEmpty();
+        }
+
+        @Override
+        public List<E2EEvent> tryAddHistorical(List<E2EEvent> events) {
+            return this.failed;
+        }
+
+        @Override
+        public boolean addCurrent(List<E2EEvent> events) {
+            if (this.currentAvailable) {
+                this.current.addAll(events);
+            }
+            return this.currentAvailable;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+
+        @Override
+        public boolean deleteOlderThan(int days) {
+            return true;
+        }
+
+        @Override
+        public boolean deleteOlderThanFromCurrent(int hours) {
+            return true;
+        }
+    }
+}
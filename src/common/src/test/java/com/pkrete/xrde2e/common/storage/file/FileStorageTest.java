@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016- Petteri Kivimäki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.pkrete.xrde2e.common.storage.file;
+
+import com.pkrete.xrde2e.common.event.E2EEvent;
+import com.pkrete.xrde2e.common.event.E2EEventAggregate;
+import com.pkrete.xrde2e.common.exception.XRdE2EException;
+import com.pkrete.xrde2e.common.storage.HistoryQuery;
+import com.pkrete.xrde2e.common.storage.StorageProvider;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test cases for FileStorageManager and FileStorageClient classes.
+ *
+ * @author Petteri Kivimäki
+ */
+public class FileStorageTest {
+
+    private static final String SERVER_1 = "FI-PILOT.COM.2229125-0.orgsecser01t";
+    private static final String SERVER_2 = "FI-PILOT.GOV.0245437-2.ssfirst01";
+
+    /**
+     * Test that events written by the manager can be queried using the
+     * client, including the events written after the client was opened.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testWriteAndQuery() throws IOException {
+        Path directory = Files.createTempDirectory("xrde2e-file");
+        FileStorageManager manager = new FileStorageManager(directory, 1024 * 1024);
+        manager.addAll(Arrays.asList(createEvent("1", SERVER_2, 1000, true, 10), createEvent("2", SERVER_1, 2000, true, 20),
+                createEvent("3", SERVER_1, 3000, false, 30)));
+        FileStorageClient client = new FileStorageClient(directory);
+        List<E2EEvent> current = client.getAllCurrent();
+        assertEquals(2, current.size());
+        assertEquals("3", current.get(0).getRequestId());
+        assertEquals("1", current.get(1).getRequestId());
+        // A replayed older event doesn't replace the current state
+        manager.add(createEvent("4", SERVER_1, 4000, true, 40));
+        manager.addHistorical(Arrays.asList(createEvent("5", SERVER_1, 2500, true, 25)));
+        assertEquals("4", client.getAllCurrent().get(0).getRequestId());
+        // Events are returned from the newest to the oldest
+        assertEquals(Arrays.asList("4", "3", "5", "2"), requestIds(client.getHistorical(query(null, null, null, 0))));
+        assertEquals(Arrays.asList("4", "3"), requestIds(client.getHistorical(query(null, null, null, 2))));
+        assertEquals(Arrays.asList("3", "5"), requestIds(client.getHistorical(query(new Date(2500), new Date(4000), null, 0))));
+        // Only after defined selects the events closest to it
+        assertEquals(Arrays.asList("3", "5"), requestIds(client.getHistorical(query(null, null, new Date(2000), 2))));
+        List<E2EEvent> streamed = new ArrayList<>();
+        assertEquals(2, client.streamHistorical(query(null, null, new Date(2000), 2), streamed::add));
+        assertEquals(Arrays.asList("5", "3"), requestIds(streamed));
+        assertEquals(0, client.getHistorical(new HistoryQuery.HistoryQueryBuilder().securityServer("unknown").build()).size());
+        // Current state entries older than the cutoff are hidden
+        manager.deleteOlderThanFromCurrent(-1);
+        assertEquals(0, client.getAllCurrent().size());
+        client.close();
+        manager.close();
+    }
+
+    /**
+     * Test that aggregates are calculated from the successful events of each
+     * bucket.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testAggregate() throws IOException {
+        Path directory = Files.createTempDirectory("xrde2e-file");
+        FileStorageManager manager = new FileStorageManager(directory, 1024 * 1024);
+        List<E2EEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            events.add(createEvent(Integer.toString(i), SERVER_1, 60000 + i, true, 21 - i));
+        }
+        events.add(createEvent("21", SERVER_1, 60500, false, 1000));
+        events.add(createEvent("22", SERVER_1, 120000, false, 1000));
+        events.add(createEvent("23", SERVER_1, 180000, true, 1));
+        manager.addAll(events);
+        FileStorageClient client = new FileStorageClient(directory);
+        List<E2EEventAggregate> aggregates = client.getHistoricalAggregate(SERVER_1, new Date(0), new Date(180000), 60000);
+        assertEquals(2, aggregates.size());
+        assertEquals(new Date(60000), aggregates.get(0).getBegin());
+        assertEquals(new Date(120000), aggregates.get(0).getEnd());
+        assertEquals(21, aggregates.get(0).getCount());
+        assertEquals(20, aggregates.get(0).getSuccessCount());
+        assertEquals(Long.valueOf(1), aggregates.get(0).getMinDuration());
+        assertEquals(Long.valueOf(20), aggregates.get(0).getMaxDuration());
+        assertEquals(Double.valueOf(10.5), aggregates.get(0).getAvgDuration());
+        assertEquals(Long.valueOf(19), aggregates.get(0).getP95Duration());
+        assertEquals(1, aggregates.get(1).getCount());
+        assertEquals(0, aggregates.get(1).getSuccessCount());
+        assertEquals(null, aggregates.get(1).getMinDuration());
+        client.close();
+        manager.close();
+    }
+
+    /**
+     * Test that segments are rolled and expired segments are deleted, and
+     * that an incomplete record is removed when the storage is reopened.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSegments() throws IOException {
+        Path directory = Files.createTempDirectory("xrde2e-file");
+        FileStorageManager manager = new FileStorageManager(directory, 256);
+        for (int i = 0; i < 10; i++) {
+            manager.add(createEvent(Integer.toString(i), SERVER_1, 1000 + i, true, 10));
+        }
+        FileStorageClient client = new FileStorageClient(directory);
+        assertEquals(10, client.getHistorical(query(null, null, null, 0)).size());
+        Map<Long, Path> segments = SegmentFiles.list(directory);
+        assertEquals(true, segments.size() > 2);
+        // Expire all the segments except the active one
+        FileTime expired = FileTime.fromMillis(System.currentTimeMillis() - 2 * 24 * 3600 * 1000L);
+        for (Path segment : segments.values()) {
+            Files.setLastModifiedTime(segment, expired);
+        }
+        manager.deleteOlderThan(1);
+        assertEquals(1, SegmentFiles.list(directory).size());
+        List<E2EEvent> remaining = client.getHistorical(query(null, null, null, 0));
+        assertEquals(true, remaining.size() > 0 && remaining.size() < 10);
+        assertEquals("9", remaining.get(0).getRequestId());
+        manager.close();
+        // Simulate a write that was interrupted
+        Path active = SegmentFiles.list(directory).lastEntry().getValue();
+        try (FileChannel channel = FileChannel.open(active, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 1, 2}));
+        }
+        manager = new FileStorageManager(directory, 256);
+        manager.add(createEvent("10", SERVER_1, 2000, true, 10));
+        assertEquals(remaining.size() + 1, client.getHistorical(query(null, null, null, 0)).size());
+        client.close();
+        manager.close();
+    }
+
+    /**
+     * Test that the records of a batch whose write failed are removed when
+     * the segment is reopened, so the retried batch is not stored twice.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFailedBatch() throws IOException {
+        Path directory = Files.createTempDirectory("xrde2e-file");
+        FailingFileStorageManager manager = new FailingFileStorageManager(directory, 1024 * 1024);
+        assertEquals(true, manager.addAll(Arrays.asList(createEvent("1", SERVER_1, 1000, true, 10),
+                createEvent("2", SERVER_1, 1001, true, 10))));
+        List<E2EEvent> batch = Arrays.asList(createEvent("3", SERVER_1, 1002, true, 10),
+                createEvent("4", SERVER_1, 1003, true, 10));
+        // The records are written before the write fails
+        manager.fail = true;
+        assertEquals(false, manager.addAll(batch));
+        manager.fail = false;
+        assertEquals(true, manager.isAvailable());
+        assertEquals(true, manager.addAll(batch));
+        FileStorageClient client = new FileStorageClient(directory);
+        assertEquals(Arrays.asList("4", "3", "2", "1"), requestIds(client.getHistorical(query(null, null, null, 0))));
+        client.close();
+        manager.close();
+    }
+
+    /**
+     * Test that the file storage provider is found by its name.
+     *
+     * @throws XRdE2EException
+     */
+    @Test
+    public void testProvider() throws XRdE2EException {
+        assertEquals(FileStorageProvider.class, StorageProvider.forName("File").getClass());
+    }
+
+    private static HistoryQuery query(Date from, Date to, Date after, int limit) {
+        return new HistoryQuery.HistoryQueryBuilder().securityServer(SERVER_1).from(from).to(to).after(after).limit(limit).build();
+    }
+
+    private static List<String> requestIds(List<E2EEvent> events) {
+        List<String> ids = new ArrayList<>();
+        for (E2EEvent event : events) {
+            ids.add(event.getRequestId());
+        }
+        return ids;
+    }
+
+    private static E2EEvent createEvent(String requestId, String securityServer, long begin, boolean status, long duration) {
+        return new E2EEvent.E2EEventBuilder()
+                .label("Text label")
+                .securityServer(securityServer)
+                .requestId(requestId)
+                .status(status)
+                .duration(duration)
+                .begin(begin)
+                .end(begin + duration)
+                .build();
+    }
+
+    /**
+     * FileStorageManager whose write fails after the records have been
+     * written.
+     */
+    private static class FailingFileStorageManager extends FileStorageManager {
+
+        private boolean fail;
+
+        FailingFileStorageManager(Path directory, long segmentSize) throws IOException {
+            super(directory, segmentSize);
+        }
+
+        @Override
+        protected void write(FileChannel file, ByteBuffer buffer) throws IOException {
+            super.write(file, buffer);
+            if (this.fail) {
+                throw new IOException("Write failed");
+            }
+        }
+    }
+}